@@ -0,0 +1,80 @@
+/**
+ * The `BenchmarkCase` class describes one measured operation: a name, the parameters it runs
+ * with, a setup step run before it is measured, and the operation itself.
+ */
+final class BenchmarkCase {
+
+  /**
+   * The operation measured by a benchmark case.
+   */
+  interface Operation {
+
+    /**
+     * Runs the operation once.
+     *
+     * @return A value derived from the result, consumed so the work cannot be optimized away.
+     * @throws Exception If the operation fails.
+     */
+    long run() throws Exception;
+  }
+
+  private final String name;
+  private final String params;
+  private final Runnable setup;
+  private final Operation operation;
+
+  /**
+   * Constructs a new `BenchmarkCase`.
+   *
+   * @param name      The name of the benchmark, e.g. "protocol.encodeBroadcastMessage".
+   * @param params    The parameters of this case, e.g. "users=1000", or an empty string.
+   * @param setup     The step preparing shared state before the case is measured.
+   * @param operation The operation being measured.
+   */
+  public BenchmarkCase(String name, String params, Runnable setup, Operation operation) {
+    this.name = name;
+    this.params = params;
+    this.setup = setup;
+    this.operation = operation;
+  }
+
+  /**
+   * Gets the name of the benchmark.
+   *
+   * @return The benchmark name.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Gets the parameters of this case.
+   *
+   * @return The parameters, or an empty string.
+   */
+  public String getParams() {
+    return params;
+  }
+
+  /**
+   * Prepares the shared state this case runs against.
+   */
+  public void setUp() {
+    setup.run();
+  }
+
+  /**
+   * Runs the measured operation once.
+   *
+   * @return A value derived from the result.
+   * @throws Exception If the operation fails.
+   */
+  public long run() throws Exception {
+    return operation.run();
+  }
+
+  @Override
+  public String toString() {
+    return params.isEmpty() ? name : name + " [" + params + "]";
+  }
+}
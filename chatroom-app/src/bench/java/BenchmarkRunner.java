@@ -0,0 +1,281 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The `BenchmarkRunner` class runs the micro-benchmarks of the chat server's hot paths and writes
+ * the results as JSON in the layout JMH uses, so results from different releases can be compared
+ * with the usual JMH tooling. Every case is warmed up, then measured over several timed
+ * iterations, reporting the average time per operation and the bytes allocated per operation.
+ */
+public class BenchmarkRunner {
+
+  /**
+   * The number of warmup iterations when none is specified.
+   */
+  public static final int DEFAULT_WARMUP_ITERATIONS = 3;
+
+  /**
+   * The number of measurement iterations when none is specified.
+   */
+  public static final int DEFAULT_MEASUREMENT_ITERATIONS = 5;
+
+  /**
+   * The length of each iteration in milliseconds when none is specified.
+   */
+  public static final long DEFAULT_ITERATION_MILLIS = 500;
+
+  /**
+   * The format for providing command-line arguments.
+   */
+  public static final String ARGUMENT_INPUT_FORMAT =
+      "Usage: java BenchmarkRunner [-wi iterations] [-i iterations] [-t millis] [-o results.json] [filter]";
+
+  private static final int BATCH_SIZE = 256;
+
+  private final int warmupIterations;
+  private final int measurementIterations;
+  private final long iterationNanos;
+  private long blackhole;
+
+  /**
+   * Constructs a new `BenchmarkRunner`.
+   *
+   * @param warmupIterations      The number of unrecorded iterations run first.
+   * @param measurementIterations The number of recorded iterations.
+   * @param iterationMillis       The length of each iteration in milliseconds.
+   */
+  public BenchmarkRunner(int warmupIterations, int measurementIterations, long iterationMillis) {
+    this.warmupIterations = warmupIterations;
+    this.measurementIterations = measurementIterations;
+    this.iterationNanos = iterationMillis * 1_000_000L;
+  }
+
+  /**
+   * Collects every benchmark case.
+   *
+   * @return The benchmark cases.
+   */
+  public static List<BenchmarkCase> allCases() {
+    List<BenchmarkCase> cases = new ArrayList<>();
+    cases.addAll(ProtocolBenchmarks.cases());
+    cases.addAll(RoutingBenchmarks.cases());
+    return cases;
+  }
+
+  /**
+   * Measures one case.
+   *
+   * @param benchmarkCase The case to be measured.
+   * @return The time per operation of each measurement iteration in nanoseconds, followed by the
+   *         bytes allocated per operation over all measurement iterations, or -1 if unknown.
+   * @throws Exception If the measured operation fails.
+   */
+  public double[] measure(BenchmarkCase benchmarkCase) throws Exception {
+    benchmarkCase.setUp();
+    for (int i = 0; i < warmupIterations; i++) {
+      iterate(benchmarkCase);
+    }
+    double[] results = new double[measurementIterations + 1];
+    long operations = 0;
+    long allocatedBefore = allocatedBytes();
+    for (int i = 0; i < measurementIterations; i++) {
+      long[] iteration = iterate(benchmarkCase);
+      results[i] = (double) iteration[1] / iteration[0];
+      operations += iteration[0];
+    }
+    long allocatedAfter = allocatedBytes();
+    results[measurementIterations] = allocatedBefore < 0 || operations == 0 ? -1
+        : (double) (allocatedAfter - allocatedBefore) / operations;
+    return results;
+  }
+
+  /**
+   * Runs batches of operations until the iteration time is used up.
+   *
+   * @param benchmarkCase The case to be run.
+   * @return The number of operations run and the nanoseconds they took.
+   * @throws Exception If the measured operation fails.
+   */
+  private long[] iterate(BenchmarkCase benchmarkCase) throws Exception {
+    long operations = 0;
+    long start = System.nanoTime();
+    long elapsed;
+    do {
+      for (int i = 0; i < BATCH_SIZE; i++) {
+        blackhole ^= benchmarkCase.run();
+      }
+      operations += BATCH_SIZE;
+      elapsed = System.nanoTime() - start;
+    } while (elapsed < iterationNanos);
+    return new long[] {operations, elapsed};
+  }
+
+  /**
+   * Gets the number of bytes allocated by the current thread so far.
+   *
+   * @return The allocated bytes, or -1 if the JVM cannot tell.
+   */
+  private static long allocatedBytes() {
+    java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threads).getCurrentThreadAllocatedBytes();
+    }
+    return -1;
+  }
+
+  /**
+   * Formats the results of one case as a JMH-style JSON object.
+   *
+   * @param benchmarkCase The measured case.
+   * @param results       The results returned by {@link #measure(BenchmarkCase)}.
+   * @return The JSON object.
+   */
+  String toJson(BenchmarkCase benchmarkCase, double[] results) {
+    StringBuilder json = new StringBuilder();
+    json.append("  {\n");
+    json.append("    \"benchmark\" : \"").append(benchmarkCase.getName()).append("\",\n");
+    json.append("    \"mode\" : \"avgt\",\n");
+    json.append("    \"warmupIterations\" : ").append(warmupIterations).append(",\n");
+    json.append("    \"measurementIterations\" : ").append(measurementIterations).append(",\n");
+    json.append("    \"params\" : {");
+    String params = benchmarkCase.getParams();
+    if (!params.isEmpty()) {
+      String separator = "";
+      for (String param : params.split(",")) {
+        String[] keyValue = param.split("=", 2);
+        json.append(separator).append('"').append(keyValue[0]).append("\" : \"").append(keyValue[1]).append('"');
+        separator = ", ";
+      }
+    }
+    json.append("},\n");
+    json.append("    \"primaryMetric\" : {\n");
+    json.append("      \"score\" : ").append(format(mean(results))).append(",\n");
+    json.append("      \"scoreError\" : ").append(format(deviation(results))).append(",\n");
+    json.append("      \"scoreUnit\" : \"ns/op\",\n");
+    json.append("      \"rawData\" : [[");
+    for (int i = 0; i < measurementIterations; i++) {
+      json.append(i == 0 ? "" : ", ").append(format(results[i]));
+    }
+    json.append("]]\n");
+    json.append("    },\n");
+    json.append("    \"secondaryMetrics\" : {\n");
+    json.append("      \"gc.alloc.rate.norm\" : {\n");
+    json.append("        \"score\" : ").append(format(results[measurementIterations])).append(",\n");
+    json.append("        \"scoreUnit\" : \"B/op\"\n");
+    json.append("      }\n");
+    json.append("    }\n");
+    json.append("  }");
+    return json.toString();
+  }
+
+  private double mean(double[] results) {
+    double sum = 0;
+    for (int i = 0; i < measurementIterations; i++) {
+      sum += results[i];
+    }
+    return sum / measurementIterations;
+  }
+
+  private double deviation(double[] results) {
+    if (measurementIterations < 2) {
+      return 0;
+    }
+    double mean = mean(results);
+    double sum = 0;
+    for (int i = 0; i < measurementIterations; i++) {
+      sum += (results[i] - mean) * (results[i] - mean);
+    }
+    return Math.sqrt(sum / (measurementIterations - 1));
+  }
+
+  private static String format(double value) {
+    return String.format(Locale.ROOT, "%.3f", value);
+  }
+
+  @Override
+  public String toString() {
+    return "BenchmarkRunner{" +
+        "warmupIterations=" + warmupIterations +
+        ", measurementIterations=" + measurementIterations +
+        ", iterationNanos=" + iterationNanos +
+        '}';
+  }
+
+  /**
+   * The main entry point of the benchmarks. Runs every case whose name and parameters contain the
+   * filter, prints a summary table, and writes the results to the JSON file if one is given.
+   *
+   * @param args The command-line arguments.
+   * @throws Exception If a benchmark fails or the results cannot be written.
+   */
+  public static void main(String[] args) throws Exception {
+    int warmupIterations = DEFAULT_WARMUP_ITERATIONS;
+    int measurementIterations = DEFAULT_MEASUREMENT_ITERATIONS;
+    long iterationMillis = DEFAULT_ITERATION_MILLIS;
+    Path output = null;
+    String filter = "";
+    try {
+      for (int i = 0; i < args.length; i++) {
+        switch (args[i]) {
+          case "-wi":
+            warmupIterations = Integer.parseInt(args[++i]);
+            break;
+          case "-i":
+            measurementIterations = Integer.parseInt(args[++i]);
+            break;
+          case "-t":
+            iterationMillis = Long.parseLong(args[++i]);
+            break;
+          case "-o":
+            output = Paths.get(args[++i]);
+            break;
+          default:
+            filter = args[i];
+            break;
+        }
+      }
+    } catch (RuntimeException e) {
+      System.out.println(ARGUMENT_INPUT_FORMAT);
+      System.exit(1);
+    }
+
+    BenchmarkRunner runner = new BenchmarkRunner(warmupIterations, measurementIterations, iterationMillis);
+    List<String> results = new ArrayList<>();
+    System.out.println(String.format(Locale.ROOT, "%-40s %-28s %14s %12s", "Benchmark", "Params", "ns/op", "B/op"));
+    for (BenchmarkCase benchmarkCase : allCases()) {
+      if (!benchmarkCase.toString().contains(filter)) {
+        continue;
+      }
+      double[] measured = runner.measure(benchmarkCase);
+      System.out.println(String.format(Locale.ROOT, "%-40s %-28s %14.3f %12.1f", benchmarkCase.getName(),
+          benchmarkCase.getParams(), runner.mean(measured), measured[measurementIterations]));
+      results.add(runner.toJson(benchmarkCase, measured));
+    }
+    if (output != null) {
+      writeResults(output, results);
+      System.out.println("Results written to " + output);
+    }
+  }
+
+  /**
+   * Writes the results as a JSON array.
+   *
+   * @param output  The file to be written.
+   * @param results The JSON objects of the measured cases.
+   * @throws IOException If the file cannot be written.
+   */
+  private static void writeResults(Path output, List<String> results) throws IOException {
+    if (output.getParent() != null) {
+      Files.createDirectories(output.getParent());
+    }
+    String json = "[\n" + String.join(",\n", results) + "\n]\n";
+    Files.write(output, json.getBytes(StandardCharsets.UTF_8));
+  }
+}
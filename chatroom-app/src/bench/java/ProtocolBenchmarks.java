@@ -0,0 +1,104 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The `ProtocolBenchmarks` class measures encoding every message type, both into fresh byte
+ * arrays and into a reused buffer, and decoding every message a client sends, both on its own and
+ * through {@link ChatSession#processInput(byte[])}.
+ */
+final class ProtocolBenchmarks {
+
+  /**
+   * The number of users in the room the decode benchmarks route messages in.
+   */
+  public static final int ROOM_SIZE = 10;
+
+  private static final String SENDER = "user0";
+  private static final String RECIPIENT = "user1";
+  private static final String MESSAGE = "Hello, everyone! This is a typical chat message.";
+
+  private ProtocolBenchmarks() {
+  }
+
+  /**
+   * Creates the protocol benchmark cases.
+   *
+   * @return The benchmark cases.
+   */
+  public static List<BenchmarkCase> cases() {
+    ChatRoomProtocol protocol = new ChatRoomProtocol();
+    ByteBuffer buffer = ByteBuffer.allocate(ChatRoomProtocol.MAX_FRAME_LENGTH);
+    List<ChatSession> users = new ArrayList<>();
+    for (int i = 0; i < ROOM_SIZE; i++) {
+      users.add(new SinkSession("user" + i));
+    }
+    Runnable none = () -> { };
+    List<BenchmarkCase> cases = new ArrayList<>();
+
+    cases.add(encode("encodeBroadcastMessage", () -> protocol.encodeBroadcastMessage(SENDER, MESSAGE).length));
+    cases.add(encode("encodeDirectMessage", () -> protocol.encodeDirectMessage(SENDER, RECIPIENT, MESSAGE).length));
+    cases.add(encode("encodeDisconnectMessage", () -> protocol.encodeDisconnectMessage(SENDER).length));
+    cases.add(encode("encodeQueryConnectedUsers", () -> protocol.encodeQueryConnectedUsers(SENDER).length));
+    cases.add(encode("encodeConnectMessage", () -> protocol.encodeConnectMessage(SENDER).length));
+    cases.add(encode("encodeConnectResponse", () -> protocol.encodeConnectResponse(true, MESSAGE).length));
+    cases.add(encode("encodeSendInsult", () -> protocol.encodeSendInsult(SENDER, RECIPIENT).length));
+    cases.add(encode("encodeQueryResponse", () -> protocol.encodeQueryResponse(users).length));
+
+    cases.add(encodeInto("encodeBroadcastMessage", () -> protocol.encodeBroadcastMessage(buffer.clear(), SENDER, MESSAGE)));
+    cases.add(encodeInto("encodeDirectMessage", () -> protocol.encodeDirectMessage(buffer.clear(), SENDER, RECIPIENT, MESSAGE)));
+    cases.add(encodeInto("encodeDisconnectMessage", () -> protocol.encodeDisconnectMessage(buffer.clear(), SENDER)));
+    cases.add(encodeInto("encodeQueryConnectedUsers", () -> protocol.encodeQueryConnectedUsers(buffer.clear(), SENDER)));
+    cases.add(encodeInto("encodeConnectMessage", () -> protocol.encodeConnectMessage(buffer.clear(), SENDER)));
+    cases.add(encodeInto("encodeConnectResponse", () -> protocol.encodeConnectResponse(buffer.clear(), true, MESSAGE)));
+    cases.add(encodeInto("encodeSendInsult", () -> protocol.encodeSendInsult(buffer.clear(), SENDER, RECIPIENT)));
+    cases.add(encodeInto("encodeQueryResponse", () -> protocol.encodeQueryResponse(buffer.clear(), users)));
+
+    FrameView frame = new FrameView();
+    byte[][] clientFrames = {
+        protocol.encodeBroadcastMessage(SENDER, MESSAGE),
+        protocol.encodeDirectMessage(SENDER, RECIPIENT, MESSAGE),
+        protocol.encodeDisconnectMessage(SENDER),
+        protocol.encodeQueryConnectedUsers(SENDER),
+        protocol.encodeConnectMessage(SENDER),
+        protocol.encodeSendInsult(SENDER, RECIPIENT),
+    };
+    String[] frameNames = {"broadcast", "direct", "disconnect", "query", "connect", "insult"};
+    for (int i = 0; i < clientFrames.length; i++) {
+      byte[] clientFrame = clientFrames[i];
+      cases.add(new BenchmarkCase("protocol.decode", "message=" + frameNames[i], none, () -> {
+        frame.wrap(clientFrame);
+        long sum = frame.messageType();
+        for (int field = 0; field < frame.fieldCount(); field++) {
+          sum += frame.field(field).length();
+        }
+        return sum;
+      }));
+    }
+
+    SinkSession[] sender = new SinkSession[1];
+    Runnable room = () -> sender[0] = SinkSession.fillRoom(ROOM_SIZE);
+    cases.add(processInput("broadcast", room, sender, protocol.encodeBroadcastMessage(SENDER, MESSAGE)));
+    cases.add(processInput("direct", room, sender, protocol.encodeDirectMessage(SENDER, RECIPIENT, MESSAGE)));
+    cases.add(processInput("query", room, sender, protocol.encodeQueryConnectedUsers(SENDER)));
+    cases.add(processInput("insult", room, sender, protocol.encodeSendInsult(SENDER, RECIPIENT)));
+    return cases;
+  }
+
+  private static BenchmarkCase encode(String method, BenchmarkCase.Operation operation) {
+    return new BenchmarkCase("protocol." + method, "target=array", () -> { }, operation);
+  }
+
+  private static BenchmarkCase encodeInto(String method, BenchmarkCase.Operation operation) {
+    return new BenchmarkCase("protocol." + method, "target=buffer", () -> { }, operation);
+  }
+
+  private static BenchmarkCase processInput(String message, Runnable room, SinkSession[] sender,
+      byte[] clientFrame) {
+    return new BenchmarkCase("protocol.processInput", "message=" + message + ",users=" + ROOM_SIZE,
+        room, () -> {
+          sender[0].processInput(clientFrame);
+          return sender[0].getDeliveredBytes();
+        });
+  }
+}
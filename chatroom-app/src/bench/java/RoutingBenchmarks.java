@@ -0,0 +1,114 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The `RoutingBenchmarks` class measures routing a direct message to one user of rooms of
+ * growing size, fanning a broadcast out to every user of the room, fanning a room message out
+ * to the members of one named room among many connected users, and routing a burst of broadcasts
+ * sent one frame at a time against the same burst sent as one batch.
+ */
+final class RoutingBenchmarks {
+
+  /**
+   * The room sizes direct messages are routed in.
+   */
+  public static final int[] DIRECT_ROOM_SIZES = {10, 1_000, 100_000};
+
+  /**
+   * The room sizes broadcasts are fanned out to.
+   */
+  public static final int[] BROADCAST_ROOM_SIZES = {10, 100, 1_000};
+
+  /**
+   * The number of connected users room messages are routed among.
+   */
+  public static final int ROOM_MESSAGE_USERS = 10_000;
+
+  /**
+   * The numbers of members of the named room room messages are fanned out to.
+   */
+  public static final int[] NAMED_ROOM_SIZES = {10, 100, 1_000};
+
+  /**
+   * The number of users a burst of broadcasts is fanned out to.
+   */
+  public static final int BURST_USERS = 100;
+
+  /**
+   * The number of broadcasts in a burst.
+   */
+  public static final int BURST_SIZE = 64;
+
+  private static final String ROOM = "bench";
+
+  private static final String MESSAGE = "Hello, everyone! This is a typical chat message.";
+
+  private RoutingBenchmarks() {
+  }
+
+  /**
+   * Creates the routing benchmark cases.
+   *
+   * @return The benchmark cases.
+   */
+  public static List<BenchmarkCase> cases() {
+    List<BenchmarkCase> cases = new ArrayList<>();
+    for (int users : DIRECT_ROOM_SIZES) {
+      SinkSession[] sender = new SinkSession[1];
+      String[] targets = new String[64];
+      int[] next = new int[1];
+      cases.add(new BenchmarkCase("routing.sendDirectMessage", "users=" + users, () -> {
+        sender[0] = SinkSession.fillRoom(users);
+        for (int i = 0; i < targets.length; i++) {
+          targets[i] = "user" + (i * 7919 % users);
+        }
+      }, () -> {
+        String target = targets[next[0]++ & (targets.length - 1)];
+        sender[0].sendDirectMessage(target, MESSAGE);
+        return sender[0].getDeliveredBytes();
+      }));
+    }
+    for (int users : BROADCAST_ROOM_SIZES) {
+      SinkSession[] sender = new SinkSession[1];
+      cases.add(new BenchmarkCase("routing.broadcastMessage", "users=" + users,
+          () -> sender[0] = SinkSession.fillRoom(users), () -> {
+            sender[0].broadcastMessage(MESSAGE);
+            return sender[0].getDeliveredBytes();
+          }));
+    }
+    for (int members : NAMED_ROOM_SIZES) {
+      SinkSession[] sender = new SinkSession[1];
+      EncodedFrame frame = EncodedFrame.ofText(MESSAGE);
+      cases.add(new BenchmarkCase("routing.broadcastToRoom",
+          "users=" + ROOM_MESSAGE_USERS + ",members=" + members, () -> {
+            sender[0] = SinkSession.fillRoom(ROOM_MESSAGE_USERS);
+            for (int i = 0; i < members; i++) {
+              ChatSession.roomRegistry.join(ROOM, ChatSession.sessionRegistry.lookup("user" + i));
+            }
+          }, () -> {
+            sender[0].broadcastToRoom(ROOM, frame);
+            return sender[0].getDeliveredBytes();
+          }));
+    }
+    ChatRoomProtocol protocol = new ChatRoomProtocol();
+    List<byte[]> burst = new ArrayList<>();
+    for (int i = 0; i < BURST_SIZE; i++) {
+      burst.add(protocol.encodeBroadcastMessage("user0", MESSAGE));
+    }
+    byte[] batch = protocol.encodeBatch(burst);
+    SinkSession[] burstSender = new SinkSession[1];
+    cases.add(new BenchmarkCase("routing.processInput", "users=" + BURST_USERS + ",frames=" + BURST_SIZE,
+        () -> burstSender[0] = SinkSession.fillRoom(BURST_USERS), () -> {
+          for (byte[] frame : burst) {
+            burstSender[0].processInput(frame);
+          }
+          return burstSender[0].getDeliveredBytes();
+        }));
+    cases.add(new BenchmarkCase("routing.processBatch", "users=" + BURST_USERS + ",frames=" + BURST_SIZE,
+        () -> burstSender[0] = SinkSession.fillRoom(BURST_USERS), () -> {
+          burstSender[0].processInput(batch);
+          return burstSender[0].getDeliveredBytes();
+        }));
+    return cases;
+  }
+}
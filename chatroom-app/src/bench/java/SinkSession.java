@@ -0,0 +1,67 @@
+import java.util.concurrent.Semaphore;
+
+/**
+ * The `SinkSession` class is an in-memory {@link ChatSession} that counts what is delivered to it
+ * instead of writing to a socket, so routing can be measured without any I/O.
+ */
+class SinkSession extends ChatSession {
+
+  private long deliveredBytes;
+
+  /**
+   * Constructs a new `SinkSession` for the specified user.
+   *
+   * @param userName The username of the session.
+   */
+  public SinkSession(String userName) {
+    this.clientUserName = userName;
+    this.chatRoomProtocol = new ChatRoomProtocol();
+    this.semaphore = new Semaphore(Integer.MAX_VALUE);
+  }
+
+  @Override
+  protected void deliver(EncodedFrame frame) {
+    deliveredBytes += frame.length();
+  }
+
+  @Override
+  protected void disconnect() {
+  }
+
+  /**
+   * Gets the number of bytes delivered to this session so far.
+   *
+   * @return The delivered bytes, including length headers.
+   */
+  public long getDeliveredBytes() {
+    return deliveredBytes;
+  }
+
+  /**
+   * Fills the session registry with a room of sink sessions named user0, user1, and so on.
+   *
+   * @param users The number of sessions in the room.
+   * @return The first session of the room.
+   */
+  public static SinkSession fillRoom(int users) {
+    ChatSession.sessionRegistry = new SessionRegistry();
+    ChatSession.roomRegistry = new RoomRegistry();
+    SinkSession first = null;
+    for (int i = 0; i < users; i++) {
+      SinkSession session = new SinkSession("user" + i);
+      ChatSession.sessionRegistry.register(session);
+      if (first == null) {
+        first = session;
+      }
+    }
+    return first;
+  }
+
+  @Override
+  public String toString() {
+    return "SinkSession{" +
+        "clientUserName='" + clientUserName + '\'' +
+        ", deliveredBytes=" + deliveredBytes +
+        '}';
+  }
+}
@@ -0,0 +1,700 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * The `AsyncChatClient` class is a non-blocking client library for embedding the chat in other
+ * programs. It owns no thread of its own: reads and writes complete on the threads of the JVM's
+ * default asynchronous channel group, and every send returns a future instead of waiting.
+ *
+ * <p>Requests that expect a reply, such as the query for the connected users, are sent as
+ * {@link ChatRoomProtocol#CORRELATED_REQUEST}s numbered by the client. The server echoes the
+ * number in its reply, so any number of requests can be in flight on one connection and each
+ * future is completed by its own reply. Every other message received reaches the registered
+ * listeners. Futures are completed and listeners called on the executor given when connecting;
+ * a single-threaded executor sees messages in the order they were received.
+ *
+ * <p>A client that subscribes to presence is sent the connected users once and then only the
+ * users who connect and leave, which it applies to a set of connected users it keeps up to date.
+ */
+final class AsyncChatClient implements AutoCloseable {
+
+  /**
+   * The initial size of the buffer frames are read into. It grows for larger frames.
+   */
+  public static final int READ_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * The largest number of queued frames written to the server with one gathering write.
+   */
+  public static final int MAX_GATHERED_WRITES = 64;
+
+  private final AsynchronousSocketChannel channel;
+  private final String userName;
+  private final String requestedResumeToken;
+  private final Executor callbackExecutor;
+  private final ChatRoomProtocol chatRoomProtocol = new ChatRoomProtocol();
+  private final FrameView inboundFrame = new FrameView();
+  private final CompletableFuture<AsyncChatClient> connected = new CompletableFuture<>();
+  private final Map<Long, CompletableFuture<FrameView>> pendingRequests = new ConcurrentHashMap<>();
+  private final AtomicLong lastCorrelationId = new AtomicLong(ChatSession.NO_CORRELATION_ID);
+  private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+  private final List<BiConsumer<String, Boolean>> presenceListeners = new CopyOnWriteArrayList<>();
+  private final Set<String> presence = ConcurrentHashMap.newKeySet();
+  private final List<String> pagedUserNames = new ArrayList<>();
+  private final Queue<PendingWrite> writes = new ConcurrentLinkedQueue<>();
+  private final List<PendingWrite> inFlight = new ArrayList<>(MAX_GATHERED_WRITES);
+  private final ByteBuffer[] gathered = new ByteBuffer[MAX_GATHERED_WRITES];
+  private final AtomicBoolean writing = new AtomicBoolean();
+  private final AtomicBoolean closed = new AtomicBoolean();
+  private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+  private volatile String resumeToken;
+  private long presenceVersion = -1;
+
+  private final CompletionHandler<Void, Void> connectHandler = new CompletionHandler<>() {
+    @Override
+    public void completed(Void result, Void attachment) {
+      try {
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      } catch (IOException e) {
+
+      }
+      send(chatRoomProtocol.encodeConnectMessage(userName, ChatRoomProtocol.COMPRESSION_DEFLATE,
+          requestedResumeToken));
+      readNext();
+    }
+
+    @Override
+    public void failed(Throwable cause, Void attachment) {
+      closeWith(cause);
+    }
+  };
+
+  private final CompletionHandler<Integer, Void> readHandler = new CompletionHandler<>() {
+    @Override
+    public void completed(Integer read, Void attachment) {
+      if (read < 0) {
+        closeWith(new ClosedChannelException());
+        return;
+      }
+      try {
+        readFrames();
+      } catch (IOException e) {
+        closeWith(e);
+        return;
+      }
+      readNext();
+    }
+
+    @Override
+    public void failed(Throwable cause, Void attachment) {
+      closeWith(cause);
+    }
+  };
+
+  private final CompletionHandler<Long, Void> writeHandler = new CompletionHandler<>() {
+    @Override
+    public void completed(Long written, Void attachment) {
+      if (inFlight.get(inFlight.size() - 1).getBuffer().hasRemaining()) {
+        writeGathered();
+        return;
+      }
+      for (PendingWrite write : inFlight) {
+        complete(write.getFuture(), null);
+      }
+      inFlight.clear();
+      writeNext();
+    }
+
+    @Override
+    public void failed(Throwable cause, Void attachment) {
+      for (PendingWrite write : inFlight) {
+        fail(write.getFuture(), cause);
+      }
+      inFlight.clear();
+      closeWith(cause);
+    }
+  };
+
+  private AsyncChatClient(AsynchronousSocketChannel channel, String userName, String resumeToken,
+      Executor callbackExecutor) {
+    this.channel = channel;
+    this.userName = userName;
+    this.requestedResumeToken = resumeToken;
+    this.callbackExecutor = callbackExecutor;
+  }
+
+  /**
+   * Connects to a server and joins the chat.
+   *
+   * @param address          The address of the server.
+   * @param userName         The username to join under.
+   * @param callbackExecutor The executor futures are completed and listeners are called on.
+   * @return A future completed with the client once the server accepted the user, or failed if
+   *     the connection could not be made or the server refused the user.
+   */
+  public static CompletableFuture<AsyncChatClient> connect(InetSocketAddress address, String userName,
+      Executor callbackExecutor) {
+    return connect(address, userName, "", callbackExecutor);
+  }
+
+  /**
+   * Connects to a server and resumes the session of a client whose connection was lost, picking
+   * up every message that queued up for it meanwhile. If the session can no longer be resumed,
+   * the user joins the chat anew.
+   *
+   * @param address          The address of the server.
+   * @param userName         The username of the lost client.
+   * @param resumeToken      The token of the lost client, from {@link #getResumeToken()}.
+   * @param callbackExecutor The executor futures are completed and listeners are called on.
+   * @return A future completed with the client once the server accepted the user, or failed if
+   *     the connection could not be made or the server refused the user.
+   */
+  public static CompletableFuture<AsyncChatClient> connect(InetSocketAddress address, String userName,
+      String resumeToken, Executor callbackExecutor) {
+    AsyncChatClient client;
+    try {
+      client = new AsyncChatClient(AsynchronousSocketChannel.open(), userName, resumeToken, callbackExecutor);
+    } catch (IOException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    client.channel.connect(address, null, client.connectHandler);
+    return client.connected;
+  }
+
+  /**
+   * Registers a listener for the messages received that are not replies to a request: chat
+   * messages, notices from the server and replayed history.
+   *
+   * @param listener The listener, called with the text of each message.
+   */
+  public void addMessageListener(Consumer<String> listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Removes a listener registered with {@link #addMessageListener(Consumer)}.
+   *
+   * @param listener The listener.
+   */
+  public void removeMessageListener(Consumer<String> listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Registers a listener for the users who connect to and leave the chat, once presence is
+   * subscribed to.
+   *
+   * @param listener The listener, called with the username and {@code true} if the user
+   *                 connected or {@code false} if the user left.
+   */
+  public void addPresenceListener(BiConsumer<String, Boolean> listener) {
+    presenceListeners.add(listener);
+  }
+
+  /**
+   * Removes a listener registered with {@link #addPresenceListener(BiConsumer)}.
+   *
+   * @param listener The listener.
+   */
+  public void removePresenceListener(BiConsumer<String, Boolean> listener) {
+    presenceListeners.remove(listener);
+  }
+
+  /**
+   * Broadcasts a message to every other user.
+   *
+   * @param message The message.
+   * @return A future completed once the message has been written to the server.
+   */
+  public CompletableFuture<Void> broadcast(String message) {
+    return send(chatRoomProtocol.encodeBroadcastMessage(userName, message));
+  }
+
+  /**
+   * Sends a direct message to one user.
+   *
+   * @param recipient The username of the recipient.
+   * @param message   The message.
+   * @return A future completed once the message has been written to the server.
+   */
+  public CompletableFuture<Void> directMessage(String recipient, String message) {
+    return send(chatRoomProtocol.encodeDirectMessage(userName, recipient, message));
+  }
+
+  /**
+   * Sends a message to the members of a room.
+   *
+   * @param room    The name of the room.
+   * @param message The message.
+   * @return A future completed once the message has been written to the server.
+   */
+  public CompletableFuture<Void> roomMessage(String room, String message) {
+    return send(chatRoomProtocol.encodeRoomMessage(userName, room, message));
+  }
+
+  /**
+   * Asks the server for the users connected to the chat.
+   *
+   * @return A future completed with the usernames.
+   */
+  public CompletableFuture<List<String>> connectedUsers() {
+    return request(chatRoomProtocol.encodeQueryConnectedUsers(userName)).thenApply(AsyncChatClient::fields);
+  }
+
+  /**
+   * Subscribes to presence. The server answers with the connected users and from then on tells
+   * this client about every user who connects or leaves, so the users never need to be asked for
+   * again.
+   *
+   * @return A future completed with a read-only view of the connected users, kept up to date
+   *     until presence is unsubscribed from.
+   */
+  public CompletableFuture<Set<String>> subscribePresence() {
+    return request(chatRoomProtocol.encodeSubscribePresence(userName)).thenApply(response -> {
+      if (response.messageType() != ChatRoomProtocol.PRESENCE_SNAPSHOT) {
+        throw new CompletionException(new IOException(response.text()));
+      }
+      return Collections.unmodifiableSet(presence);
+    });
+  }
+
+  /**
+   * Stops the server from telling this client about users who connect or leave. The view of the
+   * connected users stops changing once the changes already sent have arrived.
+   *
+   * @return A future completed once the request has been written to the server.
+   */
+  public CompletableFuture<Void> unsubscribePresence() {
+    return send(chatRoomProtocol.encodeUnsubscribePresence(userName));
+  }
+
+  /**
+   * Asks the server for the rooms that currently have members.
+   *
+   * @return A future completed with the room names.
+   */
+  public CompletableFuture<List<String>> rooms() {
+    return request(chatRoomProtocol.encodeListRooms(userName)).thenApply(AsyncChatClient::fields);
+  }
+
+  /**
+   * Joins a room.
+   *
+   * @param room The name of the room.
+   * @return A future completed with the server's answer.
+   */
+  public CompletableFuture<String> joinRoom(String room) {
+    return request(chatRoomProtocol.encodeJoinRoom(userName, room)).thenApply(FrameView::text);
+  }
+
+  /**
+   * Leaves a room.
+   *
+   * @param room The name of the room.
+   * @return A future completed with the server's answer.
+   */
+  public CompletableFuture<String> leaveRoom(String room) {
+    return request(chatRoomProtocol.encodeLeaveRoom(userName, room)).thenApply(FrameView::text);
+  }
+
+  /**
+   * Pings the server. The server also pings a client it has not heard from for a while, and this
+   * client answers on its own, so calling this is only needed to measure the round trip.
+   *
+   * @return A future completed with the round-trip time, in nanoseconds.
+   */
+  public CompletableFuture<Long> ping() {
+    return request(chatRoomProtocol.encodePing(userName, System.nanoTime())).thenApply(response -> {
+      if (response.messageType() != ChatRoomProtocol.PONG) {
+        throw new CompletionException(new IOException(response.text()));
+      }
+      return System.nanoTime() - response.number();
+    });
+  }
+
+  /**
+   * Leaves the chat. The server closes the connection once it has answered.
+   *
+   * @return A future completed once the request has been written to the server.
+   */
+  public CompletableFuture<Void> disconnect() {
+    return send(chatRoomProtocol.encodeDisconnectMessage(userName));
+  }
+
+  /**
+   * Sends a request carrying a new correlation ID and waits for the reply echoing it.
+   *
+   * @param request The encoded request, without its length header.
+   * @return A future completed with a view of the reply, which stays valid.
+   */
+  private CompletableFuture<FrameView> request(byte[] request) {
+    long correlationId = lastCorrelationId.incrementAndGet();
+    CompletableFuture<FrameView> response = new CompletableFuture<>();
+    pendingRequests.put(correlationId, response);
+    send(chatRoomProtocol.encodeCorrelatedRequest(correlationId, request)).whenComplete((written, cause) -> {
+      if (cause != null && pendingRequests.remove(correlationId, response)) {
+        response.completeExceptionally(cause);
+      }
+    });
+    if (closed.get() && pendingRequests.remove(correlationId, response)) {
+      response.completeExceptionally(new ClosedChannelException());
+    }
+    return response;
+  }
+
+  /**
+   * Lists the fields of a reply listing users or rooms.
+   *
+   * @param response A view of the reply.
+   * @return The fields.
+   * @throws CompletionException If the server answered with a notice instead.
+   */
+  private static List<String> fields(FrameView response) {
+    if (response.messageType() != ChatRoomProtocol.QUERY_USER_RESPONSE
+        && response.messageType() != ChatRoomProtocol.ROOM_LIST_RESPONSE) {
+      throw new CompletionException(new IOException(response.text()));
+    }
+    List<String> fields = new ArrayList<>(response.fieldCount());
+    for (int i = 0; i < response.fieldCount(); i++) {
+      fields.add(response.field(i));
+    }
+    return fields;
+  }
+
+  /**
+   * Queues a frame for the server.
+   *
+   * @param frame The frame, without its length header.
+   * @return A future completed once the frame has been written.
+   */
+  private CompletableFuture<Void> send(byte[] frame) {
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    writes.add(new PendingWrite(ChatRoomProtocol.wrapFrame(frame), future));
+    if (closed.get()) {
+      failQueuedWrites(new ClosedChannelException());
+    } else if (writing.compareAndSet(false, true)) {
+      writeNext();
+    }
+    return future;
+  }
+
+  /**
+   * Writes the frames queued so far with one gathering write, or gives up writing if none are.
+   * Only called by the holder of the writing flag.
+   */
+  private void writeNext() {
+    PendingWrite write;
+    while (inFlight.size() < MAX_GATHERED_WRITES && (write = writes.poll()) != null) {
+      inFlight.add(write);
+    }
+    if (inFlight.isEmpty()) {
+      writing.set(false);
+      if (!writes.isEmpty() && writing.compareAndSet(false, true)) {
+        writeNext();
+      }
+      return;
+    }
+    writeGathered();
+  }
+
+  private void writeGathered() {
+    int count = inFlight.size();
+    for (int i = 0; i < count; i++) {
+      gathered[i] = inFlight.get(i).getBuffer();
+    }
+    try {
+      channel.write(gathered, 0, count, 0L, TimeUnit.MILLISECONDS, null, writeHandler);
+    } catch (RuntimeException e) {
+      writeHandler.failed(e, null);
+    }
+  }
+
+  private void readNext() {
+    try {
+      channel.read(readBuffer, null, readHandler);
+    } catch (RuntimeException e) {
+      closeWith(e);
+    }
+  }
+
+  /**
+   * Handles every complete frame in the read buffer and keeps the remainder for the next read,
+   * growing the buffer if the next frame does not fit.
+   *
+   * @throws IOException If a frame declares an invalid length.
+   */
+  private void readFrames() throws IOException {
+    readBuffer.flip();
+    int needed = 0;
+    while (readBuffer.remaining() >= ChatRoomProtocol.FRAME_HEADER_LENGTH) {
+      int position = readBuffer.position();
+      int length = readBuffer.getInt(position);
+      ChatRoomProtocol.checkFrameLength(length);
+      if (readBuffer.remaining() < ChatRoomProtocol.FRAME_HEADER_LENGTH + length) {
+        needed = ChatRoomProtocol.FRAME_HEADER_LENGTH + length;
+        break;
+      }
+      if (inboundFrame.wrap(readBuffer, position + ChatRoomProtocol.FRAME_HEADER_LENGTH, length)) {
+        handleFrame(inboundFrame);
+      }
+      readBuffer.position(position + ChatRoomProtocol.FRAME_HEADER_LENGTH + length);
+    }
+    if (needed > readBuffer.capacity()) {
+      readBuffer = ByteBuffer.allocate(needed).put(readBuffer);
+    } else {
+      readBuffer.compact();
+    }
+  }
+
+  /**
+   * Handles a frame received from the server. The view is only valid during the call.
+   *
+   * @param frame A well-formed view of the frame.
+   * @throws IOException If a compressed frame is corrupt.
+   */
+  private void handleFrame(FrameView frame) throws IOException {
+    switch (frame.messageType()) {
+      case ChatRoomProtocol.COMPRESSED_FRAME:
+        FrameView inflated = new FrameView();
+        if (inflated.wrap(FrameCompressor.inflate(frame))) {
+          handleFrame(inflated);
+        }
+        break;
+      case ChatRoomProtocol.CONNECT_RESPONSE:
+        if (connected.isDone()) {
+          notifyListeners(frame.field(0));
+        } else if (frame.flag()) {
+          if (frame.fieldCount() > 2) {
+            resumeToken = frame.field(2);
+          }
+          complete(connected, this);
+        } else {
+          closeWith(new IOException(frame.field(0)));
+        }
+        break;
+      case ChatRoomProtocol.CORRELATED_RESPONSE:
+        CompletableFuture<FrameView> response = pendingRequests.remove(frame.number());
+        if (response != null) {
+          byte[] body = new byte[frame.fieldLength(0)];
+          frame.copyField(0, ByteBuffer.wrap(body));
+          FrameView reply = new FrameView();
+          if (reply.wrap(body)) {
+            if (reply.messageType() == ChatRoomProtocol.PRESENCE_SNAPSHOT
+                || reply.messageType() == ChatRoomProtocol.QUERY_USER_RESPONSE) {
+              reply = joinPages(reply);
+            }
+            if (reply.messageType() == ChatRoomProtocol.PRESENCE_SNAPSHOT) {
+              applySnapshot(reply);
+            }
+            complete(response, reply);
+          } else {
+            fail(response, new IOException("Malformed reply to request " + frame.number()));
+          }
+        }
+        break;
+      case ChatRoomProtocol.REPLAYED_MESSAGE:
+        notifyListeners("(#" + frame.number() + ") " + frame.field(2));
+        break;
+      case ChatRoomProtocol.PRESENCE_JOINED:
+      case ChatRoomProtocol.PRESENCE_LEFT:
+        if (frame.number() > presenceVersion) {
+          presenceVersion = frame.number();
+          applyPresenceChange(frame.field(0), frame.messageType() == ChatRoomProtocol.PRESENCE_JOINED);
+        }
+        break;
+      case ChatRoomProtocol.PING:
+        send(chatRoomProtocol.encodePong(userName, frame.number()));
+        break;
+      case ChatRoomProtocol.FILE_OFFER:
+        if (!frame.field(0).equals(userName)) {
+          send(chatRoomProtocol.encodeFileDecline(userName, frame.number()));
+        }
+        break;
+      case ChatRoomProtocol.PRESENCE_SNAPSHOT_PART:
+      case ChatRoomProtocol.QUERY_USER_RESPONSE_PART:
+        for (int i = 0; i < frame.fieldCount(); i++) {
+          pagedUserNames.add(frame.field(i));
+        }
+        break;
+      case ChatRoomProtocol.QUERY_USER_RESPONSE:
+        pagedUserNames.clear();
+        break;
+      case ChatRoomProtocol.PONG:
+      case ChatRoomProtocol.FILE_ACCEPT:
+      case ChatRoomProtocol.FILE_DECLINE:
+      case ChatRoomProtocol.FILE_CHUNK:
+      case ChatRoomProtocol.ROOM_LIST_RESPONSE:
+        break;
+      default:
+        if (!connected.isDone() && frame.textEquals(ChatSession.MAX_CLIENTS_REACHED)) {
+          closeWith(new IOException(ChatSession.MAX_CLIENTS_REACHED));
+        } else {
+          notifyListeners(frame.text());
+        }
+        break;
+    }
+  }
+
+  /**
+   * Joins the pages of users that came ahead of a reply listing users to the reply's own, so the
+   * request is answered with every user at once. Only called on the thread reading frames.
+   *
+   * @param last A view of the reply, which carries the last page.
+   * @return A view of the whole reply, or the reply itself if no pages came ahead of it.
+   */
+  private FrameView joinPages(FrameView last) {
+    if (pagedUserNames.isEmpty()) {
+      return last;
+    }
+    for (int i = 0; i < last.fieldCount(); i++) {
+      pagedUserNames.add(last.field(i));
+    }
+    byte[] whole = last.messageType() == ChatRoomProtocol.PRESENCE_SNAPSHOT
+        ? chatRoomProtocol.encodePresenceSnapshot(last.number(), pagedUserNames)
+        : chatRoomProtocol.encodeQueryResponse(List.of(), pagedUserNames);
+    pagedUserNames.clear();
+    FrameView joined = new FrameView();
+    joined.wrap(whole);
+    return joined;
+  }
+
+  /**
+   * Replaces the connected users with a snapshot. Only called on the thread reading frames, before
+   * any change that follows the snapshot is read.
+   *
+   * @param snapshot A view of the snapshot.
+   */
+  private void applySnapshot(FrameView snapshot) {
+    presenceVersion = snapshot.number();
+    List<String> userNames = new ArrayList<>(snapshot.fieldCount());
+    for (int i = 0; i < snapshot.fieldCount(); i++) {
+      userNames.add(snapshot.field(i));
+    }
+    presence.retainAll(userNames);
+    presence.addAll(userNames);
+  }
+
+  private void applyPresenceChange(String userName, boolean joined) {
+    if (joined) {
+      presence.add(userName);
+    } else {
+      presence.remove(userName);
+    }
+    dispatch(() -> {
+      for (BiConsumer<String, Boolean> listener : presenceListeners) {
+        listener.accept(userName, joined);
+      }
+    });
+  }
+
+  private void notifyListeners(String message) {
+    dispatch(() -> {
+      for (Consumer<String> listener : listeners) {
+        listener.accept(message);
+      }
+    });
+  }
+
+  private <T> void complete(CompletableFuture<T> future, T value) {
+    dispatch(() -> future.complete(value));
+  }
+
+  private void fail(CompletableFuture<?> future, Throwable cause) {
+    dispatch(() -> future.completeExceptionally(cause));
+  }
+
+  private void dispatch(Runnable task) {
+    try {
+      callbackExecutor.execute(task);
+    } catch (RejectedExecutionException e) {
+      task.run();
+    }
+  }
+
+  private void failQueuedWrites(Throwable cause) {
+    PendingWrite write;
+    while ((write = writes.poll()) != null) {
+      fail(write.getFuture(), cause);
+    }
+  }
+
+  /**
+   * Gets the token this client's session can be resumed with on a new connection, should this one
+   * be lost.
+   *
+   * @return The resume token, or {@code null} if the server does not offer one.
+   */
+  public String getResumeToken() {
+    return resumeToken;
+  }
+
+  /**
+   * Checks whether the connection has been closed, by either side.
+   *
+   * @return {@code true} if no more messages can be sent or received.
+   */
+  public boolean isClosed() {
+    return closed.get();
+  }
+
+  /**
+   * Closes the connection without leaving the chat first. Every request still waiting for a reply
+   * and every frame not yet written fails.
+   */
+  @Override
+  public void close() {
+    closeWith(new ClosedChannelException());
+  }
+
+  private void closeWith(Throwable cause) {
+    if (!closed.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+
+    }
+    fail(connected, cause);
+    for (Long correlationId : pendingRequests.keySet()) {
+      CompletableFuture<FrameView> response = pendingRequests.remove(correlationId);
+      if (response != null) {
+        fail(response, cause);
+      }
+    }
+    failQueuedWrites(cause);
+  }
+
+  @Override
+  public String toString() {
+    return "AsyncChatClient{" +
+        "userName='" + userName + '\'' +
+        ", pendingRequests=" + pendingRequests.size() +
+        ", queuedWrites=" + writes.size() +
+        ", closed=" + closed +
+        '}';
+  }
+}
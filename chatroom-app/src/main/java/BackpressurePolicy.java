@@ -0,0 +1,55 @@
+/**
+ * The `BackpressurePolicy` enum lists what a session does when a client reads slower than messages
+ * are sent to it and its {@link OutboundQueue} reaches its frame or byte limit. Whatever the
+ * policy, a slow client never holds up the sender or anyone else in the room.
+ */
+enum BackpressurePolicy {
+
+  /**
+   * Evicts the oldest queued broadcasts to make room. Direct messages and server responses are
+   * only refused if no broadcast is left to evict.
+   */
+  DROP_OLDEST_BROADCASTS("drop-oldest"),
+
+  /**
+   * Refuses new broadcasts while the queue is full, but always queues direct messages and server
+   * responses, which may take the queue past its limits.
+   */
+  DROP_NEW_BROADCASTS("drop-new"),
+
+  /**
+   * Drops everything queued, tells the client why, and disconnects it.
+   */
+  DISCONNECT("disconnect");
+
+  private final String argument;
+
+  BackpressurePolicy(String argument) {
+    this.argument = argument;
+  }
+
+  /**
+   * Gets the name of the policy as given on the command line.
+   *
+   * @return The command-line name.
+   */
+  public String getArgument() {
+    return argument;
+  }
+
+  /**
+   * Finds the policy with the given command-line name.
+   *
+   * @param argument The command-line name, e.g. "drop-oldest".
+   * @return The policy.
+   * @throws IllegalArgumentException If no policy has that name.
+   */
+  public static BackpressurePolicy fromArgument(String argument) {
+    for (BackpressurePolicy policy : values()) {
+      if (policy.argument.equals(argument)) {
+        return policy;
+      }
+    }
+    throw new IllegalArgumentException("Unknown backpressure policy: " + argument);
+  }
+}
@@ -1,15 +1,22 @@
 
 
-import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 /**
  * The `ChatRoomProtocol` class defines the protocol used for communication in a chat room.
- * It includes constants for message types, methods to encode different message types into byte arrays,
- * and a method to decode a message frame. The class uses a simple protocol with message types encoded as integers.
+ * It includes constants for message types, methods to encode different message types into byte arrays
+ * or straight into a caller-supplied {@link ByteBuffer} without allocating, and a method to decode a
+ * message frame. The class uses a simple protocol with message types encoded as integers.
+ * On the wire every frame is preceded by a {@value #FRAME_HEADER_LENGTH}-byte length header, so frames
+ * may contain any byte values and are read and written as raw bytes.
  */
 public class ChatRoomProtocol {
   /**
@@ -57,11 +64,193 @@ public class ChatRoomProtocol {
    */
   public static final int SEND_INSULT = 27;
 
+  /**
+   * Request to join a named room, creating it if it does not exist.
+   */
+  public static final int JOIN_ROOM = 28;
+
+  /**
+   * Request to leave a named room.
+   */
+  public static final int LEAVE_ROOM = 29;
+
+  /**
+   * Request to list the rooms that currently have members.
+   */
+  public static final int LIST_ROOMS = 30;
+
+  /**
+   * Response to a request to list the rooms.
+   */
+  public static final int ROOM_LIST_RESPONSE = 31;
+
+  /**
+   * Message to every member of a named room.
+   */
+  public static final int ROOM_MESSAGE = 32;
+
+  /**
+   * Request to replay the latest messages of the message log.
+   */
+  public static final int REPLAY_LAST_MESSAGES = 33;
+
+  /**
+   * Request to replay every logged message from a sequence number on.
+   */
+  public static final int REPLAY_SINCE = 34;
+
+  /**
+   * A message replayed from the message log, carrying its sequence number.
+   */
+  public static final int REPLAYED_MESSAGE = 35;
+
+  /**
+   * The first frame a cluster node sends over a relay link, naming the node.
+   */
+  public static final int RELAY_HELLO = 36;
+
+  /**
+   * Tells the other nodes of a cluster that a user connected to the sending node.
+   */
+  public static final int RELAY_USER_JOINED = 37;
+
+  /**
+   * Tells the other nodes of a cluster that a user left the sending node.
+   */
+  public static final int RELAY_USER_LEFT = 38;
+
+  /**
+   * A broadcast relayed to the other nodes of a cluster, carrying the frame sent to the clients.
+   */
+  public static final int RELAY_BROADCAST = 39;
+
+  /**
+   * A direct message relayed to the node holding its recipient, carrying the frame sent to the recipient.
+   */
+  public static final int RELAY_DIRECT = 40;
+
+  /**
+   * A frame whose body was deflated, carrying the length of the original body, sent only to
+   * clients that asked for compression when they connected.
+   */
+  public static final int COMPRESSED_FRAME = 41;
+
+  /**
+   * A batch of broadcasts and direct messages sent as one frame, each carried as a field.
+   */
+  public static final int BATCH_MESSAGE = 42;
+
+  /**
+   * A request carrying a correlation ID, which the server echoes in the responses to it.
+   */
+  public static final int CORRELATED_REQUEST = 43;
+
+  /**
+   * A response to a {@link #CORRELATED_REQUEST}, carrying the request's correlation ID.
+   */
+  public static final int CORRELATED_RESPONSE = 44;
+
+  /**
+   * Request to be sent a snapshot of the connected users and then every change to it.
+   */
+  public static final int SUBSCRIBE_PRESENCE = 45;
+
+  /**
+   * Request to stop being sent changes to the connected users.
+   */
+  public static final int UNSUBSCRIBE_PRESENCE = 46;
+
+  /**
+   * The connected users as of a presence version, sent to a client that subscribed to presence.
+   */
+  public static final int PRESENCE_SNAPSHOT = 47;
+
+  /**
+   * Tells a client subscribed to presence that a user connected, carrying the new presence version.
+   */
+  public static final int PRESENCE_JOINED = 48;
+
+  /**
+   * Tells a client subscribed to presence that a user left, carrying the new presence version.
+   */
+  public static final int PRESENCE_LEFT = 49;
+
+  /**
+   * Asks the other end of a connection to show it is still there, carrying a number to be echoed.
+   */
+  public static final int PING = 50;
+
+  /**
+   * The answer to a {@link #PING}, echoing its number.
+   */
+  public static final int PONG = 51;
+
+  /**
+   * Offers a file to another user: the number is the transfer ID, zero when a client makes the
+   * offer, and the fields are the sender, the recipient, the file name and the size in bytes.
+   */
+  public static final int FILE_OFFER = 52;
+
+  /**
+   * Accepts a file offer, whose transfer ID is the number; the field is the user accepting.
+   */
+  public static final int FILE_ACCEPT = 53;
+
+  /**
+   * Declines or cancels a file offer, whose transfer ID is the number; the field is the user.
+   */
+  public static final int FILE_DECLINE = 54;
+
+  /**
+   * A piece of a file being transferred, whose transfer ID is the number; the field is the raw
+   * bytes, and an empty piece ends the file.
+   */
+  public static final int FILE_CHUNK = 55;
+
+  /**
+   * A page of the connected users as of a presence version, laid out like a
+   * {@link #PRESENCE_SNAPSHOT}. When the users do not fit in one frame, the snapshot is sent as
+   * pages of this type followed by the {@link #PRESENCE_SNAPSHOT} carrying the last page.
+   */
+  public static final int PRESENCE_SNAPSHOT_PART = 56;
+
+  /**
+   * A page of the connected users laid out like a {@link #QUERY_USER_RESPONSE}. When the users do
+   * not fit in one frame, the response is sent as pages of this type followed by the
+   * {@link #QUERY_USER_RESPONSE} carrying the last page.
+   */
+  public static final int QUERY_USER_RESPONSE_PART = 57;
+
+  /**
+   * The compression a client may ask for in its connection message, and the server accept in
+   * its connection response.
+   */
+  public static final String COMPRESSION_DEFLATE = "deflate";
+
   /**
    * Separator used for message framing.
    */
   public static final String FRAME_SEPARATOR = " ";
 
+  /**
+   * Number of bytes in the length header preceding every frame on the wire.
+   */
+  public static final int FRAME_HEADER_LENGTH = Integer.BYTES;
+
+  /**
+   * The largest frame length accepted from the network.
+   */
+  public static final int MAX_FRAME_LENGTH = 1 << 20;
+
+  /**
+   * Number of bytes preceding the data of a {@link #FILE_CHUNK} on the wire, length header
+   * included.
+   */
+  public static final int FILE_CHUNK_HEADER_LENGTH = FRAME_HEADER_LENGTH + Integer.BYTES + Long.BYTES
+      + Integer.BYTES + 3 * FRAME_SEPARATOR.length();
+
+  private static final byte[] FRAME_SEPARATOR_BYTES = FRAME_SEPARATOR.getBytes(StandardCharsets.UTF_8);
+
   /**
    * Encodes a broadcast message into a byte array.
    * @param sender The sender of the broadcast message.
@@ -69,17 +258,26 @@ public class ChatRoomProtocol {
    * @return Byte array representing the encoded broadcast message.
    */
   public byte[] encodeBroadcastMessage(String sender, String message) {
-    try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream)) {
-
-      dataOutputStream.writeInt(BROADCAST_MESSAGE);
-      encodeParameters(dataOutputStream, sender);
-      encodeParameters(dataOutputStream, message);
-      return byteArrayOutputStream.toByteArray();
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
-    return null;
+    byte[] frame = new byte[Integer.BYTES + parameterLength(sender) + parameterLength(message)];
+    encodeBroadcastMessage(ByteBuffer.wrap(frame), sender, message);
+    return frame;
+  }
+
+  /**
+   * Encodes a broadcast message into a buffer at its current position.
+   * @param buffer The buffer to write to.
+   * @param sender The sender of the broadcast message.
+   * @param message The content of the broadcast message.
+   * @return The number of bytes written.
+   * @throws BufferOverflowException If the buffer is too small; nothing is written then.
+   */
+  public int encodeBroadcastMessage(ByteBuffer buffer, String sender, String message) {
+    int length = Integer.BYTES + parameterLength(sender) + parameterLength(message);
+    checkRemaining(buffer, length);
+    buffer.putInt(BROADCAST_MESSAGE);
+    putParameter(buffer, sender);
+    putParameter(buffer, message);
+    return length;
   }
 
   /**
@@ -90,17 +288,30 @@ public class ChatRoomProtocol {
    * @return Byte array representing the encoded direct message.
    */
   public byte[] encodeDirectMessage(String sender, String recipient, String message) {
-    try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream)) {
-      dataOutputStream.writeInt(DIRECT_MESSAGE);
-      encodeParameters(dataOutputStream, sender);
-      encodeParameters(dataOutputStream, recipient);
-      encodeParameters(dataOutputStream, message);
-      return byteArrayOutputStream.toByteArray();
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
-    return null;
+    byte[] frame = new byte[Integer.BYTES + parameterLength(sender) + parameterLength(recipient)
+        + parameterLength(message)];
+    encodeDirectMessage(ByteBuffer.wrap(frame), sender, recipient, message);
+    return frame;
+  }
+
+  /**
+   * Encodes a direct message into a buffer at its current position.
+   * @param buffer The buffer to write to.
+   * @param sender The sender of the direct message.
+   * @param recipient The recipient of the direct message.
+   * @param message The content of the direct message.
+   * @return The number of bytes written.
+   * @throws BufferOverflowException If the buffer is too small; nothing is written then.
+   */
+  public int encodeDirectMessage(ByteBuffer buffer, String sender, String recipient, String message) {
+    int length = Integer.BYTES + parameterLength(sender) + parameterLength(recipient)
+        + parameterLength(message);
+    checkRemaining(buffer, length);
+    buffer.putInt(DIRECT_MESSAGE);
+    putParameter(buffer, sender);
+    putParameter(buffer, recipient);
+    putParameter(buffer, message);
+    return length;
   }
 
   /**
@@ -109,18 +320,21 @@ public class ChatRoomProtocol {
    * @return Byte array representing the encoded disconnect message.
    */
   public byte[] encodeDisconnectMessage(String sender) {
-    try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream)) {
-
-      dataOutputStream.writeInt(DISCONNECT_MESSAGE);
-      encodeParameters(dataOutputStream, sender);
-      return byteArrayOutputStream.toByteArray();
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
-    return null;
+    byte[] frame = new byte[Integer.BYTES + parameterLength(sender)];
+    encodeDisconnectMessage(ByteBuffer.wrap(frame), sender);
+    return frame;
   }
 
+  /**
+   * Encodes a disconnect message into a buffer at its current position.
+   * @param buffer The buffer to write to.
+   * @param sender The sender requesting disconnection.
+   * @return The number of bytes written.
+   * @throws BufferOverflowException If the buffer is too small; nothing is written then.
+   */
+  public int encodeDisconnectMessage(ByteBuffer buffer, String sender) {
+    return encodeSenderOnly(buffer, DISCONNECT_MESSAGE, sender);
+  }
 
   /**
    * Encodes a query for connected users into a byte array.
@@ -128,16 +342,20 @@ public class ChatRoomProtocol {
    * @return Byte array representing the encoded query for connected users.
    */
   public byte[] encodeQueryConnectedUsers(String sender) {
-    try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream)) {
-
-      dataOutputStream.writeInt(QUERY_CONNECTED_USERS);
-      encodeParameters(dataOutputStream, sender);
-      return byteArrayOutputStream.toByteArray();
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
-    return null;
+    byte[] frame = new byte[Integer.BYTES + parameterLength(sender)];
+    encodeQueryConnectedUsers(ByteBuffer.wrap(frame), sender);
+    return frame;
+  }
+
+  /**
+   * Encodes a query for connected users into a buffer at its current position.
+   * @param buffer The buffer to write to.
+   * @param sender The sender initiating the query.
+   * @return The number of bytes written.
+   * @throws BufferOverflowException If the buffer is too small; nothing is written then.
+   */
+  public int encodeQueryConnectedUsers(ByteBuffer buffer, String sender) {
+    return encodeSenderOnly(buffer, QUERY_CONNECTED_USERS, sender);
   }
 
   /**
@@ -146,16 +364,79 @@ public class ChatRoomProtocol {
    * @return Byte array representing the encoded connection message.
    */
   public byte[] encodeConnectMessage(String sender) {
-    try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream)) {
-
-      dataOutputStream.writeInt(CONNECT_MESSAGE);
-      encodeParameters(dataOutputStream, sender);
-      return byteArrayOutputStream.toByteArray();
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
-    return null;
+    byte[] frame = new byte[Integer.BYTES + parameterLength(sender)];
+    encodeConnectMessage(ByteBuffer.wrap(frame), sender);
+    return frame;
+  }
+
+  /**
+   * Encodes a connection message into a buffer at its current position.
+   * @param buffer The buffer to write to.
+   * @param sender The sender initiating the connection.
+   * @return The number of bytes written.
+   * @throws BufferOverflowException If the buffer is too small; nothing is written then.
+   */
+  public int encodeConnectMessage(ByteBuffer buffer, String sender) {
+    return encodeSenderOnly(buffer, CONNECT_MESSAGE, sender);
+  }
+
+  /**
+   * Encodes a connection message asking for compression into a byte array. Servers that do not
+   * know compression ignore the request.
+   * @param sender The sender initiating the connection.
+   * @param compression The compression asked for, such as {@link #COMPRESSION_DEFLATE}.
+   * @return Byte array representing the encoded connection message.
+   */
+  public byte[] encodeConnectMessage(String sender, String compression) {
+    byte[] frame = new byte[Integer.BYTES + parameterLength(sender) + parameterLength(compression)];
+    encodeConnectMessage(ByteBuffer.wrap(frame), sender, compression);
+    return frame;
+  }
+
+  /**
+   * Encodes a connection message asking for compression into a buffer at its current position.
+   * @param buffer The buffer to write to.
+   * @param sender The sender initiating the connection.
+   * @param compression The compression asked for, such as {@link #COMPRESSION_DEFLATE}.
+   * @return The number of bytes written.
+   * @throws BufferOverflowException If the buffer is too small; nothing is written then.
+   */
+  public int encodeConnectMessage(ByteBuffer buffer, String sender, String compression) {
+    return encodeSenderAndName(buffer, CONNECT_MESSAGE, sender, compression);
+  }
+
+  /**
+   * Encodes a connection message that asks for a resumable session into a byte array. The
+   * username and every capability travel in this one frame, so the server can answer it with a
+   * single connect response.
+   * @param sender The sender initiating the connection.
+   * @param compression The compression asked for, or an empty string for none.
+   * @param resumeToken The token of the session to resume, or an empty string to start a new one.
+   * @return Byte array representing the encoded connection message.
+   */
+  public byte[] encodeConnectMessage(String sender, String compression, String resumeToken) {
+    byte[] frame = new byte[Integer.BYTES + parameterLength(sender) + parameterLength(compression)
+        + parameterLength(resumeToken)];
+    encodeConnectMessage(ByteBuffer.wrap(frame), sender, compression, resumeToken);
+    return frame;
+  }
+
+  /**
+   * Encodes a connection message that asks for a resumable session into a buffer at its current
+   * position.
+   * @param buffer The buffer to write to.
+   * @param sender The sender initiating the connection.
+   * @param compression The compression asked for, or an empty string for none.
+   * @param resumeToken The token of the session to resume, or an empty string to start a new one.
+   * @return The number of bytes written.
+   * @throws BufferOverflowException If the buffer is too small; nothing is written then.
+   */
+  public int encodeConnectMessage(ByteBuffer buffer, String sender, String compression, String resumeToken) {
+    int length = Integer.BYTES + parameterLength(sender) + parameterLength(compression) + parameterLength(resumeToken);
+    checkRemaining(buffer, length);
+    encodeSenderAndName(buffer, CONNECT_MESSAGE, sender, compression);
+    putParameter(buffer, resumeToken);
+    return length;
   }
 
   /**
@@ -165,18 +446,94 @@ public class ChatRoomProtocol {
    * @return Byte array representing the encoded connection response.
    */
   public byte[] encodeConnectResponse(boolean success, String message) {
-    try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream)) {
-
-      dataOutputStream.writeInt(CONNECT_RESPONSE);
-      dataOutputStream.write(FRAME_SEPARATOR.getBytes(StandardCharsets.UTF_8));
-      dataOutputStream.writeBoolean(success);
-      encodeParameters(dataOutputStream, message);
-      return byteArrayOutputStream.toByteArray();
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
-    return null;
+    byte[] frame = new byte[Integer.BYTES + FRAME_SEPARATOR_BYTES.length + 1 + parameterLength(message)];
+    encodeConnectResponse(ByteBuffer.wrap(frame), success, message);
+    return frame;
+  }
+
+  /**
+   * Encodes a connection response into a buffer at its current position.
+   * @param buffer The buffer to write to.
+   * @param success Indicates whether the connection was successful.
+   * @param message Additional message accompanying the response.
+   * @return The number of bytes written.
+   * @throws BufferOverflowException If the buffer is too small; nothing is written then.
+   */
+  public int encodeConnectResponse(ByteBuffer buffer, boolean success, String message) {
+    int length = Integer.BYTES + FRAME_SEPARATOR_BYTES.length + 1 + parameterLength(message);
+    checkRemaining(buffer, length);
+    buffer.putInt(CONNECT_RESPONSE);
+    buffer.put(FRAME_SEPARATOR_BYTES);
+    buffer.put(success ? (byte) 1 : (byte) 0);
+    putParameter(buffer, message);
+    return length;
+  }
+
+  /**
+   * Encodes a connection response accepting compression into a byte array.
+   * @param success Indicates whether the connection was successful.
+   * @param message Additional message accompanying the response.
+   * @param compression The compression the server will use, such as {@link #COMPRESSION_DEFLATE}.
+   * @return Byte array representing the encoded connection response.
+   */
+  public byte[] encodeConnectResponse(boolean success, String message, String compression) {
+    byte[] frame = new byte[Integer.BYTES + FRAME_SEPARATOR_BYTES.length + 1 + parameterLength(message)
+        + parameterLength(compression)];
+    encodeConnectResponse(ByteBuffer.wrap(frame), success, message, compression);
+    return frame;
+  }
+
+  /**
+   * Encodes a connection response accepting compression into a buffer at its current position.
+   * @param buffer The buffer to write to.
+   * @param success Indicates whether the connection was successful.
+   * @param message Additional message accompanying the response.
+   * @param compression The compression the server will use, such as {@link #COMPRESSION_DEFLATE}.
+   * @return The number of bytes written.
+   * @throws BufferOverflowException If the buffer is too small; nothing is written then.
+   */
+  public int encodeConnectResponse(ByteBuffer buffer, boolean success, String message, String compression) {
+    int length = Integer.BYTES + FRAME_SEPARATOR_BYTES.length + 1 + parameterLength(message)
+        + parameterLength(compression);
+    checkRemaining(buffer, length);
+    encodeConnectResponse(buffer, success, message);
+    putParameter(buffer, compression);
+    return length;
+  }
+
+  /**
+   * Encodes a connection response carrying a resume token into a byte array.
+   * @param success Indicates whether the connection was successful.
+   * @param message Additional message accompanying the response.
+   * @param compression The compression the server will use, or an empty string for none.
+   * @param resumeToken The token the client may resume its session with after losing its connection.
+   * @return Byte array representing the encoded connection response.
+   */
+  public byte[] encodeConnectResponse(boolean success, String message, String compression, String resumeToken) {
+    byte[] frame = new byte[Integer.BYTES + FRAME_SEPARATOR_BYTES.length + 1 + parameterLength(message)
+        + parameterLength(compression) + parameterLength(resumeToken)];
+    encodeConnectResponse(ByteBuffer.wrap(frame), success, message, compression, resumeToken);
+    return frame;
+  }
+
+  /**
+   * Encodes a connection response carrying a resume token into a buffer at its current position.
+   * @param buffer The buffer to write to.
+   * @param success Indicates whether the connection was successful.
+   * @param message Additional message accompanying the response.
+   * @param compression The compression the server will use, or an empty string for none.
+   * @param resumeToken The token the client may resume its session with after losing its connection.
+   * @return The number of bytes written.
+   * @throws BufferOverflowException If the buffer is too small; nothing is written then.
+   */
+  public int encodeConnectResponse(ByteBuffer buffer, boolean success, String message, String compression,
+      String resumeToken) {
+    int length = Integer.BYTES + FRAME_SEPARATOR_BYTES.length + 1 + parameterLength(message)
+        + parameterLength(compression) + parameterLength(resumeToken);
+    checkRemaining(buffer, length);
+    encodeConnectResponse(buffer, success, message, compression);
+    putParameter(buffer, resumeToken);
+    return length;
   }
 
   /**
@@ -186,39 +543,780 @@ public class ChatRoomProtocol {
    * @return Byte array representing the encoded insult message.
    */
   public byte[] encodeSendInsult(String sender, String recipient) {
-    try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream)) {
-
-      dataOutputStream.writeInt(SEND_INSULT);
-      encodeParameters(dataOutputStream, sender);
-      encodeParameters(dataOutputStream, recipient);
-      return byteArrayOutputStream.toByteArray();
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
-    return null;
+    byte[] frame = new byte[Integer.BYTES + parameterLength(sender) + parameterLength(recipient)];
+    encodeSendInsult(ByteBuffer.wrap(frame), sender, recipient);
+    return frame;
+  }
+
+  /**
+   * Encodes an insult message into a buffer at its current position.
+   * @param buffer The buffer to write to.
+   * @param sender The sender of the insult.
+   * @param recipient The recipient of the insult.
+   * @return The number of bytes written.
+   * @throws BufferOverflowException If the buffer is too small; nothing is written then.
+   */
+  public int encodeSendInsult(ByteBuffer buffer, String sender, String recipient) {
+    int length = Integer.BYTES + parameterLength(sender) + parameterLength(recipient);
+    checkRemaining(buffer, length);
+    buffer.putInt(SEND_INSULT);
+    putParameter(buffer, sender);
+    putParameter(buffer, recipient);
+    return length;
   }
 
   /**
    * Encodes a query response into a byte array.
-   * @param users List of connected users to be included in the response.
+   * @param users Connected users to be included in the response. The collection may change while
+   *              it is encoded; the response lists the users seen during a single pass over it.
+   * @return Byte array representing the encoded query response.
+   */
+  public byte[] encodeQueryResponse(Collection<? extends ChatSession> users) {
+    return encodeQueryResponse(users, List.of());
+  }
+
+  /**
+   * Encodes a query response listing the local users followed by users connected elsewhere, such
+   * as on the other nodes of a cluster, into a byte array.
+   * @param users Connected users to be included in the response. The collection may change while
+   *              it is encoded; the response lists the users seen during a single pass over it.
+   * @param remoteUserNames The names of users connected elsewhere.
    * @return Byte array representing the encoded query response.
    */
-  public byte[] encodeQueryResponse(ArrayList<ClientHandler> users) {
-    try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream)) {
+  public byte[] encodeQueryResponse(Collection<? extends ChatSession> users, Collection<String> remoteUserNames) {
+    List<String> userNames = new ArrayList<>(users.size() + remoteUserNames.size());
+    for (ChatSession user : users) {
+      userNames.add(user.getClientUserName());
+    }
+    userNames.addAll(remoteUserNames);
+    return encodeUserPage(QUERY_USER_RESPONSE, 0, false, userNames);
+  }
+
+  /**
+   * Encodes a query response as pages no longer than a limit, each into a byte array: every page
+   * but the last is a {@link #QUERY_USER_RESPONSE_PART} and the last is the
+   * {@link #QUERY_USER_RESPONSE}. A page always carries at least one user.
+   * @param userNames The names of the connected users.
+   * @param maxLength The largest length of a page, without its length header.
+   * @return The encoded pages, in order; a single page if the users fit in one.
+   */
+  public List<byte[]> encodeQueryResponsePages(Collection<String> userNames, int maxLength) {
+    return encodeUserPages(QUERY_USER_RESPONSE_PART, QUERY_USER_RESPONSE, 0, false, userNames, maxLength);
+  }
 
-      dataOutputStream.writeInt(QUERY_USER_RESPONSE);
-      dataOutputStream.write(FRAME_SEPARATOR.getBytes(StandardCharsets.UTF_8));
-      dataOutputStream.writeInt(users.size());
-      for (ClientHandler user : users) {
-        encodeParameters(dataOutputStream, user.getClientUserName());
+  /**
+   * Encodes a query response into a buffer at its current position. The user count is written
+   * after the users, so it always matches the entries even if the collection changes meanwhile.
+   * @param buffer The buffer to write to.
+   * @param users Connected users to be included in the response.
+   * @return The number of bytes written.
+   * @throws BufferOverflowException If the buffer is too small; the position is restored then.
+   */
+  public int encodeQueryResponse(ByteBuffer buffer, Collection<? extends ChatSession> users) {
+    int start = buffer.position();
+    try {
+      buffer.putInt(QUERY_USER_RESPONSE);
+      buffer.put(FRAME_SEPARATOR_BYTES);
+      int countPosition = buffer.position();
+      buffer.putInt(0);
+      int count = 0;
+      for (ChatSession user : users) {
+        putParameter(buffer, user.getClientUserName());
+        count++;
       }
-      return byteArrayOutputStream.toByteArray();
-    } catch (IOException e) {
-      e.printStackTrace();
+      buffer.putInt(countPosition, count);
+      return buffer.position() - start;
+    } catch (BufferOverflowException e) {
+      buffer.position(start);
+      throw e;
     }
-    return null;
+  }
+
+  /**
+   * Encodes a request to subscribe to presence into a byte array.
+   * @param sender The user subscribing.
+   * @return Byte array representing the encoded request.
+   */
+  public byte[] encodeSubscribePresence(String sender) {
+    byte[] frame = new byte[Integer.BYTES + parameterLength(sender)];
+    encodeSenderOnly(ByteBuffer.wrap(frame), SUBSCRIBE_PRESENCE, sender);
+    return frame;
+  }
+
+  /**
+   * Encodes a request to unsubscribe from presence into a byte array.
+   * @param sender The user unsubscribing.
+   * @return Byte array representing the encoded request.
+   */
+  public byte[] encodeUnsubscribePresence(String sender) {
+    byte[] frame = new byte[Integer.BYTES + parameterLength(sender)];
+    encodeSenderOnly(ByteBuffer.wrap(frame), UNSUBSCRIBE_PRESENCE, sender);
+    return frame;
+  }
+
+  /**
+   * Encodes a presence snapshot into a byte array.
+   * @param version The presence version the snapshot was taken at.
+   * @param userNames The names of the connected users.
+   * @return Byte array representing the encoded snapshot.
+   */
+  public byte[] encodePresenceSnapshot(long version, Collection<String> userNames) {
+    return encodeUserPage(PRESENCE_SNAPSHOT, version, true, userNames);
+  }
+
+  /**
+   * Encodes a presence snapshot as pages no longer than a limit, each into a byte array: every
+   * page but the last is a {@link #PRESENCE_SNAPSHOT_PART} and the last is the
+   * {@link #PRESENCE_SNAPSHOT}, all carrying the same version. A page always carries at least one
+   * user.
+   * @param version The presence version the snapshot was taken at.
+   * @param userNames The names of the connected users.
+   * @param maxLength The largest length of a page, without its length header.
+   * @return The encoded pages, in order; a single page if the users fit in one.
+   */
+  public List<byte[]> encodePresenceSnapshotPages(long version, Collection<String> userNames, int maxLength) {
+    return encodeUserPages(PRESENCE_SNAPSHOT_PART, PRESENCE_SNAPSHOT, version, true, userNames, maxLength);
+  }
+
+  private List<byte[]> encodeUserPages(int partType, int lastType, long version, boolean versioned,
+      Collection<String> userNames, int maxLength) {
+    int headerLength = userPageLength(versioned, List.of());
+    List<byte[]> pages = new ArrayList<>();
+    List<String> page = new ArrayList<>();
+    int length = headerLength;
+    for (String userName : userNames) {
+      int nameLength = parameterLength(userName);
+      if (!page.isEmpty() && length + nameLength > maxLength) {
+        pages.add(encodeUserPage(partType, version, versioned, page));
+        page.clear();
+        length = headerLength;
+      }
+      page.add(userName);
+      length += nameLength;
+    }
+    pages.add(encodeUserPage(lastType, version, versioned, page));
+    return pages;
+  }
+
+  private byte[] encodeUserPage(int messageType, long version, boolean versioned, Collection<String> userNames) {
+    byte[] frame = new byte[userPageLength(versioned, userNames)];
+    ByteBuffer buffer = ByteBuffer.wrap(frame);
+    buffer.putInt(messageType);
+    buffer.put(FRAME_SEPARATOR_BYTES);
+    if (versioned) {
+      buffer.putLong(version);
+      buffer.put(FRAME_SEPARATOR_BYTES);
+    }
+    buffer.putInt(userNames.size());
+    for (String userName : userNames) {
+      putParameter(buffer, userName);
+    }
+    return frame;
+  }
+
+  private static int userPageLength(boolean versioned, Collection<String> userNames) {
+    int length = Integer.BYTES + FRAME_SEPARATOR_BYTES.length + Integer.BYTES;
+    if (versioned) {
+      length += Long.BYTES + FRAME_SEPARATOR_BYTES.length;
+    }
+    for (String userName : userNames) {
+      length += parameterLength(userName);
+    }
+    return length;
+  }
+
+  /**
+   * Encodes the news that a user connected or left into a byte array.
+   * @param version The presence version the change led to.
+   * @param userName The name of the user.
+   * @param joined {@code true} if the user connected, {@code false} if the user left.
+   * @return Byte array representing the encoded change.
+   */
+  public byte[] encodePresenceChange(long version, String userName, boolean joined) {
+    byte[] frame = new byte[numberAndNameLength(userName)];
+    encodeNumberAndName(ByteBuffer.wrap(frame), joined ? PRESENCE_JOINED : PRESENCE_LEFT, userName, version);
+    return frame;
+  }
+
+  /**
+   * Encodes a ping into a byte array.
+   * @param sender The user sending the ping, or an empty string for the server.
+   * @param nonce The number the answer echoes.
+   * @return Byte array representing the encoded ping.
+   */
+  public byte[] encodePing(String sender, long nonce) {
+    byte[] frame = new byte[numberAndNameLength(sender)];
+    encodeNumberAndName(ByteBuffer.wrap(frame), PING, sender, nonce);
+    return frame;
+  }
+
+  /**
+   * Encodes the answer to a ping into a byte array.
+   * @param sender The user answering, or an empty string for the server.
+   * @param nonce The number of the ping being answered.
+   * @return Byte array representing the encoded answer.
+   */
+  public byte[] encodePong(String sender, long nonce) {
+    byte[] frame = new byte[numberAndNameLength(sender)];
+    encodeNumberAndName(ByteBuffer.wrap(frame), PONG, sender, nonce);
+    return frame;
+  }
+
+  /**
+   * Encodes a file offer into a byte array.
+   * @param transferId The ID of the transfer, or zero when a client makes the offer.
+   * @param sender The user offering the file.
+   * @param recipient The user the file is offered to.
+   * @param fileName The name of the file, without any directory.
+   * @param size The size of the file, in bytes.
+   * @return Byte array representing the encoded offer.
+   */
+  public byte[] encodeFileOffer(long transferId, String sender, String recipient, String fileName, long size) {
+    String sizeText = Long.toString(size);
+    byte[] frame = new byte[numberAndNameLength(sender) + parameterLength(recipient) + parameterLength(fileName)
+        + parameterLength(sizeText)];
+    ByteBuffer buffer = ByteBuffer.wrap(frame);
+    encodeNumberAndName(buffer, FILE_OFFER, sender, transferId);
+    putParameter(buffer, recipient);
+    putParameter(buffer, fileName);
+    putParameter(buffer, sizeText);
+    return frame;
+  }
+
+  /**
+   * Encodes the acceptance of a file offer into a byte array.
+   * @param user The user accepting the file.
+   * @param transferId The ID of the transfer.
+   * @return Byte array representing the encoded acceptance.
+   */
+  public byte[] encodeFileAccept(String user, long transferId) {
+    byte[] frame = new byte[numberAndNameLength(user)];
+    encodeNumberAndName(ByteBuffer.wrap(frame), FILE_ACCEPT, user, transferId);
+    return frame;
+  }
+
+  /**
+   * Encodes the refusal or cancellation of a file offer into a byte array.
+   * @param user The user declining the file.
+   * @param transferId The ID of the transfer.
+   * @return Byte array representing the encoded refusal.
+   */
+  public byte[] encodeFileDecline(String user, long transferId) {
+    byte[] frame = new byte[numberAndNameLength(user)];
+    encodeNumberAndName(ByteBuffer.wrap(frame), FILE_DECLINE, user, transferId);
+    return frame;
+  }
+
+  /**
+   * Encodes a piece of a file into a byte array.
+   * @param transferId The ID of the transfer.
+   * @param data The buffer holding the piece.
+   * @param length The number of bytes of the buffer to send; zero ends the file.
+   * @return Byte array representing the encoded piece.
+   */
+  public byte[] encodeFileChunk(long transferId, byte[] data, int length) {
+    byte[] frame = new byte[FILE_CHUNK_HEADER_LENGTH - FRAME_HEADER_LENGTH + length];
+    ByteBuffer buffer = ByteBuffer.wrap(frame);
+    putFileChunkBody(buffer, transferId, length);
+    buffer.put(data, 0, length);
+    return frame;
+  }
+
+  /**
+   * Writes everything of a file piece that comes before its data, length header included, so
+   * the data can follow straight from the file it is read from.
+   * @param buffer The buffer to write to, with at least {@link #FILE_CHUNK_HEADER_LENGTH} bytes
+   *               remaining.
+   * @param transferId The ID of the transfer.
+   * @param length The number of bytes of data that follow.
+   */
+  public static void putFileChunkHeader(ByteBuffer buffer, long transferId, int length) {
+    buffer.putInt(FILE_CHUNK_HEADER_LENGTH - FRAME_HEADER_LENGTH + length);
+    putFileChunkBody(buffer, transferId, length);
+  }
+
+  private static void putFileChunkBody(ByteBuffer buffer, long transferId, int length) {
+    buffer.putInt(FILE_CHUNK);
+    buffer.put(FRAME_SEPARATOR_BYTES);
+    buffer.putLong(transferId);
+    buffer.put(FRAME_SEPARATOR_BYTES);
+    buffer.putInt(length);
+    buffer.put(FRAME_SEPARATOR_BYTES);
+  }
+
+  /**
+   * Encodes a batch of messages into a byte array. Each message is an encoded broadcast or direct
+   * message, without its length header, and the server routes the whole batch in one pass.
+   * @param messages The encoded messages, in the order they are routed.
+   * @return Byte array representing the encoded batch.
+   */
+  public byte[] encodeBatch(Collection<byte[]> messages) {
+    int length = Integer.BYTES + FRAME_SEPARATOR_BYTES.length + Integer.BYTES;
+    for (byte[] message : messages) {
+      length += FRAME_SEPARATOR_BYTES.length + Integer.BYTES + FRAME_SEPARATOR_BYTES.length + message.length;
+    }
+    byte[] frame = new byte[length];
+    encodeBatch(ByteBuffer.wrap(frame), messages);
+    return frame;
+  }
+
+  /**
+   * Encodes a batch of messages into a buffer at its current position.
+   * @param buffer The buffer to write to.
+   * @param messages The encoded messages, in the order they are routed.
+   * @return The number of bytes written.
+   * @throws BufferOverflowException If the buffer is too small; the position is restored then.
+   */
+  public int encodeBatch(ByteBuffer buffer, Collection<byte[]> messages) {
+    int start = buffer.position();
+    try {
+      buffer.putInt(BATCH_MESSAGE);
+      buffer.put(FRAME_SEPARATOR_BYTES);
+      int countPosition = buffer.position();
+      buffer.putInt(0);
+      int count = 0;
+      for (byte[] message : messages) {
+        buffer.put(FRAME_SEPARATOR_BYTES);
+        buffer.putInt(message.length);
+        buffer.put(FRAME_SEPARATOR_BYTES);
+        buffer.put(message);
+        count++;
+      }
+      buffer.putInt(countPosition, count);
+      return buffer.position() - start;
+    } catch (BufferOverflowException e) {
+      buffer.position(start);
+      throw e;
+    }
+  }
+
+  /**
+   * Encodes a request carrying a correlation ID into a byte array.
+   * @param correlationId The ID the server echoes in its responses to the request.
+   * @param request The encoded request, without its length header.
+   * @return Byte array representing the encoded correlated request.
+   */
+  public byte[] encodeCorrelatedRequest(long correlationId, byte[] request) {
+    byte[] frame = new byte[correlatedLength(request.length)];
+    ByteBuffer buffer = ByteBuffer.wrap(frame);
+    buffer.putInt(CORRELATED_REQUEST);
+    buffer.put(FRAME_SEPARATOR_BYTES);
+    buffer.putLong(correlationId);
+    buffer.put(FRAME_SEPARATOR_BYTES);
+    buffer.putInt(request.length);
+    buffer.put(FRAME_SEPARATOR_BYTES);
+    buffer.put(request);
+    return frame;
+  }
+
+  /**
+   * Encodes a response to a correlated request into a buffer at its current position. The
+   * response is copied from the body of an already encoded frame.
+   * @param buffer The buffer to write to.
+   * @param correlationId The correlation ID of the request.
+   * @param response The frame whose body is the response.
+   * @return The number of bytes written.
+   * @throws BufferOverflowException If the buffer is too small; nothing is written then.
+   */
+  static int encodeCorrelatedResponse(ByteBuffer buffer, long correlationId, EncodedFrame response) {
+    int length = correlatedLength(response.bodyLength());
+    checkRemaining(buffer, length);
+    buffer.putInt(CORRELATED_RESPONSE);
+    buffer.put(FRAME_SEPARATOR_BYTES);
+    buffer.putLong(correlationId);
+    putBody(buffer, response);
+    return length;
+  }
+
+  /**
+   * Computes the encoded size of a correlated request or response, without its length header.
+   * @param innerLength The length of the request or response it carries.
+   * @return The number of bytes the correlated frame takes.
+   */
+  static int correlatedLength(int innerLength) {
+    return Integer.BYTES + FRAME_SEPARATOR_BYTES.length + Long.BYTES + FRAME_SEPARATOR_BYTES.length
+        + Integer.BYTES + FRAME_SEPARATOR_BYTES.length + innerLength;
+  }
+
+  /**
+   * Encodes a request to join a room into a byte array.
+   * @param sender The user joining the room.
+   * @param room The name of the room.
+   * @return Byte array representing the encoded request.
+   */
+  public byte[] encodeJoinRoom(String sender, String room) {
+    byte[] frame = new byte[Integer.BYTES + parameterLength(sender) + parameterLength(room)];
+    encodeJoinRoom(ByteBuffer.wrap(frame), sender, room);
+    return frame;
+  }
+
+  /**
+   * Encodes a request to join a room into a buffer at its current position.
+   * @param buffer The buffer to write to.
+   * @param sender The user joining the room.
+   * @param room The name of the room.
+   * @return The number of bytes written.
+   * @throws BufferOverflowException If the buffer is too small; nothing is written then.
+   */
+  public int encodeJoinRoom(ByteBuffer buffer, String sender, String room) {
+    return encodeSenderAndName(buffer, JOIN_ROOM, sender, room);
+  }
+
+  /**
+   * Encodes a request to leave a room into a byte array.
+   * @param sender The user leaving the room.
+   * @param room The name of the room.
+   * @return Byte array representing the encoded request.
+   */
+  public byte[] encodeLeaveRoom(String sender, String room) {
+    byte[] frame = new byte[Integer.BYTES + parameterLength(sender) + parameterLength(room)];
+    encodeLeaveRoom(ByteBuffer.wrap(frame), sender, room);
+    return frame;
+  }
+
+  /**
+   * Encodes a request to leave a room into a buffer at its current position.
+   * @param buffer The buffer to write to.
+   * @param sender The user leaving the room.
+   * @param room The name of the room.
+   * @return The number of bytes written.
+   * @throws BufferOverflowException If the buffer is too small; nothing is written then.
+   */
+  public int encodeLeaveRoom(ByteBuffer buffer, String sender, String room) {
+    return encodeSenderAndName(buffer, LEAVE_ROOM, sender, room);
+  }
+
+  /**
+   * Encodes a request to list the rooms into a byte array.
+   * @param sender The user asking for the rooms.
+   * @return Byte array representing the encoded request.
+   */
+  public byte[] encodeListRooms(String sender) {
+    byte[] frame = new byte[Integer.BYTES + parameterLength(sender)];
+    encodeListRooms(ByteBuffer.wrap(frame), sender);
+    return frame;
+  }
+
+  /**
+   * Encodes a request to list the rooms into a buffer at its current position.
+   * @param buffer The buffer to write to.
+   * @param sender The user asking for the rooms.
+   * @return The number of bytes written.
+   * @throws BufferOverflowException If the buffer is too small; nothing is written then.
+   */
+  public int encodeListRooms(ByteBuffer buffer, String sender) {
+    return encodeSenderOnly(buffer, LIST_ROOMS, sender);
+  }
+
+  /**
+   * Encodes a message to a room into a byte array.
+   * @param sender The sender of the message.
+   * @param room The name of the room.
+   * @param message The content of the message.
+   * @return Byte array representing the encoded room message.
+   */
+  public byte[] encodeRoomMessage(String sender, String room, String message) {
+    byte[] frame = new byte[Integer.BYTES + parameterLength(sender) + parameterLength(room)
+        + parameterLength(message)];
+    encodeRoomMessage(ByteBuffer.wrap(frame), sender, room, message);
+    return frame;
+  }
+
+  /**
+   * Encodes a message to a room into a buffer at its current position.
+   * @param buffer The buffer to write to.
+   * @param sender The sender of the message.
+   * @param room The name of the room.
+   * @param message The content of the message.
+   * @return The number of bytes written.
+   * @throws BufferOverflowException If the buffer is too small; nothing is written then.
+   */
+  public int encodeRoomMessage(ByteBuffer buffer, String sender, String room, String message) {
+    int length = Integer.BYTES + parameterLength(sender) + parameterLength(room) + parameterLength(message);
+    checkRemaining(buffer, length);
+    buffer.putInt(ROOM_MESSAGE);
+    putParameter(buffer, sender);
+    putParameter(buffer, room);
+    putParameter(buffer, message);
+    return length;
+  }
+
+  /**
+   * Encodes the list of rooms into a byte array.
+   * @param rooms The names of the rooms. The collection may change while it is encoded; the
+   *              response lists the rooms seen during a single pass over it.
+   * @return Byte array representing the encoded room list.
+   */
+  public byte[] encodeRoomListResponse(Collection<String> rooms) {
+    List<String> roomNames = new ArrayList<>(rooms);
+    int length = Integer.BYTES + FRAME_SEPARATOR_BYTES.length + Integer.BYTES;
+    for (String roomName : roomNames) {
+      length += parameterLength(roomName);
+    }
+    byte[] frame = new byte[length];
+    encodeRoomListResponse(ByteBuffer.wrap(frame), roomNames);
+    return frame;
+  }
+
+  /**
+   * Encodes the list of rooms into a buffer at its current position. The room count is written
+   * after the rooms, so it always matches the entries even if the collection changes meanwhile.
+   * @param buffer The buffer to write to.
+   * @param rooms The names of the rooms.
+   * @return The number of bytes written.
+   * @throws BufferOverflowException If the buffer is too small; the position is restored then.
+   */
+  public int encodeRoomListResponse(ByteBuffer buffer, Collection<String> rooms) {
+    int start = buffer.position();
+    try {
+      buffer.putInt(ROOM_LIST_RESPONSE);
+      buffer.put(FRAME_SEPARATOR_BYTES);
+      int countPosition = buffer.position();
+      buffer.putInt(0);
+      int count = 0;
+      for (String room : rooms) {
+        putParameter(buffer, room);
+        count++;
+      }
+      buffer.putInt(countPosition, count);
+      return buffer.position() - start;
+    } catch (BufferOverflowException e) {
+      buffer.position(start);
+      throw e;
+    }
+  }
+
+  /**
+   * Encodes a request to replay the latest logged messages into a byte array.
+   * @param sender The user asking for the messages.
+   * @param count The number of messages to replay.
+   * @return Byte array representing the encoded request.
+   */
+  public byte[] encodeReplayLastMessages(String sender, long count) {
+    byte[] frame = new byte[numberAndNameLength(sender)];
+    encodeReplayLastMessages(ByteBuffer.wrap(frame), sender, count);
+    return frame;
+  }
+
+  /**
+   * Encodes a request to replay the latest logged messages into a buffer at its current position.
+   * @param buffer The buffer to write to.
+   * @param sender The user asking for the messages.
+   * @param count The number of messages to replay.
+   * @return The number of bytes written.
+   * @throws BufferOverflowException If the buffer is too small; nothing is written then.
+   */
+  public int encodeReplayLastMessages(ByteBuffer buffer, String sender, long count) {
+    return encodeNumberAndName(buffer, REPLAY_LAST_MESSAGES, sender, count);
+  }
+
+  /**
+   * Encodes a request to replay the logged messages from a sequence number on into a byte array.
+   * @param sender The user asking for the messages.
+   * @param sequence The sequence number of the first message to replay.
+   * @return Byte array representing the encoded request.
+   */
+  public byte[] encodeReplaySince(String sender, long sequence) {
+    byte[] frame = new byte[numberAndNameLength(sender)];
+    encodeReplaySince(ByteBuffer.wrap(frame), sender, sequence);
+    return frame;
+  }
+
+  /**
+   * Encodes a request to replay the logged messages from a sequence number on into a buffer at
+   * its current position.
+   * @param buffer The buffer to write to.
+   * @param sender The user asking for the messages.
+   * @param sequence The sequence number of the first message to replay.
+   * @return The number of bytes written.
+   * @throws BufferOverflowException If the buffer is too small; nothing is written then.
+   */
+  public int encodeReplaySince(ByteBuffer buffer, String sender, long sequence) {
+    return encodeNumberAndName(buffer, REPLAY_SINCE, sender, sequence);
+  }
+
+  /**
+   * Encodes a logged message into a buffer at its current position. The message text is copied
+   * from the body of an already encoded frame, so it is never decoded.
+   * @param buffer The buffer to write to.
+   * @param sequence The sequence number of the message in the log.
+   * @param sender The sender of the message.
+   * @param recipient The recipient of a direct message, or an empty string for a broadcast.
+   * @param message The frame whose body is the message text.
+   * @return The number of bytes written.
+   * @throws BufferOverflowException If the buffer is too small; nothing is written then.
+   */
+  public int encodeReplayedMessage(ByteBuffer buffer, long sequence, String sender, String recipient,
+      EncodedFrame message) {
+    int length = replayedMessageLength(sender, recipient, message);
+    checkRemaining(buffer, length);
+    buffer.putInt(REPLAYED_MESSAGE);
+    buffer.put(FRAME_SEPARATOR_BYTES);
+    buffer.putLong(sequence);
+    putParameter(buffer, sender);
+    putParameter(buffer, recipient);
+    putBody(buffer, message);
+    return length;
+  }
+
+  /**
+   * Computes the encoded size of a logged message, without its length header.
+   * @param sender The sender of the message.
+   * @param recipient The recipient of a direct message, or an empty string for a broadcast.
+   * @param message The frame whose body is the message text.
+   * @return The number of bytes the message takes.
+   */
+  static int replayedMessageLength(String sender, String recipient, EncodedFrame message) {
+    return Integer.BYTES + FRAME_SEPARATOR_BYTES.length + Long.BYTES + parameterLength(sender)
+        + parameterLength(recipient) + bodyParameterLength(message);
+  }
+
+  /**
+   * Encodes a compressed frame into a buffer at its current position.
+   * @param buffer The buffer to write to.
+   * @param inflatedLength The length of the original frame body.
+   * @param deflated The array holding the deflated body.
+   * @param deflatedLength The number of deflated bytes in the array.
+   * @return The number of bytes written.
+   * @throws BufferOverflowException If the buffer is too small; nothing is written then.
+   */
+  static int encodeCompressedFrame(ByteBuffer buffer, int inflatedLength, byte[] deflated, int deflatedLength) {
+    int length = compressedFrameLength(deflatedLength);
+    checkRemaining(buffer, length);
+    buffer.putInt(COMPRESSED_FRAME);
+    buffer.put(FRAME_SEPARATOR_BYTES);
+    buffer.putLong(inflatedLength);
+    buffer.put(FRAME_SEPARATOR_BYTES);
+    buffer.putInt(deflatedLength);
+    buffer.put(FRAME_SEPARATOR_BYTES);
+    buffer.put(deflated, 0, deflatedLength);
+    return length;
+  }
+
+  /**
+   * Computes the encoded size of a compressed frame, without its length header.
+   * @param deflatedLength The number of deflated bytes.
+   * @return The number of bytes the compressed frame takes.
+   */
+  static int compressedFrameLength(int deflatedLength) {
+    return Integer.BYTES + FRAME_SEPARATOR_BYTES.length + Long.BYTES + FRAME_SEPARATOR_BYTES.length
+        + Integer.BYTES + FRAME_SEPARATOR_BYTES.length + deflatedLength;
+  }
+
+  /**
+   * Encodes the first frame of a relay link into a byte array.
+   * @param nodeId The name of the sending node.
+   * @return Byte array representing the encoded frame.
+   */
+  public byte[] encodeRelayHello(String nodeId) {
+    byte[] frame = new byte[Integer.BYTES + parameterLength(nodeId)];
+    encodeSenderOnly(ByteBuffer.wrap(frame), RELAY_HELLO, nodeId);
+    return frame;
+  }
+
+  /**
+   * Encodes the news that a user connected to a node into a byte array.
+   * @param nodeId The name of the node the user connected to.
+   * @param userName The name of the user.
+   * @return Byte array representing the encoded frame.
+   */
+  public byte[] encodeRelayUserJoined(String nodeId, String userName) {
+    byte[] frame = new byte[Integer.BYTES + parameterLength(nodeId) + parameterLength(userName)];
+    encodeSenderAndName(ByteBuffer.wrap(frame), RELAY_USER_JOINED, nodeId, userName);
+    return frame;
+  }
+
+  /**
+   * Encodes the news that a user left a node into a byte array.
+   * @param nodeId The name of the node the user left.
+   * @param userName The name of the user.
+   * @return Byte array representing the encoded frame.
+   */
+  public byte[] encodeRelayUserLeft(String nodeId, String userName) {
+    byte[] frame = new byte[Integer.BYTES + parameterLength(nodeId) + parameterLength(userName)];
+    encodeSenderAndName(ByteBuffer.wrap(frame), RELAY_USER_LEFT, nodeId, userName);
+    return frame;
+  }
+
+  /**
+   * Encodes a relayed broadcast into a buffer at its current position. The frame sent to the
+   * clients is copied as it is, so the receiving node queues it without encoding it again.
+   * @param buffer The buffer to write to.
+   * @param nodeId The name of the sending node.
+   * @param message The frame sent to the clients.
+   * @return The number of bytes written.
+   * @throws BufferOverflowException If the buffer is too small; nothing is written then.
+   */
+  public int encodeRelayBroadcast(ByteBuffer buffer, String nodeId, EncodedFrame message) {
+    int length = relayBroadcastLength(nodeId, message);
+    checkRemaining(buffer, length);
+    buffer.putInt(RELAY_BROADCAST);
+    putParameter(buffer, nodeId);
+    putBody(buffer, message);
+    return length;
+  }
+
+  /**
+   * Computes the encoded size of a relayed broadcast, without its length header.
+   * @param nodeId The name of the sending node.
+   * @param message The frame sent to the clients.
+   * @return The number of bytes the relayed broadcast takes.
+   */
+  static int relayBroadcastLength(String nodeId, EncodedFrame message) {
+    return Integer.BYTES + parameterLength(nodeId) + bodyParameterLength(message);
+  }
+
+  /**
+   * Encodes a relayed direct message into a buffer at its current position. The frame sent to
+   * the recipient is copied as it is.
+   * @param buffer The buffer to write to.
+   * @param nodeId The name of the sending node.
+   * @param recipient The recipient of the message.
+   * @param message The frame sent to the recipient.
+   * @return The number of bytes written.
+   * @throws BufferOverflowException If the buffer is too small; nothing is written then.
+   */
+  public int encodeRelayDirect(ByteBuffer buffer, String nodeId, String recipient, EncodedFrame message) {
+    int length = relayDirectLength(nodeId, recipient, message);
+    checkRemaining(buffer, length);
+    buffer.putInt(RELAY_DIRECT);
+    putParameter(buffer, nodeId);
+    putParameter(buffer, recipient);
+    putBody(buffer, message);
+    return length;
+  }
+
+  /**
+   * Computes the encoded size of a relayed direct message, without its length header.
+   * @param nodeId The name of the sending node.
+   * @param recipient The recipient of the message.
+   * @param message The frame sent to the recipient.
+   * @return The number of bytes the relayed direct message takes.
+   */
+  static int relayDirectLength(String nodeId, String recipient, EncodedFrame message) {
+    return Integer.BYTES + parameterLength(nodeId) + parameterLength(recipient) + bodyParameterLength(message);
+  }
+
+  /**
+   * Reserves room for a length header at the buffer's position, so a frame can be encoded right
+   * behind it and completed with {@link #completeFrameHeader(ByteBuffer, int)}.
+   * @param buffer The buffer to write to.
+   * @return The position of the reserved header.
+   */
+  public static int reserveFrameHeader(ByteBuffer buffer) {
+    int headerPosition = buffer.position();
+    buffer.putInt(0);
+    return headerPosition;
+  }
+
+  /**
+   * Fills in a header reserved with {@link #reserveFrameHeader(ByteBuffer)} with the length of
+   * everything written after it.
+   * @param buffer The buffer holding the frame.
+   * @param headerPosition The position returned when the header was reserved.
+   */
+  public static void completeFrameHeader(ByteBuffer buffer, int headerPosition) {
+    buffer.putInt(headerPosition, buffer.position() - headerPosition - FRAME_HEADER_LENGTH);
   }
 
   /**
@@ -231,15 +1329,217 @@ public class ChatRoomProtocol {
   }
 
   /**
-   * Encodes a parameter and its length into the data output stream.
+   * Writes a frame preceded by its length header. The stream is not flushed.
    * @param dataOutputStream The data output stream to write to.
-   * @param param The parameter to be encoded.
+   * @param frame The frame to be written.
    * @throws IOException If an I/O error occurs.
    */
-  private void encodeParameters(DataOutputStream dataOutputStream, String param) throws IOException {
-    dataOutputStream.write(FRAME_SEPARATOR.getBytes(StandardCharsets.UTF_8));
-    dataOutputStream.writeInt(param.length());
-    dataOutputStream.write(FRAME_SEPARATOR.getBytes(StandardCharsets.UTF_8));
-    dataOutputStream.write(param.getBytes(StandardCharsets.UTF_8));
+  public static void writeFrame(DataOutputStream dataOutputStream, byte[] frame) throws IOException {
+    dataOutputStream.writeInt(frame.length);
+    dataOutputStream.write(frame);
+  }
+
+  /**
+   * Reads the next length-prefixed frame, blocking until all of it has arrived.
+   * @param dataInputStream The data input stream to read from.
+   * @return Byte array holding the frame without its length header.
+   * @throws IOException If the stream ends, the length is invalid or an I/O error occurs.
+   */
+  public static byte[] readFrame(DataInputStream dataInputStream) throws IOException {
+    int length = dataInputStream.readInt();
+    checkFrameLength(length);
+    byte[] frame = new byte[length];
+    dataInputStream.readFully(frame);
+    return frame;
+  }
+
+  /**
+   * Wraps a frame together with its length header in a buffer ready to be written to a channel.
+   * @param frame The frame to be wrapped.
+   * @return Buffer holding the length header followed by the frame.
+   */
+  public static ByteBuffer wrapFrame(byte[] frame) {
+    ByteBuffer buffer = ByteBuffer.allocate(FRAME_HEADER_LENGTH + frame.length);
+    buffer.putInt(frame.length);
+    buffer.put(frame);
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * Checks that a length read from a frame header is one this protocol accepts.
+   * @param length The length read from the header.
+   * @throws IOException If the length is negative or larger than {@link #MAX_FRAME_LENGTH}.
+   */
+  public static void checkFrameLength(int length) throws IOException {
+    if (length < 0 || length > MAX_FRAME_LENGTH) {
+      throw new IOException("Invalid frame length: " + length);
+    }
+  }
+
+  /**
+   * Encodes a frame made of a message type and the sender's name.
+   * @param buffer The buffer to write to.
+   * @param messageType The type of the message.
+   * @param sender The sender of the message.
+   * @return The number of bytes written.
+   */
+  private int encodeSenderOnly(ByteBuffer buffer, int messageType, String sender) {
+    int length = Integer.BYTES + parameterLength(sender);
+    checkRemaining(buffer, length);
+    buffer.putInt(messageType);
+    putParameter(buffer, sender);
+    return length;
+  }
+
+  /**
+   * Encodes a frame made of a message type, a number and a name, such as a replay request.
+   * @param buffer The buffer to write to.
+   * @param messageType The type of the frame.
+   * @param name The name, such as the user asking for messages.
+   * @param number The number, such as the number of messages or the first sequence number.
+   * @return The number of bytes written.
+   */
+  private int encodeNumberAndName(ByteBuffer buffer, int messageType, String name, long number) {
+    int length = numberAndNameLength(name);
+    checkRemaining(buffer, length);
+    buffer.putInt(messageType);
+    buffer.put(FRAME_SEPARATOR_BYTES);
+    buffer.putLong(number);
+    putParameter(buffer, name);
+    return length;
+  }
+
+  private static int numberAndNameLength(String name) {
+    return Integer.BYTES + FRAME_SEPARATOR_BYTES.length + Long.BYTES + parameterLength(name);
+  }
+
+  /**
+   * Encodes a frame made of a message type, the sender's name and one more name.
+   * @param buffer The buffer to write to.
+   * @param messageType The type of the message.
+   * @param sender The sender of the message.
+   * @param name The name the message is about.
+   * @return The number of bytes written.
+   */
+  private int encodeSenderAndName(ByteBuffer buffer, int messageType, String sender, String name) {
+    int length = Integer.BYTES + parameterLength(sender) + parameterLength(name);
+    checkRemaining(buffer, length);
+    buffer.putInt(messageType);
+    putParameter(buffer, sender);
+    putParameter(buffer, name);
+    return length;
+  }
+
+  /**
+   * Throws if the buffer has less room left than a frame needs.
+   * @param buffer The buffer to be written to.
+   * @param length The number of bytes about to be written.
+   */
+  private static void checkRemaining(ByteBuffer buffer, int length) {
+    if (buffer.remaining() < length) {
+      throw new BufferOverflowException();
+    }
+  }
+
+  /**
+   * Computes the encoded size of a parameter: separators, length and UTF-8 bytes.
+   * @param param The parameter to be encoded.
+   * @return The number of bytes the parameter takes in a frame.
+   */
+  static int parameterLength(String param) {
+    return FRAME_SEPARATOR_BYTES.length + Integer.BYTES + FRAME_SEPARATOR_BYTES.length + utf8Length(param);
+  }
+
+  /**
+   * Computes the encoded size of the body of a frame carried as a parameter.
+   * @param message The frame whose body is carried.
+   * @return The number of bytes the body takes in a frame.
+   */
+  private static int bodyParameterLength(EncodedFrame message) {
+    return FRAME_SEPARATOR_BYTES.length + Integer.BYTES + FRAME_SEPARATOR_BYTES.length + message.bodyLength();
+  }
+
+  /**
+   * Copies the body of an encoded frame into the buffer laid out as a parameter, so it is parsed
+   * like any other field.
+   * @param buffer The buffer to write to.
+   * @param message The frame whose body is carried.
+   */
+  private static void putBody(ByteBuffer buffer, EncodedFrame message) {
+    buffer.put(FRAME_SEPARATOR_BYTES);
+    buffer.putInt(message.bodyLength());
+    buffer.put(FRAME_SEPARATOR_BYTES);
+    message.copyBodyTo(buffer);
+  }
+
+  /**
+   * Encodes a parameter and its length in UTF-8 bytes into the buffer.
+   * @param buffer The buffer to write to.
+   * @param param The parameter to be encoded.
+   */
+  private static void putParameter(ByteBuffer buffer, String param) {
+    buffer.put(FRAME_SEPARATOR_BYTES);
+    buffer.putInt(utf8Length(param));
+    buffer.put(FRAME_SEPARATOR_BYTES);
+    putUtf8(buffer, param);
+  }
+
+  /**
+   * Computes the number of bytes {@code text.getBytes(StandardCharsets.UTF_8)} would return,
+   * without encoding the text.
+   * @param text The text to be measured.
+   * @return The UTF-8 length of the text.
+   */
+  static int utf8Length(String text) {
+    int length = 0;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c < 0x80) {
+        length += 1;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+          && Character.isLowSurrogate(text.charAt(i + 1))) {
+        length += 4;
+        i++;
+      } else if (Character.isSurrogate(c)) {
+        length += 1;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Writes the UTF-8 encoding of a text straight into the buffer, producing the same bytes as
+   * {@code text.getBytes(StandardCharsets.UTF_8)}, including '?' for unpaired surrogates.
+   * @param buffer The buffer to write to.
+   * @param text The text to be encoded.
+   */
+  static void putUtf8(ByteBuffer buffer, String text) {
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c < 0x80) {
+        buffer.put((byte) c);
+      } else if (c < 0x800) {
+        buffer.put((byte) (0xC0 | (c >> 6)));
+        buffer.put((byte) (0x80 | (c & 0x3F)));
+      } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+          && Character.isLowSurrogate(text.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, text.charAt(++i));
+        buffer.put((byte) (0xF0 | (codePoint >> 18)));
+        buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+        buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+        buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+      } else if (Character.isSurrogate(c)) {
+        buffer.put((byte) '?');
+      } else {
+        buffer.put((byte) (0xE0 | (c >> 12)));
+        buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+        buffer.put((byte) (0x80 | (c & 0x3F)));
+      }
+    }
   }
 }
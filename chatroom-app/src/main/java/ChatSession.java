@@ -0,0 +1,1432 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The `ChatSession` class holds the state and routing logic shared by every kind of connected
+ * client, independent of how its bytes travel over the network. Subclasses only decide how a
+ * message is delivered to their client and how their connection is torn down, so the blocking
+ * {@link ClientHandler} and the non-blocking {@link EventLoopSession} route messages identically.
+ */
+abstract class ChatSession {
+
+  /**
+   * The registry of all active client sessions, indexed by username.
+   */
+  public static SessionRegistry sessionRegistry = new SessionRegistry();
+
+  /**
+   * The registry of all named chat rooms, indexing the members of each room.
+   */
+  public static RoomRegistry roomRegistry = new RoomRegistry();
+
+  /**
+   * The log every chat message is appended to so it can be replayed later, or {@code null} if
+   * messages are not logged.
+   */
+  public static MessageLog messageLog;
+
+  /**
+   * The inboxes direct messages to users who are not connected are stored in, or {@code null} if
+   * such messages are dropped.
+   */
+  public static OfflineInbox offlineInbox;
+
+  /**
+   * The cluster this server relays broadcasts and direct messages through, or {@code null} if it
+   * runs on its own.
+   */
+  public static ClusterNode clusterNode;
+
+  /**
+   * The sessions whose connection was lost, waiting for their client to resume them, or
+   * {@code null} if sessions cannot be resumed.
+   */
+  public static ResumeRegistry resumeRegistry = new ResumeRegistry();
+
+  /**
+   * The registry of the users clients are told about, which pushes every change to the sessions
+   * subscribed to presence.
+   */
+  public static PresenceRegistry presenceRegistry = new PresenceRegistry();
+
+  /**
+   * The files users offer each other, or {@code null} if files cannot be sent.
+   */
+  public static FileTransfers fileTransfers;
+
+  /**
+   * The reply to a file offer when files cannot be sent.
+   */
+  public static final String FILE_TRANSFER_UNAVAILABLE_MESSAGE = "[Server] : Files cannot be sent on this server.";
+
+  /**
+   * The message sent to a client asking for a replay when messages are not logged.
+   */
+  public static final String HISTORY_UNAVAILABLE_MESSAGE = "[Server] : Message history is not available.";
+
+  /**
+   * The correlation ID of replies to requests that carry none. Clients number their requests from 1.
+   */
+  public static final long NO_CORRELATION_ID = 0;
+
+  /**
+   * The metrics every session records what it receives and sends into.
+   */
+  public static ServerMetrics serverMetrics = new ServerMetrics();
+
+  /**
+   * The left bracket used in message formatting.
+   */
+  public static String LEFT_BRACKET = "[";
+
+  /**
+   * The right bracket followed by a colon used in message formatting.
+   */
+  public static String RIGHT_BRACKET = "] : ";
+
+  /**
+   * The prefix of a room's name in message formatting.
+   */
+  public static final String ROOM_PREFIX = "#";
+
+  /**
+   * The message sent to a client when the server has no permits left.
+   */
+  public static final String MAX_CLIENTS_REACHED = "MAX CLIENTS REACHED.";
+
+  /**
+   * The message sent to a client whose username is already used by a connected client.
+   */
+  public static final String USERNAME_TAKEN_MESSAGE = "Username is already taken.";
+
+  /**
+   * The reply to a message that reached the clients of this node but is too long to be relayed
+   * to the other nodes of the cluster.
+   */
+  public static final String MESSAGE_TOO_LONG_TO_RELAY_MESSAGE =
+      "[Server] : That message is too long to reach users on other servers.";
+
+  /**
+   * The message sent before disconnecting a client whose username was taken on another node of the
+   * cluster at the same time, when the other node keeps it.
+   */
+  public static final String USERNAME_TAKEN_ON_ANOTHER_NODE_MESSAGE =
+      "[Server] : Your username was taken on another server at the same time.";
+
+  /**
+   * The message sent to a client that resumed its session on a new connection.
+   */
+  public static final String SESSION_RESUMED_MESSAGE = "Session resumed.";
+
+  /**
+   * The message sent to a client whose messages are dropped for exceeding the rate limits.
+   */
+  public static final String RATE_LIMITED_MESSAGE = "[Server] : You are sending too fast. Messages are being dropped.";
+
+  /**
+   * The message sent to a client disconnected for reading too slowly.
+   */
+  public static final String SLOW_CONSUMER_MESSAGE = "[Server] : Disconnected for falling too far behind the chat.";
+
+  /**
+   * What a session does when its client falls behind by more than the outbound limits.
+   */
+  public static BackpressurePolicy backpressurePolicy = OutboundQueue.DEFAULT_POLICY;
+
+  /**
+   * The number of frames that may wait to be written to one client.
+   */
+  public static int maxQueuedFrames = OutboundQueue.DEFAULT_CAPACITY;
+
+  /**
+   * The number of bytes that may wait to be written to one client.
+   */
+  public static long maxQueuedBytes = OutboundQueue.DEFAULT_BYTE_CAPACITY;
+
+  /**
+   * How fast every client may send each kind of message.
+   */
+  public static RateLimits rateLimits = RateLimits.UNLIMITED;
+
+  /**
+   * What a session does with a frame its client sends faster than the rate limits allow.
+   */
+  public static RateLimitPolicy rateLimitPolicy = RateLimitPolicy.DELAY;
+
+  /**
+   * How long a client may send nothing, by default, before its connection is closed.
+   */
+  public static final long DEFAULT_IDLE_TIMEOUT_SECONDS = 60;
+
+  /**
+   * How long a client may send nothing before its connection is closed, or 0 to never close it.
+   * A client that has been silent for half as long is pinged, so a client that answers pings is
+   * never closed.
+   */
+  public static long idleTimeoutNanos = TimeUnit.SECONDS.toNanos(DEFAULT_IDLE_TIMEOUT_SECONDS);
+
+  /**
+   * The timer watching every session for idleness.
+   */
+  public static HashedWheelTimer idleTimer = new HashedWheelTimer();
+
+  protected String clientUserName;
+
+  protected Semaphore semaphore;
+
+  protected ChatRoomProtocol chatRoomProtocol;
+
+  /**
+   * The view reused for every frame received from the client.
+   */
+  protected final FrameView inboundFrame = new FrameView();
+
+  /**
+   * The view reused for every message of a received batch.
+   */
+  private final FrameView batchedFrame = new FrameView();
+
+  /**
+   * The view of the request carried by a correlated request.
+   */
+  private final FrameView correlatedFrame = new FrameView();
+
+  /**
+   * The correlation ID of the request being routed, echoed in every reply to it.
+   */
+  private long replyCorrelationId = NO_CORRELATION_ID;
+
+  /**
+   * The frames waiting to be written to the client, bounded by the configured outbound limits.
+   */
+  protected final OutboundQueue outboundQueue = new OutboundQueue(maxQueuedFrames, maxQueuedBytes,
+      backpressurePolicy);
+
+  /**
+   * The names of the rooms the client joined, so they can all be left when the client goes away.
+   */
+  protected final Set<String> joinedRooms = ConcurrentHashMap.newKeySet();
+
+  /**
+   * The files waiting to be served to the client, in order. They are written by the same writer
+   * as the outbound queue, one piece at a time, whenever the outbound queue is empty.
+   */
+  private final Queue<FileTransfer> downloads = new ConcurrentLinkedQueue<>();
+
+  /**
+   * The token buckets limiting how fast the client may send each kind of message, indexed by
+   * {@link RateLimits#kindOf(int)}. Only touched by the thread receiving the client's frames.
+   */
+  private final TokenBucket[] rateBuckets = rateLimits.newBuckets();
+
+  /**
+   * The tokens the frame being admitted takes from each of the buckets, indexed like them.
+   */
+  private final int[] rateTokens = new int[RateLimits.MESSAGE_KINDS.length];
+
+  /**
+   * Whether the client was told its messages are dropped since the last one that got through.
+   */
+  private boolean rateLimitNotified;
+
+  /**
+   * Whether the client asked for compression when it connected, so large frames are sent to it
+   * deflated.
+   */
+  protected volatile boolean compressOutbound;
+
+  /**
+   * The timer watching this session for idleness, or {@code null} if it is not watched.
+   */
+  private HashedWheelTimer watchingTimer;
+
+  private long idleTimeoutTicks;
+
+  /**
+   * The tick of the watching timer at which the client last sent anything.
+   */
+  private volatile long lastActiveTick;
+
+  private volatile WheelTimeout idleTimeout;
+
+  private final Runnable idleCheck = this::checkIdle;
+
+  private final AtomicBoolean removed = new AtomicBoolean();
+
+  /**
+   * The token the client may resume this session with, or {@code null} if it did not ask for one.
+   */
+  private volatile String resumeToken;
+
+  /**
+   * Whether the connection was lost and the session waits to be resumed.
+   */
+  private final AtomicBoolean parked = new AtomicBoolean();
+
+  /**
+   * The session that resumed this one, which every frame still delivered here is handed on to.
+   */
+  private volatile ChatSession successor;
+
+  /**
+   * Delivers a single encoded frame to the client owning this session. The frame may be shared
+   * with other recipients and must not be modified.
+   *
+   * @param frame The frame to be delivered.
+   * @throws IOException If an I/O error occurs.
+   */
+  protected abstract void deliver(EncodedFrame frame) throws IOException;
+
+  /**
+   * Delivers a single frame to the client owning this session.
+   *
+   * @param frame The frame to be delivered, without its length header.
+   * @throws IOException If an I/O error occurs.
+   */
+  protected void deliver(byte[] frame) throws IOException {
+    deliver(new EncodedFrame(frame));
+  }
+
+  /**
+   * Closes the connection owned by this session after a disconnect request.
+   */
+  protected abstract void disconnect();
+
+  /**
+   * Queues a frame for the client, compressed if the client asked for compression, disconnecting
+   * the client with a reason if its queue overflowed under the {@link BackpressurePolicy#DISCONNECT}
+   * policy.
+   *
+   * @param frame The frame to be queued.
+   * @return {@code true} if the frame was queued.
+   */
+  protected boolean enqueueOutbound(EncodedFrame frame) {
+    if (compressOutbound) {
+      frame = frame.compressed();
+    }
+    int result = outboundQueue.enqueue(frame);
+    if (result == OutboundQueue.OVERFLOWED) {
+      outboundQueue.replaceAllWith(EncodedFrame.ofText(SLOW_CONSUMER_MESSAGE));
+      disconnectSlowConsumer();
+    }
+    return result == OutboundQueue.QUEUED;
+  }
+
+  /**
+   * Gives up this session's username to a user who took the same name on another node of the
+   * cluster at the same time: the client is told why and disconnected, leaving the chat.
+   */
+  void yieldUserName() {
+    outboundQueue.replaceAllWith(EncodedFrame.ofText(USERNAME_TAKEN_ON_ANOTHER_NODE_MESSAGE));
+    disconnectSlowConsumer();
+  }
+
+  /**
+   * Disconnects a client whose outbound queue overflowed, after writing the frame explaining why.
+   * Called from whichever thread tried to queue a frame for the client; sessions owning state
+   * that must be touched from a particular thread override this to hand the work over.
+   */
+  protected void disconnectSlowConsumer() {
+    disconnect();
+  }
+
+  /**
+   * Closes the connection of a client that sent nothing for longer than the idle timeout. By
+   * default the session leaves the chat; subclasses close their connection so a client that can
+   * resume its session still may.
+   */
+  protected void closeIdle() {
+    disconnect();
+  }
+
+  /**
+   * Starts watching this session for idleness, if an idle timeout is set. The session's only
+   * entry in the {@link #idleTimer} is rescheduled when it comes due, so hearing from the client
+   * costs one write of the timer's current tick rather than a reschedule.
+   */
+  protected void watchIdle() {
+    long timeout = idleTimeoutNanos;
+    if (timeout <= 0 || watchingTimer != null) {
+      return;
+    }
+    HashedWheelTimer timer = idleTimer;
+    watchingTimer = timer;
+    idleTimeoutTicks = Math.max(2, timer.toTicks(timeout));
+    lastActiveTick = timer.currentTick();
+    idleTimeout = timer.schedule(idleCheck, idleTimeoutTicks / 2);
+  }
+
+  /**
+   * Records that the client sent something, which keeps its connection from being closed as idle.
+   */
+  protected void recordActivity() {
+    HashedWheelTimer timer = watchingTimer;
+    if (timer != null) {
+      long now = timer.currentTick();
+      if (lastActiveTick != now) {
+        lastActiveTick = now;
+      }
+    }
+  }
+
+  /**
+   * Runs on the timer's thread when the session's idle timeout comes due. A client silent for half
+   * the timeout is pinged, and one silent for the whole timeout is closed; otherwise the check is
+   * rescheduled for when the client would reach the next of those.
+   */
+  private void checkIdle() {
+    if (isRemoved() || isParked()) {
+      return;
+    }
+    HashedWheelTimer timer = watchingTimer;
+    long idle = timer.currentTick() - lastActiveTick;
+    if (idle >= idleTimeoutTicks) {
+      serverMetrics.recordIdleTimeout();
+      closeIdle();
+      return;
+    }
+    long pingAfter = idleTimeoutTicks / 2;
+    if (idle >= pingAfter) {
+      ping(timer.currentTick());
+      idleTimeout = timer.schedule(idleCheck, idleTimeoutTicks - idle);
+    } else {
+      idleTimeout = timer.schedule(idleCheck, pingAfter - idle);
+    }
+  }
+
+  /**
+   * Pings the client if it is in the chat, so a client that has nothing to say still shows it is
+   * there by answering. A client still connecting is not pinged, since it expects its connect
+   * response first.
+   *
+   * @param nonce The number the answer echoes.
+   */
+  private void ping(long nonce) {
+    if (clientUserName == null || sessionRegistry.lookup(clientUserName) != this) {
+      return;
+    }
+    try {
+      deliver(chatRoomProtocol.encodePing("", nonce));
+    } catch (IOException e) {
+
+    }
+  }
+
+  /**
+   * Registers this session under its username. If the name is taken, here or on another node of
+   * the cluster, the client is told so in a failed connect response and its connection is closed.
+   * Two nodes may still register the same name before either hears of the other; the cluster
+   * settles that when the relayed joins arrive, see {@link #yieldUserName()}.
+   *
+   * @return {@code true} if the session was registered.
+   */
+  protected boolean registerSession() {
+    ClusterNode cluster = clusterNode;
+    if ((cluster == null || cluster.locate(clientUserName) == null) && sessionRegistry.register(this)) {
+      if (cluster != null) {
+        cluster.userJoined(clientUserName);
+      }
+      presenceRegistry.refresh(clientUserName);
+      return true;
+    }
+    try {
+      deliver(chatRoomProtocol.encodeConnectResponse(false, USERNAME_TAKEN_MESSAGE));
+    } catch (IOException e) {
+
+    }
+    disconnect();
+    return false;
+  }
+
+  /**
+   * Handles the first frame of a connection. A {@link ChatRoomProtocol#CONNECT_MESSAGE} carries
+   * the username and every capability at once and is answered with a single connect response;
+   * if it carries the resume token of a parked session, the connection takes that session over
+   * instead of joining anew. Any other frame is the username of an older client, which sends its
+   * connection frame next.
+   *
+   * @param frame A view of the first frame received from the client.
+   * @return {@code false} if an older client was registered and its connection frame comes next,
+   *     {@code true} once the handshake is over.
+   */
+  protected boolean handshake(FrameView frame) {
+    if (frame.messageType() != ChatRoomProtocol.CONNECT_MESSAGE) {
+      serverMetrics.recordFrameIn(-1, frame.length());
+      clientUserName = frame.text();
+      return !registerSession();
+    }
+    clientUserName = frame.field(0);
+    if (frame.fieldCount() > 2 && !frame.field(2).isEmpty() && resume(frame)) {
+      return true;
+    }
+    if (registerSession()) {
+      acknowledgeConnection(frame);
+    }
+    return true;
+  }
+
+  /**
+   * Answers the connection frame sent by a newly joined client with a connect response,
+   * and announces the new user to the rest of the chat.
+   *
+   * @param frame The connection frame received from the client.
+   */
+  protected void acknowledgeConnection(byte[] frame) {
+    if (frame != null) {
+      if (inboundFrame.wrap(frame)) {
+        acknowledgeConnection(inboundFrame);
+      } else {
+        serverMetrics.recordDecodeFailure();
+      }
+    }
+  }
+
+  /**
+   * Answers the connection frame sent by a newly joined client with a connect response,
+   * and announces the new user to the rest of the chat. If the client asked for compression, the
+   * response accepts it and every later large frame is sent to the client deflated. If it asked
+   * for a resumable session, the response carries the token to resume it with.
+   *
+   * @param frame A view of the connection frame received from the client.
+   */
+  protected void acknowledgeConnection(FrameView frame) {
+    serverMetrics.recordFrameIn(frame.messageType(), frame.length());
+    if (frame.messageType() == ChatRoomProtocol.CONNECT_MESSAGE) {
+      ClusterNode cluster = clusterNode;
+      int connectedUsers = sessionRegistry.size() + (cluster != null ? cluster.remoteUserNames().size() : 0);
+      String connectionMessage = "Connection established with Server. There are " +
+          connectedUsers + " connected users.";
+      boolean compression = frame.fieldCount() > 1
+          && frame.field(1).equals(ChatRoomProtocol.COMPRESSION_DEFLATE);
+      if (frame.fieldCount() > 2 && resumeRegistry != null) {
+        resumeToken = ResumeRegistry.newToken();
+        sendDirectMessage(clientUserName, chatRoomProtocol.encodeConnectResponse(true, connectionMessage,
+            compression ? ChatRoomProtocol.COMPRESSION_DEFLATE : "", resumeToken));
+      } else {
+        sendDirectMessage(clientUserName, compression
+            ? chatRoomProtocol.encodeConnectResponse(true, connectionMessage, ChatRoomProtocol.COMPRESSION_DEFLATE)
+            : chatRoomProtocol.encodeConnectResponse(true, connectionMessage));
+      }
+      compressOutbound = compression;
+      broadcastMessage("[Server] : " + clientUserName + " has entered the chat.");
+      OfflineInbox inbox = offlineInbox;
+      if (inbox != null) {
+        inbox.deliverTo(this);
+      }
+    }
+  }
+
+  /**
+   * Takes over the parked session a resume token belongs to. The client is answered first, with a
+   * fresh token, and then sent every frame that queued up for the session while it was parked.
+   * The username and the rooms pass to this session without anyone being told, and whatever is
+   * still delivered to the parked session is handed on to this one.
+   *
+   * @param frame A view of the connection frame, carrying the resume token.
+   * @return {@code false} if the token does not belong to a parked session of this user.
+   */
+  private boolean resume(FrameView frame) {
+    ResumeRegistry registry = resumeRegistry;
+    ChatSession previous = registry != null ? registry.claim(frame.field(2), clientUserName) : null;
+    if (previous == null) {
+      return false;
+    }
+    serverMetrics.recordFrameIn(frame.messageType(), frame.length());
+    boolean compression = frame.field(1).equals(ChatRoomProtocol.COMPRESSION_DEFLATE);
+    resumeToken = ResumeRegistry.newToken();
+    try {
+      deliver(chatRoomProtocol.encodeConnectResponse(true, SESSION_RESUMED_MESSAGE,
+          compression ? ChatRoomProtocol.COMPRESSION_DEFLATE : "", resumeToken));
+    } catch (IOException e) {
+
+    }
+    compressOutbound = compression;
+    takeQueued(previous);
+    previous.successor = this;
+    previous.removed.set(true);
+    sessionRegistry.replace(previous, this);
+    presenceRegistry.transfer(previous, this);
+    for (String room : previous.joinedRooms) {
+      joinedRooms.add(room);
+      roomRegistry.join(room, this);
+      roomRegistry.leave(room, previous);
+    }
+    previous.joinedRooms.clear();
+    previous.semaphore.release();
+    takeQueued(previous);
+    return true;
+  }
+
+  /**
+   * Moves the frames queued for a parked session to this session's client, in order.
+   *
+   * @param previous The parked session this session resumed.
+   */
+  private void takeQueued(ChatSession previous) {
+    EncodedFrame frame;
+    while ((frame = previous.outboundQueue.poll()) != null) {
+      try {
+        deliver(frame);
+      } catch (IOException e) {
+
+      }
+    }
+  }
+
+  /**
+   * Parks this session after its connection was lost, if its client can resume it: the session
+   * stays in the chat and frames keep queueing for it until the client comes back or the grace
+   * period ends. Safe to call more than once.
+   *
+   * @return {@code true} if the session is parked, {@code false} if it must leave the chat.
+   */
+  protected boolean park() {
+    ResumeRegistry registry = resumeRegistry;
+    String token = resumeToken;
+    if (token == null || registry == null || isRemoved()) {
+      return false;
+    }
+    if (parked.compareAndSet(false, true)) {
+      cancelFileTransfers();
+      registry.park(token, this);
+    }
+    return true;
+  }
+
+  /**
+   * Checks whether the connection was lost and the session waits to be resumed.
+   *
+   * @return {@code true} if the session is parked.
+   */
+  public boolean isParked() {
+    return parked.get();
+  }
+
+  /**
+   * Handles a frame delivered to a parked session. The frame is queued until the client resumes
+   * the session, or handed on once it has. A parked session whose queue overflows leaves the chat.
+   *
+   * @param frame The frame to be delivered.
+   * @return {@code false} if the session is not parked and the caller must deliver the frame.
+   */
+  protected boolean holdIfParked(EncodedFrame frame) {
+    if (!parked.get()) {
+      return false;
+    }
+    try {
+      ChatSession next = successor;
+      if (next != null) {
+        next.deliver(frame);
+        return true;
+      }
+      if (outboundQueue.enqueue(compressOutbound ? frame.compressed() : frame) == OutboundQueue.OVERFLOWED) {
+        ResumeRegistry registry = resumeRegistry;
+        if (registry != null && registry.discard(resumeToken, this)) {
+          removeClientHandler();
+        }
+      }
+      next = successor;
+      if (next != null) {
+        next.takeQueued(this);
+      }
+    } catch (IOException e) {
+
+    }
+    return true;
+  }
+
+  /**
+   * Processes the input message received from the client.
+   *
+   * @param message The message received from the client.
+   */
+  public void processInput(String message) {
+    if (message != null) {
+      processInput(ChatRoomProtocol.decodeFrame(message));
+    }
+  }
+
+  /**
+   * Processes a frame received from the client.
+   *
+   * @param frame The frame received from the client, without its length header.
+   */
+  public void processInput(byte[] frame) {
+    if (frame != null) {
+      if (inboundFrame.wrap(frame)) {
+        processInput(inboundFrame);
+      } else {
+        serverMetrics.recordDecodeFailure();
+      }
+    }
+  }
+
+  /**
+   * Processes a frame received from the client. Fields are only decoded when a string is needed
+   * to route the message; chat text is copied into the outgoing frame as raw bytes.
+   *
+   * @param frame A well-formed view of the frame received from the client.
+   */
+  public void processInput(FrameView frame) {
+    serverMetrics.recordFrameIn(frame.messageType(), frame.length());
+    if (!admit(frame)) {
+      return;
+    }
+    long start = System.nanoTime();
+    routeInput(frame);
+    serverMetrics.recordProcessing(System.nanoTime() - start);
+  }
+
+  /**
+   * Checks a received frame against the client's rate limits and takes its tokens. A frame that
+   * finds a bucket empty is handled by the {@link #rateLimitPolicy}: it is held until the
+   * bucket refills, dropped, or dropped with a notice to the client. A dropped request that
+   * expects a reply is always answered, so the client is never left waiting for it.
+   *
+   * @param frame A well-formed view of the frame received from the client.
+   * @return {@code true} if the frame may be routed.
+   */
+  private boolean admit(FrameView frame) {
+    if (!countTokens(limitedFrame(frame))) {
+      return true;
+    }
+    long wait = acquireTokens(System.nanoTime());
+    if (wait == 0) {
+      rateLimitNotified = false;
+      return true;
+    }
+    RateLimitPolicy policy = rateLimitPolicy;
+    serverMetrics.recordRateLimited(policy);
+    if (policy == RateLimitPolicy.DELAY) {
+      while (wait > 0 && awaitTokens(wait)) {
+        wait = acquireTokens(System.nanoTime());
+      }
+      if (wait == 0) {
+        return true;
+      }
+    }
+    try {
+      if (frame.messageType() == ChatRoomProtocol.CORRELATED_REQUEST) {
+        deliver(EncodedFrame.ofCorrelatedResponse(frame.number(), EncodedFrame.ofText(RATE_LIMITED_MESSAGE)));
+      } else if (policy == RateLimitPolicy.NOTIFY && !rateLimitNotified) {
+        deliver(EncodedFrame.ofText(RATE_LIMITED_MESSAGE));
+      }
+    } catch (IOException e) {
+
+    }
+    if (policy == RateLimitPolicy.NOTIFY) {
+      rateLimitNotified = true;
+    }
+    return false;
+  }
+
+  /**
+   * Computes how long a received frame must be held before the client's rate limits let it
+   * through under the {@link RateLimitPolicy#DELAY} policy, without taking any tokens. Sessions
+   * that must not block call this before handing the frame to {@link #processInput(FrameView)}.
+   *
+   * @param frame A well-formed view of the frame received from the client.
+   * @return 0 if the frame may be processed now, otherwise the nanoseconds to hold it for.
+   */
+  protected long rateLimitDelay(FrameView frame) {
+    if (rateLimitPolicy != RateLimitPolicy.DELAY || !countTokens(limitedFrame(frame))) {
+      return 0;
+    }
+    long wait = tokenDelay(System.nanoTime());
+    if (wait > 0) {
+      serverMetrics.recordRateLimited(RateLimitPolicy.DELAY);
+    }
+    return wait;
+  }
+
+  /**
+   * Waits for the client's token bucket to refill before the frame being admitted is routed.
+   * Sessions whose receiving thread may block override this to sleep; by default the frame is
+   * dropped instead.
+   *
+   * @param nanos The nanoseconds until the bucket has room for the frame.
+   * @return {@code true} once the time has passed, {@code false} to drop the frame.
+   */
+  protected boolean awaitTokens(long nanos) {
+    return false;
+  }
+
+  /**
+   * Finds the frame whose type a received frame is rate limited as: the request carried by a
+   * correlated request, or the frame itself.
+   *
+   * @param frame A well-formed view of the frame received from the client.
+   * @return The frame to be limited.
+   */
+  private FrameView limitedFrame(FrameView frame) {
+    if (frame.messageType() == ChatRoomProtocol.CORRELATED_REQUEST && correlatedFrame.wrapField(frame, 0)) {
+      return correlatedFrame;
+    }
+    return frame;
+  }
+
+  /**
+   * Counts the tokens a received frame takes from each of the client's buckets: one from the
+   * bucket of its kind, or for a batch one from the bucket of every message it carries.
+   *
+   * @param frame The frame to be limited.
+   * @return {@code true} if the frame takes tokens from any bucket.
+   */
+  private boolean countTokens(FrameView frame) {
+    Arrays.fill(rateTokens, 0);
+    if (frame.messageType() != ChatRoomProtocol.BATCH_MESSAGE || frame.fieldCount() == 0) {
+      int kind = RateLimits.kindOf(frame.messageType());
+      if (kind < 0) {
+        return false;
+      }
+      rateTokens[kind] = 1;
+      return rateBuckets[kind] != null;
+    }
+    boolean limited = false;
+    for (int i = 0; i < frame.fieldCount(); i++) {
+      int kind = RateLimits.kindInBatch(batchedFrame.wrapField(frame, i) ? batchedFrame.messageType() : -1);
+      rateTokens[kind]++;
+      limited |= rateBuckets[kind] != null;
+    }
+    return limited;
+  }
+
+  /**
+   * Computes how long the counted tokens must wait for: until every bucket they come from has
+   * room for them.
+   *
+   * @param now The current time, from {@link System#nanoTime()}.
+   * @return 0 if the tokens are available now, otherwise the nanoseconds until they are.
+   */
+  private long tokenDelay(long now) {
+    long wait = 0;
+    for (int kind = 0; kind < rateTokens.length; kind++) {
+      if (rateTokens[kind] > 0 && rateBuckets[kind] != null) {
+        wait = Math.max(wait, rateBuckets[kind].delay(rateTokens[kind], now));
+      }
+    }
+    return wait;
+  }
+
+  /**
+   * Takes the counted tokens if every bucket they come from has room for them, and none otherwise.
+   *
+   * @param now The current time, from {@link System#nanoTime()}.
+   * @return 0 if the tokens were taken, otherwise the nanoseconds until they are available.
+   */
+  private long acquireTokens(long now) {
+    long wait = tokenDelay(now);
+    if (wait == 0) {
+      for (int kind = 0; kind < rateTokens.length; kind++) {
+        if (rateTokens[kind] > 0 && rateBuckets[kind] != null) {
+          rateBuckets[kind].acquire(rateTokens[kind], now);
+        }
+      }
+    }
+    return wait;
+  }
+
+  /**
+   * Routes a received frame according to its message type.
+   *
+   * @param frame A well-formed view of the frame received from the client.
+   */
+  private void routeInput(FrameView frame) {
+    switch (frame.messageType()) {
+      case ChatRoomProtocol.BROADCAST_MESSAGE:
+        EncodedFrame broadcast = EncodedFrame.ofChatMessage(frame, 0, 1);
+        broadcastFrame(broadcast);
+        logMessage(null, broadcast);
+        break;
+      case ChatRoomProtocol.DIRECT_MESSAGE:
+        String recipient = frame.field(1);
+        EncodedFrame directMessage = EncodedFrame.ofChatMessage(frame, 0, 2);
+        sendOrStoreDirectMessage(recipient, directMessage);
+        logMessage(recipient, directMessage);
+        break;
+      case ChatRoomProtocol.DISCONNECT_MESSAGE:
+        String senderUsername = frame.field(0);
+        System.out.println("\nUser " + senderUsername + " Disconnected.");
+        sendDirectMessage(senderUsername,
+            chatRoomProtocol.encodeConnectResponse(true, Client.DISCONNECT_MESSAGE));
+
+        disconnect();
+        break;
+      case ChatRoomProtocol.QUERY_CONNECTED_USERS:
+        replyPages(presenceRegistry.userList());
+        break;
+      case ChatRoomProtocol.SUBSCRIBE_PRESENCE:
+        presenceRegistry.subscribe(this);
+        break;
+      case ChatRoomProtocol.UNSUBSCRIBE_PRESENCE:
+        presenceRegistry.unsubscribe(this);
+        break;
+      case ChatRoomProtocol.SEND_INSULT:
+        String insult = InsultGenerator.generateInsult();
+        EncodedFrame insultMessage = EncodedFrame.ofText(LEFT_BRACKET + frame.field(0) + RIGHT_BRACKET + insult);
+        sendDirectMessage(frame.field(0), insult);
+        sendDirectMessage(frame.field(1), insultMessage);
+        logMessage(frame.field(1), insultMessage);
+        break;
+      case ChatRoomProtocol.JOIN_ROOM:
+        joinRoom(frame.field(1));
+        break;
+      case ChatRoomProtocol.LEAVE_ROOM:
+        leaveRoom(frame.field(1));
+        break;
+      case ChatRoomProtocol.LIST_ROOMS:
+        reply(chatRoomProtocol.encodeRoomListResponse(roomRegistry.rooms()));
+        break;
+      case ChatRoomProtocol.ROOM_MESSAGE:
+        String room = frame.field(1);
+        if (roomRegistry.isMember(room, this)) {
+          broadcastToRoom(room, EncodedFrame.ofRoomMessage(frame, 0, 1, 2));
+        } else {
+          reply("[Server] : You are not in room '" + room + "'.");
+        }
+        break;
+      case ChatRoomProtocol.BATCH_MESSAGE:
+        routeBatch(frame);
+        break;
+      case ChatRoomProtocol.CORRELATED_REQUEST:
+        routeCorrelated(frame);
+        break;
+      case ChatRoomProtocol.PING:
+        reply(chatRoomProtocol.encodePong("", frame.number()));
+        break;
+      case ChatRoomProtocol.PONG:
+        break;
+      case ChatRoomProtocol.FILE_OFFER:
+      case ChatRoomProtocol.FILE_ACCEPT:
+      case ChatRoomProtocol.FILE_DECLINE:
+      case ChatRoomProtocol.FILE_CHUNK:
+        routeFileTransfer(frame);
+        break;
+      case ChatRoomProtocol.REPLAY_LAST_MESSAGES:
+        if (messageLog != null) {
+          messageLog.replayLast(this, frame.number());
+        } else {
+          reply(HISTORY_UNAVAILABLE_MESSAGE);
+        }
+        break;
+      case ChatRoomProtocol.REPLAY_SINCE:
+        if (messageLog != null) {
+          messageLog.replaySince(this, frame.number());
+        } else {
+          reply(HISTORY_UNAVAILABLE_MESSAGE);
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Routes a frame of a file transfer to the registry of transfers. File pieces are handed over
+   * as they sit in the buffer they were read into, so their bytes are never decoded.
+   *
+   * @param frame A well-formed view of the frame.
+   */
+  private void routeFileTransfer(FrameView frame) {
+    FileTransfers transfers = fileTransfers;
+    if (transfers == null) {
+      if (frame.messageType() == ChatRoomProtocol.FILE_OFFER) {
+        reply(FILE_TRANSFER_UNAVAILABLE_MESSAGE);
+      }
+      return;
+    }
+    switch (frame.messageType()) {
+      case ChatRoomProtocol.FILE_OFFER:
+        transfers.offer(this, frame);
+        break;
+      case ChatRoomProtocol.FILE_ACCEPT:
+        transfers.accept(this, frame.number());
+        break;
+      case ChatRoomProtocol.FILE_DECLINE:
+        transfers.decline(this, frame.number());
+        break;
+      default:
+        receiveFileChunk(transfers, frame);
+        break;
+    }
+  }
+
+  /**
+   * Hands an uploaded piece of a file to the registry of transfers, which writes it to the spool
+   * file before returning. That only holds up this client's own reading thread; sessions sharing
+   * a thread with other clients hand the piece to the spool writer instead.
+   *
+   * @param transfers The registry of transfers.
+   * @param chunk     A well-formed view of the piece, still in the buffer it was read into.
+   */
+  protected void receiveFileChunk(FileTransfers transfers, FrameView chunk) {
+    transfers.receive(this, chunk);
+  }
+
+  /**
+   * Queues a file whose upload is complete to be served to the client. A session that left the
+   * chat or lost its connection ends the transfer at once instead.
+   *
+   * @param transfer The transfer, ready to be downloaded.
+   * @return {@code true} if the file was queued and the writer must be woken up.
+   */
+  protected boolean startDownload(FileTransfer transfer) {
+    downloads.add(transfer);
+    if (isRemoved() || isParked()) {
+      closeDownloads();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Gets the file being served to the client, if any.
+   *
+   * @return The first queued download, or {@code null} if there is none.
+   */
+  protected FileTransfer currentDownload() {
+    return downloads.peek();
+  }
+
+  /**
+   * Ends a download once its last piece was written, or after writing it failed.
+   *
+   * @param transfer The transfer.
+   * @param complete {@code true} if the whole file was written.
+   */
+  protected void finishDownload(FileTransfer transfer, boolean complete) {
+    if (downloads.remove(transfer)) {
+      transfer.getOwner().finish(transfer, complete);
+    }
+  }
+
+  /**
+   * Ends every queued download without serving the rest of its file.
+   */
+  protected void closeDownloads() {
+    FileTransfer transfer;
+    while ((transfer = downloads.poll()) != null) {
+      transfer.getOwner().finish(transfer, false);
+    }
+  }
+
+  /**
+   * Gives up the drain claim once the outbound queue is empty, like
+   * {@link OutboundQueue#finishDrain()}, but keeps it while a file is still being served.
+   *
+   * @return {@code true} if the caller holds the drain claim and must keep writing.
+   */
+  protected boolean finishOutbound() {
+    return outboundQueue.finishDrain() || !downloads.isEmpty() && outboundQueue.claimDrain();
+  }
+
+  /**
+   * Ends every file transfer the client is part of, after it left or lost its connection.
+   */
+  private void cancelFileTransfers() {
+    closeDownloads();
+    FileTransfers transfers = fileTransfers;
+    if (transfers != null) {
+      transfers.cancelAll(this);
+    }
+  }
+
+  /**
+   * Routes the request carried by a correlated request. Every reply the request gets while it is
+   * routed carries the same correlation ID, so a client can match replies to its requests however
+   * many it has in flight. Correlated requests cannot be nested.
+   *
+   * @param request A well-formed view of the correlated request.
+   */
+  private void routeCorrelated(FrameView request) {
+    if (replyCorrelationId != NO_CORRELATION_ID || !correlatedFrame.wrapField(request, 0)
+        || correlatedFrame.messageType() == ChatRoomProtocol.CORRELATED_REQUEST) {
+      serverMetrics.recordDecodeFailure();
+      return;
+    }
+    serverMetrics.recordFrameIn(correlatedFrame.messageType(), correlatedFrame.length());
+    replyCorrelationId = request.number();
+    try {
+      routeInput(correlatedFrame);
+    } finally {
+      replyCorrelationId = NO_CORRELATION_ID;
+    }
+  }
+
+  /**
+   * Routes every broadcast and direct message of a batch in one pass. Consecutive broadcasts are
+   * joined into one run of frames that is queued once for every client, and consecutive direct
+   * messages into one run per recipient, so a batch costs each recipient one queued write rather
+   * than one per message. Each message is still logged and relayed on its own.
+   *
+   * @param batch A well-formed view of the batch.
+   */
+  private void routeBatch(FrameView batch) {
+    List<EncodedFrame> broadcasts = new ArrayList<>();
+    Map<ChatSession, List<EncodedFrame>> directMessages = new LinkedHashMap<>();
+    for (int i = 0; i < batch.fieldCount(); i++) {
+      if (!batchedFrame.wrapField(batch, i)) {
+        serverMetrics.recordDecodeFailure();
+        continue;
+      }
+      serverMetrics.recordFrameIn(batchedFrame.messageType(), batchedFrame.length());
+      switch (batchedFrame.messageType()) {
+        case ChatRoomProtocol.BROADCAST_MESSAGE:
+          deliverRuns(directMessages);
+          EncodedFrame broadcast = EncodedFrame.ofChatMessage(batchedFrame, 0, 1);
+          broadcasts.add(broadcast);
+          ClusterNode cluster = clusterNode;
+          if (cluster != null && !cluster.relayBroadcast(broadcast)) {
+            reply(MESSAGE_TOO_LONG_TO_RELAY_MESSAGE);
+          }
+          logMessage(null, broadcast);
+          break;
+        case ChatRoomProtocol.DIRECT_MESSAGE:
+          broadcastRun(broadcasts);
+          String recipient = batchedFrame.field(1);
+          EncodedFrame directMessage = EncodedFrame.ofChatMessage(batchedFrame, 0, 2);
+          ChatSession recipientSession = sessionRegistry.lookup(recipient);
+          if (recipientSession != null) {
+            directMessages.computeIfAbsent(recipientSession, session -> new ArrayList<>()).add(directMessage);
+          } else {
+            sendOrStoreDirectMessage(recipient, directMessage);
+          }
+          logMessage(recipient, directMessage);
+          break;
+        default:
+          break;
+      }
+    }
+    broadcastRun(broadcasts);
+    deliverRuns(directMessages);
+  }
+
+  /**
+   * Queues the broadcasts gathered from a batch as one run for every other client, and forgets them.
+   *
+   * @param broadcasts The broadcasts, in order.
+   */
+  private void broadcastRun(List<EncodedFrame> broadcasts) {
+    if (!broadcasts.isEmpty()) {
+      broadcastLocally(EncodedFrame.join(broadcasts), this);
+      broadcasts.clear();
+    }
+  }
+
+  /**
+   * Queues the direct messages gathered from a batch as one run per recipient, and forgets them.
+   *
+   * @param directMessages The direct messages of each recipient, in order.
+   */
+  private static void deliverRuns(Map<ChatSession, List<EncodedFrame>> directMessages) {
+    for (Map.Entry<ChatSession, List<EncodedFrame>> entry : directMessages.entrySet()) {
+      try {
+        entry.getKey().deliver(EncodedFrame.join(entry.getValue()));
+      } catch (IOException e) {
+
+      }
+    }
+    directMessages.clear();
+  }
+
+  /**
+   * Queues a chat message for the message log, if messages are logged. Only the already encoded
+   * frame is queued; the log's own thread writes it.
+   *
+   * @param recipient The recipient of a direct message, or {@code null} for a broadcast.
+   * @param message   The frame sent to the recipients.
+   */
+  private void logMessage(String recipient, EncodedFrame message) {
+    MessageLog log = messageLog;
+    if (log != null) {
+      log.append(clientUserName, recipient, message);
+    }
+  }
+
+  /**
+   * Sends a chat message to the specified user, storing it in the user's offline inbox if the
+   * user is not connected to any node and offline inboxes are kept.
+   *
+   * @param targetUser The username of the target user.
+   * @param frame      The frame to be sent.
+   */
+  public void sendOrStoreDirectMessage(String targetUser, EncodedFrame frame) {
+    OfflineInbox inbox = offlineInbox;
+    if (inbox != null && !isConnected(targetUser)) {
+      inbox.store(this, targetUser, frame);
+      return;
+    }
+    sendDirectMessage(targetUser, frame);
+  }
+
+  /**
+   * Checks whether a user is connected, to this node or to another node of the cluster.
+   *
+   * @param userName The username to look up.
+   * @return {@code true} if the user is connected.
+   */
+  static boolean isConnected(String userName) {
+    ClusterNode cluster = clusterNode;
+    return sessionRegistry.lookup(userName) != null || (cluster != null && cluster.locate(userName) != null);
+  }
+
+  /**
+   * Sends a direct message to the specified user.
+   *
+   * @param targetUser The username of the target user.
+   * @param message    The message to be sent.
+   */
+  public void sendDirectMessage(String targetUser, String message) {
+    sendDirectMessage(targetUser, message.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Sends an already encoded frame to the specified user.
+   *
+   * @param targetUser The username of the target user.
+   * @param frame      The frame to be sent.
+   */
+  public void sendDirectMessage(String targetUser, byte[] frame) {
+    sendDirectMessage(targetUser, new EncodedFrame(frame));
+  }
+
+  /**
+   * Sends an already encoded frame, including its length header, to the specified user, relaying
+   * it to the node holding the user if the user is connected to another node of the cluster.
+   *
+   * @param targetUser The username of the target user.
+   * @param frame      The frame to be sent.
+   */
+  public void sendDirectMessage(String targetUser, EncodedFrame frame) {
+    ChatSession clientHandler = sessionRegistry.lookup(targetUser);
+    if (clientHandler != null) {
+      try {
+        clientHandler.deliver(frame);
+      } catch (IOException e) {
+      }
+      return;
+    }
+    ClusterNode cluster = clusterNode;
+    if (cluster != null && cluster.locate(targetUser) != null && !cluster.canRelay(targetUser, frame)) {
+      reply(MESSAGE_TOO_LONG_TO_RELAY_MESSAGE);
+      return;
+    }
+    if (cluster != null && cluster.relayDirect(targetUser, frame)) {
+      return;
+    }
+    reply("[Server] : User '" + targetUser + "' not found.");
+  }
+
+  /**
+   * Sends a reply to the request being routed back to this session's client, carrying the
+   * request's correlation ID if it has one.
+   *
+   * @param frame The reply.
+   */
+  protected void reply(EncodedFrame frame) {
+    long correlationId = replyCorrelationId;
+    try {
+      deliver(correlationId == NO_CORRELATION_ID ? frame : EncodedFrame.ofCorrelatedResponse(correlationId, frame));
+    } catch (IOException e) {
+
+    }
+  }
+
+  /**
+   * Sends a reply made of several frames to the request being routed back to this session's
+   * client. Every frame but the last is delivered as it is, and the last one is the reply, so a
+   * client waiting on the request's correlation ID has every page once it is answered.
+   *
+   * @param pages The frames of the reply, in order.
+   */
+  protected void replyPages(List<EncodedFrame> pages) {
+    int last = pages.size() - 1;
+    try {
+      for (int i = 0; i < last; i++) {
+        deliver(pages.get(i));
+      }
+    } catch (IOException e) {
+      return;
+    }
+    reply(pages.get(last));
+  }
+
+  /**
+   * Sends a reply to the request being routed back to this session's client.
+   *
+   * @param frame The reply, without its length header.
+   */
+  protected void reply(byte[] frame) {
+    reply(new EncodedFrame(frame));
+  }
+
+  /**
+   * Sends a text reply to the request being routed back to this session's client.
+   *
+   * @param message The text of the reply.
+   */
+  protected void reply(String message) {
+    reply(message.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Broadcasts a message to all connected clients except the sender.
+   *
+   * @param message The message to be broadcasted.
+   */
+  public void broadcastMessage(String message) {
+    broadcastFrame(EncodedFrame.ofText(message));
+  }
+
+  /**
+   * Broadcasts an encoded frame to all connected clients except the sender, on this node and on
+   * every other node of the cluster. The frame is encoded once by the caller and the same bytes
+   * are queued for every recipient.
+   *
+   * @param frame The frame to be broadcasted.
+   */
+  public void broadcastFrame(EncodedFrame frame) {
+    broadcastLocally(frame, this);
+    ClusterNode cluster = clusterNode;
+    if (cluster != null && !cluster.relayBroadcast(frame)) {
+      reply(MESSAGE_TOO_LONG_TO_RELAY_MESSAGE);
+    }
+  }
+
+  /**
+   * Queues an encoded frame as a broadcast for every client connected to this node.
+   *
+   * @param frame  The frame to be broadcasted.
+   * @param sender The session that is left out, or {@code null} to reach every client.
+   */
+  static void broadcastLocally(EncodedFrame frame, ChatSession sender) {
+    EncodedFrame broadcast = frame.asBroadcast();
+    int recipients = 0;
+    for (ChatSession clientHandler : sessionRegistry.sessions()) {
+      try {
+        if (clientHandler != sender) {
+          recipients++;
+          clientHandler.deliver(broadcast);
+        }
+      } catch (IOException e){
+
+      }
+    }
+    serverMetrics.recordBroadcast(recipients);
+  }
+
+  /**
+   * Joins a room, creating it if needed, and announces the new member to the room.
+   *
+   * @param room The name of the room.
+   */
+  public void joinRoom(String room) {
+    if (!roomRegistry.join(room, this)) {
+      reply("[Server] : You are already in room '" + room + "'.");
+      return;
+    }
+    joinedRooms.add(room);
+    reply("[Server] : You joined room '" + room + "'.");
+    broadcastToRoom(room, EncodedFrame.ofText(ROOM_PREFIX + room + " [Server] : " + clientUserName + " has joined the room."));
+  }
+
+  /**
+   * Leaves a room and announces the departure to the remaining members.
+   *
+   * @param room The name of the room.
+   */
+  public void leaveRoom(String room) {
+    joinedRooms.remove(room);
+    if (!roomRegistry.leave(room, this)) {
+      reply("[Server] : You are not in room '" + room + "'.");
+      return;
+    }
+    reply("[Server] : You left room '" + room + "'.");
+    broadcastToRoom(room, EncodedFrame.ofText(ROOM_PREFIX + room + " [Server] : " + clientUserName + " has left the room."));
+  }
+
+  /**
+   * Sends an encoded frame to every member of a room except the sender. Only the room's members
+   * are visited, however many other clients are connected.
+   *
+   * @param room  The name of the room.
+   * @param frame The frame to be sent.
+   */
+  public void broadcastToRoom(String room, EncodedFrame frame) {
+    EncodedFrame broadcast = frame.asBroadcast();
+    int recipients = 0;
+    for (ChatSession member : roomRegistry.members(room)) {
+      try {
+        if (member != this) {
+          recipients++;
+          member.deliver(broadcast);
+        }
+      } catch (IOException e) {
+
+      }
+    }
+    serverMetrics.recordBroadcast(recipients);
+  }
+
+  /**
+   * Removes the current session from the registry of active sessions and from every room it
+   * joined, and broadcasts a message about the user leaving the chat. Only the first call has any effect.
+   */
+  public void removeClientHandler() {
+    if (!removed.compareAndSet(false, true)) {
+      return;
+    }
+    WheelTimeout timeout = idleTimeout;
+    if (timeout != null) {
+      timeout.cancel();
+    }
+    boolean registered = sessionRegistry.unregister(this);
+    presenceRegistry.unsubscribe(this);
+    cancelFileTransfers();
+    this.semaphore.release();
+    for (String room : joinedRooms) {
+      if (roomRegistry.leave(room, this)) {
+        broadcastToRoom(room, EncodedFrame.ofText(ROOM_PREFIX + room + " [Server] : " + clientUserName + " has left the room."));
+      }
+    }
+    joinedRooms.clear();
+    if (registered) {
+      ClusterNode cluster = clusterNode;
+      if (cluster != null) {
+        cluster.userLeft(clientUserName);
+      }
+      presenceRegistry.refresh(clientUserName);
+      broadcastMessage("[Server] : " + clientUserName + " has left the chat");
+    }
+  }
+
+  /**
+   * Checks whether the session has left the chat.
+   *
+   * @return {@code true} once {@link #removeClientHandler()} was called.
+   */
+  public boolean isRemoved() {
+    return removed.get();
+  }
+
+  /**
+   * Gets the username of the associated client.
+   *
+   * @return The username of the client.
+   */
+  public String getClientUserName() {
+    return clientUserName;
+  }
+}
@@ -1,13 +1,23 @@
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.ByteArrayInputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * The `Client` class represents a client in a simple chat room application.
@@ -16,11 +26,22 @@ import java.util.Scanner;
  */
 public class Client {
 
-  private Socket socket;
-  private BufferedReader bufferedReader;
-  private BufferedWriter bufferedWriter;
+  private volatile Socket socket;
+  private volatile DataInputStream dataInputStream;
+  private volatile DataOutputStream dataOutputStream;
   private String userName;
   private ChatRoomProtocol chatRoomProtocol;
+  private boolean listingUsers;
+  private volatile String resumeToken;
+  private final Map<String, Path> offeredFiles = new ConcurrentHashMap<>();
+  private final Map<Long, Path> outgoingFiles = new ConcurrentHashMap<>();
+  private final Map<Long, String> incomingOffers = new ConcurrentHashMap<>();
+  private final Map<Long, FileChannel> incomingFiles = new ConcurrentHashMap<>();
+  private final ExecutorService uploads = Executors.newSingleThreadExecutor(task -> {
+    Thread thread = new Thread(task, "file-upload");
+    thread.setDaemon(true);
+    return thread;
+  });
 
   /**
    * The entry input message prompting the user to enter their username.
@@ -77,6 +98,11 @@ public class Client {
    */
   public static int INDEX_2 = 2;
 
+  /**
+   * Constant index value 3.
+   */
+  public static int INDEX_3 = 3;
+
   /**
    * Introduction message for available commands.
    */
@@ -117,6 +143,51 @@ public class Client {
    */
   public static String COMMAND_INSULT_USAGE = "- !user: sends a SEND_INSULT message to the server, to be sent to the specified user";
 
+  /**
+   * Usage message for the join command.
+   */
+  public static String COMMAND_JOIN_USAGE = "- join room: sends a JOIN_ROOM to the server, to join or create the specified room";
+
+  /**
+   * Usage message for the leave command.
+   */
+  public static String COMMAND_LEAVE_USAGE = "- leave room: sends a LEAVE_ROOM to the server, to leave the specified room";
+
+  /**
+   * Usage message for the rooms command.
+   */
+  public static String COMMAND_ROOMS_USAGE = "- rooms: sends a LIST_ROOMS to the server";
+
+  /**
+   * Usage message for the room command.
+   */
+  public static String COMMAND_ROOM_USAGE = "- #room: sends a ROOM_MESSAGE to the server, to be sent to the members of the specified room";
+
+  /**
+   * Usage message for the history command.
+   */
+  public static String COMMAND_HISTORY_USAGE = "- history [n]: sends a REPLAY_LAST_MESSAGES to the server, to replay the latest messages";
+
+  /**
+   * Usage message for the since command.
+   */
+  public static String COMMAND_SINCE_USAGE = "- since seq: sends a REPLAY_SINCE to the server, to replay every message from a sequence number on";
+
+  /**
+   * Usage message for the send command.
+   */
+  public static String COMMAND_SEND_USAGE = "- send user path: sends a FILE_OFFER to the server, offering the file to the specified user";
+
+  /**
+   * Usage message for the accept command.
+   */
+  public static String COMMAND_ACCEPT_USAGE = "- accept id: sends a FILE_ACCEPT to the server, to receive the file offered under that ID";
+
+  /**
+   * Usage message for the decline command.
+   */
+  public static String COMMAND_DECLINE_USAGE = "- decline id: sends a FILE_DECLINE to the server, to refuse or cancel the file transfer with that ID";
+
   /**
    * The logoff command string.
    */
@@ -142,6 +213,61 @@ public class Client {
    */
   public static String COMMAND_INSULT = "!";
 
+  /**
+   * The join command string.
+   */
+  public static String COMMAND_JOIN = "join ";
+
+  /**
+   * The leave command string.
+   */
+  public static String COMMAND_LEAVE = "leave ";
+
+  /**
+   * The rooms command string.
+   */
+  public static String COMMAND_ROOMS = "rooms";
+
+  /**
+   * The room command string.
+   */
+  public static String COMMAND_ROOM = ChatSession.ROOM_PREFIX;
+
+  /**
+   * The history command string.
+   */
+  public static String COMMAND_HISTORY = "history";
+
+  /**
+   * The since command string.
+   */
+  public static String COMMAND_SINCE = "since ";
+
+  /**
+   * The send command string.
+   */
+  public static String COMMAND_SEND = "send ";
+
+  /**
+   * The accept command string.
+   */
+  public static String COMMAND_ACCEPT = "accept ";
+
+  /**
+   * The decline command string.
+   */
+  public static String COMMAND_DECLINE = "decline ";
+
+  /**
+   * The directory accepted files are saved in.
+   */
+  public static String DOWNLOAD_DIRECTORY = "downloads";
+
+  /**
+   * The number of messages the history command replays when none is given.
+   */
+  public static int DEFAULT_HISTORY_COUNT = 50;
+
   /**
    * The help command string.
    */
@@ -157,11 +283,31 @@ public class Client {
    */
   public static String CONNECTION_REFUSED_MESSAGE = "Connection refused.";
 
+  /**
+   * The message printed while the client tries to resume its session after losing the connection.
+   */
+  public static String RECONNECTING_MESSAGE = "Connection lost. Reconnecting...";
+
+  /**
+   * The number of times the client tries to resume its session after losing the connection.
+   */
+  public static int RECONNECT_ATTEMPTS = 5;
+
+  /**
+   * The time waited before each attempt to resume the session, in milliseconds.
+   */
+  public static long RECONNECT_DELAY_MILLIS = 1000;
+
   /**
    * The introduction message for connected clients.
    */
   public static String CONNECTED_CLIENTS_INTRODUCTION_MESSAGE = "[Server] : Connected Clients are:";
 
+  /**
+   * The introduction message for the list of rooms.
+   */
+  public static String ROOMS_INTRODUCTION_MESSAGE = "[Server] : Rooms are:";
+
   /**
    * Displays all available commands to the user.
    */
@@ -172,6 +318,15 @@ public class Client {
     System.out.println(COMMAND_USER_USAGE);
     System.out.println(COMMAND_ALL_USAGE);
     System.out.println(COMMAND_INSULT_USAGE);
+    System.out.println(COMMAND_JOIN_USAGE);
+    System.out.println(COMMAND_LEAVE_USAGE);
+    System.out.println(COMMAND_ROOMS_USAGE);
+    System.out.println(COMMAND_ROOM_USAGE);
+    System.out.println(COMMAND_HISTORY_USAGE);
+    System.out.println(COMMAND_SINCE_USAGE);
+    System.out.println(COMMAND_SEND_USAGE);
+    System.out.println(COMMAND_ACCEPT_USAGE);
+    System.out.println(COMMAND_DECLINE_USAGE);
     System.out.println(COMMAND_HELP_USAGE);
   }
 
@@ -184,16 +339,13 @@ public class Client {
   public Client(Socket socket, String userName) {
     try {
       this.socket = socket;
-      this.bufferedReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-      this.bufferedWriter = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+      this.dataInputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      this.dataOutputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
       this.userName = userName;
       chatRoomProtocol = new ChatRoomProtocol();
-      bufferedWriter.write(userName);
-      bufferedWriter.newLine();
-      bufferedWriter.flush();
-      sendEncodedMessage(chatRoomProtocol.encodeConnectMessage(this.userName));
+      sendEncodedMessage(chatRoomProtocol.encodeConnectMessage(this.userName, ChatRoomProtocol.COMPRESSION_DEFLATE, ""));
     } catch (IOException e) {
-      closeEverything(socket, bufferedReader, bufferedWriter);
+      closeEverything(socket, dataInputStream, dataOutputStream);
       System.out.println(CONNECTION_REFUSED_MESSAGE);
     }
   }
@@ -203,10 +355,6 @@ public class Client {
    */
   public void sendMessage() {
     try {
-      bufferedWriter.write(userName);
-      bufferedWriter.newLine();
-      bufferedWriter.flush();
-
       Scanner scanner = new Scanner(System.in);
       while (socket.isConnected()) {
         String message = scanner.nextLine();
@@ -230,6 +378,56 @@ public class Client {
           String[] parts = message.split(INPUT_STRING_SEPARATOR, INDEX_2);
           String targetUser = parts[TARGET_USERNAME_PART_INDEX].substring(INDEX_1);
           sendEncodedMessage(chatRoomProtocol.encodeSendInsult(this.userName, targetUser));
+        } else if (message.equals(COMMAND_HISTORY) || message.startsWith(COMMAND_HISTORY + INPUT_STRING_SEPARATOR)) {
+          String count = message.substring(COMMAND_HISTORY.length()).trim();
+          try {
+            sendEncodedMessage(chatRoomProtocol.encodeReplayLastMessages(this.userName,
+                count.isEmpty() ? DEFAULT_HISTORY_COUNT : Long.parseLong(count)));
+          } catch (NumberFormatException e) {
+            System.out.println(COMMAND_HISTORY_USAGE);
+          }
+        } else if (message.startsWith(COMMAND_SINCE)) {
+          try {
+            long sequence = Long.parseLong(message.substring(COMMAND_SINCE.length()).trim());
+            sendEncodedMessage(chatRoomProtocol.encodeReplaySince(this.userName, sequence));
+          } catch (NumberFormatException e) {
+            System.out.println(COMMAND_SINCE_USAGE);
+          }
+        } else if (message.equals(COMMAND_ROOMS)) {
+          sendEncodedMessage(chatRoomProtocol.encodeListRooms(this.userName));
+        } else if (message.startsWith(COMMAND_JOIN) && message.length() > COMMAND_JOIN.length()) {
+          String room = message.substring(COMMAND_JOIN.length()).trim();
+          sendEncodedMessage(chatRoomProtocol.encodeJoinRoom(this.userName, room));
+        } else if (message.startsWith(COMMAND_LEAVE) && message.length() > COMMAND_LEAVE.length()) {
+          String room = message.substring(COMMAND_LEAVE.length()).trim();
+          sendEncodedMessage(chatRoomProtocol.encodeLeaveRoom(this.userName, room));
+        } else if (message.startsWith(COMMAND_ROOM) && message.length() > COMMAND_ROOM.length()) {
+          String[] parts = message.split(INPUT_STRING_SEPARATOR, INDEX_2);
+          String room = parts[INDEX_0].substring(INDEX_1);
+          String text = parts.length > INDEX_1 ? parts[INDEX_1] : INPUT_STRING_SEPARATOR;
+          sendEncodedMessage(chatRoomProtocol.encodeRoomMessage(this.userName, room, text));
+        } else if (message.startsWith(COMMAND_SEND)) {
+          String[] parts = message.substring(COMMAND_SEND.length()).trim().split(INPUT_STRING_SEPARATOR, INDEX_2);
+          if (parts.length > INDEX_1) {
+            offerFile(parts[INDEX_0], parts[INDEX_1]);
+          } else {
+            System.out.println(COMMAND_SEND_USAGE);
+          }
+        } else if (message.startsWith(COMMAND_ACCEPT)) {
+          try {
+            acceptFile(Long.parseLong(message.substring(COMMAND_ACCEPT.length()).trim()));
+          } catch (NumberFormatException e) {
+            System.out.println(COMMAND_ACCEPT_USAGE);
+          }
+        } else if (message.startsWith(COMMAND_DECLINE)) {
+          try {
+            long transferId = Long.parseLong(message.substring(COMMAND_DECLINE.length()).trim());
+            incomingOffers.remove(transferId);
+            outgoingFiles.remove(transferId);
+            sendEncodedMessage(chatRoomProtocol.encodeFileDecline(this.userName, transferId));
+          } catch (NumberFormatException e) {
+            System.out.println(COMMAND_DECLINE_USAGE);
+          }
         } else if (message.equals(COMMAND_HELP)) {
           displayAllCommands();
         } else {
@@ -237,11 +435,170 @@ public class Client {
         }
       }
     } catch (IOException e) {
-      closeEverything(socket, bufferedReader, bufferedWriter);
+      closeEverything(socket, dataInputStream, dataOutputStream);
       return;
     }
   }
 
+  /**
+   * Offers a file to another user. The file is only read once the user accepts it.
+   *
+   * @param targetUser The user the file is offered to.
+   * @param path       The path of the file.
+   * @throws IOException If the offer cannot be sent.
+   */
+  private void offerFile(String targetUser, String path) throws IOException {
+    Path file;
+    long size;
+    try {
+      file = Paths.get(path);
+      size = Files.size(file);
+    } catch (InvalidPathException | IOException e) {
+      System.out.println("Cannot read '" + path + "'.");
+      return;
+    }
+    String fileName = file.getFileName().toString();
+    offeredFiles.put(targetUser + "/" + fileName, file);
+    sendEncodedMessage(chatRoomProtocol.encodeFileOffer(0, this.userName, targetUser, fileName, size));
+  }
+
+  /**
+   * Accepts a file offered to this user, opening the file it is saved to in
+   * {@link #DOWNLOAD_DIRECTORY} before the first piece can arrive.
+   *
+   * @param transferId The ID of the transfer.
+   * @throws IOException If the acceptance cannot be sent.
+   */
+  private void acceptFile(long transferId) throws IOException {
+    String fileName = incomingOffers.get(transferId);
+    if (fileName == null) {
+      System.out.println("There is no file offer " + transferId + ".");
+      return;
+    }
+    try {
+      Path target = downloadPath(transferId, fileName);
+      Files.createDirectories(target.getParent());
+      incomingFiles.put(transferId, FileChannel.open(target, StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+    } catch (IOException e) {
+      System.out.println("Cannot save '" + fileName + "' in " + DOWNLOAD_DIRECTORY + ".");
+      return;
+    }
+    sendEncodedMessage(chatRoomProtocol.encodeFileAccept(this.userName, transferId));
+  }
+
+  /**
+   * Finds where an accepted file is saved. Only the last part of the offered name is kept, so a
+   * sender cannot place a file outside of {@link #DOWNLOAD_DIRECTORY}.
+   *
+   * @param transferId The ID of the transfer, naming the file if the offered name is unusable.
+   * @param fileName   The name the file was offered under.
+   * @return The path the file is saved to.
+   */
+  private static Path downloadPath(long transferId, String fileName) {
+    Path name;
+    try {
+      name = Paths.get(fileName).getFileName();
+    } catch (InvalidPathException e) {
+      name = null;
+    }
+    return Paths.get(DOWNLOAD_DIRECTORY).resolve(name != null ? name.toString() : "transfer-" + transferId);
+  }
+
+  /**
+   * Uploads an accepted file on the upload thread, one piece per frame followed by an empty piece.
+   * Files accepted while another one is uploading wait for it. Pieces are sent one frame at a time
+   * like any other message, so chat typed meanwhile goes out between them.
+   *
+   * @param transferId The ID of the transfer.
+   * @param file       The file to be uploaded.
+   */
+  private void uploadFile(long transferId, Path file) {
+    uploads.execute(() -> {
+      byte[] chunk = new byte[FileTransfers.CHUNK_SIZE];
+      byte[] end = chatRoomProtocol.encodeFileDecline(userName, transferId);
+      try (InputStream inputStream = Files.newInputStream(file)) {
+        int read;
+        while ((read = inputStream.readNBytes(chunk, INDEX_0, chunk.length)) > INDEX_0) {
+          sendEncodedMessage(chatRoomProtocol.encodeFileChunk(transferId, chunk, read));
+        }
+        end = chatRoomProtocol.encodeFileChunk(transferId, chunk, INDEX_0);
+      } catch (IOException e) {
+        System.out.println("Cannot read '" + file + "'.");
+      }
+      try {
+        sendEncodedMessage(end);
+      } catch (IOException e) {
+
+      }
+    });
+  }
+
+  /**
+   * Handles a frame of a file transfer received from the server.
+   *
+   * @param frame A well-formed view of the frame.
+   */
+  private void processFileTransfer(FrameView frame) {
+    long transferId = frame.number();
+    if (frame.messageType() == ChatRoomProtocol.FILE_OFFER) {
+      if (frame.field(INDEX_0).equals(userName)) {
+        Path file = offeredFiles.remove(frame.field(INDEX_1) + "/" + frame.field(INDEX_2));
+        if (file != null) {
+          outgoingFiles.put(transferId, file);
+        }
+        System.out.println("[Server] : Offered '" + frame.field(INDEX_2) + "' to " + frame.field(INDEX_1)
+            + " as transfer " + transferId + ".");
+      } else {
+        incomingOffers.put(transferId, frame.field(INDEX_2));
+        System.out.println("[Server] : " + frame.field(INDEX_0) + " offers '" + frame.field(INDEX_2) + "' ("
+            + frame.field(INDEX_3) + " bytes). Type '" + COMMAND_ACCEPT + transferId + "' or '" + COMMAND_DECLINE
+            + transferId + "'.");
+      }
+    } else if (frame.messageType() == ChatRoomProtocol.FILE_ACCEPT) {
+      Path file = outgoingFiles.remove(transferId);
+      if (file != null) {
+        System.out.println("[Server] : " + frame.field(INDEX_0) + " accepted '" + file.getFileName() + "'.");
+        uploadFile(transferId, file);
+      }
+    } else if (frame.messageType() == ChatRoomProtocol.FILE_DECLINE) {
+      outgoingFiles.remove(transferId);
+      String fileName = incomingOffers.remove(transferId);
+      FileChannel channel = incomingFiles.remove(transferId);
+      if (channel != null) {
+        try {
+          channel.close();
+          Files.deleteIfExists(downloadPath(transferId, fileName));
+        } catch (IOException e) {
+
+        }
+      }
+      System.out.println("[Server] : " + frame.field(INDEX_0) + " cancelled transfer " + transferId + ".");
+    } else {
+      FileChannel channel = incomingFiles.get(transferId);
+      if (channel == null) {
+        return;
+      }
+      try {
+        ByteBuffer data = frame.fieldBuffer(INDEX_0);
+        if (data.hasRemaining()) {
+          while (data.hasRemaining()) {
+            channel.write(data);
+          }
+          return;
+        }
+        incomingFiles.remove(transferId);
+        channel.close();
+        String fileName = incomingOffers.remove(transferId);
+        System.out.println("[Server] : Saved '" + fileName + "' to " + downloadPath(transferId, fileName) + ".");
+      } catch (IOException e) {
+        incomingFiles.remove(transferId);
+        incomingOffers.remove(transferId);
+        System.out.println("Cannot save transfer " + transferId + ".");
+      }
+    }
+  }
+
   /**
    * Listens for incoming messages from the server and processes them accordingly.
    */
@@ -249,14 +606,18 @@ public class Client {
     new Thread(new Runnable() {
       @Override
       public void run() {
-        String msgFromGrpChat;
+        FrameView frameFromGrpChat = new FrameView();
 
         while (socket.isConnected()) {
+          Socket current = socket;
           try {
-            msgFromGrpChat = bufferedReader.readLine();
-            processOutput(msgFromGrpChat);
+            if (frameFromGrpChat.readFrom(dataInputStream)) {
+              processOutput(frameFromGrpChat);
+            }
           } catch (IOException e) {
-            break;
+            if (!reconnect(current)) {
+              break;
+            }
           }
         }
       }
@@ -267,11 +628,9 @@ public class Client {
    * Checks if the user has disconnected based on the received message.
    *
    * @param message The message received from the server.
-   * @throws IOException If an I/O error occurs.
    */
-  private void checkIfUserHasDisconnected(String message) throws IOException {
+  private void checkIfUserHasDisconnected(String message) {
     if (message.equals(DISCONNECT_MESSAGE)) {
-      this.bufferedWriter.write(DISCONNECT_MESSAGE);
       System.exit(0);
     }
   }
@@ -279,77 +638,149 @@ public class Client {
   /**
    * Processes the output received from the server.
    *
-   * @param msgFromGrpChat The message received from the server.
+   * @param frame The frame received from the server, without its length header.
    */
-  public void processOutput(String msgFromGrpChat) {
-    if(msgFromGrpChat.equals("MAX CLIENTS REACHED.")){
-      System.out.println(msgFromGrpChat);
+  public void processOutput(byte[] frame) {
+    FrameView frameView = new FrameView();
+    if (frame != null && frameView.wrap(frame)) {
+      processOutput(frameView);
+    }
+  }
+
+  /**
+   * Processes the output received from the server.
+   *
+   * @param frame A well-formed view of the frame received from the server.
+   */
+  public void processOutput(FrameView frame) {
+    if (frame.textEquals(ChatSession.MAX_CLIENTS_REACHED)) {
+      System.out.println(ChatSession.MAX_CLIENTS_REACHED);
       System.exit(0);
     }
-    if (msgFromGrpChat != null) {
-      byte[] frame = ChatRoomProtocol.decodeFrame(msgFromGrpChat);
-      try (ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(frame);
-          DataInputStream dataInputStream = new DataInputStream(byteArrayInputStream)) {
-        int messageType = dataInputStream.readInt();
-        if (messageType == ChatRoomProtocol.CONNECT_RESPONSE) {
-          dataInputStream.readNBytes(ChatRoomProtocol.FRAME_SEPARATOR.length());
-          dataInputStream.readBoolean();
-          dataInputStream.readNBytes(ChatRoomProtocol.FRAME_SEPARATOR.length());
-          int messageSize = dataInputStream.readInt();
-          dataInputStream.readNBytes(ChatRoomProtocol.FRAME_SEPARATOR.length());
-          byte[] messageBytes = new byte[messageSize];
-          dataInputStream.readFully(messageBytes);
-          String actualMessage = new String(messageBytes, StandardCharsets.UTF_8);
-          System.out.println(actualMessage);
-          checkIfUserHasDisconnected(actualMessage);
-        } else if (messageType == ChatRoomProtocol.QUERY_USER_RESPONSE) {
-          System.out.println(CONNECTED_CLIENTS_INTRODUCTION_MESSAGE);
-          dataInputStream.readNBytes(ChatRoomProtocol.FRAME_SEPARATOR.length());
-          int numUsers = dataInputStream.readInt();
-          for (int i = INDEX_0; i < numUsers; i++) {
-            dataInputStream.readNBytes(ChatRoomProtocol.FRAME_SEPARATOR.length());
-            int userNameSize = dataInputStream.readInt();
-            dataInputStream.readNBytes(ChatRoomProtocol.FRAME_SEPARATOR.length());
-            byte[] userNameBytes = new byte[userNameSize];
-            dataInputStream.readFully(userNameBytes);
-            String actualMessage = new String(userNameBytes, StandardCharsets.UTF_8);
-            System.out.println(COMMAND_USER + actualMessage);
-          }
-        } else {
-          System.out.println(msgFromGrpChat);
-        }
-      } catch (Exception e) {
+    if (frame.messageType() == ChatRoomProtocol.COMPRESSED_FRAME) {
+      try {
+        processOutput(FrameCompressor.inflate(frame));
+      } catch (IOException e) {
+
+      }
+      return;
+    }
+    if (frame.messageType() == ChatRoomProtocol.CONNECT_RESPONSE) {
+      String actualMessage = frame.field(INDEX_0);
+      System.out.println(actualMessage);
+      if (frame.fieldCount() > INDEX_2) {
+        resumeToken = frame.field(INDEX_2);
+      }
+      if (!frame.flag()) {
+        System.exit(0);
+      }
+      checkIfUserHasDisconnected(actualMessage);
+    } else if (frame.messageType() == ChatRoomProtocol.QUERY_USER_RESPONSE
+        || frame.messageType() == ChatRoomProtocol.QUERY_USER_RESPONSE_PART) {
+      if (!listingUsers) {
+        System.out.println(CONNECTED_CLIENTS_INTRODUCTION_MESSAGE);
+      }
+      listingUsers = frame.messageType() == ChatRoomProtocol.QUERY_USER_RESPONSE_PART;
+      for (int i = INDEX_0; i < frame.fieldCount(); i++) {
+        System.out.println(COMMAND_USER + frame.field(i));
+      }
+    } else if (frame.messageType() == ChatRoomProtocol.REPLAYED_MESSAGE) {
+      System.out.println("(#" + frame.number() + ") " + frame.field(INDEX_2));
+    } else if (frame.messageType() == ChatRoomProtocol.ROOM_LIST_RESPONSE) {
+      System.out.println(ROOMS_INTRODUCTION_MESSAGE);
+      for (int i = INDEX_0; i < frame.fieldCount(); i++) {
+        System.out.println(COMMAND_ROOM + frame.field(i));
       }
+    } else if (frame.messageType() == ChatRoomProtocol.PING) {
+      try {
+        sendEncodedMessage(chatRoomProtocol.encodePong(userName, frame.number()));
+      } catch (IOException e) {
+
+      }
+    } else if (frame.messageType() >= ChatRoomProtocol.FILE_OFFER
+        && frame.messageType() <= ChatRoomProtocol.FILE_CHUNK) {
+      processFileTransfer(frame);
+    } else if (frame.messageType() != ChatRoomProtocol.PONG) {
+      System.out.println(frame.text());
     }
   }
 
   /**
-   * Sends an encoded message to the server.
+   * Sends an encoded message to the server. Both the thread reading the user's input and the
+   * thread answering the server's pings send, one at a time.
    *
    * @param frame The encoded message frame.
    * @throws IOException If an I/O error occurs.
    */
-  private void sendEncodedMessage(byte[] frame) throws IOException {
-    bufferedWriter.write(new String(frame, StandardCharsets.UTF_8));
-    bufferedWriter.newLine();
-    bufferedWriter.flush();
+  private synchronized void sendEncodedMessage(byte[] frame) throws IOException {
+    Socket current = socket;
+    try {
+      ChatRoomProtocol.writeFrame(dataOutputStream, frame);
+      dataOutputStream.flush();
+    } catch (IOException e) {
+      if (!reconnect(current)) {
+        throw e;
+      }
+      ChatRoomProtocol.writeFrame(dataOutputStream, frame);
+      dataOutputStream.flush();
+    }
+  }
+
+  /**
+   * Resumes the session on a new connection after the given one was lost, using the resume token
+   * the server sent when the client connected. Whichever of the reading and the writing thread
+   * notices the loss first reconnects; the other finds the new connection in place.
+   *
+   * @param lost The connection that was lost.
+   * @return {@code true} if the client is connected again.
+   */
+  private synchronized boolean reconnect(Socket lost) {
+    if (socket != lost) {
+      return true;
+    }
+    String token = resumeToken;
+    if (token == null) {
+      return false;
+    }
+    System.out.println(RECONNECTING_MESSAGE);
+    closeEverything(lost, null, null);
+    for (int attempt = 0; attempt < RECONNECT_ATTEMPTS; attempt++) {
+      try {
+        Thread.sleep(RECONNECT_DELAY_MILLIS);
+        Socket next = new Socket(lost.getInetAddress(), lost.getPort());
+        DataOutputStream nextOutputStream = new DataOutputStream(new BufferedOutputStream(next.getOutputStream()));
+        ChatRoomProtocol.writeFrame(nextOutputStream,
+            chatRoomProtocol.encodeConnectMessage(userName, ChatRoomProtocol.COMPRESSION_DEFLATE, token));
+        nextOutputStream.flush();
+        dataInputStream = new DataInputStream(new BufferedInputStream(next.getInputStream()));
+        dataOutputStream = nextOutputStream;
+        socket = next;
+        return true;
+      } catch (IOException e) {
+
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    return false;
   }
 
   /**
    * Closes the socket and associated streams.
    *
-   * @param socket         The socket to be closed.
-   * @param bufferedReader The BufferedReader to be closed.
-   * @param bufferedWriter The BufferedWriter to be closed.
+   * @param socket       The socket to be closed.
+   * @param inputStream  The InputStream to be closed.
+   * @param outputStream The OutputStream to be closed.
    */
-  public void closeEverything(Socket socket, BufferedReader bufferedReader, BufferedWriter bufferedWriter) {
+  public void closeEverything(Socket socket, InputStream inputStream, OutputStream outputStream) {
     try {
-      if (bufferedReader != null) {
-        bufferedReader.close();
+      if (inputStream != null) {
+        inputStream.close();
       }
 
-      if (bufferedWriter != null) {
-        bufferedWriter.close();
+      if (outputStream != null) {
+        outputStream.close();
       }
 
       if (socket != null) {
@@ -1,83 +1,88 @@
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.ByteArrayInputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The `ClientHandler` class represents a thread responsible for handling communication
  * with an individual client in a chat room. It manages sending and receiving messages,
  * processing various types of messages, and handling disconnections.
  */
-class ClientHandler implements Runnable {
+class ClientHandler extends ChatSession implements Runnable {
 
   public Socket getSocket() {
     return socket;
   }
 
   /**
-   * A list of all active client handlers.
+   * The executor draining outbound queues of handlers constructed without one.
    */
-  public static ArrayList<ClientHandler> clientHandlers = new ArrayList<>();
+  private static final ExecutorService DEFAULT_WRITER_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable);
+    thread.setDaemon(true);
+    return thread;
+  });
 
   private Socket socket;
-  private BufferedReader bufferedReader;
-  private BufferedWriter bufferedWriter;
+  private DataInputStream dataInputStream;
+  private DataOutputStream dataOutputStream;
+  private Executor writerExecutor;
+  private volatile boolean closeAfterFlush;
 
-  public BufferedReader getBufferedReader() {
-    return bufferedReader;
+  public DataInputStream getDataInputStream() {
+    return dataInputStream;
   }
 
-  public void setBufferedReader(BufferedReader bufferedReader) {
-    this.bufferedReader = bufferedReader;
+  public void setInputStream(InputStream inputStream) {
+    this.dataInputStream = new DataInputStream(inputStream);
   }
 
-  public BufferedWriter getBufferedWriter() {
-    return bufferedWriter;
+  public DataOutputStream getDataOutputStream() {
+    return dataOutputStream;
   }
 
-  public void setBufferedWriter(BufferedWriter bufferedWriter) {
-    this.bufferedWriter = bufferedWriter;
+  public void setOutputStream(OutputStream outputStream) {
+    this.dataOutputStream = new DataOutputStream(outputStream);
   }
 
-  private String clientUserName;
-
-  private Semaphore semaphore;
-
-  /**
-   * The left bracket used in message formatting.
-   */
-  public static String LEFT_BRACKET = "[";
-
-  /**
-   * The right bracket followed by a colon used in message formatting.
-   */
-  public static String RIGHT_BRACKET = "] : ";
-
-  private ChatRoomProtocol chatRoomProtocol;
-
   /**
    * Constructs a new `ClientHandler` for the specified socket.
    *
    * @param socket The socket associated with the client.
    */
   public ClientHandler(Socket socket, Semaphore semaphore) {
+    this(socket, semaphore, DEFAULT_WRITER_EXECUTOR);
+  }
+
+  /**
+   * Constructs a new `ClientHandler` for the specified socket whose outbound frames are written
+   * by tasks run on the specified executor. Nothing is read from the socket until the handler
+   * runs, so the thread accepting connections never waits on a client.
+   *
+   * @param socket         The socket associated with the client.
+   * @param semaphore      The semaphore holding the permit taken for this client.
+   * @param writerExecutor The executor running the task that writes queued frames to the socket.
+   */
+  public ClientHandler(Socket socket, Semaphore semaphore, Executor writerExecutor) {
+    this.writerExecutor = writerExecutor;
     try {
       this.socket = socket;
       this.semaphore = semaphore;
-      this.bufferedReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-      this.bufferedWriter = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-      this.clientUserName = bufferedReader.readLine();
+      this.dataInputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      this.dataOutputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
       chatRoomProtocol = new ChatRoomProtocol();
-      clientHandlers.add(this);
-      sendConnectionACK();
     } catch (Exception e){
 
     }
@@ -92,8 +97,8 @@ class ClientHandler implements Runnable {
   public String toString() {
     return "ClientHandler{" +
         "socket=" + socket +
-        ", bufferedReader=" + bufferedReader +
-        ", bufferedWriter=" + bufferedWriter +
+        ", dataInputStream=" + dataInputStream +
+        ", dataOutputStream=" + dataOutputStream +
         ", clientUserName='" + clientUserName + '\'' +
         ", chatRoomProtocol=" + chatRoomProtocol +
         '}';
@@ -112,26 +117,10 @@ class ClientHandler implements Runnable {
   public void sendConnectionACK() throws IOException {
     try {
       if (socket.isConnected()) {
-        if(semaphore.availablePermits() == 0){
-          this.bufferedWriter.write("MAX CLIENTS REACHED.");
-          this.bufferedWriter.write("\n");
-          this.bufferedWriter.flush();
+        if (inboundFrame.readFrom(dataInputStream)) {
+          acknowledgeConnection(inboundFrame);
         } else {
-          String connectionData = bufferedReader.readLine();
-          byte[] frame = ChatRoomProtocol.decodeFrame(connectionData);
-          try (ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(frame);
-              DataInputStream dataInputStream = new DataInputStream(byteArrayInputStream)) {
-
-            int messageType = dataInputStream.readInt();
-            if (messageType == ChatRoomProtocol.CONNECT_MESSAGE) {
-              String connectionMessage = "Connection established with Server. There are " +
-                  clientHandlers.size() + " connected users.";
-              sendDirectMessage(clientUserName, new String(chatRoomProtocol.encodeConnectResponse(true, connectionMessage), StandardCharsets.UTF_8));
-              broadcastMessage("[Server] : " + clientUserName + " has entered the chat.");
-            }
-          } catch(Exception e){
-
-          }
+          serverMetrics.recordDecodeFailure();
         }
       }
     } catch (Exception e){
@@ -140,172 +129,208 @@ class ClientHandler implements Runnable {
   }
 
 
+  /**
+   * Performs the connection handshake and then routes every frame the client sends until the
+   * connection is lost or closed as idle, at which point the session is parked if the client can
+   * resume it and leaves the chat otherwise.
+   */
   @Override
   public void run() {
-    String messageFromClient;
-    while (socket.isConnected()) {
-      try {
-        messageFromClient = bufferedReader.readLine();
-        processInput(messageFromClient);
-      } catch (IOException e) {
-        break;
+    if (!socket.isConnected()) {
+      return;
+    }
+    watchIdle();
+    try {
+      if (!inboundFrame.readFrom(dataInputStream)) {
+        serverMetrics.recordDecodeFailure();
+        connectionLost();
+        return;
+      }
+      recordActivity();
+      if (!handshake(inboundFrame)) {
+        sendConnectionACK();
+      }
+      while (!socket.isClosed()) {
+        boolean decoded = inboundFrame.readFrom(dataInputStream);
+        recordActivity();
+        if (decoded) {
+          processInput(inboundFrame);
+        } else {
+          serverMetrics.recordDecodeFailure();
+        }
       }
+    } catch (IOException e) {
+      connectionLost();
     }
   }
 
   /**
-   * Processes the input message received from the client.
-   *
-   * @param message The message received from the client.
+   * Parks the session if its client can resume it, or leaves the chat otherwise, and closes the
+   * connection.
    */
-  public void processInput(String message) {
-    if (message != null) {
-      byte[] frame = ChatRoomProtocol.decodeFrame(message);
-      try (ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(frame);
-          DataInputStream dataInputStream = new DataInputStream(byteArrayInputStream)) {
+  private void connectionLost() {
+    if (!park()) {
+      removeClientHandler();
+    }
+    closeConnection();
+  }
 
-        int messageType = dataInputStream.readInt();
-        switch (messageType) {
-          case ChatRoomProtocol.BROADCAST_MESSAGE:
-            dataInputStream.readNBytes(ChatRoomProtocol.FRAME_SEPARATOR.length());
-            int senderUsernameSize = dataInputStream.readInt();
-            dataInputStream.readNBytes(ChatRoomProtocol.FRAME_SEPARATOR.length());
-            String senderUsername = new String(dataInputStream.readNBytes(senderUsernameSize),
-                StandardCharsets.UTF_8);
-            dataInputStream.readNBytes(ChatRoomProtocol.FRAME_SEPARATOR.length());
-            int messageSize = dataInputStream.readInt();
-            dataInputStream.readNBytes(ChatRoomProtocol.FRAME_SEPARATOR.length());
-            byte[] messageBytes = new byte[messageSize];
-            dataInputStream.readFully(messageBytes);
-            String actualMessage = new String(messageBytes, StandardCharsets.UTF_8);
-            broadcastMessage(LEFT_BRACKET + senderUsername + RIGHT_BRACKET + actualMessage);
-            break;
-          case ChatRoomProtocol.DIRECT_MESSAGE:
-            dataInputStream.readNBytes(ChatRoomProtocol.FRAME_SEPARATOR.length());
-            int senderUsernameSize2 = dataInputStream.readInt();
-            dataInputStream.readNBytes(ChatRoomProtocol.FRAME_SEPARATOR.length());
-            String senderUsername2 = new String(dataInputStream.readNBytes(senderUsernameSize2),
-                StandardCharsets.UTF_8);
-            dataInputStream.readNBytes(ChatRoomProtocol.FRAME_SEPARATOR.length());
-            int recepientSize = dataInputStream.readInt();
-            dataInputStream.readNBytes(ChatRoomProtocol.FRAME_SEPARATOR.length());
-            String recepientName = new String(dataInputStream.readNBytes(recepientSize),
-                StandardCharsets.UTF_8);
-            dataInputStream.readNBytes(ChatRoomProtocol.FRAME_SEPARATOR.length());
-            int messageSize2 = dataInputStream.readInt();
-            dataInputStream.readNBytes(ChatRoomProtocol.FRAME_SEPARATOR.length());
-            byte[] messageBytes2 = new byte[messageSize2];
-            dataInputStream.readFully(messageBytes2);
-            String actualMessage2 = new String(messageBytes2, StandardCharsets.UTF_8);
-            sendDirectMessage(recepientName, LEFT_BRACKET + senderUsername2 + RIGHT_BRACKET + actualMessage2);
-            break;
-          case ChatRoomProtocol.DISCONNECT_MESSAGE:
-            dataInputStream.readNBytes(ChatRoomProtocol.FRAME_SEPARATOR.length());
-            senderUsernameSize = dataInputStream.readInt();
-            dataInputStream.readNBytes(ChatRoomProtocol.FRAME_SEPARATOR.length());
-            senderUsername = new String(dataInputStream.readNBytes(senderUsernameSize),
-                StandardCharsets.UTF_8);
-            System.out.println("\nUser " + senderUsername + " Disconnected.");
-            sendDirectMessage(senderUsername,
-                new String(chatRoomProtocol.encodeConnectResponse(true, Client.DISCONNECT_MESSAGE), StandardCharsets.UTF_8));
+  /**
+   * Waits for the client's rate limit on this handler's own thread. Nothing more is read from the
+   * client meanwhile, so everything it sends is held back in the socket.
+   *
+   * @param nanos The nanoseconds to wait.
+   * @return {@code true} once the time has passed, {@code false} if the thread was interrupted.
+   */
+  @Override
+  protected boolean awaitTokens(long nanos) {
+    try {
+      TimeUnit.NANOSECONDS.sleep(nanos);
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
 
-            closeEverything(socket, bufferedReader, bufferedWriter);
-            break;
-          case ChatRoomProtocol.QUERY_CONNECTED_USERS:
-            sendDirectMessage(this.getClientUserName(), new String(chatRoomProtocol.encodeQueryResponse(clientHandlers), StandardCharsets.UTF_8));
-            break;
-          case ChatRoomProtocol.SEND_INSULT:
-            dataInputStream.readNBytes(ChatRoomProtocol.FRAME_SEPARATOR.length());
-            senderUsernameSize = dataInputStream.readInt();
-            dataInputStream.readNBytes(ChatRoomProtocol.FRAME_SEPARATOR.length());
-            senderUsername = new String(dataInputStream.readNBytes(senderUsernameSize), StandardCharsets.UTF_8);
-            dataInputStream.readNBytes(ChatRoomProtocol.FRAME_SEPARATOR.length());
-            recepientSize = dataInputStream.readInt();
-            dataInputStream.readNBytes(ChatRoomProtocol.FRAME_SEPARATOR.length());
-            recepientName = new String(dataInputStream.readNBytes(recepientSize), StandardCharsets.UTF_8);
-            String insult = InsultGenerator.generateInsult();
-            sendDirectMessage(senderUsername, insult);
-            sendDirectMessage(recepientName, LEFT_BRACKET + senderUsername + RIGHT_BRACKET + insult);
-            break;
-        }
-      } catch (Exception e) {
+  /**
+   * Closes the socket of a client that sent nothing for too long, even if a writer is stuck on
+   * it. The blocked read fails and the handler's own thread parks or removes the session.
+   */
+  @Override
+  protected void closeIdle() {
+    closeConnection();
+  }
 
-      }
+  /**
+   * Queues a frame for this client. The calling thread only enqueues; the first frame added to an
+   * idle queue schedules a writer task that sends everything queued by then with a single flush.
+   *
+   * @param frame The frame to be delivered.
+   */
+  @Override
+  protected void deliver(EncodedFrame frame) {
+    if (holdIfParked(frame)) {
+      return;
+    }
+    if (enqueueOutbound(frame) && outboundQueue.claimDrain()) {
+      writerExecutor.execute(this::drainOutbound);
     }
   }
 
   /**
-   * Sends a direct message to the specified user.
+   * Queues a file to be served to this client and schedules a writer task if the queue was idle.
    *
-   * @param targetUser The username of the target user.
-   * @param message    The message to be sent.
+   * @param transfer The transfer, ready to be downloaded.
+   * @return {@code true} if the file was queued.
    */
-  public void sendDirectMessage(String targetUser, String message) {
-    for (ClientHandler clientHandler : clientHandlers) {
-      if (clientHandler.clientUserName.equals(targetUser)) {
-        try {
-          clientHandler.bufferedWriter.write(message);
-          clientHandler.bufferedWriter.newLine();
-          clientHandler.bufferedWriter.flush();
-        } catch (IOException e) {
-        }
-        return;
-      }
+  @Override
+  protected boolean startDownload(FileTransfer transfer) {
+    if (!super.startDownload(transfer)) {
+      return false;
     }
-    try {
-      bufferedWriter.write("[Server] : User '" + targetUser + "' not found.");
-      bufferedWriter.newLine();
-      bufferedWriter.flush();
-    } catch (IOException e) {
-
+    if (outboundQueue.claimDrain()) {
+      writerExecutor.execute(this::drainOutbound);
     }
+    return true;
   }
 
   /**
-   * Broadcasts a message to all connected clients except the sender.
-   *
-   * @param message The message to be broadcasted.
+   * Leaves the chat on a writer thread, so the sender that found the queue overflowing goes on
+   * with its own work, and closes the connection once the reason has been written.
    */
-  public void broadcastMessage(String message) {
-    for (ClientHandler clientHandler : clientHandlers) {
+  @Override
+  protected void disconnectSlowConsumer() {
+    writerExecutor.execute(this::disconnect);
+  }
+
+  /**
+   * Writes every queued frame into the buffered socket stream and flushes them together, until
+   * the queue stays empty. Whenever it is, the next piece of the file being served is written and
+   * flushed, so queued chat frames wait for at most one piece. A plain socket has no channel, so
+   * pieces are copied from the spool file through the stream rather than transferred directly.
+   * Closes the connection afterwards if a disconnect is pending. If the connection is lost and the
+   * session can be resumed, the frames still queued are kept for the client to pick up.
+   */
+  private void drainOutbound() {
+    do {
       try {
-        if (!clientHandler.clientUserName.equals(clientUserName)) {
-          clientHandler.bufferedWriter.write(message);
-          clientHandler.bufferedWriter.newLine();
-          clientHandler.bufferedWriter.flush();
+        WritableByteChannel outputChannel = null;
+        while (true) {
+          EncodedFrame frame;
+          while ((frame = outboundQueue.poll()) != null) {
+            frame.writeTo(dataOutputStream);
+            serverMetrics.recordFrameOut(frame);
+          }
+          FileTransfer download = currentDownload();
+          if (download == null) {
+            break;
+          }
+          if (outputChannel == null) {
+            outputChannel = Channels.newChannel(dataOutputStream);
+          }
+          download.writeChunk(outputChannel);
+          dataOutputStream.flush();
+          if (download.isFinished()) {
+            finishDownload(download, true);
+          }
         }
-      } catch (IOException e){
-
+        dataOutputStream.flush();
+      } catch (IOException e) {
+        if (park()) {
+          closeConnection();
+          return;
+        }
+        outboundQueue.clear();
+        closeDownloads();
       }
+    } while (finishOutbound());
+    if (closeAfterFlush) {
+      closeConnection();
+    }
+  }
+
+  /**
+   * Leaves the chat and closes this client's socket and streams once every frame queued for it
+   * has been written.
+   */
+  @Override
+  protected void disconnect() {
+    removeClientHandler();
+    closeAfterFlush = true;
+    if (outboundQueue.claimDrain()) {
+      writerExecutor.execute(this::drainOutbound);
     }
   }
 
   /**
-   * Removes the current `ClientHandler` from the list of active handlers
-   * and broadcasts a message about the user leaving the chat.
+   * Closes this client's streams and socket without touching the chat.
    */
-  public void removeClientHandler() {
-    clientHandlers.remove(this);
-    this.semaphore.release();
-    broadcastMessage("[Server] : " + clientUserName + " has left the chat");
+  private void closeConnection() {
+    try {
+      dataInputStream.close();
+      dataOutputStream.close();
+      socket.close();
+    } catch (IOException e) {
+    }
   }
 
   /**
    * Closes the associated socket and streams, removing the client handler.
    *
-   * @param socket         The socket to be closed.
-   * @param bufferedReader The BufferedReader to be closed.
-   * @param bufferedWriter The BufferedWriter to be closed.
+   * @param socket       The socket to be closed.
+   * @param inputStream  The InputStream to be closed.
+   * @param outputStream The OutputStream to be closed.
    */
-  public void closeEverything(Socket socket, BufferedReader bufferedReader, BufferedWriter bufferedWriter) {
+  public void closeEverything(Socket socket, InputStream inputStream, OutputStream outputStream) {
     removeClientHandler();
     try {
-      if (bufferedReader != null) {
-        bufferedReader.close();
+      if (inputStream != null) {
+        inputStream.close();
       }
 
-      if (bufferedWriter != null) {
-        bufferedWriter.close();
+      if (outputStream != null) {
+        outputStream.close();
       }
 
       if (socket != null) {
@@ -314,13 +339,4 @@ class ClientHandler implements Runnable {
     } catch (IOException e) {
     }
   }
-
-  /**
-   * Gets the username of the associated client.
-   *
-   * @return The username of the client.
-   */
-  public String getClientUserName() {
-    return clientUserName;
-  }
 }
@@ -0,0 +1,435 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The `ClusterNode` class joins this server to a cluster of servers sharing one chat. Every node
+ * holds a relay link to every other node: broadcasts are relayed to all peers, and each node tells
+ * the others which users connect to and leave it, so every node keeps a directory of where every
+ * remote user is. A direct message to a remote user is relayed only to the node holding the
+ * recipient, and a query for the connected users is answered from the directory without asking
+ * the other nodes.
+ *
+ * <p>A node is named by its relay address, written as {@code host:port}, and listens for relay
+ * links on that host only. Every node must list its peers under the same names they use for
+ * themselves. A link is closed unless it names a listed peer and comes from that peer's host, and
+ * a peer only ever speaks for its own users. Relay frames carry the frame already encoded for the
+ * clients, so the receiving node queues it for its own clients as it is.
+ *
+ * <p>Two nodes may let users join under the same name before either hears of the other. When a
+ * relayed join names a user connected here, the node whose name sorts first keeps the user, and
+ * the other node disconnects its own; as both nodes apply the same rule, they agree on who stays.
+ */
+class ClusterNode implements Runnable {
+
+  /**
+   * The separator between the peers of a node in its argument.
+   */
+  public static final String PEER_SEPARATOR = ",";
+
+  private final String nodeId;
+  private final ServerSocket serverSocket;
+  private final Map<String, ClusterPeer> peers;
+  private final Map<String, String> directory = new ConcurrentHashMap<>();
+  private final Map<String, Socket> inboundLinks = new ConcurrentHashMap<>();
+  private final ChatRoomProtocol chatRoomProtocol = new ChatRoomProtocol();
+  private final Thread acceptor;
+  private volatile boolean closed;
+
+  /**
+   * Constructs a new `ClusterNode` and binds its relay port. Nothing is relayed until
+   * {@link #start()} is called.
+   *
+   * @param nodeId       The relay address of this node, as its peers name it.
+   * @param serverSocket The socket the peers' relay links are accepted on.
+   * @param peerIds      The relay addresses of the other nodes.
+   */
+  public ClusterNode(String nodeId, ServerSocket serverSocket, Collection<String> peerIds) {
+    this.nodeId = nodeId;
+    this.serverSocket = serverSocket;
+    Map<String, ClusterPeer> links = new LinkedHashMap<>();
+    for (String peerId : peerIds) {
+      if (!peerId.equals(nodeId)) {
+        links.put(peerId, new ClusterPeer(this, parseAddress(peerId)));
+      }
+    }
+    this.peers = Collections.unmodifiableMap(links);
+    this.acceptor = new Thread(this, "cluster-acceptor");
+    this.acceptor.setDaemon(true);
+  }
+
+  /**
+   * Creates a node listening on the host and port of its relay address.
+   *
+   * @param nodeId The relay address of this node, as {@code host:port}.
+   * @param peers  The relay addresses of the other nodes, separated by {@value #PEER_SEPARATOR}.
+   * @return The node, not started yet.
+   * @throws IOException              If the relay port cannot be bound.
+   * @throws IllegalArgumentException If an address is not {@code host:port}.
+   */
+  public static ClusterNode of(String nodeId, String peers) throws IOException {
+    List<String> peerIds = new ArrayList<>();
+    for (String peer : peers.split(PEER_SEPARATOR)) {
+      if (!peer.isBlank()) {
+        peerIds.add(peer.trim());
+      }
+    }
+    InetSocketAddress address = parseAddress(nodeId);
+    ServerSocket serverSocket = new ServerSocket();
+    serverSocket.bind(new InetSocketAddress(address.getHostString(), address.getPort()));
+    return new ClusterNode(nodeId, serverSocket, peerIds);
+  }
+
+  /**
+   * Parses a relay address written as {@code host:port}.
+   *
+   * @param address The relay address.
+   * @return The socket address, not resolved until it is dialled.
+   * @throws IllegalArgumentException If the address is not {@code host:port}.
+   */
+  static InetSocketAddress parseAddress(String address) {
+    int colon = address.lastIndexOf(':');
+    if (colon <= 0 || colon == address.length() - 1) {
+      throw new IllegalArgumentException("Invalid cluster address: " + address);
+    }
+    return InetSocketAddress.createUnresolved(address.substring(0, colon),
+        Integer.parseInt(address.substring(colon + 1)));
+  }
+
+  /**
+   * Starts accepting relay links and dialling every peer.
+   */
+  public void start() {
+    acceptor.start();
+    for (ClusterPeer peer : peers.values()) {
+      peer.start();
+    }
+  }
+
+  /**
+   * Accepts relay links from the peers until the node is closed, reading each on its own thread.
+   * A failure to accept is reported and retried after a moment, like the server's accept loop.
+   */
+  @Override
+  public void run() {
+    while (!closed) {
+      try {
+        Socket link = serverSocket.accept();
+        Thread reader = new Thread(() -> readLink(link), "cluster-link-" + link.getRemoteSocketAddress());
+        reader.setDaemon(true);
+        reader.start();
+      } catch (IOException e) {
+        if (!closed) {
+          Server.acceptFailed(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads the relay frames a peer sends until its link drops, and then forgets the users the
+   * peer held. A link that does not start with the name of a listed peer, comes from another host
+   * than that peer's or later names another node is closed.
+   *
+   * @param link The relay link accepted from the peer.
+   */
+  void readLink(Socket link) {
+    String peerId = null;
+    FrameView frame = new FrameView();
+    try (Socket socket = link) {
+      DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      while (!closed) {
+        if (!frame.readFrom(dataInputStream)) {
+          continue;
+        }
+        if (frame.messageType() == ChatRoomProtocol.RELAY_HELLO) {
+          if (!peers.containsKey(frame.field(0)) || !isFromHostOf(socket, frame.field(0))
+              || (peerId != null && !peerId.equals(frame.field(0)))) {
+            return;
+          }
+          peerId = frame.field(0);
+          Socket previous = inboundLinks.put(peerId, socket);
+          if (previous != null) {
+            previous.close();
+          }
+          forgetUsersOf(peerId);
+        } else if (peerId != null) {
+          routeRelayed(peerId, frame);
+        }
+      }
+    } catch (IOException e) {
+
+    } finally {
+      if (peerId != null && inboundLinks.remove(peerId, link)) {
+        forgetUsersOf(peerId);
+      }
+    }
+  }
+
+  /**
+   * Checks whether a link was opened from the host of the peer it names itself as.
+   *
+   * @param link   The relay link accepted from the peer.
+   * @param peerId The name of the peer.
+   * @return {@code true} if the remote address is one of the addresses of the peer's host.
+   */
+  static boolean isFromHostOf(Socket link, String peerId) {
+    try {
+      for (InetAddress address : InetAddress.getAllByName(parseAddress(peerId).getHostString())) {
+        if (address.equals(link.getInetAddress())) {
+          return true;
+        }
+      }
+    } catch (UnknownHostException e) {
+
+    }
+    return false;
+  }
+
+  /**
+   * Applies a relay frame received from a peer. Joins and leaves are recorded for the peer the link
+   * belongs to, whichever node the frame names.
+   *
+   * @param peerId The name of the peer the link belongs to.
+   * @param frame  A well-formed view of the relay frame.
+   */
+  private void routeRelayed(String peerId, FrameView frame) {
+    switch (frame.messageType()) {
+      case ChatRoomProtocol.RELAY_USER_JOINED:
+        userJoinedRemotely(peerId, frame.field(1));
+        break;
+      case ChatRoomProtocol.RELAY_USER_LEFT:
+        directory.remove(frame.field(1), peerId);
+        ChatSession.presenceRegistry.refresh(frame.field(1));
+        break;
+      case ChatRoomProtocol.RELAY_BROADCAST:
+        ChatSession.broadcastLocally(EncodedFrame.ofField(frame, 1), null);
+        break;
+      case ChatRoomProtocol.RELAY_DIRECT:
+        ChatSession recipient = ChatSession.sessionRegistry.lookup(frame.field(1));
+        if (recipient != null) {
+          try {
+            recipient.deliver(EncodedFrame.ofField(frame, 2));
+          } catch (IOException e) {
+
+          }
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Records that a user joined a peer. If a user of the same name is connected here, the node
+   * whose name sorts first keeps its user and the other one disconnects its own.
+   *
+   * @param peerId   The name of the peer.
+   * @param userName The name of the user.
+   */
+  private void userJoinedRemotely(String peerId, String userName) {
+    ChatSession local = ChatSession.sessionRegistry.lookup(userName);
+    if (local != null) {
+      if (nodeId.compareTo(peerId) < 0) {
+        return;
+      }
+      local.yieldUserName();
+    }
+    directory.put(userName, peerId);
+    ChatSession.presenceRegistry.refresh(userName);
+  }
+
+  private void forgetUsersOf(String peerId) {
+    for (Map.Entry<String, String> entry : directory.entrySet()) {
+      if (entry.getValue().equals(peerId) && directory.remove(entry.getKey(), peerId)) {
+        ChatSession.presenceRegistry.refresh(entry.getKey());
+      }
+    }
+  }
+
+  /**
+   * Builds the frames a peer is sent whenever a link to it opens: this node's name followed by
+   * every user connected to this node.
+   *
+   * @return The frames, with their length headers.
+   */
+  List<EncodedFrame> greetingFrames() {
+    List<EncodedFrame> frames = new ArrayList<>();
+    frames.add(new EncodedFrame(chatRoomProtocol.encodeRelayHello(nodeId)));
+    for (ChatSession session : ChatSession.sessionRegistry.sessions()) {
+      frames.add(new EncodedFrame(chatRoomProtocol.encodeRelayUserJoined(nodeId, session.getClientUserName())));
+    }
+    return frames;
+  }
+
+  /**
+   * Tells every peer that a user connected to this node.
+   *
+   * @param userName The name of the user.
+   */
+  public void userJoined(String userName) {
+    relayToAll(new EncodedFrame(chatRoomProtocol.encodeRelayUserJoined(nodeId, userName)));
+  }
+
+  /**
+   * Tells every peer that a user left this node.
+   *
+   * @param userName The name of the user.
+   */
+  public void userLeft(String userName) {
+    relayToAll(new EncodedFrame(chatRoomProtocol.encodeRelayUserLeft(nodeId, userName)));
+  }
+
+  /**
+   * Checks whether a message sent to this node's clients still fits in one frame once it is
+   * wrapped for relaying. A peer drops the link a longer frame arrives on, so such a message is
+   * kept on this node.
+   *
+   * @param recipient The recipient of a direct message, or {@code null} for a broadcast.
+   * @param message   The frame sent to this node's clients.
+   * @return {@code true} if the relay frame fits within {@link ChatRoomProtocol#MAX_FRAME_LENGTH}.
+   */
+  public boolean canRelay(String recipient, EncodedFrame message) {
+    int length = recipient == null ? ChatRoomProtocol.relayBroadcastLength(nodeId, message)
+        : ChatRoomProtocol.relayDirectLength(nodeId, recipient, message);
+    return length <= ChatRoomProtocol.MAX_FRAME_LENGTH;
+  }
+
+  /**
+   * Relays a broadcast to every peer. The relay frame is encoded once and shared by every link.
+   *
+   * @param message The frame sent to this node's clients.
+   * @return {@code false} if the message is too long to be relayed, so only this node's clients
+   *     get it.
+   */
+  public boolean relayBroadcast(EncodedFrame message) {
+    if (peers.isEmpty()) {
+      return true;
+    }
+    if (!canRelay(null, message)) {
+      return false;
+    }
+    byte[] bytes = new byte[ChatRoomProtocol.FRAME_HEADER_LENGTH
+        + ChatRoomProtocol.relayBroadcastLength(nodeId, message)];
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    int headerPosition = ChatRoomProtocol.reserveFrameHeader(buffer);
+    chatRoomProtocol.encodeRelayBroadcast(buffer, nodeId, message);
+    ChatRoomProtocol.completeFrameHeader(buffer, headerPosition);
+    relayToAll(EncodedFrame.ofEncodedFrames(bytes));
+    return true;
+  }
+
+  /**
+   * Relays a direct message to the node holding its recipient. A message too long to be relayed
+   * is not sent; callers check {@link #canRelay} first to tell its sender.
+   *
+   * @param recipient The name of the recipient.
+   * @param message   The frame sent to the recipient.
+   * @return {@code false} if the recipient is not connected to any other node.
+   */
+  public boolean relayDirect(String recipient, EncodedFrame message) {
+    String recipientNode = directory.get(recipient);
+    ClusterPeer peer = recipientNode != null ? peers.get(recipientNode) : null;
+    if (peer == null) {
+      return false;
+    }
+    if (!canRelay(recipient, message)) {
+      return true;
+    }
+    byte[] bytes = new byte[ChatRoomProtocol.FRAME_HEADER_LENGTH
+        + ChatRoomProtocol.relayDirectLength(nodeId, recipient, message)];
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    int headerPosition = ChatRoomProtocol.reserveFrameHeader(buffer);
+    chatRoomProtocol.encodeRelayDirect(buffer, nodeId, recipient, message);
+    ChatRoomProtocol.completeFrameHeader(buffer, headerPosition);
+    peer.relay(EncodedFrame.ofEncodedFrames(bytes));
+    return true;
+  }
+
+  private void relayToAll(EncodedFrame frame) {
+    for (ClusterPeer peer : peers.values()) {
+      peer.relay(frame);
+    }
+  }
+
+  /**
+   * Finds the node a remote user is connected to.
+   *
+   * @param userName The name of the user.
+   * @return The name of the node, or {@code null} if the user is not connected to another node.
+   */
+  public String locate(String userName) {
+    return directory.get(userName);
+  }
+
+  /**
+   * Gets the names of the users connected to the other nodes.
+   *
+   * @return A live view of the remote users.
+   */
+  public Collection<String> remoteUserNames() {
+    return directory.keySet();
+  }
+
+  /**
+   * Gets the relay address of this node.
+   *
+   * @return The name of the node.
+   */
+  public String getNodeId() {
+    return nodeId;
+  }
+
+  /**
+   * Gets the relay port this node accepts links on.
+   *
+   * @return The local port.
+   */
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+   * Closes every relay link and stops accepting new ones.
+   */
+  public void close() {
+    closed = true;
+    try {
+      serverSocket.close();
+    } catch (IOException e) {
+
+    }
+    for (ClusterPeer peer : peers.values()) {
+      peer.close();
+    }
+    for (Socket link : inboundLinks.values()) {
+      try {
+        link.close();
+      } catch (IOException e) {
+
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ClusterNode{" +
+        "nodeId='" + nodeId + '\'' +
+        ", peers=" + peers.values() +
+        ", remoteUsers=" + directory.size() +
+        '}';
+  }
+}
@@ -0,0 +1,170 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The `ClusterPeer` class is the outgoing relay link from this node to one other node of the
+ * cluster. Routing only queues the relay frame it already encoded; the link's own thread drains
+ * every frame waiting at once and writes them with a single flush, so a burst of broadcasts costs
+ * one write to the peer rather than one per frame. A link that drops is dialled again until the
+ * node is closed, and the peer is sent the node's users afresh each time it is.
+ */
+final class ClusterPeer implements Runnable {
+
+  /**
+   * The time waited before dialling a peer again after the link could not be opened or dropped.
+   */
+  public static final long RECONNECT_DELAY_MILLIS = 1000;
+
+  /**
+   * The longest time dialling a peer may take.
+   */
+  public static final int CONNECT_TIMEOUT_MILLIS = 2000;
+
+  /**
+   * The number of relay frames that may wait for the link before further frames are dropped.
+   */
+  public static final int QUEUE_CAPACITY = 64 * 1024;
+
+  /**
+   * The largest number of relay frames written with one flush.
+   */
+  public static final int MAX_BATCH_FRAMES = 1024;
+
+  /**
+   * The size of the buffer relay frames are gathered in before they are written.
+   */
+  public static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+  private final ClusterNode node;
+  private final InetSocketAddress address;
+  private final BlockingQueue<EncodedFrame> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+  private final LongAdder framesRelayed = new LongAdder();
+  private final LongAdder framesDropped = new LongAdder();
+  private final Thread thread;
+  private volatile boolean connected;
+  private volatile boolean closed;
+  private volatile Socket socket;
+
+  /**
+   * Constructs a new `ClusterPeer`. The link is opened once {@link #start()} is called.
+   *
+   * @param node    The node the link belongs to.
+   * @param address The relay address of the peer, resolved again every time it is dialled.
+   */
+  public ClusterPeer(ClusterNode node, InetSocketAddress address) {
+    this.node = node;
+    this.address = address;
+    this.thread = new Thread(this, "cluster-peer-" + address.getHostString() + ":" + address.getPort());
+    this.thread.setDaemon(true);
+  }
+
+  /**
+   * Starts dialling the peer.
+   */
+  public void start() {
+    thread.start();
+  }
+
+  /**
+   * Queues a relay frame for the peer. Frames are dropped while the link is down, since the peer
+   * is sent the full list of users when the link comes back, and when the queue is full.
+   *
+   * @param frame The relay frame, with its length header.
+   */
+  public void relay(EncodedFrame frame) {
+    if (!connected || !queue.offer(frame)) {
+      framesDropped.increment();
+    }
+  }
+
+  /**
+   * Keeps the link open until the node is closed, writing queued frames in batches.
+   */
+  @Override
+  public void run() {
+    List<EncodedFrame> batch = new ArrayList<>(MAX_BATCH_FRAMES);
+    while (!closed) {
+      try (Socket link = new Socket()) {
+        link.connect(new InetSocketAddress(address.getHostString(), address.getPort()), CONNECT_TIMEOUT_MILLIS);
+        link.setTcpNoDelay(true);
+        socket = link;
+        OutputStream outputStream = new BufferedOutputStream(link.getOutputStream(), WRITE_BUFFER_SIZE);
+        queue.clear();
+        connected = true;
+        for (EncodedFrame frame : node.greetingFrames()) {
+          frame.writeTo(outputStream);
+        }
+        outputStream.flush();
+        while (!closed) {
+          batch.add(queue.take());
+          queue.drainTo(batch, MAX_BATCH_FRAMES - 1);
+          for (EncodedFrame frame : batch) {
+            frame.writeTo(outputStream);
+          }
+          outputStream.flush();
+          framesRelayed.add(batch.size());
+          batch.clear();
+        }
+      } catch (IOException e) {
+
+      } catch (InterruptedException e) {
+        break;
+      } finally {
+        connected = false;
+        socket = null;
+        batch.clear();
+      }
+      if (!closed) {
+        try {
+          TimeUnit.MILLISECONDS.sleep(RECONNECT_DELAY_MILLIS);
+        } catch (InterruptedException e) {
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * Checks whether the link to the peer is open.
+   *
+   * @return {@code true} if relay frames are currently written to the peer.
+   */
+  public boolean isConnected() {
+    return connected;
+  }
+
+  /**
+   * Closes the link and stops dialling the peer.
+   */
+  public void close() {
+    closed = true;
+    thread.interrupt();
+    Socket link = socket;
+    if (link != null) {
+      try {
+        link.close();
+      } catch (IOException e) {
+
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ClusterPeer{" +
+        "address=" + address +
+        ", connected=" + connected +
+        ", framesRelayed=" + framesRelayed.sum() +
+        ", framesDropped=" + framesDropped.sum() +
+        '}';
+  }
+}
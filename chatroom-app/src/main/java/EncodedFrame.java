@@ -0,0 +1,339 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * The `EncodedFrame` class is a frame serialized once, together with its length header, into bytes
+ * that are never modified afterwards. One instance can therefore be queued for any number of
+ * recipients: a broadcast to N users encodes its frame once and hands the same bytes to every
+ * recipient's writer instead of encoding and copying it N times.
+ */
+final class EncodedFrame {
+
+  private final byte[] bytes;
+
+  private final long createdAt;
+
+  private final boolean broadcast;
+
+  private volatile EncodedFrame compressed;
+
+  /**
+   * Constructs a new `EncodedFrame` holding the length header followed by the specified body.
+   *
+   * @param body The frame body, without its length header.
+   */
+  public EncodedFrame(byte[] body) {
+    this(body.length);
+    System.arraycopy(body, 0, bytes, ChatRoomProtocol.FRAME_HEADER_LENGTH, body.length);
+  }
+
+  /**
+   * Constructs a new `EncodedFrame` with its length header written and an empty body of the
+   * specified length, to be filled in before the frame is shared.
+   *
+   * @param bodyLength The length of the frame body.
+   */
+  private EncodedFrame(int bodyLength) {
+    this.bytes = new byte[ChatRoomProtocol.FRAME_HEADER_LENGTH + bodyLength];
+    this.createdAt = System.nanoTime();
+    this.broadcast = false;
+    ByteBuffer.wrap(bytes).putInt(bodyLength);
+  }
+
+  /**
+   * Constructs a new `EncodedFrame` over bytes that already hold one or more complete frames,
+   * each with its length header.
+   *
+   * @param bytes     The encoded frames.
+   * @param createdAt The creation time, from {@link System#nanoTime()}.
+   */
+  private EncodedFrame(byte[] bytes, long createdAt) {
+    this.bytes = bytes;
+    this.createdAt = createdAt;
+    this.broadcast = false;
+  }
+
+  /**
+   * Constructs a new `EncodedFrame` sharing the bytes of another frame.
+   *
+   * @param frame     The frame whose bytes are shared.
+   * @param broadcast Whether the frame is sent to the whole room.
+   */
+  private EncodedFrame(EncodedFrame frame, boolean broadcast) {
+    this.bytes = frame.bytes;
+    this.createdAt = frame.createdAt;
+    this.broadcast = broadcast;
+  }
+
+  /**
+   * Returns this frame marked as a broadcast, which a slow recipient's queue may drop under its
+   * {@link BackpressurePolicy}. The bytes are shared, not copied.
+   *
+   * @return The frame marked as a broadcast.
+   */
+  public EncodedFrame asBroadcast() {
+    return broadcast ? this : new EncodedFrame(this, true);
+  }
+
+  /**
+   * Checks whether the frame is sent to the whole room rather than to one user.
+   *
+   * @return {@code true} if the frame is a broadcast.
+   */
+  public boolean isBroadcast() {
+    return broadcast;
+  }
+
+  /**
+   * Returns the frame as sent to clients that negotiated compression: a
+   * {@link ChatRoomProtocol#COMPRESSED_FRAME} carrying the deflated body if the body is at least
+   * {@value FrameCompressor#DEFAULT_THRESHOLD} bytes and deflating shrinks it, or this frame
+   * otherwise. It is computed once and shared by every recipient, so a broadcast is compressed
+   * once however many clients receive it.
+   *
+   * @return The frame to send to a client that negotiated compression.
+   */
+  public EncodedFrame compressed() {
+    EncodedFrame result = compressed;
+    if (result == null) {
+      synchronized (this) {
+        result = compressed;
+        if (result == null) {
+          result = compress();
+          compressed = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Deflates the body of a frame holding exactly one uncompressed frame.
+   *
+   * @return The compressed frame, or this frame if compressing it is not worth it.
+   */
+  private EncodedFrame compress() {
+    int bodyLength = bodyLength();
+    int overhead = ChatRoomProtocol.compressedFrameLength(0);
+    if (bodyLength < Math.max(FrameCompressor.DEFAULT_THRESHOLD, overhead + 1)
+        || ByteBuffer.wrap(bytes).getInt(0) != bodyLength
+        || messageType() == ChatRoomProtocol.COMPRESSED_FRAME) {
+      return this;
+    }
+    byte[] deflated = new byte[bodyLength - overhead - 1];
+    int deflatedLength = FrameCompressor.deflate(
+        ByteBuffer.wrap(bytes, ChatRoomProtocol.FRAME_HEADER_LENGTH, bodyLength), deflated);
+    if (deflatedLength < 0) {
+      return this;
+    }
+    byte[] frame = new byte[ChatRoomProtocol.FRAME_HEADER_LENGTH + ChatRoomProtocol.compressedFrameLength(deflatedLength)];
+    ByteBuffer buffer = ByteBuffer.wrap(frame);
+    int headerPosition = ChatRoomProtocol.reserveFrameHeader(buffer);
+    ChatRoomProtocol.encodeCompressedFrame(buffer, bodyLength, deflated, deflatedLength);
+    ChatRoomProtocol.completeFrameHeader(buffer, headerPosition);
+    EncodedFrame compressedFrame = new EncodedFrame(frame, createdAt);
+    return broadcast ? compressedFrame.asBroadcast() : compressedFrame;
+  }
+
+  /**
+   * Creates a frame whose body is the UTF-8 encoding of a server text message.
+   *
+   * @param message The text message.
+   * @return The encoded frame.
+   */
+  public static EncodedFrame ofText(String message) {
+    return new EncodedFrame(message.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Creates a frame holding a chat message formatted as "[sender] : message", copying the sender
+   * and message straight from the fields of a received frame without decoding them.
+   *
+   * @param frame        The received frame.
+   * @param senderField  The index of the field holding the sender's name.
+   * @param messageField The index of the field holding the message.
+   * @return The encoded frame.
+   */
+  public static EncodedFrame ofChatMessage(FrameView frame, int senderField, int messageField) {
+    int bodyLength = ChatRoomProtocol.utf8Length(ChatSession.LEFT_BRACKET) + frame.fieldLength(senderField)
+        + ChatRoomProtocol.utf8Length(ChatSession.RIGHT_BRACKET) + frame.fieldLength(messageField);
+    EncodedFrame encodedFrame = new EncodedFrame(bodyLength);
+    ByteBuffer body = ByteBuffer.wrap(encodedFrame.bytes).position(ChatRoomProtocol.FRAME_HEADER_LENGTH);
+    ChatRoomProtocol.putUtf8(body, ChatSession.LEFT_BRACKET);
+    frame.copyField(senderField, body);
+    ChatRoomProtocol.putUtf8(body, ChatSession.RIGHT_BRACKET);
+    frame.copyField(messageField, body);
+    return encodedFrame;
+  }
+
+  /**
+   * Creates a frame holding a room message formatted as "#room [sender] : message", copying the
+   * room, sender and message straight from the fields of a received frame without decoding them.
+   *
+   * @param frame        The received frame.
+   * @param senderField  The index of the field holding the sender's name.
+   * @param roomField    The index of the field holding the room's name.
+   * @param messageField The index of the field holding the message.
+   * @return The encoded frame.
+   */
+  public static EncodedFrame ofRoomMessage(FrameView frame, int senderField, int roomField, int messageField) {
+    int bodyLength = ChatRoomProtocol.utf8Length(ChatSession.ROOM_PREFIX) + frame.fieldLength(roomField)
+        + ChatRoomProtocol.utf8Length(ChatRoomProtocol.FRAME_SEPARATOR)
+        + ChatRoomProtocol.utf8Length(ChatSession.LEFT_BRACKET) + frame.fieldLength(senderField)
+        + ChatRoomProtocol.utf8Length(ChatSession.RIGHT_BRACKET) + frame.fieldLength(messageField);
+    EncodedFrame encodedFrame = new EncodedFrame(bodyLength);
+    ByteBuffer body = ByteBuffer.wrap(encodedFrame.bytes).position(ChatRoomProtocol.FRAME_HEADER_LENGTH);
+    ChatRoomProtocol.putUtf8(body, ChatSession.ROOM_PREFIX);
+    frame.copyField(roomField, body);
+    ChatRoomProtocol.putUtf8(body, ChatRoomProtocol.FRAME_SEPARATOR);
+    ChatRoomProtocol.putUtf8(body, ChatSession.LEFT_BRACKET);
+    frame.copyField(senderField, body);
+    ChatRoomProtocol.putUtf8(body, ChatSession.RIGHT_BRACKET);
+    frame.copyField(messageField, body);
+    return encodedFrame;
+  }
+
+  /**
+   * Creates a frame whose body is the raw bytes of one field of a received frame, such as the
+   * frame carried by a relayed broadcast.
+   *
+   * @param frame The received frame.
+   * @param field The index of the field holding the body.
+   * @return The encoded frame.
+   */
+  public static EncodedFrame ofField(FrameView frame, int field) {
+    EncodedFrame encodedFrame = new EncodedFrame(frame.fieldLength(field));
+    frame.copyField(field, ByteBuffer.wrap(encodedFrame.bytes).position(ChatRoomProtocol.FRAME_HEADER_LENGTH));
+    return encodedFrame;
+  }
+
+  /**
+   * Creates a frame over bytes that already hold one or more complete frames with their length
+   * headers, such as a run of records copied from the message log. They are written as they are.
+   *
+   * @param frames The encoded frames. The array is not copied and must not be modified afterwards.
+   * @return The encoded frame.
+   */
+  static EncodedFrame ofEncodedFrames(byte[] frames) {
+    return new EncodedFrame(frames, System.nanoTime());
+  }
+
+  /**
+   * Creates a response to a correlated request, carrying the body of another frame.
+   *
+   * @param correlationId The correlation ID of the request.
+   * @param response      The frame whose body is the response.
+   * @return The encoded frame.
+   */
+  static EncodedFrame ofCorrelatedResponse(long correlationId, EncodedFrame response) {
+    EncodedFrame encodedFrame = new EncodedFrame(ChatRoomProtocol.correlatedLength(response.bodyLength()));
+    ByteBuffer body = ByteBuffer.wrap(encodedFrame.bytes).position(ChatRoomProtocol.FRAME_HEADER_LENGTH);
+    ChatRoomProtocol.encodeCorrelatedResponse(body, correlationId, response);
+    return encodedFrame;
+  }
+
+  /**
+   * Joins frames into one run of frames that is queued and written as a single frame is. The
+   * run keeps the creation time of its first frame.
+   *
+   * @param frames The frames, in the order they are written.
+   * @return The run, or the only frame if there is just one.
+   */
+  static EncodedFrame join(List<EncodedFrame> frames) {
+    if (frames.size() == 1) {
+      return frames.get(0);
+    }
+    int length = 0;
+    for (EncodedFrame frame : frames) {
+      length += frame.bytes.length;
+    }
+    byte[] run = new byte[length];
+    int position = 0;
+    for (EncodedFrame frame : frames) {
+      System.arraycopy(frame.bytes, 0, run, position, frame.bytes.length);
+      position += frame.bytes.length;
+    }
+    return new EncodedFrame(run, frames.get(0).createdAt);
+  }
+
+  /**
+   * Returns a new read-only buffer over the encoded bytes. Every call returns a buffer with its
+   * own position, so several channels may write the same frame independently.
+   *
+   * @return A read-only buffer positioned at the start of the length header.
+   */
+  public ByteBuffer buffer() {
+    return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+  }
+
+  /**
+   * Writes the length header and body to a stream. The stream is not flushed.
+   *
+   * @param outputStream The stream to write to.
+   * @throws IOException If an I/O error occurs.
+   */
+  public void writeTo(OutputStream outputStream) throws IOException {
+    outputStream.write(bytes);
+  }
+
+  /**
+   * Copies the body of the frame, without its length header, into a buffer at its position.
+   *
+   * @param destination The buffer to copy to.
+   */
+  public void copyBodyTo(ByteBuffer destination) {
+    destination.put(bytes, ChatRoomProtocol.FRAME_HEADER_LENGTH, bodyLength());
+  }
+
+  /**
+   * Gets the length of the frame body, without its length header.
+   *
+   * @return The body length.
+   */
+  public int bodyLength() {
+    return bytes.length - ChatRoomProtocol.FRAME_HEADER_LENGTH;
+  }
+
+  /**
+   * Gets the number of bytes the frame takes on the wire, including its length header.
+   *
+   * @return The encoded length of the frame.
+   */
+  public int length() {
+    return bytes.length;
+  }
+
+  /**
+   * Gets the message type the frame body starts with.
+   *
+   * @return The message type, or -1 if the body is shorter than a message type.
+   */
+  public int messageType() {
+    if (bytes.length < ChatRoomProtocol.FRAME_HEADER_LENGTH + Integer.BYTES) {
+      return -1;
+    }
+    int offset = ChatRoomProtocol.FRAME_HEADER_LENGTH;
+    return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16
+        | (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+  }
+
+  /**
+   * Gets the time the frame was encoded, for measuring how long it takes to reach its recipients.
+   *
+   * @return The creation time, from {@link System#nanoTime()}.
+   */
+  public long createdAt() {
+    return createdAt;
+  }
+
+  @Override
+  public String toString() {
+    return "EncodedFrame{" +
+        "length=" + bytes.length +
+        ", broadcast=" + broadcast +
+        '}';
+  }
+}
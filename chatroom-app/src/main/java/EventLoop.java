@@ -0,0 +1,192 @@
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The `EventLoop` class owns a single {@link Selector} and services every channel registered with
+ * it on one thread. Work coming from other threads, such as registering a newly accepted channel
+ * or flushing a session's outbound messages, is handed over through a lock-free task queue and
+ * picked up the next time the selector wakes. The selector is only woken when it may be blocked,
+ * so a burst of handoffs from other event loops costs at most one wakeup per loop iteration.
+ */
+class EventLoop implements Runnable {
+
+  /**
+   * The thread handing delayed tasks over to the event loops once they are due.
+   */
+  private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "event-loop-timer");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Selector selector;
+
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+  private final EventLoopServer server;
+
+  private final AtomicBoolean awake = new AtomicBoolean(true);
+
+  private volatile Thread thread;
+
+  /**
+   * Constructs a new `EventLoop` belonging to the specified server.
+   *
+   * @param server The server that accepted connections are reported back to.
+   * @throws IOException If the selector cannot be opened.
+   */
+  public EventLoop(EventLoopServer server) throws IOException {
+    this.server = server;
+    this.selector = Selector.open();
+  }
+
+  /**
+   * Gets the selector serviced by this event loop.
+   *
+   * @return The selector of this event loop.
+   */
+  public Selector getSelector() {
+    return selector;
+  }
+
+  /**
+   * Checks whether the calling thread is the thread running this event loop.
+   *
+   * @return {@code true} if called from this event loop's thread.
+   */
+  public boolean inEventLoop() {
+    return Thread.currentThread() == thread;
+  }
+
+  /**
+   * Schedules a task to be run on this event loop's thread. The selector is woken only if this is
+   * the first task handed over since the loop last went to sleep.
+   *
+   * @param task The task to be run.
+   */
+  public void execute(Runnable task) {
+    tasks.add(task);
+    if (!inEventLoop() && !awake.get() && awake.compareAndSet(false, true)) {
+      selector.wakeup();
+    }
+  }
+
+  /**
+   * Schedules a task to be run on this event loop's thread once a delay has passed.
+   *
+   * @param task       The task to be run.
+   * @param delayNanos The delay in nanoseconds.
+   */
+  public void schedule(Runnable task, long delayNanos) {
+    TIMER.schedule(() -> execute(task), delayNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Registers a newly accepted channel with this event loop and starts reading from it.
+   *
+   * @param socketChannel The accepted channel.
+   */
+  public void register(SocketChannel socketChannel) {
+    execute(() -> {
+      try {
+        socketChannel.configureBlocking(false);
+        SelectionKey key = socketChannel.register(selector, SelectionKey.OP_READ);
+        key.attach(new EventLoopSession(socketChannel, key, this, server.getSemaphore()));
+      } catch (IOException e) {
+        server.release(socketChannel);
+      }
+    });
+  }
+
+  @Override
+  public void run() {
+    thread = Thread.currentThread();
+    while (selector.isOpen()) {
+      try {
+        awake.set(false);
+        if (tasks.isEmpty()) {
+          selector.select();
+        } else {
+          selector.selectNow();
+        }
+        awake.set(true);
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          processKey(key);
+        }
+        runTasks();
+      } catch (IOException e) {
+        break;
+      } catch (Exception e) {
+
+      }
+    }
+  }
+
+  /**
+   * Dispatches a ready key to the server or to the session attached to it.
+   *
+   * @param key The ready selection key.
+   */
+  private void processKey(SelectionKey key) {
+    try {
+      if (key.isAcceptable()) {
+        server.accept();
+        return;
+      }
+      EventLoopSession session = (EventLoopSession) key.attachment();
+      if (key.isReadable()) {
+        session.onReadable();
+      }
+      if (key.isValid() && key.isWritable()) {
+        session.onWritable();
+      }
+    } catch (CancelledKeyException e) {
+
+    }
+  }
+
+  /**
+   * Runs every task handed over to this event loop since it last woke.
+   */
+  private void runTasks() {
+    Runnable task;
+    while ((task = tasks.poll()) != null) {
+      try {
+        task.run();
+      } catch (Exception e) {
+
+      }
+    }
+  }
+
+  /**
+   * Closes the selector, stopping this event loop.
+   */
+  public void close() {
+    try {
+      selector.close();
+    } catch (IOException e) {
+
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "EventLoop{" +
+        "selector=" + selector +
+        '}';
+  }
+}
@@ -0,0 +1,197 @@
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The EventLoopServer class is the non-blocking mode of {@link Server}. Instead of giving every
+ * connection its own thread, it spreads accepted channels over a small fixed set of
+ * {@link EventLoop}s, each of which reads, decodes and writes for all of its clients on a single
+ * thread. By default there is one event loop per available core. Connections are assigned in turn
+ * and keep their event loop for life, so a session's state is only ever touched by one thread;
+ * messages for a client on another event loop are handed over through that client's lock-free
+ * outbound queue. Messages are routed by {@link EventLoopSession} exactly like {@link ClientHandler}.
+ */
+public class EventLoopServer {
+
+  /**
+   * The number of event loops used when none is specified.
+   */
+  public static final int DEFAULT_EVENT_LOOP_COUNT = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * The prefix of the names of the event loop threads.
+   */
+  public static final String EVENT_LOOP_THREAD_PREFIX = "event-loop-";
+
+  /**
+   * The index of the event loop that accepts new connections.
+   */
+  public static final int ACCEPTING_EVENT_LOOP_INDEX = 0;
+
+  /**
+   * Message indicating that pending connections could not be accepted, followed by the reason.
+   */
+  public static final String ACCEPT_FAILED_MESSAGE = "\nFailed to accept connections: ";
+
+  private final ServerSocketChannel serverSocketChannel;
+
+  private final int eventLoopCount;
+
+  private final Semaphore semaphore;
+
+  private volatile EventLoop[] eventLoops;
+
+  private ExecutorService executorService;
+
+  private int nextEventLoopIndex;
+
+  /**
+   * Constructs a new {@code EventLoopServer} with the specified bound channel.
+   *
+   * @param serverSocketChannel the bound ServerSocketChannel to accept connections from.
+   * @param eventLoopCount      the number of event loops to spread connections over.
+   */
+  public EventLoopServer(ServerSocketChannel serverSocketChannel, int eventLoopCount) {
+    this(serverSocketChannel, eventLoopCount, Server.MAX_CLIENTS);
+  }
+
+  /**
+   * Constructs a new {@code EventLoopServer} with the specified bound channel and connection
+   * ceiling.
+   *
+   * @param serverSocketChannel the bound ServerSocketChannel to accept connections from.
+   * @param eventLoopCount      the number of event loops to spread connections over.
+   * @param maxClients          the maximum number of clients connected at the same time.
+   */
+  public EventLoopServer(ServerSocketChannel serverSocketChannel, int eventLoopCount, int maxClients) {
+    this.serverSocketChannel = serverSocketChannel;
+    this.eventLoopCount = Math.max(1, eventLoopCount);
+    this.semaphore = new Semaphore(maxClients);
+  }
+
+  /**
+   * @return server socket channel
+   */
+  public ServerSocketChannel getServerSocketChannel() {
+    return serverSocketChannel;
+  }
+
+  /**
+   * @return the semaphore limiting the number of connected clients
+   */
+  Semaphore getSemaphore() {
+    return semaphore;
+  }
+
+  /**
+   * Starts every event loop on a thread of its own, named after the loop's index, and waits on the
+   * calling thread until the server is closed.
+   *
+   * @param port the port on which the server is listening for connections.
+   */
+  public void startServer(int port) {
+    try {
+      System.out.format("Server Started. Listening to port: %s ", port);
+      ChatSession.serverMetrics.monitor(semaphore);
+      ChatSession.idleTimer.start(Server.IDLE_TIMER_THREAD_NAME);
+      EventLoop[] loops = new EventLoop[eventLoopCount];
+      for (int i = 0; i < eventLoopCount; i++) {
+        loops[i] = new EventLoop(this);
+      }
+      eventLoops = loops;
+      serverSocketChannel.configureBlocking(false);
+      serverSocketChannel.register(loops[ACCEPTING_EVENT_LOOP_INDEX].getSelector(), SelectionKey.OP_ACCEPT);
+      AtomicInteger threadIndex = new AtomicInteger();
+      executorService = Executors.newFixedThreadPool(eventLoopCount,
+          task -> new Thread(task, EVENT_LOOP_THREAD_PREFIX + threadIndex.getAndIncrement()));
+      for (EventLoop loop : loops) {
+        executorService.execute(loop);
+      }
+      executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (IOException | RejectedExecutionException e) {
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Accepts every pending connection and hands each one to the next event loop in turn.
+   */
+  void accept() {
+    try {
+      SocketChannel socketChannel;
+      while ((socketChannel = serverSocketChannel.accept()) != null) {
+        if (!semaphore.tryAcquire()) {
+          System.out.println(Server.MAX_CLIENT_REACHED_MESSAGE);
+          ChatSession.serverMetrics.recordConnectionRefused();
+          socketChannel.close();
+          continue;
+        }
+        System.out.println(Server.NEW_CLIENT_INTRODUCTION_MESSAGE);
+        ChatSession.serverMetrics.recordConnectionAccepted();
+        eventLoops[nextEventLoopIndex].register(socketChannel);
+        nextEventLoopIndex = (nextEventLoopIndex + 1) % eventLoops.length;
+      }
+    } catch (IOException e) {
+      System.out.println(ACCEPT_FAILED_MESSAGE + e.getMessage());
+      ChatSession.serverMetrics.recordAcceptFailure();
+    }
+  }
+
+  /**
+   * Closes a channel that could not be registered and gives its permit back.
+   *
+   * @param socketChannel the channel to be closed.
+   */
+  void release(SocketChannel socketChannel) {
+    semaphore.release();
+    try {
+      socketChannel.close();
+    } catch (IOException e) {
+
+    }
+  }
+
+  /**
+   * Closes the server channel and stops every event loop.
+   */
+  public void closeServerSocket() {
+    try {
+      if (serverSocketChannel != null && serverSocketChannel.isOpen()) {
+        serverSocketChannel.close();
+      }
+    } catch (IOException e) {
+
+    }
+    EventLoop[] loops = eventLoops;
+    if (loops != null) {
+      for (EventLoop loop : loops) {
+        loop.close();
+      }
+    }
+    if (executorService != null) {
+      executorService.shutdown();
+    }
+  }
+
+  /**
+   * Returns a string representation of the {@code EventLoopServer} object.
+   *
+   * @return a string representation of the object.
+   */
+  @Override
+  public String toString() {
+    return "EventLoopServer{" +
+        "serverSocketChannel=" + serverSocketChannel +
+        ", eventLoopCount=" + eventLoopCount +
+        '}';
+  }
+}
@@ -0,0 +1,426 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.Semaphore;
+
+/**
+ * The `EventLoopSession` class is the non-blocking counterpart of {@link ClientHandler}. It is
+ * driven by the {@link EventLoop} owning its channel: incoming bytes are split into length-prefixed
+ * frames as they arrive and decoded in place, and outgoing frames are queued and written by the event loop whenever the
+ * socket can accept them, so no thread ever blocks on this client. A session stays on the event
+ * loop it was registered with for its whole life, so its buffers and state are never shared; other
+ * event loops only reach it through its lock-free outbound queue.
+ */
+class EventLoopSession extends ChatSession {
+
+  /**
+   * The size of the buffer each read from the channel goes into.
+   */
+  public static final int READ_BUFFER_SIZE = 8192;
+
+  /**
+   * The largest number of frames handed to the socket in a single gathering write.
+   */
+  public static final int GATHER_LIMIT = 64;
+
+  /**
+   * The largest number of file pieces written in one turn of the event loop, so serving a large
+   * file never holds up the other sessions of the loop.
+   */
+  public static final int CHUNKS_PER_FLUSH = 4;
+
+
+  private static final int AWAITING_USERNAME = 0;
+  private static final int AWAITING_CONNECT = 1;
+  private static final int CONNECTED = 2;
+
+  private final SocketChannel socketChannel;
+  private final SelectionKey key;
+  private final EventLoop eventLoop;
+  private final Runnable flushTask = this::flushOutbound;
+
+  private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+  private int state = AWAITING_USERNAME;
+
+  private final ArrayDeque<ByteBuffer> unwritten = new ArrayDeque<>();
+  private final ByteBuffer[] gatherBuffers = new ByteBuffer[GATHER_LIMIT];
+  private FileTransfer partialChunk;
+  private boolean closeAfterFlush;
+  private boolean spooling;
+  private boolean left;
+  private boolean closed;
+
+  /**
+   * Constructs a new `EventLoopSession` for a channel registered with the specified event loop.
+   *
+   * @param socketChannel The channel associated with the client.
+   * @param key           The key of the channel in the event loop's selector.
+   * @param eventLoop     The event loop servicing the channel.
+   * @param semaphore     The semaphore holding the permit taken for this client.
+   */
+  public EventLoopSession(SocketChannel socketChannel, SelectionKey key, EventLoop eventLoop,
+      Semaphore semaphore) {
+    this.socketChannel = socketChannel;
+    this.key = key;
+    this.eventLoop = eventLoop;
+    this.semaphore = semaphore;
+    this.chatRoomProtocol = new ChatRoomProtocol();
+    watchIdle();
+  }
+
+  /**
+   * Reads whatever the channel has available and processes every complete frame in it.
+   */
+  void onReadable() {
+    try {
+      int read = socketChannel.read(readBuffer);
+      if (read < 0) {
+        close();
+        return;
+      }
+      recordActivity();
+      processReadFrames();
+    } catch (IOException e) {
+      close();
+    }
+  }
+
+  /**
+   * Processes every complete frame in the read buffer. A partial frame stays in the read buffer,
+   * which grows when a frame does not fit in it. A frame the client sent faster than its rate
+   * limits allow stays in the buffer too, and reading stops until the frame may be processed.
+   * Reading also stops while a file piece is written to its spool file from the read buffer.
+   *
+   * @return {@code false} if reading stopped for the rate limits or a file piece.
+   * @throws IOException If a frame declares an invalid length or an I/O error occurs.
+   */
+  private boolean processReadFrames() throws IOException {
+    readBuffer.flip();
+    while (readBuffer.remaining() >= ChatRoomProtocol.FRAME_HEADER_LENGTH && !left) {
+      int length = readBuffer.getInt(readBuffer.position());
+      ChatRoomProtocol.checkFrameLength(length);
+      if (readBuffer.remaining() < ChatRoomProtocol.FRAME_HEADER_LENGTH + length) {
+        ensureCapacity(ChatRoomProtocol.FRAME_HEADER_LENGTH + length);
+        return true;
+      }
+      int frameOffset = readBuffer.position() + ChatRoomProtocol.FRAME_HEADER_LENGTH;
+      if (!inboundFrame.wrap(readBuffer, frameOffset, length)) {
+        readBuffer.position(frameOffset + length);
+        serverMetrics.recordDecodeFailure();
+        continue;
+      }
+      long delay = state == CONNECTED ? rateLimitDelay(inboundFrame) : 0;
+      if (delay > 0) {
+        readBuffer.compact();
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        eventLoop.schedule(this::resumeReading, delay);
+        return false;
+      }
+      readBuffer.position(frameOffset + length);
+      processFrame(inboundFrame);
+      if (spooling) {
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        return false;
+      }
+    }
+    readBuffer.compact();
+    return true;
+  }
+
+  /**
+   * Processes the frames held back for the rate limits and reads from the channel again, unless
+   * the rate limits hold the next frame back as well.
+   */
+  private void resumeReading() {
+    if (closed) {
+      return;
+    }
+    try {
+      if (processReadFrames() && !closed) {
+        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+      }
+    } catch (IOException e) {
+      close();
+    }
+  }
+
+  /**
+   * Hands an uploaded piece of a file to the spool writer, so the event loop never waits for the
+   * disk. The piece is written straight from the read buffer, so nothing more is read or processed
+   * until the spool writer is done with it.
+   *
+   * @param transfers The registry of transfers.
+   * @param chunk     A well-formed view of the piece, still in the read buffer.
+   */
+  @Override
+  protected void receiveFileChunk(FileTransfers transfers, FrameView chunk) {
+    spooling = true;
+    transfers.receive(this, chunk, () -> eventLoop.execute(this::spooled));
+  }
+
+  /**
+   * Processes the frames that arrived behind a file piece once the piece was written, and reads
+   * from the channel again.
+   */
+  private void spooled() {
+    spooling = false;
+    if (closed) {
+      return;
+    }
+    readBuffer.compact();
+    resumeReading();
+  }
+
+  /**
+   * Compacts the flipped read buffer, moving it to a larger buffer if a frame of the given total
+   * size would not fit, and leaves it ready for the next read.
+   *
+   * @param frameSize The size of the frame being collected, including its header.
+   */
+  private void ensureCapacity(int frameSize) {
+    if (readBuffer.capacity() < frameSize) {
+      ByteBuffer larger = ByteBuffer.allocate(frameSize);
+      larger.put(readBuffer);
+      readBuffer = larger;
+    } else {
+      readBuffer.compact();
+    }
+  }
+
+  /**
+   * Writes as many queued messages as the socket accepts without blocking.
+   */
+  void onWritable() {
+    flushOutbound();
+  }
+
+  /**
+   * Handles a complete frame according to how far the connection handshake has progressed.
+   *
+   * @param frame A view of the frame received from the client, still in the read buffer.
+   * @throws IOException If an I/O error occurs.
+   */
+  private void processFrame(FrameView frame) throws IOException {
+    switch (state) {
+      case AWAITING_USERNAME:
+        if (handshake(frame)) {
+          state = CONNECTED;
+          return;
+        }
+        state = AWAITING_CONNECT;
+        break;
+      case AWAITING_CONNECT:
+        acknowledgeConnection(frame);
+        state = CONNECTED;
+        break;
+      default:
+        processInput(frame);
+        break;
+    }
+  }
+
+  /**
+   * Queues a frame for this client. The first frame added to an idle queue asks the event loop to
+   * write it, so the calling thread never touches the channel.
+   *
+   * @param frame The frame to be delivered.
+   */
+  @Override
+  protected void deliver(EncodedFrame frame) {
+    if (holdIfParked(frame)) {
+      return;
+    }
+    if (enqueueOutbound(frame) && outboundQueue.claimDrain()) {
+      eventLoop.execute(flushTask);
+    }
+  }
+
+  /**
+   * Queues a file to be served to this client and asks the event loop to write it if the queue
+   * was idle.
+   *
+   * @param transfer The transfer, ready to be downloaded.
+   * @return {@code true} if the file was queued.
+   */
+  @Override
+  protected boolean startDownload(FileTransfer transfer) {
+    if (!super.startDownload(transfer)) {
+      return false;
+    }
+    if (outboundQueue.claimDrain()) {
+      eventLoop.execute(flushTask);
+    }
+    return true;
+  }
+
+  /**
+   * Leaves the chat on the event loop, which owns this session's state, and closes the channel
+   * once the reason has been written.
+   */
+  @Override
+  protected void disconnectSlowConsumer() {
+    eventLoop.execute(this::disconnect);
+  }
+
+  /**
+   * Closes the channel of a client that sent nothing for too long, on the event loop that owns it.
+   */
+  @Override
+  protected void closeIdle() {
+    eventLoop.execute(this::close);
+  }
+
+  /**
+   * Writes queued frames with gathering writes, coalescing up to {@value #GATHER_LIMIT} frames per
+   * write, until the queue stays empty or the socket stops accepting bytes. In the latter case
+   * the drain claim is kept and the event loop calls back once the socket is writable again.
+   *
+   * <p>Whenever the queue is empty, the next piece of the file being served is transferred from
+   * its spool file to the socket, so queued chat frames wait for at most one piece. After
+   * {@value #CHUNKS_PER_FLUSH} pieces the session keeps the drain claim and waits for the socket to
+   * be reported writable again, so every other channel ready on the event loop gets its turn
+   * before the next pieces are written.
+   */
+  private void flushOutbound() {
+    if (closed) {
+      return;
+    }
+    try {
+      int chunks = 0;
+      while (true) {
+        if (partialChunk != null && !writeChunk(partialChunk)) {
+          key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+          return;
+        }
+        EncodedFrame frame;
+        while (unwritten.size() < GATHER_LIMIT && (frame = outboundQueue.poll()) != null) {
+          unwritten.add(frame.buffer());
+          serverMetrics.recordFrameOut(frame);
+        }
+        if (unwritten.isEmpty()) {
+          FileTransfer download = currentDownload();
+          if (download != null && chunks < CHUNKS_PER_FLUSH) {
+            chunks++;
+            if (!writeChunk(download)) {
+              key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+              return;
+            }
+            continue;
+          }
+          if (download != null) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            return;
+          }
+          if (finishOutbound()) {
+            continue;
+          }
+          break;
+        }
+        int count = 0;
+        for (ByteBuffer buffer : unwritten) {
+          gatherBuffers[count++] = buffer;
+        }
+        socketChannel.write(gatherBuffers, 0, count);
+        while (!unwritten.isEmpty() && !unwritten.peek().hasRemaining()) {
+          unwritten.poll();
+        }
+        if (!unwritten.isEmpty()) {
+          key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+          return;
+        }
+      }
+      key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+      if (closeAfterFlush) {
+        closeChannel();
+      }
+    } catch (IOException e) {
+      close();
+    }
+  }
+
+  /**
+   * Transfers the current piece of a file to the socket, remembering a piece the socket only took
+   * part of so it is finished before anything else is written.
+   *
+   * @param download The transfer being served.
+   * @return {@code true} if the piece was written whole.
+   * @throws IOException If an I/O error occurs.
+   */
+  private boolean writeChunk(FileTransfer download) throws IOException {
+    if (!download.writeChunk(socketChannel)) {
+      partialChunk = download;
+      return false;
+    }
+    partialChunk = null;
+    if (download.isFinished()) {
+      finishDownload(download, true);
+    }
+    return true;
+  }
+
+  /**
+   * Leaves the chat and closes the channel once everything queued for the client is written.
+   */
+  @Override
+  protected void disconnect() {
+    leave();
+    closeAfterFlush = true;
+    eventLoop.execute(flushTask);
+  }
+
+  /**
+   * Closes the channel immediately after the connection was lost. The session is parked with
+   * whatever is still queued if its client can resume it, and leaves the chat otherwise, dropping
+   * the queue.
+   */
+  void close() {
+    if (!park()) {
+      leave();
+    }
+    closeChannel();
+  }
+
+  /**
+   * Removes this session from the chat and gives its permit back, at most once.
+   */
+  private void leave() {
+    if (left) {
+      return;
+    }
+    left = true;
+    removeClientHandler();
+  }
+
+  /**
+   * Cancels the selection key and closes the channel.
+   */
+  private void closeChannel() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (!isParked()) {
+      outboundQueue.clear();
+    }
+    unwritten.clear();
+    partialChunk = null;
+    closeDownloads();
+    key.cancel();
+    try {
+      socketChannel.close();
+    } catch (IOException e) {
+
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "EventLoopSession{" +
+        "socketChannel=" + socketChannel +
+        ", clientUserName='" + clientUserName + '\'' +
+        ", chatRoomProtocol=" + chatRoomProtocol +
+        '}';
+  }
+}
@@ -0,0 +1,281 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The `FileTransfer` class is one file offered by one user to another. Once the offer is accepted,
+ * the pieces the sender uploads are written straight from the frames they arrived in to a spool
+ * file. Once the whole file is in, it is served to the recipient from that file: each piece goes
+ * from the file to the connection with {@link FileChannel#transferTo}, so its bytes are never
+ * copied into the server's heap or decoded as chat.
+ *
+ * <p>The upload is driven by the sender's session and the download by the recipient's writer,
+ * one piece at a time, so chat frames queued for the recipient are written between pieces.
+ */
+final class FileTransfer {
+
+  private static final int OFFERED = 0;
+  private static final int UPLOADING = 1;
+  private static final int DOWNLOADING = 2;
+  private static final int CLOSED = 3;
+
+  private final long id;
+  private final ChatSession sender;
+  private final ChatSession recipient;
+  private final String fileName;
+  private final long size;
+  private final Path spoolFile;
+  private final int chunkSize;
+  private final FileTransfers owner;
+  private int state = OFFERED;
+  private FileChannel channel;
+  private long received;
+
+  private final ByteBuffer chunkHeader = ByteBuffer.allocate(ChatRoomProtocol.FILE_CHUNK_HEADER_LENGTH);
+  private long position;
+  private long chunkRemaining;
+  private boolean inChunk;
+  private boolean lastChunk;
+  private boolean finished;
+
+  /**
+   * Constructs a new `FileTransfer` waiting for its recipient to accept it.
+   *
+   * @param id        The ID of the transfer.
+   * @param sender    The session of the user offering the file.
+   * @param recipient The session of the user the file is offered to.
+   * @param fileName  The name of the file.
+   * @param size      The size of the file, in bytes.
+   * @param spoolFile The file the upload is spooled to.
+   * @param chunkSize The largest number of bytes served in one piece.
+   * @param owner     The registry the transfer leaves once it is closed.
+   */
+  public FileTransfer(long id, ChatSession sender, ChatSession recipient, String fileName, long size,
+      Path spoolFile, int chunkSize, FileTransfers owner) {
+    this.id = id;
+    this.sender = sender;
+    this.recipient = recipient;
+    this.fileName = fileName;
+    this.size = size;
+    this.spoolFile = spoolFile;
+    this.chunkSize = chunkSize;
+    this.owner = owner;
+  }
+
+  /**
+   * Opens the spool file for the upload, once the recipient accepted the offer.
+   *
+   * @return {@code true} if the transfer was waiting for its recipient and the spool file is open.
+   */
+  public synchronized boolean startUpload() {
+    if (state != OFFERED) {
+      return false;
+    }
+    try {
+      channel = FileChannel.open(spoolFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    } catch (IOException e) {
+      return false;
+    }
+    state = UPLOADING;
+    return true;
+  }
+
+  /**
+   * Appends one uploaded piece to the spool file.
+   *
+   * @param data The bytes of the piece, read from the frame they arrived in.
+   * @return {@code true} if the piece was written, {@code false} if the transfer is not uploading,
+   *     the piece goes beyond the announced size or the disk failed.
+   */
+  public synchronized boolean write(ByteBuffer data) {
+    if (state != UPLOADING || data.remaining() > size - received) {
+      return false;
+    }
+    try {
+      while (data.hasRemaining()) {
+        received += channel.write(data);
+      }
+    } catch (IOException e) {
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Ends the upload and reopens the spool file for the download.
+   *
+   * @return {@code true} if every announced byte was received and the file is ready to be served.
+   */
+  public synchronized boolean finishUpload() {
+    if (state != UPLOADING || received != size) {
+      return false;
+    }
+    try {
+      channel.close();
+      channel = FileChannel.open(spoolFile, StandardOpenOption.READ);
+    } catch (IOException e) {
+      return false;
+    }
+    state = DOWNLOADING;
+    return true;
+  }
+
+  /**
+   * Writes the current piece of the download to a channel, starting the next piece if none is
+   * under way. A piece is the header of a {@link ChatRoomProtocol#FILE_CHUNK} frame followed by
+   * its data, transferred straight from the spool file; the empty piece after the last one ends
+   * the file. Only called by the recipient's writer, one call at a time.
+   *
+   * @param out The channel of the recipient's connection.
+   * @return {@code true} if the piece was written whole, {@code false} if the channel stopped
+   *     accepting bytes part way through and the rest is written by the next call.
+   * @throws IOException If an I/O error occurs.
+   */
+  public boolean writeChunk(WritableByteChannel out) throws IOException {
+    if (!inChunk) {
+      int length = (int) Math.min(chunkSize, size - position);
+      chunkHeader.clear();
+      ChatRoomProtocol.putFileChunkHeader(chunkHeader, id, length);
+      chunkHeader.flip();
+      chunkRemaining = length;
+      lastChunk = length == 0;
+      inChunk = true;
+    }
+    if (chunkHeader.hasRemaining()) {
+      out.write(chunkHeader);
+      if (chunkHeader.hasRemaining()) {
+        return false;
+      }
+    }
+    while (chunkRemaining > 0) {
+      long written = channel.transferTo(position, chunkRemaining, out);
+      if (written <= 0) {
+        return false;
+      }
+      position += written;
+      chunkRemaining -= written;
+    }
+    inChunk = false;
+    finished = lastChunk;
+    return true;
+  }
+
+  /**
+   * Checks whether a piece has been started but not yet written whole. Nothing else may be
+   * written to the connection until it is.
+   *
+   * @return {@code true} if a piece is under way.
+   */
+  public boolean isInChunk() {
+    return inChunk;
+  }
+
+  /**
+   * Checks whether the empty piece ending the file has been written.
+   *
+   * @return {@code true} once the whole file was served.
+   */
+  public boolean isFinished() {
+    return finished;
+  }
+
+  /**
+   * Checks whether the file is ready to be served to the recipient.
+   *
+   * @return {@code true} once the upload is complete, until the transfer is closed.
+   */
+  public synchronized boolean isDownloading() {
+    return state == DOWNLOADING;
+  }
+
+  /**
+   * Closes the spool file and deletes it, whatever state the transfer is in.
+   *
+   * @return {@code true} if this call closed the transfer, {@code false} if it was already closed.
+   */
+  public synchronized boolean close() {
+    if (state == CLOSED) {
+      return false;
+    }
+    state = CLOSED;
+    try {
+      if (channel != null) {
+        channel.close();
+      }
+      Files.deleteIfExists(spoolFile);
+    } catch (IOException e) {
+
+    }
+    return true;
+  }
+
+  /**
+   * Gets the ID of the transfer.
+   *
+   * @return The transfer ID.
+   */
+  public long getId() {
+    return id;
+  }
+
+  /**
+   * Gets the session of the user offering the file.
+   *
+   * @return The sender's session.
+   */
+  public ChatSession getSender() {
+    return sender;
+  }
+
+  /**
+   * Gets the session of the user the file is offered to.
+   *
+   * @return The recipient's session.
+   */
+  public ChatSession getRecipient() {
+    return recipient;
+  }
+
+  /**
+   * Gets the name of the file.
+   *
+   * @return The file name.
+   */
+  public String getFileName() {
+    return fileName;
+  }
+
+  /**
+   * Gets the size of the file.
+   *
+   * @return The size, in bytes.
+   */
+  public long getSize() {
+    return size;
+  }
+
+  /**
+   * Gets the registry the transfer belongs to.
+   *
+   * @return The registry.
+   */
+  public FileTransfers getOwner() {
+    return owner;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "FileTransfer{" +
+        "id=" + id +
+        ", fileName='" + fileName + '\'' +
+        ", size=" + size +
+        ", state=" + state +
+        ", received=" + received +
+        ", position=" + position +
+        '}';
+  }
+}
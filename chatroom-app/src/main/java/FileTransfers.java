@@ -0,0 +1,398 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * The `FileTransfers` class tracks the files users offer each other. A file travels in three
+ * steps: the sender offers it and the server hands the offer to the recipient under a new
+ * transfer ID; the recipient accepts and the sender uploads it in pieces, which are spooled to a
+ * file in this registry's directory; and once the whole file is in, the recipient's session serves
+ * it from the spool file between its chat frames.
+ *
+ * <p>A session whose thread must not wait for the disk hands its pieces to this registry's spool
+ * writer thread, which writes them in the order they were handed over.
+ *
+ * <p>Files only travel between users connected to this node, and a transfer does not outlive the
+ * connection of either user: it is cancelled if either of them leaves or loses its connection
+ * before the file was served whole.
+ */
+class FileTransfers {
+
+  /**
+   * The directory spool files are kept in when none is specified.
+   */
+  public static final String DEFAULT_DIRECTORY = "file-transfers";
+
+  /**
+   * The largest file accepted when no limit is specified.
+   */
+  public static final long DEFAULT_MAX_FILE_BYTES = 64L << 20;
+
+  /**
+   * The number of transfers a user may have offered and not yet finished when no limit is specified.
+   */
+  public static final int DEFAULT_MAX_TRANSFERS_PER_SENDER = 4;
+
+  /**
+   * The total size of the files offered and not yet finished, which is the most the spool files can
+   * take up on disk, when no limit is specified.
+   */
+  public static final long DEFAULT_MAX_SPOOL_BYTES = 1L << 30;
+
+  /**
+   * The largest number of bytes of a file carried by one frame.
+   */
+  public static final int CHUNK_SIZE = 64 * 1024;
+
+  /**
+   * The suffix of spool file names, which are the transfer ID.
+   */
+  public static final String SPOOL_SUFFIX = ".part";
+
+  /**
+   * The time the spool writer thread stays alive without pieces to write, in milliseconds.
+   */
+  public static final long SPOOL_WRITER_KEEP_ALIVE_MILLIS = 60_000;
+
+  private final Path directory;
+  private final long maxFileBytes;
+  private final int maxTransfersPerSender;
+  private final long maxSpoolBytes;
+  private final Map<Long, FileTransfer> transfers = new ConcurrentHashMap<>();
+  private final Map<ChatSession, Integer> transfersBySender = new ConcurrentHashMap<>();
+  private final AtomicLong spoolBytes = new AtomicLong();
+  private final AtomicLong lastId = new AtomicLong();
+  private final ExecutorService spoolWriter;
+
+  /**
+   * Opens a directory to spool transfers in, deleting the spool files a previous run left behind.
+   * The size of every file offered counts against the spool quota from the offer until the
+   * transfer is finished or cancelled.
+   *
+   * @param directory             The directory of the spool files, created if needed.
+   * @param maxFileBytes          The largest file accepted, in bytes.
+   * @param maxTransfersPerSender The number of unfinished transfers a user may have offered.
+   * @param maxSpoolBytes         The total size of the unfinished transfers, in bytes.
+   * @throws IOException If the directory cannot be created or read.
+   */
+  public FileTransfers(Path directory, long maxFileBytes, int maxTransfersPerSender, long maxSpoolBytes)
+      throws IOException {
+    this.directory = directory;
+    this.maxFileBytes = maxFileBytes;
+    this.maxTransfersPerSender = maxTransfersPerSender;
+    this.maxSpoolBytes = maxSpoolBytes;
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, SPOOL_WRITER_KEEP_ALIVE_MILLIS,
+        TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), task -> {
+          Thread thread = new Thread(task, "file-transfer-spool");
+          thread.setDaemon(true);
+          return thread;
+        });
+    executor.allowCoreThreadTimeOut(true);
+    this.spoolWriter = executor;
+    Files.createDirectories(directory);
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        if (file.getFileName().toString().endsWith(SPOOL_SUFFIX)) {
+          Files.deleteIfExists(file);
+        }
+      }
+    }
+  }
+
+  /**
+   * Opens a directory to spool transfers in, accepting files up to a size and with the default
+   * limits on pending transfers.
+   *
+   * @param directory    The directory of the spool files, created if needed.
+   * @param maxFileBytes The largest file accepted, in bytes.
+   * @throws IOException If the directory cannot be created or read.
+   */
+  public FileTransfers(Path directory, long maxFileBytes) throws IOException {
+    this(directory, maxFileBytes, DEFAULT_MAX_TRANSFERS_PER_SENDER, DEFAULT_MAX_SPOOL_BYTES);
+  }
+
+  /**
+   * Opens a directory to spool transfers in, accepting files up to the default size.
+   *
+   * @param directory The directory of the spool files, created if needed.
+   * @throws IOException If the directory cannot be created or read.
+   */
+  public FileTransfers(Path directory) throws IOException {
+    this(directory, DEFAULT_MAX_FILE_BYTES);
+  }
+
+  /**
+   * Handles a file offer: the offer is handed to the recipient under a new transfer ID, and the
+   * sender is told the ID by the same offer echoed back. An offer beyond the sender's pending
+   * transfers or the spool quota is refused with a reply.
+   *
+   * @param sender The session of the user offering the file.
+   * @param offer  A well-formed view of the offer.
+   */
+  public void offer(ChatSession sender, FrameView offer) {
+    String recipientName = offer.field(1);
+    String fileName = offer.field(2);
+    long size;
+    try {
+      size = Long.parseLong(offer.field(3));
+    } catch (NumberFormatException e) {
+      size = -1;
+    }
+    if (size < 0 || fileName.isEmpty()) {
+      sender.reply("[Server] : That file offer is not valid.");
+      return;
+    }
+    if (size > maxFileBytes) {
+      sender.reply("[Server] : '" + fileName + "' is too large; files are limited to " + maxFileBytes + " bytes.");
+      return;
+    }
+    ChatSession recipient = ChatSession.sessionRegistry.lookup(recipientName);
+    if (recipient == sender) {
+      sender.reply("[Server] : You cannot send a file to yourself.");
+      return;
+    }
+    if (recipient == null) {
+      sender.reply(ChatSession.isConnected(recipientName)
+          ? "[Server] : Files cannot be sent to users on another server."
+          : "[Server] : User '" + recipientName + "' not found.");
+      return;
+    }
+    if (transfersBySender.merge(sender, 1, Integer::sum) > maxTransfersPerSender) {
+      release(sender, 0);
+      sender.reply("[Server] : You already have " + maxTransfersPerSender + " file transfers pending.");
+      return;
+    }
+    if (spoolBytes.addAndGet(size) > maxSpoolBytes) {
+      release(sender, size);
+      sender.reply("[Server] : There is no room for '" + fileName + "' on the server right now.");
+      return;
+    }
+    long id = lastId.incrementAndGet();
+    FileTransfer transfer = new FileTransfer(id, sender, recipient, fileName, size,
+        directory.resolve(id + SPOOL_SUFFIX), CHUNK_SIZE, this);
+    transfers.put(id, transfer);
+    byte[] frame = sender.chatRoomProtocol.encodeFileOffer(id, sender.getClientUserName(), recipientName, fileName,
+        size);
+    sender.reply(frame);
+    send(recipient, frame);
+  }
+
+  /**
+   * Handles the acceptance of an offer by its recipient: the spool file is opened and the sender
+   * is told to start uploading.
+   *
+   * @param recipient The session of the user accepting the file.
+   * @param id        The ID of the transfer.
+   */
+  public void accept(ChatSession recipient, long id) {
+    FileTransfer transfer = transfers.get(id);
+    if (transfer == null || transfer.getRecipient() != recipient) {
+      recipient.reply("[Server] : There is no file offer " + id + ".");
+      return;
+    }
+    if (!transfer.startUpload()) {
+      if (close(transfer)) {
+        recipient.reply("[Server] : '" + transfer.getFileName() + "' could not be received.");
+        send(transfer.getSender(), recipient.chatRoomProtocol.encodeFileDecline(recipient.getClientUserName(), id));
+      }
+      return;
+    }
+    send(transfer.getSender(), recipient.chatRoomProtocol.encodeFileAccept(recipient.getClientUserName(), id));
+  }
+
+  /**
+   * Handles the refusal of an offer by its recipient, or its cancellation by its sender, before
+   * the file is served. The other user is told.
+   *
+   * @param user The session of the user declining the file.
+   * @param id   The ID of the transfer.
+   */
+  public void decline(ChatSession user, long id) {
+    FileTransfer transfer = transfers.get(id);
+    if (transfer == null || (transfer.getSender() != user && transfer.getRecipient() != user)
+        || transfer.isDownloading()) {
+      return;
+    }
+    cancel(transfer, user);
+  }
+
+  /**
+   * Handles an uploaded piece of a file, writing its bytes from the frame straight to the spool
+   * file. The empty piece ending the file hands the file to the recipient's session to be served.
+   * A piece the transfer cannot take cancels the transfer.
+   *
+   * @param sender The session of the user uploading the file.
+   * @param chunk  A well-formed view of the piece, still in the buffer it was read into.
+   */
+  public void receive(ChatSession sender, FrameView chunk) {
+    receive(sender, chunk.number(), chunk.fieldBuffer(0));
+  }
+
+  /**
+   * Handles an uploaded piece of a file like {@link #receive(ChatSession, FrameView)}, but writes
+   * it on the spool writer thread so the caller never waits for the disk. The piece is still read
+   * from the buffer it arrived in, so the caller must leave that buffer alone until it is told
+   * the piece was handled.
+   *
+   * @param sender The session of the user uploading the file.
+   * @param chunk  A well-formed view of the piece, still in the buffer it was read into.
+   * @param done   Run on the spool writer thread once the piece was handled.
+   */
+  public void receive(ChatSession sender, FrameView chunk, Runnable done) {
+    long id = chunk.number();
+    ByteBuffer data = chunk.fieldBuffer(0);
+    spoolWriter.execute(() -> {
+      try {
+        receive(sender, id, data);
+      } finally {
+        done.run();
+      }
+    });
+  }
+
+  private void receive(ChatSession sender, long id, ByteBuffer data) {
+    FileTransfer transfer = transfers.get(id);
+    if (transfer == null || transfer.getSender() != sender) {
+      return;
+    }
+    boolean last = !data.hasRemaining();
+    if (!(last ? transfer.finishUpload() : transfer.write(data))) {
+      cancel(transfer, sender);
+      return;
+    }
+    if (last) {
+      transfer.getRecipient().startDownload(transfer);
+    }
+  }
+
+  /**
+   * Cancels every transfer a user is part of that was not served whole yet, after the user left
+   * or lost its connection. The other user is told.
+   *
+   * @param session The session of the user.
+   */
+  public void cancelAll(ChatSession session) {
+    for (FileTransfer transfer : transfers.values()) {
+      if (transfer.isDownloading()) {
+        if (transfer.getRecipient() == session) {
+          finish(transfer, false);
+        }
+      } else if (transfer.getSender() == session || transfer.getRecipient() == session) {
+        cancel(transfer, session);
+      }
+    }
+  }
+
+  /**
+   * Ends a transfer whose download stopped, telling the sender whether the recipient got the file.
+   *
+   * @param transfer The transfer.
+   * @param complete {@code true} if the whole file was served.
+   */
+  public void finish(FileTransfer transfer, boolean complete) {
+    if (!close(transfer)) {
+      return;
+    }
+    String recipientName = transfer.getRecipient().getClientUserName();
+    send(transfer.getSender(), EncodedFrame.ofText(complete
+        ? "[Server] : " + recipientName + " received '" + transfer.getFileName() + "'."
+        : "[Server] : " + recipientName + " did not receive '" + transfer.getFileName() + "'."));
+  }
+
+  /**
+   * Closes a transfer on behalf of one of its users and tells the other one with a decline.
+   *
+   * @param transfer The transfer.
+   * @param user     The session of the user the transfer is cancelled for.
+   */
+  private void cancel(FileTransfer transfer, ChatSession user) {
+    if (!close(transfer)) {
+      return;
+    }
+    ChatSession other = transfer.getSender() == user ? transfer.getRecipient() : transfer.getSender();
+    send(other, user.chatRoomProtocol.encodeFileDecline(user.getClientUserName(), transfer.getId()));
+  }
+
+  private boolean close(FileTransfer transfer) {
+    transfers.remove(transfer.getId(), transfer);
+    if (!transfer.close()) {
+      return false;
+    }
+    release(transfer.getSender(), transfer.getSize());
+    return true;
+  }
+
+  /**
+   * Gives back what an offer counted against the sender's pending transfers and the spool quota.
+   *
+   * @param sender The session of the user who offered the file.
+   * @param size   The size of the file, in bytes.
+   */
+  private void release(ChatSession sender, long size) {
+    spoolBytes.addAndGet(-size);
+    transfersBySender.computeIfPresent(sender, (session, count) -> count > 1 ? count - 1 : null);
+  }
+
+  private static void send(ChatSession session, byte[] frame) {
+    send(session, new EncodedFrame(frame));
+  }
+
+  private static void send(ChatSession session, EncodedFrame frame) {
+    if (session.isRemoved()) {
+      return;
+    }
+    try {
+      session.deliver(frame);
+    } catch (IOException e) {
+
+    }
+  }
+
+  /**
+   * Gets the number of transfers offered and not yet finished or cancelled.
+   *
+   * @return The number of transfers.
+   */
+  public int size() {
+    return transfers.size();
+  }
+
+  /**
+   * Gets the total size of the files offered and not yet finished or cancelled.
+   *
+   * @return The size counted against the spool quota, in bytes.
+   */
+  public long spoolBytes() {
+    return spoolBytes.get();
+  }
+
+  /**
+   * Gets the directory spool files are kept in.
+   *
+   * @return The directory.
+   */
+  public Path getDirectory() {
+    return directory;
+  }
+
+  @Override
+  public String toString() {
+    return "FileTransfers{" +
+        "directory=" + directory +
+        ", maxFileBytes=" + maxFileBytes +
+        ", maxTransfersPerSender=" + maxTransfersPerSender +
+        ", maxSpoolBytes=" + maxSpoolBytes +
+        ", transfers=" + transfers.size() +
+        ", spoolBytes=" + spoolBytes.get() +
+        '}';
+  }
+}
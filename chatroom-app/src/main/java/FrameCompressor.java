@@ -0,0 +1,82 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The `FrameCompressor` class deflates frame bodies for clients that negotiated compression in
+ * their {@link ChatRoomProtocol#CONNECT_MESSAGE}, and inflates them again on the client. Only
+ * bodies of at least {@value #DEFAULT_THRESHOLD} bytes are worth the work; shorter ones, and ones
+ * that do not shrink, are sent as they are.
+ */
+final class FrameCompressor {
+
+  /**
+   * The smallest frame body that is compressed.
+   */
+  public static final int DEFAULT_THRESHOLD = 512;
+
+  private FrameCompressor() {
+  }
+
+  /**
+   * Deflates bytes into an array, giving up if the result does not fit.
+   *
+   * @param input  The bytes to be deflated, from the buffer's position to its limit.
+   * @param output The array receiving the deflated bytes.
+   * @return The number of deflated bytes, or -1 if they do not fit in the array.
+   */
+  static int deflate(ByteBuffer input, byte[] output) {
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    try {
+      deflater.setInput(input);
+      deflater.finish();
+      int length = 0;
+      while (!deflater.finished() && length < output.length) {
+        length += deflater.deflate(output, length, output.length - length);
+      }
+      return deflater.finished() ? length : -1;
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * Inflates the body carried by a {@link ChatRoomProtocol#COMPRESSED_FRAME}.
+   *
+   * @param frame A well-formed view of the compressed frame.
+   * @return The original frame body, without its length header.
+   * @throws IOException If the frame is corrupt or would inflate beyond
+   *                     {@link ChatRoomProtocol#MAX_FRAME_LENGTH} bytes.
+   */
+  static byte[] inflate(FrameView frame) throws IOException {
+    long inflatedLength = frame.number();
+    if (inflatedLength < 0 || inflatedLength > ChatRoomProtocol.MAX_FRAME_LENGTH) {
+      throw new IOException("Invalid inflated length: " + inflatedLength);
+    }
+    byte[] deflated = new byte[frame.fieldLength(0)];
+    frame.copyField(0, ByteBuffer.wrap(deflated));
+    byte[] body = new byte[(int) inflatedLength];
+    Inflater inflater = new Inflater(true);
+    try {
+      inflater.setInput(deflated);
+      int length = 0;
+      while (length < body.length) {
+        int inflated = inflater.inflate(body, length, body.length - length);
+        if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        length += inflated;
+      }
+      if (length != body.length) {
+        throw new IOException("Compressed frame ends after " + length + " of " + body.length + " bytes");
+      }
+      return body;
+    } catch (DataFormatException e) {
+      throw new IOException(e);
+    } finally {
+      inflater.end();
+    }
+  }
+}
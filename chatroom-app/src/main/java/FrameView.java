@@ -0,0 +1,410 @@
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The `FrameView` class is a reusable, read-only view over one received frame. Wrapping a frame
+ * only records where its fields start and how long they are; nothing is copied and no string is
+ * built until a caller asks for one, so a field that is only forwarded to other clients is never
+ * decoded at all. One instance is meant to be reused for every frame read from a connection, and
+ * the view is only valid until the next frame is wrapped or the underlying buffer changes.
+ */
+final class FrameView {
+
+  /**
+   * The number of fields a view has room for before its field index grows.
+   */
+  public static final int INITIAL_FIELD_CAPACITY = 4;
+
+  private static final int SEPARATOR_LENGTH = ChatRoomProtocol.FRAME_SEPARATOR.length();
+
+  private ByteBuffer buffer;
+  private int offset;
+  private int length;
+  private int messageType;
+  private boolean flag;
+  private long number;
+  private int fieldCount;
+  private int[] fieldOffsets = new int[INITIAL_FIELD_CAPACITY];
+  private int[] fieldLengths = new int[INITIAL_FIELD_CAPACITY];
+  private String[] fieldStrings = new String[INITIAL_FIELD_CAPACITY];
+
+  private byte[] receiveArray = new byte[0];
+  private ByteBuffer receiveBuffer = ByteBuffer.wrap(receiveArray);
+
+  /**
+   * Wraps a whole byte array holding one frame without its length header.
+   *
+   * @param frame The frame to be viewed.
+   * @return {@code true} if the frame is well formed, {@code false} otherwise.
+   */
+  public boolean wrap(byte[] frame) {
+    return wrap(ByteBuffer.wrap(frame), 0, frame.length);
+  }
+
+  /**
+   * Wraps a frame stored in a region of a buffer. The buffer's position and limit are not used or
+   * changed; the region must stay untouched for as long as the view is used.
+   *
+   * @param buffer The buffer holding the frame.
+   * @param offset The index of the first byte of the frame, after its length header.
+   * @param length The length of the frame.
+   * @return {@code true} if the frame is well formed, {@code false} otherwise.
+   */
+  public boolean wrap(ByteBuffer buffer, int offset, int length) {
+    this.buffer = buffer;
+    this.offset = offset;
+    this.length = length;
+    this.messageType = length >= Integer.BYTES ? buffer.getInt(offset) : -1;
+    this.flag = false;
+    this.number = 0;
+    clearFields();
+    int end = offset + length;
+    int position = offset + Integer.BYTES;
+    switch (messageType) {
+      case ChatRoomProtocol.CONNECT_MESSAGE:
+        return parseFields(position, end, 1) && parseOptionalField(end) && parseOptionalField(end);
+      case ChatRoomProtocol.DISCONNECT_MESSAGE:
+      case ChatRoomProtocol.QUERY_CONNECTED_USERS:
+      case ChatRoomProtocol.LIST_ROOMS:
+      case ChatRoomProtocol.RELAY_HELLO:
+      case ChatRoomProtocol.SUBSCRIBE_PRESENCE:
+      case ChatRoomProtocol.UNSUBSCRIBE_PRESENCE:
+        return parseFields(position, end, 1);
+      case ChatRoomProtocol.BROADCAST_MESSAGE:
+      case ChatRoomProtocol.SEND_INSULT:
+      case ChatRoomProtocol.JOIN_ROOM:
+      case ChatRoomProtocol.LEAVE_ROOM:
+      case ChatRoomProtocol.RELAY_USER_JOINED:
+      case ChatRoomProtocol.RELAY_USER_LEFT:
+      case ChatRoomProtocol.RELAY_BROADCAST:
+        return parseFields(position, end, 2);
+      case ChatRoomProtocol.DIRECT_MESSAGE:
+      case ChatRoomProtocol.ROOM_MESSAGE:
+      case ChatRoomProtocol.RELAY_DIRECT:
+        return parseFields(position, end, 3);
+      case ChatRoomProtocol.CONNECT_RESPONSE:
+        if (end - position < SEPARATOR_LENGTH + 1) {
+          return false;
+        }
+        flag = buffer.get(position + SEPARATOR_LENGTH) != 0;
+        return parseFields(position + SEPARATOR_LENGTH + 1, end, 1) && parseOptionalField(end)
+            && parseOptionalField(end);
+      case ChatRoomProtocol.QUERY_USER_RESPONSE:
+      case ChatRoomProtocol.QUERY_USER_RESPONSE_PART:
+      case ChatRoomProtocol.ROOM_LIST_RESPONSE:
+      case ChatRoomProtocol.BATCH_MESSAGE:
+        if (end - position < SEPARATOR_LENGTH + Integer.BYTES) {
+          return false;
+        }
+        int count = buffer.getInt(position + SEPARATOR_LENGTH);
+        return count >= 0 && parseFields(position + SEPARATOR_LENGTH + Integer.BYTES, end, count);
+      case ChatRoomProtocol.REPLAY_LAST_MESSAGES:
+      case ChatRoomProtocol.REPLAY_SINCE:
+      case ChatRoomProtocol.REPLAYED_MESSAGE:
+      case ChatRoomProtocol.COMPRESSED_FRAME:
+      case ChatRoomProtocol.CORRELATED_REQUEST:
+      case ChatRoomProtocol.CORRELATED_RESPONSE:
+      case ChatRoomProtocol.PRESENCE_JOINED:
+      case ChatRoomProtocol.PRESENCE_LEFT:
+      case ChatRoomProtocol.PING:
+      case ChatRoomProtocol.PONG:
+      case ChatRoomProtocol.FILE_OFFER:
+      case ChatRoomProtocol.FILE_ACCEPT:
+      case ChatRoomProtocol.FILE_DECLINE:
+      case ChatRoomProtocol.FILE_CHUNK:
+        if (end - position < SEPARATOR_LENGTH + Long.BYTES) {
+          return false;
+        }
+        number = buffer.getLong(position + SEPARATOR_LENGTH);
+        int replayFields = messageType == ChatRoomProtocol.REPLAYED_MESSAGE ? 3
+            : messageType == ChatRoomProtocol.FILE_OFFER ? 4 : 1;
+        return parseFields(position + SEPARATOR_LENGTH + Long.BYTES, end, replayFields);
+      case ChatRoomProtocol.PRESENCE_SNAPSHOT:
+      case ChatRoomProtocol.PRESENCE_SNAPSHOT_PART:
+        int countOffset = SEPARATOR_LENGTH + Long.BYTES + SEPARATOR_LENGTH;
+        if (end - position < countOffset + Integer.BYTES) {
+          return false;
+        }
+        number = buffer.getLong(position + SEPARATOR_LENGTH);
+        int userCount = buffer.getInt(position + countOffset);
+        return userCount >= 0 && parseFields(position + countOffset + Integer.BYTES, end, userCount);
+      default:
+        return true;
+    }
+  }
+
+  /**
+   * Wraps one field of another view as a frame of its own, such as a message of a batch. Nothing
+   * is copied; this view is only valid for as long as the other one is.
+   *
+   * @param frame The view holding the field.
+   * @param index The index of the field.
+   * @return {@code true} if the field is a well-formed frame, {@code false} otherwise.
+   */
+  public boolean wrapField(FrameView frame, int index) {
+    frame.checkIndex(index);
+    return wrap(frame.buffer, frame.fieldOffsets[index], frame.fieldLengths[index]);
+  }
+
+  /**
+   * Reads the next length-prefixed frame from a stream into a receive buffer owned by this view and
+   * wraps it. The receive buffer only grows, so reading frames allocates nothing in steady state.
+   *
+   * @param dataInputStream The data input stream to read from.
+   * @return {@code true} if the frame is well formed, {@code false} otherwise.
+   * @throws IOException If the stream ends, the length is invalid or an I/O error occurs.
+   */
+  public boolean readFrom(DataInputStream dataInputStream) throws IOException {
+    int frameLength = dataInputStream.readInt();
+    ChatRoomProtocol.checkFrameLength(frameLength);
+    if (receiveArray.length < frameLength) {
+      receiveArray = new byte[frameLength];
+      receiveBuffer = ByteBuffer.wrap(receiveArray);
+    }
+    dataInputStream.readFully(receiveArray, 0, frameLength);
+    return wrap(receiveBuffer, 0, frameLength);
+  }
+
+  /**
+   * Parses the given number of parameters, each being a separator, a length, a separator and the
+   * UTF-8 bytes of the parameter. Every message type shares this layout for its fields.
+   *
+   * @param position The index of the first parameter.
+   * @param end      The index just past the frame.
+   * @param count    The number of parameters to be parsed.
+   * @return {@code true} if all parameters fit in the frame.
+   */
+  private boolean parseFields(int position, int end, int count) {
+    for (int i = 0; i < count; i++) {
+      if (end - position < SEPARATOR_LENGTH + Integer.BYTES + SEPARATOR_LENGTH) {
+        return false;
+      }
+      int fieldLength = buffer.getInt(position + SEPARATOR_LENGTH);
+      position += SEPARATOR_LENGTH + Integer.BYTES + SEPARATOR_LENGTH;
+      if (fieldLength < 0 || end - position < fieldLength) {
+        return false;
+      }
+      addField(position, fieldLength);
+      position += fieldLength;
+    }
+    return true;
+  }
+
+  /**
+   * Parses one more parameter if the frame goes on after its last field, such as the compression
+   * or the resume token of a connection message. Older peers send frames without them.
+   *
+   * @param end The index just past the frame.
+   * @return {@code true} if the frame ends after its last field or the extra parameter fits.
+   */
+  private boolean parseOptionalField(int end) {
+    int position = fieldOffsets[fieldCount - 1] + fieldLengths[fieldCount - 1];
+    return position == end || parseFields(position, end, 1);
+  }
+
+  /**
+   * Records a parsed field, growing the field index if needed.
+   *
+   * @param fieldOffset The index of the first byte of the field.
+   * @param fieldLength The length of the field in bytes.
+   */
+  private void addField(int fieldOffset, int fieldLength) {
+    if (fieldCount == fieldOffsets.length) {
+      fieldOffsets = Arrays.copyOf(fieldOffsets, fieldCount * 2);
+      fieldLengths = Arrays.copyOf(fieldLengths, fieldCount * 2);
+      fieldStrings = Arrays.copyOf(fieldStrings, fieldCount * 2);
+    }
+    fieldOffsets[fieldCount] = fieldOffset;
+    fieldLengths[fieldCount] = fieldLength;
+    fieldCount++;
+  }
+
+  /**
+   * Forgets the fields of the previously wrapped frame.
+   */
+  private void clearFields() {
+    Arrays.fill(fieldStrings, 0, fieldCount, null);
+    fieldCount = 0;
+  }
+
+  /**
+   * Gets the message type of the frame.
+   *
+   * @return The message type, or -1 if the frame is shorter than a message type.
+   */
+  public int messageType() {
+    return messageType;
+  }
+
+  /**
+   * Gets the length of the frame.
+   *
+   * @return The length of the frame, without its length header.
+   */
+  public int length() {
+    return length;
+  }
+
+  /**
+   * Gets the success flag of a connect response.
+   *
+   * @return The success flag, or {@code false} for any other message type.
+   */
+  public boolean flag() {
+    return flag;
+  }
+
+  /**
+   * Gets the number carried by a replay request, a replayed message, a compressed frame, a
+   * correlated frame or a presence frame: the number of messages, the first sequence number, the
+   * sequence number of the message, the length of the original body, the correlation ID or the
+   * presence version.
+   *
+   * @return The number, or 0 for any other message type.
+   */
+  public long number() {
+    return number;
+  }
+
+  /**
+   * Gets the number of parsed fields.
+   *
+   * @return The number of fields in the frame.
+   */
+  public int fieldCount() {
+    return fieldCount;
+  }
+
+  /**
+   * Gets the length of a field in UTF-8 bytes.
+   *
+   * @param index The index of the field.
+   * @return The length of the field.
+   */
+  public int fieldLength(int index) {
+    checkIndex(index);
+    return fieldLengths[index];
+  }
+
+  /**
+   * Gets a field as a string, decoding it the first time it is asked for.
+   *
+   * @param index The index of the field.
+   * @return The field decoded from UTF-8.
+   */
+  public String field(int index) {
+    checkIndex(index);
+    if (fieldStrings[index] == null) {
+      fieldStrings[index] = decode(fieldOffsets[index], fieldLengths[index]);
+    }
+    return fieldStrings[index];
+  }
+
+  /**
+   * Copies the raw bytes of a field into a buffer at its position, without decoding them.
+   *
+   * @param index       The index of the field.
+   * @param destination The buffer to copy to.
+   */
+  public void copyField(int index, ByteBuffer destination) {
+    checkIndex(index);
+    int fieldLength = fieldLengths[index];
+    destination.put(destination.position(), buffer, fieldOffsets[index], fieldLength);
+    destination.position(destination.position() + fieldLength);
+  }
+
+  /**
+   * Gets the raw bytes of a field as a read-only buffer sharing the frame's storage, so they can
+   * be written to a channel without a copy. The buffer is only valid for as long as the view is.
+   *
+   * @param index The index of the field.
+   * @return A buffer positioned at the start of the field and limited to its end.
+   */
+  public ByteBuffer fieldBuffer(int index) {
+    checkIndex(index);
+    return buffer.asReadOnlyBuffer().limit(fieldOffsets[index] + fieldLengths[index]).position(fieldOffsets[index]);
+  }
+
+  /**
+   * Checks whether a field holds exactly the given UTF-8 bytes, without decoding the field.
+   *
+   * @param index The index of the field.
+   * @param value The UTF-8 bytes to compare against.
+   * @return {@code true} if the field holds exactly those bytes.
+   */
+  public boolean fieldEquals(int index, byte[] value) {
+    checkIndex(index);
+    if (fieldLengths[index] != value.length) {
+      return false;
+    }
+    int fieldOffset = fieldOffsets[index];
+    for (int i = 0; i < value.length; i++) {
+      if (buffer.get(fieldOffset + i) != value[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Decodes the whole frame as UTF-8 text, as sent for plain server messages.
+   *
+   * @return The frame as a string.
+   */
+  public String text() {
+    return decode(offset, length);
+  }
+
+  /**
+   * Checks whether the whole frame is the UTF-8 encoding of a text, without decoding the frame.
+   *
+   * @param text The text to compare against.
+   * @return {@code true} if the frame holds exactly that text.
+   */
+  public boolean textEquals(String text) {
+    if (ChatRoomProtocol.utf8Length(text) != length) {
+      return false;
+    }
+    return text.equals(text());
+  }
+
+  /**
+   * Decodes a region of the viewed buffer.
+   *
+   * @param regionOffset The index of the first byte.
+   * @param regionLength The number of bytes.
+   * @return The region decoded from UTF-8.
+   */
+  private String decode(int regionOffset, int regionLength) {
+    if (buffer.hasArray()) {
+      return new String(buffer.array(), buffer.arrayOffset() + regionOffset, regionLength,
+          StandardCharsets.UTF_8);
+    }
+    byte[] bytes = new byte[regionLength];
+    buffer.get(regionOffset, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Checks that a field index refers to a parsed field.
+   *
+   * @param index The index of the field.
+   */
+  private void checkIndex(int index) {
+    if (index < 0 || index >= fieldCount) {
+      throw new IndexOutOfBoundsException("Field " + index + " of " + fieldCount);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "FrameView{" +
+        "messageType=" + messageType +
+        ", length=" + length +
+        ", fieldCount=" + fieldCount +
+        '}';
+  }
+}
@@ -0,0 +1,188 @@
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The `HashedWheelTimer` class runs tasks after a delay, for as many tasks as there are sessions,
+ * with a single thread and no per-task scheduler entry. Time is cut into ticks, and a wheel of
+ * slots holds every pending task in the slot its deadline falls in, modulo the size of the wheel.
+ * Each tick the thread turning the wheel visits one slot and runs the tasks that are due there.
+ *
+ * <p>Scheduling a task adds it to a lock-free queue the wheel drains on its next tick, and
+ * cancelling only marks it, so both take constant time whichever thread calls them. Deadlines are
+ * only as precise as one tick, which is plenty for timeouts counted in seconds.
+ */
+final class HashedWheelTimer {
+
+  /**
+   * The default length of a tick, in milliseconds.
+   */
+  public static final long DEFAULT_TICK_MILLIS = 100;
+
+  /**
+   * The default number of slots in the wheel, so a full turn takes a little over 100 seconds.
+   */
+  public static final int DEFAULT_WHEEL_SIZE = 1024;
+
+  private final long tickNanos;
+  private final WheelTimeout[] wheel;
+  private final int mask;
+  private final Queue<WheelTimeout> scheduled = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pending = new AtomicInteger();
+  private final AtomicBoolean started = new AtomicBoolean();
+  private volatile long tick;
+
+  /**
+   * Constructs a new `HashedWheelTimer` with the default tick and wheel size.
+   */
+  public HashedWheelTimer() {
+    this(TimeUnit.MILLISECONDS.toNanos(DEFAULT_TICK_MILLIS), DEFAULT_WHEEL_SIZE);
+  }
+
+  /**
+   * Constructs a new `HashedWheelTimer`. Nothing runs until the timer is started or ticked.
+   *
+   * @param tickNanos The length of a tick, in nanoseconds.
+   * @param wheelSize The number of slots in the wheel, rounded up to a power of two.
+   * @throws IllegalArgumentException If the tick or the wheel size is not positive.
+   */
+  public HashedWheelTimer(long tickNanos, int wheelSize) {
+    if (tickNanos <= 0 || wheelSize <= 0 || wheelSize > 1 << 30) {
+      throw new IllegalArgumentException("The tick and the wheel size of a timer must be positive");
+    }
+    int slots = Integer.highestOneBit(wheelSize);
+    this.tickNanos = tickNanos;
+    this.wheel = new WheelTimeout[slots < wheelSize ? slots << 1 : slots];
+    this.mask = wheel.length - 1;
+  }
+
+  /**
+   * Starts the daemon thread turning the wheel one tick every tick length. Only the first call
+   * has any effect.
+   *
+   * @param threadName The name of the thread.
+   */
+  public void start(String threadName) {
+    if (!started.compareAndSet(false, true)) {
+      return;
+    }
+    Thread thread = new Thread(this::turn, threadName);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void turn() {
+    long nextTick = System.nanoTime() + tickNanos;
+    while (true) {
+      long sleep = nextTick - System.nanoTime();
+      if (sleep > 0) {
+        LockSupport.parkNanos(sleep);
+        continue;
+      }
+      tick();
+      nextTick += tickNanos;
+    }
+  }
+
+  /**
+   * Schedules a task to be run on the timer's thread once a number of ticks have passed. The
+   * task must be quick, since every other task due at the same tick waits for it.
+   *
+   * @param task       The task to be run.
+   * @param delayTicks The delay, in ticks; anything below one tick is one tick.
+   * @return The timeout, which can be cancelled.
+   */
+  public WheelTimeout schedule(Runnable task, long delayTicks) {
+    WheelTimeout timeout = new WheelTimeout(task, tick + Math.max(1, delayTicks));
+    pending.incrementAndGet();
+    scheduled.add(timeout);
+    return timeout;
+  }
+
+  /**
+   * Advances the wheel by one tick: places the newly scheduled timeouts in their slots, then
+   * runs the due tasks of the slot the tick falls in and drops its cancelled timeouts. Called by
+   * the timer's own thread once started, and by one thread at a time otherwise.
+   */
+  public void tick() {
+    long now = tick + 1;
+    tick = now;
+    WheelTimeout timeout;
+    while ((timeout = scheduled.poll()) != null) {
+      int slot = (int) (Math.max(timeout.getDeadline(), now) & mask);
+      timeout.next = wheel[slot];
+      wheel[slot] = timeout;
+    }
+    int slot = (int) (now & mask);
+    WheelTimeout previous = null;
+    timeout = wheel[slot];
+    while (timeout != null) {
+      WheelTimeout next = timeout.next;
+      if (timeout.isCancelled() || timeout.getDeadline() <= now) {
+        if (previous == null) {
+          wheel[slot] = next;
+        } else {
+          previous.next = next;
+        }
+        timeout.next = null;
+        pending.decrementAndGet();
+        if (!timeout.isCancelled()) {
+          run(timeout.getTask());
+        }
+      } else {
+        previous = timeout;
+      }
+      timeout = next;
+    }
+  }
+
+  private static void run(Runnable task) {
+    try {
+      task.run();
+    } catch (RuntimeException e) {
+
+    }
+  }
+
+  /**
+   * Converts a duration to a number of ticks, rounding up.
+   *
+   * @param nanos The duration, in nanoseconds.
+   * @return The number of ticks, at least one for a positive duration.
+   */
+  public long toTicks(long nanos) {
+    return (nanos + tickNanos - 1) / tickNanos;
+  }
+
+  /**
+   * Gets the number of ticks the wheel has turned, which serves as a coarse clock that is cheaper
+   * to read than {@link System#nanoTime()}.
+   *
+   * @return The current tick.
+   */
+  public long currentTick() {
+    return tick;
+  }
+
+  /**
+   * Gets the number of timeouts waiting in the wheel, including cancelled ones not yet dropped.
+   *
+   * @return The number of pending timeouts.
+   */
+  public int pendingCount() {
+    return pending.get();
+  }
+
+  @Override
+  public String toString() {
+    return "HashedWheelTimer{" +
+        "tickNanos=" + tickNanos +
+        ", wheelSize=" + wheel.length +
+        ", tick=" + tick +
+        ", pending=" + pending.get() +
+        '}';
+  }
+}
@@ -0,0 +1,136 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The `LatencyHistogram` class records durations in nanoseconds into log-linear buckets, keeping
+ * every recorded value within 1% of its bucket, so percentiles can be read at any time without
+ * storing the samples. Recording is lock-free and never allocates, so any number of threads may
+ * record into the same histogram on a hot path.
+ */
+class LatencyHistogram {
+
+  /**
+   * The number of bits of precision kept below the highest set bit of a value.
+   */
+  public static final int SUB_BUCKET_BITS = 7;
+
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT >> 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray(bucketIndex(Long.MAX_VALUE) + 1);
+  private final AtomicLong totalCount = new AtomicLong();
+  private final AtomicLong maxValue = new AtomicLong();
+
+  /**
+   * Records one duration. Negative durations are recorded as zero.
+   *
+   * @param nanos The duration in nanoseconds.
+   */
+  public void record(long nanos) {
+    long value = Math.max(0, nanos);
+    counts.incrementAndGet(bucketIndex(value));
+    totalCount.incrementAndGet();
+    maxValue.accumulateAndGet(value, Math::max);
+  }
+
+  /**
+   * Gets the number of recorded durations.
+   *
+   * @return The number of recorded durations.
+   */
+  public long count() {
+    return totalCount.get();
+  }
+
+  /**
+   * Gets the largest recorded duration.
+   *
+   * @return The largest duration in nanoseconds, or 0 if nothing was recorded.
+   */
+  public long max() {
+    return maxValue.get();
+  }
+
+  /**
+   * Gets the duration below or at which the given percentage of the recorded durations fall.
+   *
+   * @param percentile The percentile, between 0 and 100.
+   * @return The duration in nanoseconds, or 0 if nothing was recorded.
+   */
+  public long percentile(double percentile) {
+    long total = totalCount.get();
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+    long seen = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(highestValueOf(i), maxValue.get());
+      }
+    }
+    return maxValue.get();
+  }
+
+  /**
+   * Forgets every recorded duration.
+   */
+  public void reset() {
+    for (int i = 0; i < counts.length(); i++) {
+      counts.set(i, 0);
+    }
+    totalCount.set(0);
+    maxValue.set(0);
+  }
+
+  /**
+   * Describes the distribution as count, p50, p99, p999 and max in microseconds.
+   *
+   * @return The summary.
+   */
+  public String summary() {
+    return String.format("count=%d p50=%dus p99=%dus p999=%dus max=%dus", count(),
+        toMicros(percentile(50)), toMicros(percentile(99)), toMicros(percentile(99.9)), toMicros(max()));
+  }
+
+  private static long toMicros(long nanos) {
+    return TimeUnit.NANOSECONDS.toMicros(nanos);
+  }
+
+  /**
+   * Finds the bucket of a value. Values below {@value #SUB_BUCKET_BITS} bits get a bucket each;
+   * larger values share buckets whose width doubles with every further bit.
+   *
+   * @param value The non-negative value.
+   * @return The index of its bucket.
+   */
+  static int bucketIndex(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return shift * SUB_BUCKET_HALF_COUNT + (int) (value >>> shift);
+  }
+
+  /**
+   * Gets the largest value that falls into a bucket.
+   *
+   * @param index The index of the bucket.
+   * @return The largest value of the bucket.
+   */
+  static long highestValueOf(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = index / SUB_BUCKET_HALF_COUNT - 1;
+    long mantissa = index - (long) shift * SUB_BUCKET_HALF_COUNT;
+    return ((mantissa + 1) << shift) - 1;
+  }
+
+  @Override
+  public String toString() {
+    return "LatencyHistogram{" + summary() + '}';
+  }
+}
@@ -0,0 +1,344 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The `LoadGenerator` class simulates many chatters against a running server, without any user
+ * input. It opens the requested number of {@link LoadSession}s, then sends messages at a target
+ * rate, choosing for each one a random session and a message kind drawn from a configurable mix of
+ * broadcasts, direct messages, "who" queries and insults. It reports throughput together with the
+ * end-to-end delivery latency of chat messages and the round-trip latency of queries.
+ *
+ * <p>Latencies are measured from the time a message was due rather than the time it was actually
+ * written, so a stalled server cannot hide its delays by slowing the generator down.
+ */
+public class LoadGenerator {
+
+  /**
+   * The number of simulated chatters when none is specified.
+   */
+  public static final int DEFAULT_CLIENTS = 100;
+
+  /**
+   * The number of messages sent per second, across all chatters, when none is specified.
+   */
+  public static final int DEFAULT_RATE = 1000;
+
+  /**
+   * The number of seconds traffic is sent for when none is specified.
+   */
+  public static final int DEFAULT_DURATION_SECONDS = 10;
+
+  /**
+   * The traffic mix used when none is specified, as weights of each message kind.
+   */
+  public static final String DEFAULT_MIX = "broadcast=5,direct=85,who=5,insult=5";
+
+  /**
+   * The prefix of the usernames of the simulated chatters.
+   */
+  public static final String USER_NAME_PREFIX = "load-";
+
+  /**
+   * The format for providing command-line arguments.
+   */
+  public static final String ARGUMENT_INPUT_FORMAT =
+      "Usage: java LoadGenerator <host> <port> [clients] [messagesPerSecond] [seconds] [broadcast=5,direct=85,who=5,insult=5]";
+
+  /**
+   * The names of the message kinds of a traffic mix, in the order of their weights.
+   */
+  public static final String[] MESSAGE_KINDS = {"broadcast", "direct", "who", "insult"};
+
+  private static final int BROADCAST = 0;
+  private static final int DIRECT = 1;
+  private static final int WHO = 2;
+
+  private final String host;
+  private final int port;
+  private final int clients;
+  private final int rate;
+  private final int durationSeconds;
+  private final int[] mix;
+
+  private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+  private final LatencyHistogram queryLatency = new LatencyHistogram();
+  private final LongAdder[] sent = {new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder()};
+  private final LongAdder insultsReceived = new LongAdder();
+  private final LongAdder sendFailures = new LongAdder();
+  private int connectedSessions;
+  private long elapsedNanos;
+
+  /**
+   * Constructs a new `LoadGenerator`.
+   *
+   * @param host            The host of the server.
+   * @param port            The port of the server.
+   * @param clients         The number of simulated chatters.
+   * @param rate            The number of messages sent per second across all chatters.
+   * @param durationSeconds The number of seconds traffic is sent for.
+   * @param mix             The traffic mix, e.g. {@value #DEFAULT_MIX}.
+   * @throws IllegalArgumentException If a number is not positive or the mix cannot be parsed.
+   */
+  public LoadGenerator(String host, int port, int clients, int rate, int durationSeconds, String mix) {
+    if (clients <= 0 || rate <= 0 || durationSeconds <= 0) {
+      throw new IllegalArgumentException("clients, rate and duration must be positive");
+    }
+    this.host = host;
+    this.port = port;
+    this.clients = clients;
+    this.rate = rate;
+    this.durationSeconds = durationSeconds;
+    this.mix = parseMix(mix);
+  }
+
+  /**
+   * Parses a traffic mix of the form "broadcast=5,direct=85,who=5,insult=5". Kinds left out get a
+   * weight of zero.
+   *
+   * @param mix The traffic mix.
+   * @return The weights of the message kinds, in the order of {@link #MESSAGE_KINDS}.
+   * @throws IllegalArgumentException If the mix cannot be parsed or all weights are zero.
+   */
+  static int[] parseMix(String mix) {
+    int[] weights = new int[MESSAGE_KINDS.length];
+    for (String entry : mix.split(",")) {
+      String[] kindAndWeight = entry.trim().split("=");
+      int kind = List.of(MESSAGE_KINDS).indexOf(kindAndWeight[0]);
+      if (kindAndWeight.length != 2 || kind < 0) {
+        throw new IllegalArgumentException("Unknown traffic mix entry: " + entry);
+      }
+      weights[kind] = Integer.parseInt(kindAndWeight[1]);
+      if (weights[kind] < 0) {
+        throw new IllegalArgumentException("Negative weight in traffic mix: " + entry);
+      }
+    }
+    int total = 0;
+    for (int weight : weights) {
+      total += weight;
+    }
+    if (total == 0) {
+      throw new IllegalArgumentException("The traffic mix has no weight: " + mix);
+    }
+    return weights;
+  }
+
+  /**
+   * Connects the sessions, sends traffic for the configured duration, waits briefly for the last
+   * deliveries and disconnects every session.
+   */
+  public void run() {
+    ExecutorService readers = Server.newVirtualThreadExecutor();
+    List<LoadSession> sessions = new ArrayList<>(clients);
+    for (int i = 0; i < clients; i++) {
+      LoadSession session = new LoadSession(USER_NAME_PREFIX + i, this);
+      if (session.connect(host, port)) {
+        sessions.add(session);
+        readers.execute(session);
+      }
+    }
+    connectedSessions = sessions.size();
+    if (!sessions.isEmpty()) {
+      sendTraffic(sessions);
+      LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+    }
+    for (LoadSession session : sessions) {
+      session.close();
+    }
+    readers.shutdown();
+  }
+
+  /**
+   * Sends messages at the target rate until the duration is over.
+   *
+   * @param sessions The connected sessions.
+   */
+  private void sendTraffic(List<LoadSession> sessions) {
+    long interval = Math.max(1, TimeUnit.SECONDS.toNanos(1) / rate);
+    long start = System.nanoTime();
+    long end = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+    long dueAt = start;
+    while (dueAt < end) {
+      long wait = dueAt - System.nanoTime();
+      if (wait > 0) {
+        LockSupport.parkNanos(wait);
+      }
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      LoadSession session = sessions.get(random.nextInt(sessions.size()));
+      String recipient = sessions.get(random.nextInt(sessions.size())).getUserName();
+      int kind = pickKind(random.nextInt(totalWeight()));
+      try {
+        switch (kind) {
+          case BROADCAST:
+            session.broadcast(dueAt);
+            break;
+          case DIRECT:
+            session.directMessage(recipient, dueAt);
+            break;
+          case WHO:
+            session.queryConnectedUsers(dueAt);
+            break;
+          default:
+            session.insult(recipient);
+            break;
+        }
+        sent[kind].increment();
+      } catch (Exception e) {
+        sendFailures.increment();
+      }
+      dueAt += interval;
+    }
+    elapsedNanos = System.nanoTime() - start;
+  }
+
+  private int totalWeight() {
+    int total = 0;
+    for (int weight : mix) {
+      total += weight;
+    }
+    return total;
+  }
+
+  /**
+   * Maps a random number below the total weight to the message kind owning it.
+   *
+   * @param roll The random number.
+   * @return The index of the message kind.
+   */
+  int pickKind(int roll) {
+    for (int kind = 0; kind < mix.length; kind++) {
+      if (roll < mix[kind]) {
+        return kind;
+      }
+      roll -= mix[kind];
+    }
+    return mix.length - 1;
+  }
+
+  /**
+   * Records the delivery latency of a chat message.
+   *
+   * @param nanos The time from when the message was due until it was received.
+   */
+  void recordDelivery(long nanos) {
+    deliveryLatency.record(nanos);
+  }
+
+  /**
+   * Records the round-trip latency of a "who" query.
+   *
+   * @param nanos The time from when the query was due until its response was received.
+   */
+  void recordQuery(long nanos) {
+    queryLatency.record(nanos);
+  }
+
+  /**
+   * Records an insult received by a session.
+   */
+  void recordInsult() {
+    insultsReceived.increment();
+  }
+
+  /**
+   * Gets the number of sessions the server accepted.
+   *
+   * @return The number of connected sessions.
+   */
+  public int getConnectedSessions() {
+    return connectedSessions;
+  }
+
+  /**
+   * Gets the number of messages sent.
+   *
+   * @return The number of messages of every kind sent.
+   */
+  public long getSentCount() {
+    long total = 0;
+    for (LongAdder count : sent) {
+      total += count.sum();
+    }
+    return total;
+  }
+
+  /**
+   * Gets the delivery latencies of chat messages.
+   *
+   * @return The delivery latency histogram.
+   */
+  public LatencyHistogram getDeliveryLatency() {
+    return deliveryLatency;
+  }
+
+  /**
+   * Gets the round-trip latencies of "who" queries.
+   *
+   * @return The query latency histogram.
+   */
+  public LatencyHistogram getQueryLatency() {
+    return queryLatency;
+  }
+
+  /**
+   * Describes the outcome of the run.
+   *
+   * @return The report.
+   */
+  public String report() {
+    double seconds = Math.max(elapsedNanos, 1) / 1e9;
+    StringBuilder report = new StringBuilder();
+    report.append(String.format("Sessions: %d of %d connected%n", connectedSessions, clients));
+    report.append(String.format("Sent: %d messages in %.1fs (%.0f/s)", getSentCount(), seconds, getSentCount() / seconds));
+    for (int kind = 0; kind < MESSAGE_KINDS.length; kind++) {
+      report.append(kind == 0 ? " [" : ", ").append(MESSAGE_KINDS[kind]).append('=').append(sent[kind].sum());
+    }
+    report.append(String.format("], failed=%d%n", sendFailures.sum()));
+    report.append(String.format("Delivered: %d chat messages (%.0f/s), %d insults%n", deliveryLatency.count(),
+        deliveryLatency.count() / seconds, insultsReceived.sum()));
+    report.append("Delivery latency: ").append(deliveryLatency.summary()).append(System.lineSeparator());
+    report.append("Query latency: ").append(queryLatency.summary());
+    return report.toString();
+  }
+
+  @Override
+  public String toString() {
+    return "LoadGenerator{" +
+        "host='" + host + '\'' +
+        ", port=" + port +
+        ", clients=" + clients +
+        ", rate=" + rate +
+        ", durationSeconds=" + durationSeconds +
+        '}';
+  }
+
+  /**
+   * The main entry point of the load generator. The server must be started with a connection
+   * ceiling above the number of simulated chatters.
+   *
+   * @param args The host, port, and optionally the number of chatters, the rate, the duration and the mix.
+   */
+  public static void main(String[] args) {
+    if (args.length < 2 || args.length > 6) {
+      System.out.println(ARGUMENT_INPUT_FORMAT);
+      System.exit(1);
+    }
+    try {
+      LoadGenerator generator = new LoadGenerator(args[0], Integer.parseInt(args[1]),
+          args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_CLIENTS,
+          args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_RATE,
+          args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_DURATION_SECONDS,
+          args.length > 5 ? args[5] : DEFAULT_MIX);
+      generator.run();
+      System.out.println(generator.report());
+    } catch (IllegalArgumentException e) {
+      System.out.println(e.getMessage());
+      System.out.println(ARGUMENT_INPUT_FORMAT);
+      System.exit(1);
+    }
+  }
+}
@@ -0,0 +1,217 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The `LoadSession` class is one simulated chatter driven by a {@link LoadGenerator}. It speaks
+ * the same protocol as {@link Client}, but takes its traffic from the generator instead of
+ * standard input, and turns every message it receives into latency samples instead of printing
+ * it. Messages sent by the generator carry the time they were due, so a receiver can compute the
+ * end-to-end delivery latency of each copy it gets.
+ */
+class LoadSession implements Runnable {
+
+  /**
+   * The text every generated chat message starts with, followed by the time it was due.
+   */
+  public static final String MESSAGE_MARKER = "load ";
+
+  private static final String TIMESTAMP_PREFIX = ChatSession.RIGHT_BRACKET + MESSAGE_MARKER;
+
+  private final String userName;
+  private final LoadGenerator generator;
+  private final ChatRoomProtocol chatRoomProtocol = new ChatRoomProtocol();
+  private final FrameView inboundFrame = new FrameView();
+  private final Queue<Long> pendingQueries = new ConcurrentLinkedQueue<>();
+  private Socket socket;
+  private DataInputStream dataInputStream;
+  private DataOutputStream dataOutputStream;
+
+  /**
+   * Constructs a new `LoadSession`.
+   *
+   * @param userName  The username the session joins the chat with.
+   * @param generator The generator collecting what the session measures.
+   */
+  public LoadSession(String userName, LoadGenerator generator) {
+    this.userName = userName;
+    this.generator = generator;
+  }
+
+  /**
+   * Connects to the server and waits until it accepts or refuses the session.
+   *
+   * @param host The host of the server.
+   * @param port The port of the server.
+   * @return {@code true} if the server accepted the session.
+   */
+  public boolean connect(String host, int port) {
+    try {
+      socket = new Socket(host, port);
+      socket.setTcpNoDelay(true);
+      dataInputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      dataOutputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      send(userName.getBytes(StandardCharsets.UTF_8));
+      send(chatRoomProtocol.encodeConnectMessage(userName));
+      while (inboundFrame.readFrom(dataInputStream)) {
+        if (inboundFrame.textEquals(ChatSession.MAX_CLIENTS_REACHED)) {
+          break;
+        }
+        if (inboundFrame.messageType() == ChatRoomProtocol.CONNECT_RESPONSE) {
+          if (inboundFrame.flag()) {
+            return true;
+          }
+          break;
+        }
+      }
+    } catch (IOException e) {
+
+    }
+    close();
+    return false;
+  }
+
+  /**
+   * Reads every frame the server sends until the connection closes, recording latencies.
+   */
+  @Override
+  public void run() {
+    try {
+      while (inboundFrame.readFrom(dataInputStream)) {
+        onFrame(inboundFrame, System.nanoTime());
+      }
+    } catch (IOException e) {
+
+    }
+  }
+
+  /**
+   * Records what a received frame says about the traffic.
+   *
+   * @param frame      The received frame.
+   * @param receivedAt The time the frame was received, from {@link System#nanoTime()}.
+   */
+  void onFrame(FrameView frame, long receivedAt) {
+    if (frame.messageType() == ChatRoomProtocol.QUERY_USER_RESPONSE) {
+      Long sentAt = pendingQueries.poll();
+      if (sentAt != null) {
+        generator.recordQuery(receivedAt - sentAt);
+      }
+      return;
+    }
+    if (frame.messageType() == ChatRoomProtocol.PING) {
+      try {
+        send(chatRoomProtocol.encodePong(userName, frame.number()));
+      } catch (IOException e) {
+
+      }
+      return;
+    }
+    if (frame.messageType() == ChatRoomProtocol.CONNECT_RESPONSE || frame.messageType() == ChatRoomProtocol.PONG
+        || frame.messageType() == ChatRoomProtocol.QUERY_USER_RESPONSE_PART) {
+      return;
+    }
+    String text = frame.text();
+    int marker = text.indexOf(TIMESTAMP_PREFIX);
+    if (marker >= 0) {
+      try {
+        long sentAt = Long.parseLong(text.substring(marker + TIMESTAMP_PREFIX.length()));
+        generator.recordDelivery(receivedAt - sentAt);
+      } catch (NumberFormatException e) {
+
+      }
+    } else if (!text.startsWith("[Server]")) {
+      generator.recordInsult();
+    }
+  }
+
+  /**
+   * Sends a chat message to everyone else in the room.
+   *
+   * @param dueAt The time the message was due, from {@link System#nanoTime()}.
+   * @throws IOException If an I/O error occurs.
+   */
+  public void broadcast(long dueAt) throws IOException {
+    send(chatRoomProtocol.encodeBroadcastMessage(userName, MESSAGE_MARKER + dueAt));
+  }
+
+  /**
+   * Sends a chat message to one user.
+   *
+   * @param recipient The username of the recipient.
+   * @param dueAt     The time the message was due, from {@link System#nanoTime()}.
+   * @throws IOException If an I/O error occurs.
+   */
+  public void directMessage(String recipient, long dueAt) throws IOException {
+    send(chatRoomProtocol.encodeDirectMessage(userName, recipient, MESSAGE_MARKER + dueAt));
+  }
+
+  /**
+   * Asks the server who is connected.
+   *
+   * @param dueAt The time the query was due, from {@link System#nanoTime()}.
+   * @throws IOException If an I/O error occurs.
+   */
+  public void queryConnectedUsers(long dueAt) throws IOException {
+    pendingQueries.add(dueAt);
+    send(chatRoomProtocol.encodeQueryConnectedUsers(userName));
+  }
+
+  /**
+   * Asks the server to insult a user.
+   *
+   * @param recipient The username of the user to be insulted.
+   * @throws IOException If an I/O error occurs.
+   */
+  public void insult(String recipient) throws IOException {
+    send(chatRoomProtocol.encodeSendInsult(userName, recipient));
+  }
+
+  /**
+   * Sends one frame and flushes it. The generator's thread and the thread answering pings send,
+   * one at a time.
+   *
+   * @param frame The frame to be sent.
+   * @throws IOException If an I/O error occurs.
+   */
+  private synchronized void send(byte[] frame) throws IOException {
+    ChatRoomProtocol.writeFrame(dataOutputStream, frame);
+    dataOutputStream.flush();
+  }
+
+  /**
+   * Closes the connection, which also ends {@link #run()}.
+   */
+  public void close() {
+    try {
+      if (socket != null) {
+        socket.close();
+      }
+    } catch (IOException e) {
+
+    }
+  }
+
+  /**
+   * Gets the username of the session.
+   *
+   * @return The username.
+   */
+  public String getUserName() {
+    return userName;
+  }
+
+  @Override
+  public String toString() {
+    return "LoadSession{" +
+        "userName='" + userName + '\'' +
+        ", socket=" + socket +
+        '}';
+  }
+}
@@ -0,0 +1,53 @@
+/**
+ * The `LogEntry` class is a message waiting to be appended to the {@link MessageLog}. It only
+ * refers to the frame already encoded for the recipients, so queuing it copies nothing.
+ */
+final class LogEntry {
+
+  private final String sender;
+  private final String recipient;
+  private final EncodedFrame message;
+
+  /**
+   * Constructs a new `LogEntry`.
+   *
+   * @param sender    The sender of the message.
+   * @param recipient The recipient of a direct message, or an empty string for a broadcast.
+   * @param message   The frame whose body is the message text.
+   */
+  public LogEntry(String sender, String recipient, EncodedFrame message) {
+    this.sender = sender;
+    this.recipient = recipient;
+    this.message = message;
+  }
+
+  /**
+   * @return The sender of the message.
+   */
+  public String getSender() {
+    return sender;
+  }
+
+  /**
+   * @return The recipient of a direct message, or an empty string for a broadcast.
+   */
+  public String getRecipient() {
+    return recipient;
+  }
+
+  /**
+   * @return The frame whose body is the message text.
+   */
+  public EncodedFrame getMessage() {
+    return message;
+  }
+
+  @Override
+  public String toString() {
+    return "LogEntry{" +
+        "sender='" + sender + '\'' +
+        ", recipient='" + recipient + '\'' +
+        ", message=" + message +
+        '}';
+  }
+}
@@ -0,0 +1,272 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The `LogSegment` class is one memory-mapped file of the {@link MessageLog}. Its records are
+ * {@link ChatRoomProtocol#REPLAYED_MESSAGE} frames with their length headers, stored back to back
+ * exactly as they are sent to clients, so a replay copies a run of records from the mapping
+ * without decoding them. A segment has a single writer; any number of readers may replay it at
+ * the same time, seeing every record committed before they looked.
+ */
+final class LogSegment {
+
+  /**
+   * The suffix of segment file names, which are the sequence number of their first record.
+   */
+  public static final String FILE_SUFFIX = ".log";
+
+  /**
+   * The number of records between two entries of the sparse index used to find a sequence number.
+   */
+  public static final int INDEX_INTERVAL = 64;
+
+  private static final int SEQUENCE_OFFSET = ChatRoomProtocol.FRAME_HEADER_LENGTH + Integer.BYTES
+      + ChatRoomProtocol.FRAME_SEPARATOR.length();
+
+  private final Path path;
+  private final long baseSequence;
+  private final MappedByteBuffer buffer;
+  private final ByteBuffer readView;
+  private volatile int[] index = new int[16];
+  private volatile int size;
+  private volatile int recordCount;
+  private int flushedSize;
+
+  /**
+   * Constructs a new `LogSegment` over a mapped file.
+   *
+   * @param path         The segment file.
+   * @param baseSequence The sequence number of the first record of the segment.
+   * @param buffer       The mapping of the whole file.
+   */
+  private LogSegment(Path path, long baseSequence, MappedByteBuffer buffer) {
+    this.path = path;
+    this.baseSequence = baseSequence;
+    this.buffer = buffer;
+    this.readView = buffer.duplicate().asReadOnlyBuffer();
+  }
+
+  /**
+   * Creates and maps a new, empty segment file.
+   *
+   * @param directory    The directory of the log.
+   * @param baseSequence The sequence number of the first record of the segment.
+   * @param capacity     The size of the file in bytes.
+   * @return The new segment.
+   * @throws IOException If the file cannot be created or mapped.
+   */
+  public static LogSegment create(Path directory, long baseSequence, int capacity) throws IOException {
+    Path path = directory.resolve(fileName(baseSequence));
+    return new LogSegment(path, baseSequence, map(path, capacity));
+  }
+
+  /**
+   * Maps an existing segment file and recovers its records, stopping at the first record that is
+   * incomplete or out of sequence, such as one torn by a crash.
+   *
+   * @param path The segment file.
+   * @return The recovered segment.
+   * @throws IOException If the file cannot be mapped.
+   * @throws NumberFormatException If the file name is not a sequence number.
+   */
+  public static LogSegment open(Path path) throws IOException {
+    String fileName = path.getFileName().toString();
+    long baseSequence = Long.parseLong(fileName.substring(0, fileName.length() - FILE_SUFFIX.length()));
+    LogSegment segment = new LogSegment(path, baseSequence, map(path, (int) Files.size(path)));
+    segment.recover();
+    return segment;
+  }
+
+  private static MappedByteBuffer map(Path path, int capacity) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      return channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+  }
+
+  /**
+   * Gets the name of the file of a segment.
+   *
+   * @param baseSequence The sequence number of the first record of the segment.
+   * @return The file name.
+   */
+  static String fileName(long baseSequence) {
+    return String.format("%020d%s", baseSequence, FILE_SUFFIX);
+  }
+
+  /**
+   * Scans the records of a segment that was just mapped.
+   */
+  private void recover() {
+    int position = 0;
+    int count = 0;
+    while (buffer.capacity() - position >= SEQUENCE_OFFSET + Long.BYTES) {
+      int length = buffer.getInt(position);
+      int recordLength = ChatRoomProtocol.FRAME_HEADER_LENGTH + length;
+      if (length <= 0 || recordLength > buffer.capacity() - position
+          || buffer.getInt(position + ChatRoomProtocol.FRAME_HEADER_LENGTH) != ChatRoomProtocol.REPLAYED_MESSAGE
+          || buffer.getLong(position + SEQUENCE_OFFSET) != baseSequence + count) {
+        break;
+      }
+      addIndexEntry(count, position);
+      position += recordLength;
+      count++;
+    }
+    size = position;
+    flushedSize = position;
+    recordCount = count;
+  }
+
+  /**
+   * Checks whether a record still fits, leaving room for the end marker written after it.
+   *
+   * @param recordLength The length of the record, including its length header.
+   * @return {@code true} if the record fits.
+   */
+  public boolean hasRoomFor(int recordLength) {
+    return buffer.capacity() - size >= recordLength + Integer.BYTES;
+  }
+
+  /**
+   * Appends a record and makes it visible to readers. Only the log's writer thread may call this.
+   *
+   * @param chatRoomProtocol The protocol encoding the record.
+   * @param sender           The sender of the message.
+   * @param recipient        The recipient of a direct message, or an empty string for a broadcast.
+   * @param message          The frame whose body is the message text.
+   * @return The sequence number of the record.
+   */
+  public long append(ChatRoomProtocol chatRoomProtocol, String sender, String recipient, EncodedFrame message) {
+    int start = size;
+    long sequence = baseSequence + recordCount;
+    buffer.position(start);
+    int headerPosition = ChatRoomProtocol.reserveFrameHeader(buffer);
+    chatRoomProtocol.encodeReplayedMessage(buffer, sequence, sender, recipient, message);
+    ChatRoomProtocol.completeFrameHeader(buffer, headerPosition);
+    int end = buffer.position();
+    buffer.putInt(end, 0);
+    addIndexEntry(recordCount, start);
+    size = end;
+    recordCount = recordCount + 1;
+    return sequence;
+  }
+
+  /**
+   * Records the position of a record in the sparse index if it falls on an index interval.
+   *
+   * @param recordNumber The number of the record within the segment.
+   * @param position     The position of the record.
+   */
+  private void addIndexEntry(int recordNumber, int position) {
+    if (recordNumber % INDEX_INTERVAL != 0) {
+      return;
+    }
+    int entry = recordNumber / INDEX_INTERVAL;
+    int[] entries = index;
+    if (entry == entries.length) {
+      entries = Arrays.copyOf(entries, entries.length * 2);
+    }
+    entries[entry] = position;
+    index = entries;
+  }
+
+  /**
+   * Writes every record appended since the last flush to disk. Only the log's writer thread may
+   * call this.
+   */
+  public void flush() {
+    int committed = size;
+    if (committed > flushedSize) {
+      buffer.force(flushedSize, committed - flushedSize);
+      flushedSize = committed;
+    }
+  }
+
+  /**
+   * Finds the first record whose sequence number is at least the given one.
+   *
+   * @param sequence The sequence number to look for.
+   * @return The position of the record, or the committed size if every record is older.
+   */
+  public int positionOf(long sequence) {
+    int count = recordCount;
+    int[] entries = index;
+    int committed = size;
+    if (sequence <= baseSequence) {
+      return 0;
+    }
+    if (sequence >= baseSequence + count) {
+      return committed;
+    }
+    int recordNumber = (int) (sequence - baseSequence);
+    int position = entries[recordNumber / INDEX_INTERVAL];
+    for (int skip = recordNumber % INDEX_INTERVAL; skip > 0; skip--) {
+      position += ChatRoomProtocol.FRAME_HEADER_LENGTH + readView.getInt(position);
+    }
+    return position;
+  }
+
+  /**
+   * Returns a read-only view of the mapping for absolute reads. It is shared by every reader, so
+   * its position and limit must not be changed.
+   *
+   * @return The read-only view.
+   */
+  public ByteBuffer readView() {
+    return readView;
+  }
+
+  /**
+   * Gets the number of bytes of committed records.
+   *
+   * @return The committed size.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Gets the sequence number of the first record of the segment.
+   *
+   * @return The base sequence number.
+   */
+  public long baseSequence() {
+    return baseSequence;
+  }
+
+  /**
+   * Gets the sequence number the next record appended to the segment would get.
+   *
+   * @return The next sequence number.
+   */
+  public long nextSequence() {
+    return baseSequence + recordCount;
+  }
+
+  /**
+   * Deletes the segment file. Readers still holding the mapping can finish reading it.
+   */
+  public void delete() {
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "LogSegment{" +
+        "path=" + path +
+        ", baseSequence=" + baseSequence +
+        ", recordCount=" + recordCount +
+        ", size=" + size +
+        '}';
+  }
+}
@@ -0,0 +1,383 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * The `MessageLog` class keeps every broadcast, direct message and insult in an append-only log
+ * of memory-mapped {@link LogSegment}s on local disk, so a client joining late can ask for the
+ * messages it missed. Routing only queues the frame it already encoded; a single writer thread
+ * assigns sequence numbers, appends the records and forces them to disk in batches. Replays run on
+ * a small pool of their own threads, at most one per session at a time, and copy runs of records
+ * straight from the mapped segments into outgoing frames, so neither appends nor replays ever hold
+ * up the live fan-out.
+ *
+ * <p>Broadcasts are replayed to everyone; a direct message only to its sender and recipient.
+ */
+class MessageLog implements Runnable {
+
+  /**
+   * The size of a segment file in bytes.
+   */
+  public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+  /**
+   * The number of segments kept before the oldest one is deleted.
+   */
+  public static final int DEFAULT_MAX_SEGMENTS = 16;
+
+  /**
+   * The longest time appended records wait before they are forced to disk.
+   */
+  public static final long FLUSH_INTERVAL_MILLIS = 100;
+
+  /**
+   * The number of bytes of records copied into one outgoing frame during a replay.
+   */
+  public static final int REPLAY_CHUNK_SIZE = 64 * 1024;
+
+  /**
+   * The number of bytes a client may have waiting to be written before a replay pauses for it.
+   */
+  public static final long REPLAY_HIGH_WATER_BYTES = 4L * REPLAY_CHUNK_SIZE;
+
+  /**
+   * The longest time a replay waits for a client to read what was already replayed.
+   */
+  public static final long REPLAY_STALL_MILLIS = 30_000;
+
+  /**
+   * The number of replays that run at the same time; further replays wait for one to end.
+   */
+  public static final int REPLAY_THREADS = 4;
+
+  /**
+   * The reply to a session asking for a replay while its previous one is still running.
+   */
+  public static final String REPLAY_RUNNING_MESSAGE = "[Server] : A replay is already running.";
+
+  private final Path directory;
+  private final int segmentSize;
+  private final int maxSegments;
+  private final ChatRoomProtocol chatRoomProtocol = new ChatRoomProtocol();
+  private final Queue<LogEntry> pending = new ConcurrentLinkedQueue<>();
+  private final List<LogSegment> segments = new CopyOnWriteArrayList<>();
+  private final AtomicBoolean sleeping = new AtomicBoolean();
+  private final AtomicInteger replayThreadIndex = new AtomicInteger();
+  private final ExecutorService replayExecutor = Executors.newFixedThreadPool(REPLAY_THREADS, task -> {
+    Thread thread = new Thread(task, "message-log-replay-" + replayThreadIndex.getAndIncrement());
+    thread.setDaemon(true);
+    return thread;
+  });
+  private final Set<ChatSession> replaying = ConcurrentHashMap.newKeySet();
+  private final Thread writer;
+  private volatile boolean closed;
+
+  /**
+   * Opens the log in a directory, recovering any segments already there, and starts its writer.
+   *
+   * @param directory   The directory of the log, created if needed.
+   * @param segmentSize The size of a segment file in bytes.
+   * @param maxSegments The number of segments kept before the oldest one is deleted.
+   * @throws IOException If the directory or a segment cannot be opened.
+   */
+  public MessageLog(Path directory, int segmentSize, int maxSegments) throws IOException {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.maxSegments = Math.max(1, maxSegments);
+    Files.createDirectories(directory);
+    List<Path> files = new ArrayList<>();
+    try (Stream<Path> listing = Files.list(directory)) {
+      listing.filter(file -> file.getFileName().toString().endsWith(LogSegment.FILE_SUFFIX))
+          .sorted()
+          .forEach(files::add);
+    }
+    for (Path file : files) {
+      try {
+        segments.add(LogSegment.open(file));
+      } catch (NumberFormatException e) {
+
+      }
+    }
+    if (segments.isEmpty()) {
+      segments.add(LogSegment.create(directory, 1, segmentSize));
+    }
+    this.writer = new Thread(this, "message-log-writer");
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  /**
+   * Opens the log in a directory with the default segment size and retention.
+   *
+   * @param directory The directory of the log, created if needed.
+   * @throws IOException If the directory or a segment cannot be opened.
+   */
+  public MessageLog(Path directory) throws IOException {
+    this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS);
+  }
+
+  /**
+   * Queues a message to be appended. Called on the routing path, so it only links the already
+   * encoded frame into a lock-free queue and wakes the writer if it is asleep. A message that
+   * would not fit in one {@link ChatRoomProtocol#REPLAYED_MESSAGE} frame once its sequence number
+   * and recipient are added is not kept, so a replay never sends a frame clients refuse.
+   *
+   * @param sender    The sender of the message.
+   * @param recipient The recipient of a direct message, or {@code null} for a broadcast.
+   * @param message   The frame whose body is the message text.
+   */
+  public void append(String sender, String recipient, EncodedFrame message) {
+    String loggedRecipient = recipient != null ? recipient : "";
+    if (closed || ChatRoomProtocol.replayedMessageLength(sender, loggedRecipient, message)
+        > ChatRoomProtocol.MAX_FRAME_LENGTH) {
+      return;
+    }
+    pending.add(new LogEntry(sender, loggedRecipient, message));
+    if (sleeping.get() && sleeping.compareAndSet(true, false)) {
+      LockSupport.unpark(writer);
+    }
+  }
+
+  /**
+   * Appends queued messages until the log is closed, forcing them to disk at most
+   * {@value #FLUSH_INTERVAL_MILLIS} ms after they were appended.
+   */
+  @Override
+  public void run() {
+    long flushInterval = TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MILLIS);
+    long lastFlush = System.nanoTime();
+    boolean dirty = false;
+    while (!closed || !pending.isEmpty()) {
+      LogEntry entry;
+      while ((entry = pending.poll()) != null) {
+        try {
+          write(entry);
+          dirty = true;
+        } catch (IOException | RuntimeException e) {
+
+        }
+      }
+      long now = System.nanoTime();
+      if (dirty && now - lastFlush >= flushInterval) {
+        activeSegment().flush();
+        lastFlush = now;
+        dirty = false;
+      }
+      sleeping.set(true);
+      if (pending.isEmpty() && !closed) {
+        LockSupport.parkNanos(this, dirty ? flushInterval - (now - lastFlush) : flushInterval);
+      }
+      sleeping.set(false);
+    }
+    activeSegment().flush();
+  }
+
+  /**
+   * Appends one record, moving to a new segment when the active one is full.
+   *
+   * @param entry The message to be appended.
+   * @throws IOException If a new segment cannot be created.
+   */
+  private void write(LogEntry entry) throws IOException {
+    int recordLength = ChatRoomProtocol.FRAME_HEADER_LENGTH + ChatRoomProtocol.replayedMessageLength(
+        entry.getSender(), entry.getRecipient(), entry.getMessage());
+    LogSegment active = activeSegment();
+    if (!active.hasRoomFor(recordLength)) {
+      active.flush();
+      active = LogSegment.create(directory, active.nextSequence(),
+          Math.max(segmentSize, recordLength + Integer.BYTES));
+      segments.add(active);
+      while (segments.size() > maxSegments) {
+        segments.remove(0).delete();
+      }
+    }
+    active.append(chatRoomProtocol, entry.getSender(), entry.getRecipient(), entry.getMessage());
+  }
+
+  private LogSegment activeSegment() {
+    return segments.get(segments.size() - 1);
+  }
+
+  /**
+   * Gets the sequence number the next appended message will get.
+   *
+   * @return The next sequence number.
+   */
+  public long nextSequence() {
+    return activeSegment().nextSequence();
+  }
+
+  /**
+   * Gets the sequence number of the oldest message still in the log.
+   *
+   * @return The first sequence number.
+   */
+  public long firstSequence() {
+    return segments.get(0).baseSequence();
+  }
+
+  /**
+   * Replays the latest messages to a session in the background.
+   *
+   * @param session The session asking for the messages.
+   * @param count   The number of latest messages of the log to consider.
+   */
+  public void replayLast(ChatSession session, long count) {
+    replaySince(session, nextSequence() - Math.max(0, count));
+  }
+
+  /**
+   * Replays every message from a sequence number on to a session in the background, up to the
+   * last message appended when the replay was asked for. A session asking again before its
+   * previous replay ended is told so instead.
+   *
+   * @param session  The session asking for the messages.
+   * @param sequence The sequence number of the first message to replay.
+   */
+  public void replaySince(ChatSession session, long sequence) {
+    if (!replaying.add(session)) {
+      session.reply(REPLAY_RUNNING_MESSAGE);
+      return;
+    }
+    long until = nextSequence();
+    try {
+      replayExecutor.execute(() -> {
+        try {
+          replay(session, Math.max(sequence, firstSequence()), until);
+        } finally {
+          replaying.remove(session);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      replaying.remove(session);
+    }
+  }
+
+  /**
+   * Copies every message visible to a session between two sequence numbers into frames of up to
+   * {@value #REPLAY_CHUNK_SIZE} bytes and delivers them, pausing while the client lags behind.
+   *
+   * @param session The session asking for the messages.
+   * @param from    The sequence number of the first message to replay.
+   * @param until   The sequence number just past the last message to replay.
+   */
+  void replay(ChatSession session, long from, long until) {
+    byte[] userName = session.getClientUserName().getBytes(StandardCharsets.UTF_8);
+    FrameView record = new FrameView();
+    byte[] chunk = new byte[REPLAY_CHUNK_SIZE];
+    int chunkLength = 0;
+    int replayed = 0;
+    long last = -1;
+    for (LogSegment segment : segments) {
+      if (segment.nextSequence() <= from || segment.baseSequence() >= until) {
+        continue;
+      }
+      ByteBuffer view = segment.readView();
+      int end = segment.size();
+      int position = segment.positionOf(from);
+      while (position < end) {
+        int length = view.getInt(position);
+        int recordLength = ChatRoomProtocol.FRAME_HEADER_LENGTH + length;
+        if (!record.wrap(view, position + ChatRoomProtocol.FRAME_HEADER_LENGTH, length)
+            || record.number() >= until) {
+          break;
+        }
+        // Records appended before messages were checked against the frame limit are skipped.
+        if (length <= ChatRoomProtocol.MAX_FRAME_LENGTH
+            && (record.fieldLength(1) == 0 || record.fieldEquals(0, userName) || record.fieldEquals(1, userName))) {
+          if (chunkLength + recordLength > chunk.length && chunkLength > 0) {
+            if (!deliverChunk(session, Arrays.copyOf(chunk, chunkLength))) {
+              return;
+            }
+            chunkLength = 0;
+          }
+          if (recordLength > chunk.length) {
+            byte[] large = new byte[recordLength];
+            view.get(position, large);
+            if (!deliverChunk(session, large)) {
+              return;
+            }
+          } else {
+            view.get(position, chunk, chunkLength, recordLength);
+            chunkLength += recordLength;
+          }
+          replayed++;
+          last = record.number();
+        }
+        position += recordLength;
+      }
+    }
+    if (chunkLength > 0 && !deliverChunk(session, Arrays.copyOf(chunk, chunkLength))) {
+      return;
+    }
+    String summary = replayed == 0 ? "[Server] : No messages to replay."
+        : "[Server] : Replayed " + replayed + " messages up to #" + last + ".";
+    deliverChunk(session, EncodedFrame.ofText(summary));
+  }
+
+  /**
+   * Delivers a run of replayed records once the client has read most of what was sent before.
+   *
+   * @param session The session being replayed to.
+   * @param frames  The records, each with its length header.
+   * @return {@code false} if the session went away or stopped reading, ending the replay.
+   */
+  private boolean deliverChunk(ChatSession session, byte[] frames) {
+    return deliverChunk(session, EncodedFrame.ofEncodedFrames(frames));
+  }
+
+  private boolean deliverChunk(ChatSession session, EncodedFrame frame) {
+    if (!session.outboundQueue.awaitDrained(REPLAY_HIGH_WATER_BYTES, REPLAY_STALL_MILLIS, TimeUnit.MILLISECONDS)
+        || session.isRemoved()) {
+      return false;
+    }
+    try {
+      session.deliver(frame);
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Stops accepting messages, appends and forces to disk what is already queued, and stops the
+   * replays.
+   */
+  public void close() {
+    closed = true;
+    LockSupport.unpark(writer);
+    try {
+      writer.join(TimeUnit.SECONDS.toMillis(5));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    replayExecutor.shutdownNow();
+  }
+
+  @Override
+  public String toString() {
+    return "MessageLog{" +
+        "directory=" + directory +
+        ", segments=" + segments.size() +
+        ", nextSequence=" + nextSequence() +
+        '}';
+  }
+}
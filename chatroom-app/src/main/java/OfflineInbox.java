@@ -0,0 +1,475 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * The `OfflineInbox` class stores direct messages sent to users who are not connected, one file
+ * per recipient on local disk, and hands them over in a single burst when the recipient connects
+ * again. Every inbox is bounded in messages and bytes, stored messages expire, and one sender can
+ * only open so many inboxes. Inboxes left with nothing but expired messages are swept away
+ * periodically, so messages to users who never connect do not take up inbox slots for good.
+ *
+ * <p>All disk work runs on one background thread, in the order it was asked for, so neither the
+ * sender's nor the recipient's routing ever waits on the disk, and a message stored just before
+ * its recipient connects is always part of the burst.
+ */
+class OfflineInbox {
+
+  /**
+   * The directory the inboxes are kept in when none is specified.
+   */
+  public static final String DEFAULT_DIRECTORY = "offline-inbox";
+
+  /**
+   * The number of messages an inbox holds before further messages are refused.
+   */
+  public static final int DEFAULT_MAX_MESSAGES = 100;
+
+  /**
+   * The number of bytes an inbox holds before further messages are refused.
+   */
+  public static final long DEFAULT_MAX_BYTES = 1L << 20;
+
+  /**
+   * The number of inboxes kept before messages to further users are refused.
+   */
+  public static final int DEFAULT_MAX_INBOXES = 10_000;
+
+  /**
+   * The number of inboxes one sender may open, counted until they are emptied or swept away,
+   * before messages from that sender to further users are refused.
+   */
+  public static final int DEFAULT_MAX_INBOXES_PER_SENDER = 100;
+
+  /**
+   * How long a stored message is kept before it expires.
+   */
+  public static final long DEFAULT_TIME_TO_LIVE_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+  /**
+   * How often inboxes whose messages have all expired are deleted.
+   */
+  public static final long DEFAULT_SWEEP_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  /**
+   * The suffix of inbox file names, which are the recipient's username in hexadecimal UTF-8.
+   */
+  public static final String FILE_SUFFIX = ".inbox";
+
+  private static final int RECORD_HEADER_LENGTH = Long.BYTES + Integer.BYTES;
+
+  private final Path directory;
+  private final int maxMessages;
+  private final long maxBytes;
+  private final int maxInboxes;
+  private final int maxInboxesPerSender;
+  private final long timeToLiveMillis;
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(task -> {
+    Thread thread = new Thread(task, "offline-inbox");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private final Map<String, long[]> usage = new HashMap<>();
+  private final Map<String, String> openers = new HashMap<>();
+  private final Map<String, Integer> openedBySender = new HashMap<>();
+  private int inboxCount = -1;
+
+  /**
+   * Opens the inboxes kept in a directory and starts sweeping away the ones whose messages have all
+   * expired.
+   *
+   * @param directory           The directory of the inboxes, created if needed.
+   * @param maxMessages         The number of messages an inbox holds.
+   * @param maxBytes            The number of bytes an inbox holds.
+   * @param maxInboxes          The number of inboxes kept.
+   * @param maxInboxesPerSender The number of inboxes one sender may open.
+   * @param timeToLiveMillis    How long a stored message is kept.
+   * @param sweepIntervalMillis How often expired inboxes are deleted.
+   * @throws IOException If the directory cannot be created.
+   */
+  public OfflineInbox(Path directory, int maxMessages, long maxBytes, int maxInboxes, int maxInboxesPerSender,
+      long timeToLiveMillis, long sweepIntervalMillis) throws IOException {
+    this.directory = directory;
+    this.maxMessages = maxMessages;
+    this.maxBytes = maxBytes;
+    this.maxInboxes = maxInboxes;
+    this.maxInboxesPerSender = maxInboxesPerSender;
+    this.timeToLiveMillis = timeToLiveMillis;
+    Files.createDirectories(directory);
+    executor.scheduleWithFixedDelay(this::sweep, sweepIntervalMillis, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Opens the inboxes kept in a directory, with the default limit per sender and sweep interval.
+   *
+   * @param directory        The directory of the inboxes, created if needed.
+   * @param maxMessages      The number of messages an inbox holds.
+   * @param maxBytes         The number of bytes an inbox holds.
+   * @param maxInboxes       The number of inboxes kept.
+   * @param timeToLiveMillis How long a stored message is kept.
+   * @throws IOException If the directory cannot be created.
+   */
+  public OfflineInbox(Path directory, int maxMessages, long maxBytes, int maxInboxes, long timeToLiveMillis)
+      throws IOException {
+    this(directory, maxMessages, maxBytes, maxInboxes, DEFAULT_MAX_INBOXES_PER_SENDER, timeToLiveMillis,
+        DEFAULT_SWEEP_INTERVAL_MILLIS);
+  }
+
+  /**
+   * Opens the inboxes kept in a directory with the default limits.
+   *
+   * @param directory The directory of the inboxes, created if needed.
+   * @throws IOException If the directory cannot be created.
+   */
+  public OfflineInbox(Path directory) throws IOException {
+    this(directory, DEFAULT_MAX_MESSAGES, DEFAULT_MAX_BYTES, DEFAULT_MAX_INBOXES, DEFAULT_TIME_TO_LIVE_MILLIS);
+  }
+
+  /**
+   * Stores a direct message for a user who is not connected, in the background. The sender is told
+   * whether the message was stored.
+   *
+   * @param sender    The session sending the message.
+   * @param recipient The username of the recipient.
+   * @param message   The frame to be delivered to the recipient.
+   */
+  public void store(ChatSession sender, String recipient, EncodedFrame message) {
+    String senderName = sender.getClientUserName();
+    executor.execute(() -> {
+      String notice;
+      if (!mayOpen(senderName, recipient)) {
+        notice = "[Server] : User '" + recipient + "' is offline, and you already left messages for "
+            + maxInboxesPerSender + " offline users.";
+      } else if (store(senderName, recipient, message)) {
+        notice = "[Server] : User '" + recipient + "' is offline. The message will be delivered when they connect.";
+      } else {
+        notice = "[Server] : User '" + recipient + "' is offline and their inbox is full.";
+      }
+      try {
+        sender.deliver(EncodedFrame.ofText(notice));
+      } catch (IOException e) {
+
+      }
+    });
+  }
+
+  /**
+   * Checks whether a sender may leave a message for a user: either the user's inbox is open
+   * already, or the sender has not opened as many inboxes as it may. Runs on the inbox thread.
+   *
+   * @param sender    The username of the sender.
+   * @param recipient The username of the recipient.
+   * @return {@code true} if a message may be stored.
+   */
+  boolean mayOpen(String sender, String recipient) {
+    return usage.containsKey(recipient) || Files.exists(inboxFile(recipient))
+        || openedBySender.getOrDefault(sender, 0) < maxInboxesPerSender;
+  }
+
+  /**
+   * Appends a message to a user's inbox file unless the inbox is full, or would have to be opened
+   * beyond the inboxes kept or the sender's share of them. Runs on the inbox thread.
+   *
+   * @param sender    The username of the sender.
+   * @param recipient The username of the recipient.
+   * @param message   The frame to be delivered to the recipient.
+   * @return {@code true} if the message was stored.
+   */
+  boolean store(String sender, String recipient, EncodedFrame message) {
+    if (!mayOpen(sender, recipient)) {
+      return false;
+    }
+    Path file = inboxFile(recipient);
+    long[] inbox = usage.get(recipient);
+    try {
+      if (inbox == null) {
+        inbox = scan(file);
+        if (inbox[0] == 0 && inboxCount() >= maxInboxes) {
+          return false;
+        }
+        usage.put(recipient, inbox);
+      }
+      long recordLength = RECORD_HEADER_LENGTH + message.length();
+      if (inbox[0] >= maxMessages || inbox[1] + recordLength > maxBytes) {
+        inbox = compact(file);
+        usage.put(recipient, inbox);
+        if (inbox[0] >= maxMessages || inbox[1] + recordLength > maxBytes) {
+          return false;
+        }
+      }
+      if (!Files.exists(file)) {
+        if (inboxCount >= 0) {
+          inboxCount++;
+        }
+        openers.put(recipient, sender);
+        openedBySender.merge(sender, 1, Integer::sum);
+      }
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file,
+          StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+        out.writeLong(System.currentTimeMillis() + timeToLiveMillis);
+        out.writeInt(message.length());
+        message.writeTo(out);
+      }
+      inbox[0]++;
+      inbox[1] += recordLength;
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Hands every unexpired message stored for a session's user to it in one burst, in the
+   * background, and empties the inbox.
+   *
+   * @param session The session of the user who just connected.
+   */
+  public void deliverTo(ChatSession session) {
+    String userName = session.getClientUserName();
+    executor.execute(() -> {
+      EncodedFrame burst = take(userName);
+      if (burst != null) {
+        try {
+          session.deliver(burst);
+        } catch (IOException e) {
+
+        }
+      }
+    });
+  }
+
+  /**
+   * Removes a user's inbox and joins its unexpired messages, preceded by a notice, into one frame
+   * run. Runs on the inbox thread.
+   *
+   * @param userName The username of the user.
+   * @return The messages, or {@code null} if there are none.
+   */
+  EncodedFrame take(String userName) {
+    Path file = inboxFile(userName);
+    if (!Files.exists(file)) {
+      return null;
+    }
+    try {
+      ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(file));
+      Files.delete(file);
+      forget(userName);
+      ByteBuffer live = ByteBuffer.allocate(records.capacity());
+      int count = copyUnexpired(records, live);
+      if (count == 0) {
+        return null;
+      }
+      byte[] notice = ChatRoomProtocol.wrapFrame(("[Server] : You have " + count
+          + " messages received while you were offline.").getBytes(StandardCharsets.UTF_8)).array();
+      byte[] burst = new byte[notice.length + live.position()];
+      System.arraycopy(notice, 0, burst, 0, notice.length);
+      System.arraycopy(live.array(), 0, burst, notice.length, live.position());
+      return EncodedFrame.ofEncodedFrames(burst);
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Deletes every inbox whose messages have all expired. Runs on the inbox thread, every sweep
+   * interval.
+   */
+  void sweep() {
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        String fileName = file.getFileName().toString();
+        if (!fileName.endsWith(FILE_SUFFIX)) {
+          continue;
+        }
+        try {
+          if (!hasUnexpired(file)) {
+            Files.delete(file);
+            forget(new String(HexFormat.of().parseHex(
+                fileName.substring(0, fileName.length() - FILE_SUFFIX.length())), StandardCharsets.UTF_8));
+          }
+        } catch (IOException | IllegalArgumentException e) {
+
+        }
+      }
+    } catch (IOException e) {
+
+    }
+  }
+
+  /**
+   * Forgets an inbox whose file was deleted, giving its slot back to the inboxes kept and to the
+   * sender who opened it.
+   *
+   * @param userName The username of the inbox's user.
+   */
+  private void forget(String userName) {
+    usage.remove(userName);
+    if (inboxCount > 0) {
+      inboxCount--;
+    }
+    String opener = openers.remove(userName);
+    if (opener != null) {
+      openedBySender.computeIfPresent(opener, (sender, count) -> count > 1 ? count - 1 : null);
+    }
+  }
+
+  /**
+   * Checks whether an inbox file holds any message that has not expired.
+   *
+   * @param file The inbox file.
+   * @return {@code true} if a message is still to be delivered.
+   * @throws IOException If the file cannot be read.
+   */
+  private static boolean hasUnexpired(Path file) throws IOException {
+    ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(file));
+    long now = System.currentTimeMillis();
+    while (records.remaining() >= RECORD_HEADER_LENGTH) {
+      long expiresAt = records.getLong();
+      int length = records.getInt();
+      if (length < 0 || length > records.remaining()) {
+        break;
+      }
+      if (expiresAt > now) {
+        return true;
+      }
+      records.position(records.position() + length);
+    }
+    return false;
+  }
+
+  /**
+   * Copies the frames of the unexpired records, without their record headers.
+   *
+   * @param records     The records of an inbox file.
+   * @param destination The buffer receiving the frames.
+   * @return The number of frames copied.
+   */
+  private static int copyUnexpired(ByteBuffer records, ByteBuffer destination) {
+    long now = System.currentTimeMillis();
+    int count = 0;
+    while (records.remaining() >= RECORD_HEADER_LENGTH) {
+      long expiresAt = records.getLong();
+      int length = records.getInt();
+      if (length < 0 || length > records.remaining()) {
+        break;
+      }
+      if (expiresAt > now) {
+        destination.put(records.array(), records.position(), length);
+        count++;
+      }
+      records.position(records.position() + length);
+    }
+    return count;
+  }
+
+  /**
+   * Counts the messages and bytes of an inbox file.
+   *
+   * @param file The inbox file.
+   * @return The number of messages and the number of bytes.
+   * @throws IOException If the file cannot be read.
+   */
+  private static long[] scan(Path file) throws IOException {
+    if (!Files.exists(file)) {
+      return new long[2];
+    }
+    ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(file));
+    long count = 0;
+    while (records.remaining() >= RECORD_HEADER_LENGTH) {
+      records.getLong();
+      int length = records.getInt();
+      if (length < 0 || length > records.remaining()) {
+        break;
+      }
+      records.position(records.position() + length);
+      count++;
+    }
+    return new long[] {count, records.position()};
+  }
+
+  /**
+   * Rewrites an inbox file without its expired messages.
+   *
+   * @param file The inbox file.
+   * @return The number of messages and the number of bytes left.
+   * @throws IOException If the file cannot be rewritten.
+   */
+  private static long[] compact(Path file) throws IOException {
+    ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(file));
+    long now = System.currentTimeMillis();
+    ByteBuffer kept = ByteBuffer.allocate(records.capacity());
+    long count = 0;
+    while (records.remaining() >= RECORD_HEADER_LENGTH) {
+      int start = records.position();
+      long expiresAt = records.getLong();
+      int length = records.getInt();
+      if (length < 0 || length > records.remaining()) {
+        break;
+      }
+      records.position(records.position() + length);
+      if (expiresAt > now) {
+        kept.put(records.array(), start, records.position() - start);
+        count++;
+      }
+    }
+    try (OutputStream out = Files.newOutputStream(file)) {
+      out.write(kept.array(), 0, kept.position());
+    }
+    return new long[] {count, kept.position()};
+  }
+
+  /**
+   * Counts the inbox files, once, and afterwards keeps the count up to date in memory.
+   *
+   * @return The number of inboxes.
+   * @throws IOException If the directory cannot be listed.
+   */
+  private int inboxCount() throws IOException {
+    if (inboxCount < 0) {
+      try (Stream<Path> files = Files.list(directory)) {
+        inboxCount = (int) files.filter(file -> file.getFileName().toString().endsWith(FILE_SUFFIX)).count();
+      }
+    }
+    return inboxCount;
+  }
+
+  private Path inboxFile(String userName) {
+    return directory.resolve(HexFormat.of().formatHex(userName.getBytes(StandardCharsets.UTF_8)) + FILE_SUFFIX);
+  }
+
+  /**
+   * Finishes the disk work already asked for and stops the inbox thread.
+   */
+  public void close() {
+    executor.shutdown();
+    try {
+      executor.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "OfflineInbox{" +
+        "directory=" + directory +
+        ", maxMessages=" + maxMessages +
+        ", maxBytes=" + maxBytes +
+        ", maxInboxes=" + maxInboxes +
+        ", maxInboxesPerSender=" + maxInboxesPerSender +
+        '}';
+  }
+}
@@ -0,0 +1,347 @@
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The `OutboundQueue` class holds the frames waiting to be written to one client. Any thread may
+ * add frames, but only the writer that currently holds the drain claim takes them out, so the
+ * sending thread never touches the client's socket and a slow client only ever delays itself.
+ * The queue is bounded both in frames and in bytes; what happens to a frame that does not fit is
+ * decided by the queue's {@link BackpressurePolicy}. Frames a policy keeps beyond those limits are
+ * bounded by a hard limit {@value #HARD_LIMIT_MULTIPLIER} times as large, past which the client is
+ * disconnected whatever the policy.
+ */
+class OutboundQueue {
+
+  /**
+   * The number of frames a queue holds when no capacity is specified.
+   */
+  public static final int DEFAULT_CAPACITY = 1024;
+
+  /**
+   * The number of bytes a queue holds when no byte capacity is specified.
+   */
+  public static final long DEFAULT_BYTE_CAPACITY = 8L << 20;
+
+  /**
+   * The policy applied when none is specified.
+   */
+  public static final BackpressurePolicy DEFAULT_POLICY = BackpressurePolicy.DROP_NEW_BROADCASTS;
+
+  /**
+   * How many times the frame and byte limits the hard limits are.
+   */
+  public static final int HARD_LIMIT_MULTIPLIER = 4;
+
+  /**
+   * Result of {@link #enqueue(EncodedFrame)}: the frame was queued.
+   */
+  public static final int QUEUED = 0;
+
+  /**
+   * Result of {@link #enqueue(EncodedFrame)}: the frame was dropped.
+   */
+  public static final int DROPPED = 1;
+
+  /**
+   * Result of {@link #enqueue(EncodedFrame)}: the queue overflowed under the
+   * {@link BackpressurePolicy#DISCONNECT} policy, or reached its hard limit under any policy, and
+   * the caller must disconnect the client. Only one caller ever gets this result; the queue drops
+   * everything offered afterwards.
+   */
+  public static final int OVERFLOWED = 2;
+
+  private final Queue<EncodedFrame> frames = new ConcurrentLinkedQueue<>();
+
+  private final AtomicInteger size = new AtomicInteger();
+
+  private final AtomicLong bytes = new AtomicLong();
+
+  private final AtomicBoolean draining = new AtomicBoolean();
+
+  private final AtomicBoolean overflowed = new AtomicBoolean();
+
+  private final int capacity;
+
+  private final long byteCapacity;
+
+  private final int hardCapacity;
+
+  private final long hardByteCapacity;
+
+  private final BackpressurePolicy policy;
+
+  private volatile Thread drainWaiter;
+
+  private volatile long drainWaiterBytes;
+
+  /**
+   * Constructs a new `OutboundQueue` with the default limits and policy.
+   */
+  public OutboundQueue() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Constructs a new `OutboundQueue` holding at most the specified number of frames, with the
+   * default byte limit and policy.
+   *
+   * @param capacity The maximum number of frames waiting in the queue.
+   */
+  public OutboundQueue(int capacity) {
+    this(capacity, DEFAULT_BYTE_CAPACITY, DEFAULT_POLICY);
+  }
+
+  /**
+   * Constructs a new `OutboundQueue` with the specified limits and policy.
+   *
+   * @param capacity     The maximum number of frames waiting in the queue.
+   * @param byteCapacity The maximum number of bytes waiting in the queue.
+   * @param policy       What to do with frames that do not fit.
+   */
+  public OutboundQueue(int capacity, long byteCapacity, BackpressurePolicy policy) {
+    this.capacity = capacity;
+    this.byteCapacity = byteCapacity;
+    this.hardCapacity = (int) Math.min(Integer.MAX_VALUE, (long) capacity * HARD_LIMIT_MULTIPLIER);
+    this.hardByteCapacity = byteCapacity > Long.MAX_VALUE / HARD_LIMIT_MULTIPLIER
+        ? Long.MAX_VALUE : byteCapacity * HARD_LIMIT_MULTIPLIER;
+    this.policy = policy;
+  }
+
+  /**
+   * Adds a frame to the queue if it fits, or applies the backpressure policy if it does not.
+   * A frame always fits into an empty queue, however large it is. A frame the policy keeps although
+   * it does not fit overflows the queue if it would take the queue past its hard limit.
+   *
+   * @param frame The frame to be written to the client.
+   * @return {@link #QUEUED}, {@link #DROPPED} or {@link #OVERFLOWED}.
+   */
+  public int enqueue(EncodedFrame frame) {
+    while (!overflowed.get()) {
+      if (reserve(frame)) {
+        frames.add(frame);
+        return QUEUED;
+      }
+      switch (policy) {
+        case DROP_OLDEST_BROADCASTS:
+          if (evictOldestBroadcast()) {
+            ChatSession.serverMetrics.recordBackpressure(policy);
+            continue;
+          }
+          return DROPPED;
+        case DROP_NEW_BROADCASTS:
+          if (frame.isBroadcast()) {
+            ChatSession.serverMetrics.recordBackpressure(policy);
+            return DROPPED;
+          }
+          int newSize = size.incrementAndGet();
+          long newBytes = bytes.addAndGet(frame.length());
+          if (newSize > hardCapacity || newBytes > hardByteCapacity) {
+            size.decrementAndGet();
+            bytes.addAndGet(-frame.length());
+            return overflow(BackpressurePolicy.DISCONNECT);
+          }
+          frames.add(frame);
+          return QUEUED;
+        default:
+          return overflow(policy);
+      }
+    }
+    return DROPPED;
+  }
+
+  /**
+   * Marks the queue as overflowed and drops everything in it, unless another caller already did.
+   *
+   * @param recordedPolicy The policy the overflow is counted under in the metrics.
+   * @return {@link #OVERFLOWED} for the first caller, {@link #DROPPED} for any other.
+   */
+  private int overflow(BackpressurePolicy recordedPolicy) {
+    if (overflowed.compareAndSet(false, true)) {
+      clear();
+      ChatSession.serverMetrics.recordBackpressure(recordedPolicy);
+      return OVERFLOWED;
+    }
+    return DROPPED;
+  }
+
+  /**
+   * Adds a frame to the queue unless it is dropped by the backpressure policy.
+   *
+   * @param frame The frame to be written to the client.
+   * @return {@code true} if the frame was queued, {@code false} if it was refused.
+   */
+  public boolean offer(EncodedFrame frame) {
+    return enqueue(frame) == QUEUED;
+  }
+
+  /**
+   * Replaces everything queued with a last frame for a client that is about to be disconnected.
+   * The frame is queued even if the queue has overflowed.
+   *
+   * @param frame The last frame to be written to the client.
+   */
+  public void replaceAllWith(EncodedFrame frame) {
+    clear();
+    size.incrementAndGet();
+    bytes.addAndGet(frame.length());
+    frames.add(frame);
+  }
+
+  /**
+   * Counts a frame against both limits, undoing the count if either is exceeded.
+   *
+   * @param frame The frame to be queued.
+   * @return {@code true} if the frame fits.
+   */
+  private boolean reserve(EncodedFrame frame) {
+    int newSize = size.incrementAndGet();
+    long newBytes = bytes.addAndGet(frame.length());
+    if (newSize == 1 || (newSize <= capacity && newBytes <= byteCapacity)) {
+      return true;
+    }
+    size.decrementAndGet();
+    bytes.addAndGet(-frame.length());
+    return false;
+  }
+
+  /**
+   * Removes the oldest queued broadcast.
+   *
+   * @return {@code true} if a broadcast was removed.
+   */
+  private boolean evictOldestBroadcast() {
+    Iterator<EncodedFrame> iterator = frames.iterator();
+    while (iterator.hasNext()) {
+      EncodedFrame frame = iterator.next();
+      if (frame.isBroadcast() && frames.remove(frame)) {
+        size.decrementAndGet();
+        bytes.addAndGet(-frame.length());
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Takes the oldest frame out of the queue.
+   *
+   * @return The oldest frame, or {@code null} if the queue is empty.
+   */
+  public EncodedFrame poll() {
+    EncodedFrame frame = frames.poll();
+    if (frame != null) {
+      size.decrementAndGet();
+      long remaining = bytes.addAndGet(-frame.length());
+      Thread waiter = drainWaiter;
+      if (waiter != null && remaining <= drainWaiterBytes) {
+        LockSupport.unpark(waiter);
+      }
+    }
+    return frame;
+  }
+
+  /**
+   * Blocks until the writer has taken enough frames out of the queue for at most the specified
+   * number of bytes to be left waiting. The writer wakes the caller as it drains the queue, so the
+   * caller does not poll. Only one thread may wait on a queue at a time.
+   *
+   * @param maxBytes The number of queued bytes to wait for.
+   * @param timeout  The longest time to wait.
+   * @param unit     The unit of the timeout.
+   * @return {@code true} if at most that many bytes are queued, {@code false} if the time ran out
+   *     or the caller was interrupted first.
+   */
+  public boolean awaitDrained(long maxBytes, long timeout, TimeUnit unit) {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    drainWaiterBytes = maxBytes;
+    drainWaiter = Thread.currentThread();
+    try {
+      while (bytes.get() > maxBytes) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0 || Thread.interrupted()) {
+          return false;
+        }
+        LockSupport.parkNanos(this, remaining);
+      }
+      return true;
+    } finally {
+      drainWaiter = null;
+    }
+  }
+
+  /**
+   * Tries to claim the right to drain the queue. Exactly one caller succeeds until the claim is
+   * released with {@link #finishDrain()}, and that caller must make sure the queue gets drained.
+   *
+   * @return {@code true} if the caller now holds the drain claim.
+   */
+  public boolean claimDrain() {
+    return draining.compareAndSet(false, true);
+  }
+
+  /**
+   * Releases the drain claim after the queue was found empty. If frames were added in the
+   * meantime the claim is taken again, and the caller must keep draining.
+   *
+   * @return {@code true} if the caller holds the drain claim again and must keep draining.
+   */
+  public boolean finishDrain() {
+    draining.set(false);
+    return !frames.isEmpty() && claimDrain();
+  }
+
+  /**
+   * Drops every frame waiting in the queue.
+   */
+  public void clear() {
+    while (poll() != null) {
+      // Nothing to do, the frame is dropped.
+    }
+  }
+
+  /**
+   * Gets the number of frames waiting in the queue.
+   *
+   * @return The number of queued frames.
+   */
+  public int size() {
+    return size.get();
+  }
+
+  /**
+   * Gets the number of bytes waiting in the queue.
+   *
+   * @return The number of queued bytes, including length headers.
+   */
+  public long bytes() {
+    return bytes.get();
+  }
+
+  /**
+   * Checks whether no frames are waiting in the queue.
+   *
+   * @return {@code true} if the queue is empty.
+   */
+  public boolean isEmpty() {
+    return frames.isEmpty();
+  }
+
+  @Override
+  public String toString() {
+    return "OutboundQueue{" +
+        "size=" + size.get() +
+        ", capacity=" + capacity +
+        ", bytes=" + bytes.get() +
+        ", byteCapacity=" + byteCapacity +
+        ", hardCapacity=" + hardCapacity +
+        ", hardByteCapacity=" + hardByteCapacity +
+        ", policy=" + policy +
+        '}';
+  }
+}
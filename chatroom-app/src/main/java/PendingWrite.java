@@ -0,0 +1,49 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The `PendingWrite` class is a frame an {@link AsyncChatClient} has queued for the server,
+ * together with the future completed once the whole frame has been written.
+ */
+final class PendingWrite {
+
+  private final ByteBuffer buffer;
+  private final CompletableFuture<Void> future;
+
+  /**
+   * Constructs a new `PendingWrite`.
+   *
+   * @param buffer The frame, with its length header, from the buffer's position to its limit.
+   * @param future The future completed once the frame has been written.
+   */
+  public PendingWrite(ByteBuffer buffer, CompletableFuture<Void> future) {
+    this.buffer = buffer;
+    this.future = future;
+  }
+
+  /**
+   * Gets the bytes of the frame still to be written.
+   *
+   * @return The frame buffer.
+   */
+  public ByteBuffer getBuffer() {
+    return buffer;
+  }
+
+  /**
+   * Gets the future completed once the frame has been written.
+   *
+   * @return The future of the write.
+   */
+  public CompletableFuture<Void> getFuture() {
+    return future;
+  }
+
+  @Override
+  public String toString() {
+    return "PendingWrite{" +
+        "remaining=" + buffer.remaining() +
+        ", done=" + future.isDone() +
+        '}';
+  }
+}
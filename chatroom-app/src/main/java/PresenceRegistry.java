@@ -0,0 +1,215 @@
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * The `PresenceRegistry` class keeps the list of connected users that clients are told about, so
+ * a client that subscribes to presence no longer has to poll for the whole list. A subscriber is
+ * sent one {@link ChatRoomProtocol#PRESENCE_SNAPSHOT} and from then on one
+ * {@link ChatRoomProtocol#PRESENCE_JOINED} or {@link ChatRoomProtocol#PRESENCE_LEFT} per change.
+ * Every change raises the presence version by one, and a subscriber receives every change after
+ * the version of its snapshot, in order.
+ *
+ * <p>The snapshot and the reply to a query for the connected users are encoded once after a
+ * change and shared by every request until the next change, so presence costs in proportion to
+ * how often users come and go rather than to how often they are asked for. Either one is split
+ * into pages when the users do not fit in one frame: the client is sent every page but the last as
+ * a part, and the last page as the reply.
+ *
+ * <p>The registry is told which user may have changed, and checks whether the user is connected
+ * right now, on this node or on another node of the cluster. So whatever order the changes of one
+ * user are reported in, the last report leaves the user listed correctly.
+ */
+class PresenceRegistry {
+
+  /**
+   * The largest length of a page of users, leaving room for the correlation header of a reply
+   * within {@link ChatRoomProtocol#MAX_FRAME_LENGTH}.
+   */
+  public static final int MAX_PAGE_LENGTH = ChatRoomProtocol.MAX_FRAME_LENGTH - ChatRoomProtocol.correlatedLength(0);
+
+  private final Predicate<String> connected;
+  private final int maxPageLength;
+  private final Set<String> userNames = new LinkedHashSet<>();
+  private final Set<ChatSession> subscribers = ConcurrentHashMap.newKeySet();
+  private final Queue<String> pendingRefreshes = new ArrayDeque<>();
+  private final ChatRoomProtocol chatRoomProtocol = new ChatRoomProtocol();
+  private long version;
+  private boolean refreshing;
+  private List<EncodedFrame> snapshot;
+  private List<EncodedFrame> userList;
+
+  /**
+   * Constructs a new `PresenceRegistry` listing the users of the chat this server is part of.
+   */
+  public PresenceRegistry() {
+    this(ChatSession::isConnected);
+  }
+
+  /**
+   * Constructs a new `PresenceRegistry`.
+   *
+   * @param connected Tells whether a user is connected right now.
+   */
+  public PresenceRegistry(Predicate<String> connected) {
+    this(connected, MAX_PAGE_LENGTH);
+  }
+
+  /**
+   * Constructs a new `PresenceRegistry` splitting the users into pages of a given length.
+   *
+   * @param connected     Tells whether a user is connected right now.
+   * @param maxPageLength The largest length of a page of users, without its length header.
+   */
+  public PresenceRegistry(Predicate<String> connected, int maxPageLength) {
+    this.connected = connected;
+    this.maxPageLength = maxPageLength;
+  }
+
+  /**
+   * Checks whether a user is connected and tells every subscriber if that changed. A user that is
+   * reported again while the subscribers are being told about another change is checked once
+   * that change has been delivered, so every subscriber sees the changes in the same order.
+   *
+   * @param userName The name of the user that may have connected or left.
+   */
+  public synchronized void refresh(String userName) {
+    pendingRefreshes.add(userName);
+    if (refreshing) {
+      return;
+    }
+    refreshing = true;
+    try {
+      String next;
+      while ((next = pendingRefreshes.poll()) != null) {
+        announce(next);
+      }
+    } finally {
+      refreshing = false;
+    }
+  }
+
+  private void announce(String userName) {
+    boolean joined = connected.test(userName);
+    if (joined ? !userNames.add(userName) : !userNames.remove(userName)) {
+      return;
+    }
+    version++;
+    snapshot = null;
+    userList = null;
+    if (subscribers.isEmpty()) {
+      return;
+    }
+    EncodedFrame change = new EncodedFrame(chatRoomProtocol.encodePresenceChange(version, userName, joined));
+    for (ChatSession subscriber : subscribers) {
+      try {
+        subscriber.deliver(change);
+      } catch (IOException e) {
+
+      }
+    }
+  }
+
+  /**
+   * Subscribes a session to presence and replies to its request with the current snapshot. Every
+   * change after the snapshot's version is delivered to the session until it unsubscribes.
+   *
+   * @param session The session subscribing.
+   */
+  public synchronized void subscribe(ChatSession session) {
+    subscribers.add(session);
+    session.replyPages(snapshot());
+  }
+
+  /**
+   * Stops delivering changes to a session.
+   *
+   * @param session The session unsubscribing.
+   * @return {@code true} if the session was subscribed.
+   */
+  public boolean unsubscribe(ChatSession session) {
+    return subscribers.remove(session);
+  }
+
+  /**
+   * Hands the subscription of a session over to another one, such as when a client resumes its
+   * session on a new connection. Every change is delivered to exactly one of them.
+   *
+   * @param previous The session that may be subscribed.
+   * @param session  The session taking the subscription over.
+   */
+  public synchronized void transfer(ChatSession previous, ChatSession session) {
+    if (subscribers.remove(previous)) {
+      subscribers.add(session);
+    }
+  }
+
+  /**
+   * Gets the snapshot of the connected users, encoding it only if presence changed since the last
+   * time it was asked for.
+   *
+   * @return The pages of the snapshot, the last one being the
+   *     {@link ChatRoomProtocol#PRESENCE_SNAPSHOT}, shared by every caller.
+   */
+  public synchronized List<EncodedFrame> snapshot() {
+    if (snapshot == null) {
+      snapshot = frames(chatRoomProtocol.encodePresenceSnapshotPages(version, userNames, maxPageLength));
+    }
+    return snapshot;
+  }
+
+  /**
+   * Gets the reply to a query for the connected users, encoding it only if presence changed since
+   * the last time it was asked for.
+   *
+   * @return The pages of the reply, the last one being the
+   *     {@link ChatRoomProtocol#QUERY_USER_RESPONSE}, shared by every caller.
+   */
+  public synchronized List<EncodedFrame> userList() {
+    if (userList == null) {
+      userList = frames(chatRoomProtocol.encodeQueryResponsePages(userNames, maxPageLength));
+    }
+    return userList;
+  }
+
+  private static List<EncodedFrame> frames(List<byte[]> pages) {
+    List<EncodedFrame> frames = new ArrayList<>(pages.size());
+    for (byte[] page : pages) {
+      frames.add(new EncodedFrame(page));
+    }
+    return List.copyOf(frames);
+  }
+
+  /**
+   * Gets the current presence version, raised by one with every change.
+   *
+   * @return The presence version.
+   */
+  public synchronized long version() {
+    return version;
+  }
+
+  /**
+   * Gets the number of subscribed sessions.
+   *
+   * @return The number of subscribers.
+   */
+  public int subscriberCount() {
+    return subscribers.size();
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "PresenceRegistry{" +
+        "version=" + version +
+        ", users=" + userNames.size() +
+        ", subscribers=" + subscribers.size() +
+        '}';
+  }
+}
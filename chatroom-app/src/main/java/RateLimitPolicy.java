@@ -0,0 +1,57 @@
+/**
+ * The `RateLimitPolicy` enum lists what a session does with a frame its client sends faster than
+ * the {@link RateLimits} allow. Whatever the policy, the frame is not routed until the client's
+ * token bucket has room for it, so one chatty client cannot take up the fan-out capacity everyone
+ * else shares.
+ */
+enum RateLimitPolicy {
+
+  /**
+   * Holds the frame, and everything the client sends after it, until the bucket has room. The
+   * client is slowed down to the allowed rate without losing anything.
+   */
+  DELAY("delay"),
+
+  /**
+   * Drops the frame without telling the client, except that a dropped request that expects a
+   * reply is answered with the notice, so the client is not left waiting for it.
+   */
+  DROP("drop"),
+
+  /**
+   * Drops the frame and tells the client it is sending too fast, once for every run of dropped
+   * frames and for every dropped request that expects a reply.
+   */
+  NOTIFY("notify");
+
+  private final String argument;
+
+  RateLimitPolicy(String argument) {
+    this.argument = argument;
+  }
+
+  /**
+   * Gets the name of the policy as given on the command line.
+   *
+   * @return The command-line name.
+   */
+  public String getArgument() {
+    return argument;
+  }
+
+  /**
+   * Finds the policy with the given command-line name.
+   *
+   * @param argument The command-line name, e.g. "delay".
+   * @return The policy.
+   * @throws IllegalArgumentException If no policy has that name.
+   */
+  public static RateLimitPolicy fromArgument(String argument) {
+    for (RateLimitPolicy policy : values()) {
+      if (policy.argument.equals(argument)) {
+        return policy;
+      }
+    }
+    throw new IllegalArgumentException("Unknown rate limit policy: " + argument);
+  }
+}
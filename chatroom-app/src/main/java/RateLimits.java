@@ -0,0 +1,140 @@
+import java.util.List;
+
+/**
+ * The `RateLimits` class holds how fast every client may send each kind of message, as a rate
+ * per second and a burst. Every session gets its own {@link TokenBucket} for each limited kind,
+ * and kinds without a limit cost nothing to check. Messages that are not listed, such as joining
+ * a room, are never limited.
+ */
+final class RateLimits {
+
+  /**
+   * The names of the kinds of message that can be limited.
+   */
+  public static final String[] MESSAGE_KINDS = {"broadcast", "direct", "room", "insult", "who", "replay"};
+
+  /**
+   * The limits applied when none are configured: none at all.
+   */
+  public static final RateLimits UNLIMITED = new RateLimits(new double[MESSAGE_KINDS.length],
+      new int[MESSAGE_KINDS.length]);
+
+  private static final int BROADCAST = 0;
+  private static final int DIRECT = 1;
+  private static final int ROOM = 2;
+  private static final int INSULT = 3;
+  private static final int WHO = 4;
+  private static final int REPLAY = 5;
+
+  private final double[] rates;
+  private final int[] bursts;
+
+  private RateLimits(double[] rates, int[] bursts) {
+    this.rates = rates;
+    this.bursts = bursts;
+  }
+
+  /**
+   * Parses limits of the form "broadcast=5/20,insult=0.5/2": each kind's messages per second,
+   * optionally followed by the burst allowed above that rate, which defaults to one message.
+   * Kinds left out are not limited.
+   *
+   * @param limits The limits, or an empty string for none.
+   * @return The parsed limits.
+   * @throws IllegalArgumentException If the limits cannot be parsed or a number is not positive.
+   */
+  public static RateLimits parse(String limits) {
+    double[] rates = new double[MESSAGE_KINDS.length];
+    int[] bursts = new int[MESSAGE_KINDS.length];
+    for (String entry : limits.split(",")) {
+      if (entry.isBlank()) {
+        continue;
+      }
+      String[] kindAndLimit = entry.trim().split("=");
+      int kind = List.of(MESSAGE_KINDS).indexOf(kindAndLimit[0]);
+      if (kindAndLimit.length != 2 || kind < 0) {
+        throw new IllegalArgumentException("Unknown rate limit entry: " + entry);
+      }
+      String[] rateAndBurst = kindAndLimit[1].split("/");
+      rates[kind] = Double.parseDouble(rateAndBurst[0]);
+      bursts[kind] = rateAndBurst.length > 1 ? Integer.parseInt(rateAndBurst[1]) : 1;
+      if (!(rates[kind] > 0) || bursts[kind] <= 0 || rateAndBurst.length > 2) {
+        throw new IllegalArgumentException("Rate limits must be positive: " + entry);
+      }
+    }
+    return new RateLimits(rates, bursts);
+  }
+
+  /**
+   * Creates the buckets of one session, all full.
+   *
+   * @return One bucket per kind of message, indexed by {@link #kindOf(int)}, or {@code null} for
+   *     the kinds that are not limited.
+   */
+  public TokenBucket[] newBuckets() {
+    TokenBucket[] buckets = new TokenBucket[MESSAGE_KINDS.length];
+    for (int kind = 0; kind < buckets.length; kind++) {
+      if (rates[kind] > 0) {
+        buckets[kind] = new TokenBucket(rates[kind], bursts[kind]);
+      }
+    }
+    return buckets;
+  }
+
+  /**
+   * Finds the kind of message a message type is limited as. A file offer counts as a direct
+   * message and a presence subscription, which is answered with every connected user, as a query
+   * for the users; the pieces of a file are never limited. A batch is charged message by message
+   * through {@link #kindInBatch(int)}, and an empty one counts as a broadcast.
+   *
+   * @param messageType The type of a received frame.
+   * @return The index of the kind in {@link #MESSAGE_KINDS}, or -1 if the type is never limited.
+   */
+  public static int kindOf(int messageType) {
+    switch (messageType) {
+      case ChatRoomProtocol.BROADCAST_MESSAGE:
+      case ChatRoomProtocol.BATCH_MESSAGE:
+        return BROADCAST;
+      case ChatRoomProtocol.DIRECT_MESSAGE:
+      case ChatRoomProtocol.FILE_OFFER:
+        return DIRECT;
+      case ChatRoomProtocol.ROOM_MESSAGE:
+        return ROOM;
+      case ChatRoomProtocol.SEND_INSULT:
+        return INSULT;
+      case ChatRoomProtocol.QUERY_CONNECTED_USERS:
+      case ChatRoomProtocol.SUBSCRIBE_PRESENCE:
+        return WHO;
+      case ChatRoomProtocol.REPLAY_LAST_MESSAGES:
+      case ChatRoomProtocol.REPLAY_SINCE:
+        return REPLAY;
+      default:
+        return -1;
+    }
+  }
+
+  /**
+   * Finds the kind of message a message carried by a batch is limited as: its own kind, so a
+   * direct message costs a direct message whether it is batched or not. A message that is never
+   * limited on its own counts as a broadcast, so no part of a batch is free.
+   *
+   * @param messageType The type of the message carried by the batch.
+   * @return The index of the kind in {@link #MESSAGE_KINDS}.
+   */
+  public static int kindInBatch(int messageType) {
+    int kind = kindOf(messageType);
+    return kind >= 0 ? kind : BROADCAST;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder limits = new StringBuilder();
+    for (int kind = 0; kind < MESSAGE_KINDS.length; kind++) {
+      if (rates[kind] > 0) {
+        limits.append(limits.length() > 0 ? "," : "").append(MESSAGE_KINDS[kind]).append('=')
+            .append(rates[kind]).append('/').append(bursts[kind]);
+      }
+    }
+    return "RateLimits{" + limits + '}';
+  }
+}
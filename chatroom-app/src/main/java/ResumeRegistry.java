@@ -0,0 +1,125 @@
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The `ResumeRegistry` class holds the sessions whose connection was lost, indexed by their resume
+ * token, for a short grace period. A session stays in the chat while it is parked here: its
+ * username stays taken, it stays in its rooms, and frames for it keep queueing. A client that
+ * reconnects with the token within the period takes the session over together with everything
+ * queued for it, without the rest of the chat seeing it leave and join again. A session that is
+ * not claimed in time leaves the chat.
+ */
+class ResumeRegistry {
+
+  /**
+   * How long a session whose connection was lost waits to be resumed before it leaves the chat.
+   */
+  public static final long DEFAULT_WINDOW_MILLIS = 30_000;
+
+  /**
+   * The number of random bytes in a resume token.
+   */
+  public static final int TOKEN_BYTES = 16;
+
+  private static final SecureRandom RANDOM = new SecureRandom();
+
+  private final Map<String, ChatSession> parked = new ConcurrentHashMap<>();
+  private final long windowMillis;
+  private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(task -> {
+    Thread thread = new Thread(task, "session-resume");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /**
+   * Constructs a new `ResumeRegistry`.
+   *
+   * @param windowMillis How long a parked session waits to be resumed.
+   */
+  public ResumeRegistry(long windowMillis) {
+    this.windowMillis = windowMillis;
+  }
+
+  /**
+   * Constructs a new `ResumeRegistry` with the default grace period.
+   */
+  public ResumeRegistry() {
+    this(DEFAULT_WINDOW_MILLIS);
+  }
+
+  /**
+   * Creates a new resume token. Tokens are random, so they cannot be guessed from a username.
+   *
+   * @return The token, in hexadecimal.
+   */
+  public static String newToken() {
+    byte[] token = new byte[TOKEN_BYTES];
+    RANDOM.nextBytes(token);
+    return HexFormat.of().formatHex(token);
+  }
+
+  /**
+   * Parks a session whose connection was lost until it is claimed or its grace period ends, after
+   * which it leaves the chat.
+   *
+   * @param token   The resume token the session's client was given.
+   * @param session The session.
+   */
+  public void park(String token, ChatSession session) {
+    parked.put(token, session);
+    timer.schedule(() -> {
+      if (parked.remove(token, session)) {
+        session.removeClientHandler();
+      }
+    }, windowMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Takes a parked session out of the registry so a new connection can take it over. A token is
+   * only good once, and only for the user it was given to.
+   *
+   * @param token    The resume token sent by the client.
+   * @param userName The username the client connects with.
+   * @return The parked session, or {@code null} if the token is unknown, expired or someone else's.
+   */
+  public ChatSession claim(String token, String userName) {
+    ChatSession session = parked.get(token);
+    if (session == null || !session.getClientUserName().equals(userName) || !parked.remove(token, session)) {
+      return null;
+    }
+    return session;
+  }
+
+  /**
+   * Forgets a parked session before its grace period ends, such as when too much queued up for it.
+   *
+   * @param token   The resume token the session's client was given.
+   * @param session The session.
+   * @return {@code true} if the session was parked and can no longer be claimed.
+   */
+  public boolean discard(String token, ChatSession session) {
+    return parked.remove(token, session);
+  }
+
+  /**
+   * Gets the number of parked sessions.
+   *
+   * @return The number of sessions waiting to be resumed.
+   */
+  public int size() {
+    return parked.size();
+  }
+
+  @Override
+  public String toString() {
+    return "ResumeRegistry{" +
+        "parked=" + parked.size() +
+        ", windowMillis=" + windowMillis +
+        '}';
+  }
+}
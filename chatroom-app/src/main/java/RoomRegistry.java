@@ -0,0 +1,104 @@
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The `RoomRegistry` class indexes the members of every named chat room, so a message to a room
+ * only touches the sessions that joined it instead of scanning every connected client. A room
+ * exists for as long as it has members: joining creates it and the last member leaving removes
+ * it. Membership changes are atomic per room, and member sets may be iterated while other threads
+ * join and leave.
+ */
+class RoomRegistry {
+
+  private final ConcurrentHashMap<String, Set<ChatSession>> rooms = new ConcurrentHashMap<>();
+
+  /**
+   * Adds a session to a room, creating the room if it does not exist.
+   *
+   * @param room    The name of the room.
+   * @param session The session joining the room.
+   * @return {@code true} if the session joined, {@code false} if it already was a member.
+   */
+  public boolean join(String room, ChatSession session) {
+    boolean[] joined = new boolean[1];
+    rooms.compute(room, (name, members) -> {
+      Set<ChatSession> roomMembers = members != null ? members : ConcurrentHashMap.newKeySet();
+      joined[0] = roomMembers.add(session);
+      return roomMembers;
+    });
+    return joined[0];
+  }
+
+  /**
+   * Removes a session from a room, removing the room once it has no members left.
+   *
+   * @param room    The name of the room.
+   * @param session The session leaving the room.
+   * @return {@code true} if the session left, {@code false} if it was not a member.
+   */
+  public boolean leave(String room, ChatSession session) {
+    boolean[] left = new boolean[1];
+    rooms.computeIfPresent(room, (name, members) -> {
+      left[0] = members.remove(session);
+      return members.isEmpty() ? null : members;
+    });
+    return left[0];
+  }
+
+  /**
+   * Returns a live view of the members of a room.
+   *
+   * @param room The name of the room.
+   * @return The members of the room, empty if the room does not exist.
+   */
+  public Set<ChatSession> members(String room) {
+    Set<ChatSession> members = rooms.get(room);
+    return members != null ? Collections.unmodifiableSet(members) : Collections.emptySet();
+  }
+
+  /**
+   * Checks whether a session is a member of a room.
+   *
+   * @param room    The name of the room.
+   * @param session The session to look for.
+   * @return {@code true} if the session joined the room.
+   */
+  public boolean isMember(String room, ChatSession session) {
+    Set<ChatSession> members = rooms.get(room);
+    return members != null && members.contains(session);
+  }
+
+  /**
+   * Returns a live view of the names of the rooms that have members.
+   *
+   * @return The names of the rooms.
+   */
+  public Collection<String> rooms() {
+    return Collections.unmodifiableSet(rooms.keySet());
+  }
+
+  /**
+   * Gets the number of rooms that have members.
+   *
+   * @return The number of rooms.
+   */
+  public int size() {
+    return rooms.size();
+  }
+
+  /**
+   * Removes every room.
+   */
+  public void clear() {
+    rooms.clear();
+  }
+
+  @Override
+  public String toString() {
+    return "RoomRegistry{" +
+        "rooms=" + rooms.keySet() +
+        '}';
+  }
+}
@@ -1,9 +1,15 @@
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The Server class represents a simple server that accepts incoming client connections.
@@ -26,12 +32,53 @@ public class Server {
 
   private ExecutorService executorService;
 
-  private static Semaphore semaphore;
+  private final Semaphore semaphore;
+
+  private final int maxClients;
+
+  private final boolean useVirtualThreads;
+
+  /**
+   * The number of connections the operating system holds for the accept loop, so a burst of
+   * clients reconnecting at once is queued rather than refused.
+   */
+  public static final int ACCEPT_BACKLOG = 1024;
 
   /**
    * The format for providing input arguments when running the server.
    */
-  public static final String SERVER_INPUT_FORMAT = "Usage: java <port>";
+  public static final String SERVER_INPUT_FORMAT = "Usage: java <port> [blocking|nio|virtual] [maxClients] [drop-oldest|drop-new|disconnect] [maxQueuedFrames] [maxQueuedBytes] [eventLoops] [messageLogDirectory] [inboxDirectory] [clusterAddress] [clusterPeers] [delay|drop|notify] [rateLimits] [idleTimeoutSeconds] [fileTransferDirectory]";
+
+  /**
+   * The mode argument selecting the default thread-per-client server.
+   */
+  public static final String BLOCKING_MODE = "blocking";
+
+  /**
+   * The mode argument selecting the non-blocking {@link EventLoopServer}.
+   */
+  public static final String EVENT_LOOP_MODE = "nio";
+
+  /**
+   * The mode argument selecting a server that runs every {@link ClientHandler} on a virtual thread.
+   */
+  public static final String VIRTUAL_THREAD_MODE = "virtual";
+
+  /**
+   * The message written to a client refused because the connection ceiling is reached.
+   */
+  public static final String CONNECTION_REFUSED_MESSAGE = ChatSession.MAX_CLIENTS_REACHED;
+
+  /**
+   * Message indicating that a connection could not be accepted, followed by the reason.
+   */
+  public static final String ACCEPT_FAILED_MESSAGE = EventLoopServer.ACCEPT_FAILED_MESSAGE;
+
+  /**
+   * How long the accept loop waits after failing to accept a connection before it tries again, so
+   * a lasting failure such as running out of file descriptors does not keep a core busy.
+   */
+  public static final long ACCEPT_RETRY_DELAY_MILLIS = 100;
 
   /**
    * Message indicating a new client connection.
@@ -43,11 +90,22 @@ public class Server {
    */
   public static final String MAX_CLIENT_REACHED_MESSAGE = "\nConnection refused. Maximum clients reached.";
 
+  /**
+   * Message indicating that virtual threads are not available and platform threads are used instead.
+   */
+  public static final String VIRTUAL_THREADS_UNAVAILABLE_MESSAGE =
+      "\nVirtual threads are not available on this runtime; using a cached thread pool instead.";
+
   /**
    * The minimum number of arguments required when starting the server.
    */
   public static final int MINIMUM_ARGUMENT_REQUIRED = 1;
 
+  /**
+   * The maximum number of arguments accepted when starting the server.
+   */
+  public static final int MAXIMUM_ARGUMENT_ALLOWED = 15;
+
   /**
    * Abnormal exit code used when the required number of arguments is not provided.
    */
@@ -58,6 +116,83 @@ public class Server {
    */
   public static final int ARGUMENT_PORT_INDEX = 0;
 
+  /**
+   * The index of the optional server mode argument in the command line arguments.
+   */
+  public static final int ARGUMENT_MODE_INDEX = 1;
+
+  /**
+   * The index of the optional connection ceiling argument in the command line arguments.
+   */
+  public static final int ARGUMENT_MAX_CLIENTS_INDEX = 2;
+
+  /**
+   * The index of the backpressure policy argument in the command-line arguments array.
+   */
+  public static final int ARGUMENT_BACKPRESSURE_INDEX = 3;
+
+  /**
+   * The index of the argument limiting the frames queued for one client.
+   */
+  public static final int ARGUMENT_MAX_QUEUED_FRAMES_INDEX = 4;
+
+  /**
+   * The index of the argument limiting the bytes queued for one client.
+   */
+  public static final int ARGUMENT_MAX_QUEUED_BYTES_INDEX = 5;
+
+  /**
+   * The index of the argument setting the number of event loops in {@link #EVENT_LOOP_MODE}.
+   */
+  public static final int ARGUMENT_EVENT_LOOPS_INDEX = 6;
+
+  /**
+   * The index of the argument naming the directory of the message log. No log is kept when it is
+   * missing or empty.
+   */
+  public static final int ARGUMENT_MESSAGE_LOG_INDEX = 7;
+
+  /**
+   * The index of the argument naming the directory of the offline inboxes.
+   */
+  public static final int ARGUMENT_INBOX_INDEX = 8;
+
+  /**
+   * The index of the argument naming this server's relay address when it runs in a cluster.
+   */
+  public static final int ARGUMENT_CLUSTER_ADDRESS_INDEX = 9;
+
+  /**
+   * The index of the argument listing the relay addresses of the other servers of the cluster.
+   */
+  public static final int ARGUMENT_CLUSTER_PEERS_INDEX = 10;
+
+  /**
+   * The index of the argument choosing what happens to frames sent faster than the rate limits.
+   */
+  public static final int ARGUMENT_RATE_LIMIT_POLICY_INDEX = 11;
+
+  /**
+   * The index of the argument limiting how fast every client may send each kind of message.
+   */
+  public static final int ARGUMENT_RATE_LIMITS_INDEX = 12;
+
+  /**
+   * The index of the argument setting how many seconds a client may send nothing before its
+   * connection is closed, 0 for never.
+   */
+  public static final int ARGUMENT_IDLE_TIMEOUT_INDEX = 13;
+
+  /**
+   * The index of the argument naming the directory files sent between users are spooled in.
+   */
+  public static final int ARGUMENT_FILE_TRANSFER_INDEX = 14;
+
+  /**
+   * The name of the thread closing the connections of idle clients.
+   */
+  public static final String IDLE_TIMER_THREAD_NAME = "idle-timer";
+
   /**
    * A counter to keep track of the number of connected clients.
    */
@@ -74,8 +209,29 @@ public class Server {
    * @param serverSocket the ServerSocket to be used by the server.
    */
   public Server(ServerSocket serverSocket) {
+    this(serverSocket, MAX_CLIENTS, false);
+  }
+
+  /**
+   * Constructs a new {@code Server} with the specified {@link ServerSocket}, connection ceiling
+   * and kind of threads to run each {@link ClientHandler} on.
+   *
+   * @param serverSocket      the ServerSocket to be used by the server.
+   * @param maxClients        the maximum number of clients connected at the same time.
+   * @param useVirtualThreads whether each client is handled on its own virtual thread.
+   */
+  public Server(ServerSocket serverSocket, int maxClients, boolean useVirtualThreads) {
     this.serverSocket = serverSocket;
-    this.semaphore = new Semaphore(MAX_CLIENTS);
+    this.maxClients = maxClients;
+    this.useVirtualThreads = useVirtualThreads;
+    this.semaphore = new Semaphore(maxClients);
+  }
+
+  /**
+   * @return the maximum number of clients connected at the same time
+   */
+  public int getMaxClients() {
+    return maxClients;
   }
 
   /**
@@ -84,22 +240,74 @@ public class Server {
    * @param port the port on which the server should listen for connections.
    */
   public void startServer(int port) {
-    try {
-      System.out.format("Server Started. Listening to port: %s ", port);
-      executorService = Executors.newCachedThreadPool();
-      while (!serverSocket.isClosed()) {
-        if (semaphore.availablePermits() != 0) {
-          semaphore.acquire();
-          Socket socket = serverSocket.accept();
+    System.out.format("Server Started. Listening to port: %s ", port);
+    ChatSession.serverMetrics.monitor(semaphore);
+    ChatSession.idleTimer.start(IDLE_TIMER_THREAD_NAME);
+    executorService = useVirtualThreads ? newVirtualThreadExecutor() : Executors.newCachedThreadPool();
+    while (!serverSocket.isClosed()) {
+      try {
+        Socket socket = serverSocket.accept();
+        if (semaphore.tryAcquire()) {
           System.out.println(NEW_CLIENT_INTRODUCTION_MESSAGE);
-          executorService.execute(new ClientHandler(socket, semaphore));
+          ChatSession.serverMetrics.recordConnectionAccepted();
+          executorService.execute(new ClientHandler(socket, semaphore, executorService));
         } else {
           System.out.println(MAX_CLIENT_REACHED_MESSAGE);
-          break;
+          ChatSession.serverMetrics.recordConnectionRefused();
+          refuseConnection(socket);
+        }
+      } catch (IOException e) {
+        if (!serverSocket.isClosed()) {
+          acceptFailed(e);
         }
       }
-    } catch (IOException | InterruptedException e) {
+    }
+  }
 
+  /**
+   * Reports a failure to accept a connection and waits a moment before the next attempt.
+   *
+   * @param e the reason accepting failed.
+   */
+  static void acceptFailed(IOException e) {
+    System.out.println(ACCEPT_FAILED_MESSAGE + e.getMessage());
+    ChatSession.serverMetrics.recordAcceptFailure();
+    try {
+      Thread.sleep(ACCEPT_RETRY_DELAY_MILLIS);
+    } catch (InterruptedException interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Tells a client that the connection ceiling is reached and closes its socket, leaving the
+   * accept loop free to serve the next connection.
+   *
+   * @param socket the socket of the refused client.
+   */
+  private void refuseConnection(Socket socket) {
+    try (socket) {
+      DataOutputStream dataOutputStream = new DataOutputStream(socket.getOutputStream());
+      ChatRoomProtocol.writeFrame(dataOutputStream, CONNECTION_REFUSED_MESSAGE.getBytes(StandardCharsets.UTF_8));
+      dataOutputStream.flush();
+    } catch (IOException e) {
+
+    }
+  }
+
+  /**
+   * Creates an executor starting a new virtual thread for every task. Virtual threads are only
+   * available from Java 21, so on older runtimes this says so and falls back to a cached thread
+   * pool.
+   *
+   * @return an executor running each task on its own virtual thread when supported.
+   */
+  static ExecutorService newVirtualThreadExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      System.out.println(VIRTUAL_THREADS_UNAVAILABLE_MESSAGE);
+      return Executors.newCachedThreadPool();
     }
   }
 
@@ -152,18 +360,65 @@ public class Server {
   /**
    * The main method that starts the server.
    *
-   * @param args the command-line arguments. Expects a single argument - the port number.
+   * @param args the command-line arguments. Expects the port number, optionally followed by the
+   *             server mode and the maximum number of connected clients.
    */
   public static void main(String[] args) {
-    if (args.length != MINIMUM_ARGUMENT_REQUIRED) {
+    if (args.length < MINIMUM_ARGUMENT_REQUIRED || args.length > MAXIMUM_ARGUMENT_ALLOWED) {
       System.out.println(SERVER_INPUT_FORMAT);
       System.exit(ABNORMAL_EXIT_CODE);
     }
     try {
       int port = Integer.parseInt(args[ARGUMENT_PORT_INDEX]);
-      ServerSocket serverSocket = new ServerSocket(port);
-      Server server = new Server(serverSocket);
+      String mode = args.length > ARGUMENT_MODE_INDEX ? args[ARGUMENT_MODE_INDEX] : BLOCKING_MODE;
+      int maxClients = args.length > ARGUMENT_MAX_CLIENTS_INDEX
+          ? Integer.parseInt(args[ARGUMENT_MAX_CLIENTS_INDEX]) : MAX_CLIENTS;
+      if (args.length > ARGUMENT_BACKPRESSURE_INDEX) {
+        ChatSession.backpressurePolicy = BackpressurePolicy.fromArgument(args[ARGUMENT_BACKPRESSURE_INDEX]);
+      }
+      if (args.length > ARGUMENT_MAX_QUEUED_FRAMES_INDEX) {
+        ChatSession.maxQueuedFrames = Integer.parseInt(args[ARGUMENT_MAX_QUEUED_FRAMES_INDEX]);
+      }
+      if (args.length > ARGUMENT_MAX_QUEUED_BYTES_INDEX) {
+        ChatSession.maxQueuedBytes = Long.parseLong(args[ARGUMENT_MAX_QUEUED_BYTES_INDEX]);
+      }
+      if (args.length > ARGUMENT_MESSAGE_LOG_INDEX && !args[ARGUMENT_MESSAGE_LOG_INDEX].isEmpty()) {
+        ChatSession.messageLog = new MessageLog(Paths.get(args[ARGUMENT_MESSAGE_LOG_INDEX]));
+      }
+      ChatSession.offlineInbox = new OfflineInbox(Paths.get(args.length > ARGUMENT_INBOX_INDEX
+          ? args[ARGUMENT_INBOX_INDEX] : OfflineInbox.DEFAULT_DIRECTORY));
+      ChatSession.fileTransfers = new FileTransfers(Paths.get(args.length > ARGUMENT_FILE_TRANSFER_INDEX
+          ? args[ARGUMENT_FILE_TRANSFER_INDEX] : FileTransfers.DEFAULT_DIRECTORY));
+      if (args.length > ARGUMENT_RATE_LIMIT_POLICY_INDEX) {
+        ChatSession.rateLimitPolicy = RateLimitPolicy.fromArgument(args[ARGUMENT_RATE_LIMIT_POLICY_INDEX]);
+      }
+      if (args.length > ARGUMENT_RATE_LIMITS_INDEX) {
+        ChatSession.rateLimits = RateLimits.parse(args[ARGUMENT_RATE_LIMITS_INDEX]);
+      }
+      if (args.length > ARGUMENT_IDLE_TIMEOUT_INDEX) {
+        ChatSession.idleTimeoutNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(args[ARGUMENT_IDLE_TIMEOUT_INDEX]));
+      }
+      if (args.length > ARGUMENT_CLUSTER_ADDRESS_INDEX && !args[ARGUMENT_CLUSTER_ADDRESS_INDEX].isEmpty()) {
+        ChatSession.clusterNode = ClusterNode.of(args[ARGUMENT_CLUSTER_ADDRESS_INDEX],
+            args.length > ARGUMENT_CLUSTER_PEERS_INDEX ? args[ARGUMENT_CLUSTER_PEERS_INDEX] : "");
+        ChatSession.clusterNode.start();
+      }
+      if (mode.equals(EVENT_LOOP_MODE)) {
+        ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+        int eventLoops = args.length > ARGUMENT_EVENT_LOOPS_INDEX
+            ? Integer.parseInt(args[ARGUMENT_EVENT_LOOPS_INDEX]) : EventLoopServer.DEFAULT_EVENT_LOOP_COUNT;
+        EventLoopServer server = new EventLoopServer(serverSocketChannel, eventLoops, maxClients);
+        server.startServer(port);
+        return;
+      }
+      ServerSocket serverSocket = new ServerSocket(port, ACCEPT_BACKLOG);
+      Server server = new Server(serverSocket, maxClients, mode.equals(VIRTUAL_THREAD_MODE));
       server.startServer(port);
+    } catch (IllegalArgumentException e) {
+      System.out.println(e.getMessage());
+      System.out.println(SERVER_INPUT_FORMAT);
+      System.exit(ABNORMAL_EXIT_CODE);
     } catch (Exception e) {
 
     }
@@ -0,0 +1,385 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The `ServerMetrics` class counts what the server does: connections, frames and bytes by message
+ * type, decode failures, broadcast fan-out, and how long frames take to process and deliver.
+ * Recording only increments striped counters and atomic histogram buckets, so sessions on any
+ * thread record on their hot paths without taking locks or allocating. The metrics are published
+ * over JMX once a server starts.
+ */
+class ServerMetrics implements ServerMetricsMXBean {
+
+  /**
+   * The JMX name the metrics are published under.
+   */
+  public static final String OBJECT_NAME = "chatterbox:type=ServerMetrics";
+
+  /**
+   * The name under which frames that carry no known message type are counted.
+   */
+  public static final String TEXT_FRAME = "TEXT";
+
+  private static final int FIRST_MESSAGE_TYPE = ChatRoomProtocol.CONNECT_MESSAGE;
+  private static final String[] TYPE_NAMES = new String[ChatRoomProtocol.QUERY_USER_RESPONSE_PART - FIRST_MESSAGE_TYPE + 2];
+  private static final int TEXT_INDEX = TYPE_NAMES.length - 1;
+
+  static {
+    TYPE_NAMES[ChatRoomProtocol.CONNECT_MESSAGE - FIRST_MESSAGE_TYPE] = "CONNECT_MESSAGE";
+    TYPE_NAMES[ChatRoomProtocol.CONNECT_RESPONSE - FIRST_MESSAGE_TYPE] = "CONNECT_RESPONSE";
+    TYPE_NAMES[ChatRoomProtocol.DISCONNECT_MESSAGE - FIRST_MESSAGE_TYPE] = "DISCONNECT_MESSAGE";
+    TYPE_NAMES[ChatRoomProtocol.QUERY_CONNECTED_USERS - FIRST_MESSAGE_TYPE] = "QUERY_CONNECTED_USERS";
+    TYPE_NAMES[ChatRoomProtocol.QUERY_USER_RESPONSE - FIRST_MESSAGE_TYPE] = "QUERY_USER_RESPONSE";
+    TYPE_NAMES[ChatRoomProtocol.BROADCAST_MESSAGE - FIRST_MESSAGE_TYPE] = "BROADCAST_MESSAGE";
+    TYPE_NAMES[ChatRoomProtocol.DIRECT_MESSAGE - FIRST_MESSAGE_TYPE] = "DIRECT_MESSAGE";
+    TYPE_NAMES[ChatRoomProtocol.SEND_INSULT - FIRST_MESSAGE_TYPE] = "SEND_INSULT";
+    TYPE_NAMES[ChatRoomProtocol.JOIN_ROOM - FIRST_MESSAGE_TYPE] = "JOIN_ROOM";
+    TYPE_NAMES[ChatRoomProtocol.LEAVE_ROOM - FIRST_MESSAGE_TYPE] = "LEAVE_ROOM";
+    TYPE_NAMES[ChatRoomProtocol.LIST_ROOMS - FIRST_MESSAGE_TYPE] = "LIST_ROOMS";
+    TYPE_NAMES[ChatRoomProtocol.ROOM_LIST_RESPONSE - FIRST_MESSAGE_TYPE] = "ROOM_LIST_RESPONSE";
+    TYPE_NAMES[ChatRoomProtocol.ROOM_MESSAGE - FIRST_MESSAGE_TYPE] = "ROOM_MESSAGE";
+    TYPE_NAMES[ChatRoomProtocol.REPLAY_LAST_MESSAGES - FIRST_MESSAGE_TYPE] = "REPLAY_LAST_MESSAGES";
+    TYPE_NAMES[ChatRoomProtocol.REPLAY_SINCE - FIRST_MESSAGE_TYPE] = "REPLAY_SINCE";
+    TYPE_NAMES[ChatRoomProtocol.REPLAYED_MESSAGE - FIRST_MESSAGE_TYPE] = "REPLAYED_MESSAGE";
+    TYPE_NAMES[ChatRoomProtocol.COMPRESSED_FRAME - FIRST_MESSAGE_TYPE] = "COMPRESSED_FRAME";
+    TYPE_NAMES[ChatRoomProtocol.BATCH_MESSAGE - FIRST_MESSAGE_TYPE] = "BATCH_MESSAGE";
+    TYPE_NAMES[ChatRoomProtocol.CORRELATED_REQUEST - FIRST_MESSAGE_TYPE] = "CORRELATED_REQUEST";
+    TYPE_NAMES[ChatRoomProtocol.CORRELATED_RESPONSE - FIRST_MESSAGE_TYPE] = "CORRELATED_RESPONSE";
+    TYPE_NAMES[ChatRoomProtocol.SUBSCRIBE_PRESENCE - FIRST_MESSAGE_TYPE] = "SUBSCRIBE_PRESENCE";
+    TYPE_NAMES[ChatRoomProtocol.UNSUBSCRIBE_PRESENCE - FIRST_MESSAGE_TYPE] = "UNSUBSCRIBE_PRESENCE";
+    TYPE_NAMES[ChatRoomProtocol.PRESENCE_SNAPSHOT - FIRST_MESSAGE_TYPE] = "PRESENCE_SNAPSHOT";
+    TYPE_NAMES[ChatRoomProtocol.PRESENCE_JOINED - FIRST_MESSAGE_TYPE] = "PRESENCE_JOINED";
+    TYPE_NAMES[ChatRoomProtocol.PRESENCE_LEFT - FIRST_MESSAGE_TYPE] = "PRESENCE_LEFT";
+    TYPE_NAMES[ChatRoomProtocol.PING - FIRST_MESSAGE_TYPE] = "PING";
+    TYPE_NAMES[ChatRoomProtocol.PONG - FIRST_MESSAGE_TYPE] = "PONG";
+    TYPE_NAMES[ChatRoomProtocol.FILE_OFFER - FIRST_MESSAGE_TYPE] = "FILE_OFFER";
+    TYPE_NAMES[ChatRoomProtocol.FILE_ACCEPT - FIRST_MESSAGE_TYPE] = "FILE_ACCEPT";
+    TYPE_NAMES[ChatRoomProtocol.FILE_DECLINE - FIRST_MESSAGE_TYPE] = "FILE_DECLINE";
+    TYPE_NAMES[ChatRoomProtocol.FILE_CHUNK - FIRST_MESSAGE_TYPE] = "FILE_CHUNK";
+    TYPE_NAMES[ChatRoomProtocol.PRESENCE_SNAPSHOT_PART - FIRST_MESSAGE_TYPE] = "PRESENCE_SNAPSHOT_PART";
+    TYPE_NAMES[ChatRoomProtocol.QUERY_USER_RESPONSE_PART - FIRST_MESSAGE_TYPE] = "QUERY_USER_RESPONSE_PART";
+    TYPE_NAMES[TEXT_INDEX] = TEXT_FRAME;
+  }
+
+  private final LongAdder[] framesIn = newCounters();
+  private final LongAdder[] framesOut = newCounters();
+  private final LongAdder bytesIn = new LongAdder();
+  private final LongAdder bytesOut = new LongAdder();
+  private final LongAdder decodeFailures = new LongAdder();
+  private final LongAdder connectionsAccepted = new LongAdder();
+  private final LongAdder connectionsRefused = new LongAdder();
+  private final LongAdder acceptFailures = new LongAdder();
+  private final LongAdder idleTimeouts = new LongAdder();
+  private final LongAdder[] backpressure = new LongAdder[BackpressurePolicy.values().length];
+  private final LongAdder[] rateLimited = new LongAdder[RateLimitPolicy.values().length];
+  private final LatencyHistogram broadcastFanOut = new LatencyHistogram();
+  private final LatencyHistogram processingLatency = new LatencyHistogram();
+  private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+  private volatile Semaphore semaphore;
+
+  {
+    for (int i = 0; i < backpressure.length; i++) {
+      backpressure[i] = new LongAdder();
+    }
+    for (int i = 0; i < rateLimited.length; i++) {
+      rateLimited[i] = new LongAdder();
+    }
+  }
+
+  private static LongAdder[] newCounters() {
+    LongAdder[] counters = new LongAdder[TYPE_NAMES.length];
+    for (int i = 0; i < counters.length; i++) {
+      counters[i] = new LongAdder();
+    }
+    return counters;
+  }
+
+  /**
+   * Maps a message type to the index of its counters.
+   *
+   * @param messageType The message type.
+   * @return The counter index, the text index for unknown types.
+   */
+  private static int typeIndex(int messageType) {
+    int index = messageType - FIRST_MESSAGE_TYPE;
+    if (index < 0 || index >= TEXT_INDEX || TYPE_NAMES[index] == null) {
+      return TEXT_INDEX;
+    }
+    return index;
+  }
+
+  /**
+   * Starts reporting the permits of a server's semaphore and publishes the metrics over JMX,
+   * replacing metrics published earlier in this JVM.
+   *
+   * @param semaphore The semaphore limiting the server's connections.
+   */
+  public void monitor(Semaphore semaphore) {
+    this.semaphore = semaphore;
+    try {
+      MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+      ObjectName objectName = new ObjectName(OBJECT_NAME);
+      if (mBeanServer.isRegistered(objectName)) {
+        mBeanServer.unregisterMBean(objectName);
+      }
+      mBeanServer.registerMBean(this, objectName);
+    } catch (JMException e) {
+
+    }
+  }
+
+  /**
+   * Records a frame received from a client.
+   *
+   * @param messageType The message type of the frame.
+   * @param length      The length of the frame, without its length header.
+   */
+  public void recordFrameIn(int messageType, int length) {
+    framesIn[typeIndex(messageType)].increment();
+    bytesIn.add(ChatRoomProtocol.FRAME_HEADER_LENGTH + length);
+  }
+
+  /**
+   * Records a frame handed to a client's socket.
+   *
+   * @param frame The frame.
+   */
+  public void recordFrameOut(EncodedFrame frame) {
+    framesOut[typeIndex(frame.messageType())].increment();
+    bytesOut.add(frame.length());
+    deliveryLatency.record(System.nanoTime() - frame.createdAt());
+  }
+
+  /**
+   * Records the time taken to process a received frame.
+   *
+   * @param nanos The processing time in nanoseconds.
+   */
+  public void recordProcessing(long nanos) {
+    processingLatency.record(nanos);
+  }
+
+  /**
+   * Records a received frame that could not be decoded.
+   */
+  public void recordDecodeFailure() {
+    decodeFailures.increment();
+  }
+
+  /**
+   * Records the number of recipients of a broadcast.
+   *
+   * @param recipients The number of recipients.
+   */
+  public void recordBroadcast(int recipients) {
+    broadcastFanOut.record(recipients);
+  }
+
+  /**
+   * Records one intervention of a backpressure policy: an evicted broadcast, a refused broadcast
+   * or a disconnected client.
+   *
+   * @param policy The policy that intervened.
+   */
+  public void recordBackpressure(BackpressurePolicy policy) {
+    backpressure[policy.ordinal()].increment();
+  }
+
+  /**
+   * Records a received frame that exceeded its client's rate limit, and was held back, dropped or
+   * answered with a notice.
+   *
+   * @param policy The policy applied to the frame.
+   */
+  public void recordRateLimited(RateLimitPolicy policy) {
+    rateLimited[policy.ordinal()].increment();
+  }
+
+  /**
+   * Records a connection closed because its client sent nothing for too long.
+   */
+  public void recordIdleTimeout() {
+    idleTimeouts.increment();
+  }
+
+  /**
+   * Records an accepted connection.
+   */
+  public void recordConnectionAccepted() {
+    connectionsAccepted.increment();
+  }
+
+  /**
+   * Records a connection refused because the ceiling was reached.
+   */
+  public void recordConnectionRefused() {
+    connectionsRefused.increment();
+  }
+
+  /**
+   * Records a failure to accept connections, such as running out of file descriptors.
+   */
+  public void recordAcceptFailure() {
+    acceptFailures.increment();
+  }
+
+  @Override
+  public int getActiveSessions() {
+    return ChatSession.sessionRegistry.size();
+  }
+
+  @Override
+  public int getAvailablePermits() {
+    Semaphore monitored = semaphore;
+    return monitored == null ? -1 : monitored.availablePermits();
+  }
+
+  @Override
+  public long getConnectionsAccepted() {
+    return connectionsAccepted.sum();
+  }
+
+  @Override
+  public long getConnectionsRefused() {
+    return connectionsRefused.sum();
+  }
+
+  @Override
+  public long getAcceptFailures() {
+    return acceptFailures.sum();
+  }
+
+  @Override
+  public long getIdleTimeouts() {
+    return idleTimeouts.sum();
+  }
+
+  @Override
+  public Map<String, Long> getFramesIn() {
+    return countsByType(framesIn);
+  }
+
+  @Override
+  public Map<String, Long> getFramesOut() {
+    return countsByType(framesOut);
+  }
+
+  @Override
+  public long getBytesIn() {
+    return bytesIn.sum();
+  }
+
+  @Override
+  public long getBytesOut() {
+    return bytesOut.sum();
+  }
+
+  @Override
+  public long getDecodeFailures() {
+    return decodeFailures.sum();
+  }
+
+  @Override
+  public Map<String, Long> getBackpressure() {
+    Map<String, Long> counts = new LinkedHashMap<>();
+    for (BackpressurePolicy policy : BackpressurePolicy.values()) {
+      counts.put(policy.getArgument(), backpressure[policy.ordinal()].sum());
+    }
+    return counts;
+  }
+
+  @Override
+  public Map<String, Long> getRateLimited() {
+    Map<String, Long> counts = new LinkedHashMap<>();
+    for (RateLimitPolicy policy : RateLimitPolicy.values()) {
+      counts.put(policy.getArgument(), rateLimited[policy.ordinal()].sum());
+    }
+    return counts;
+  }
+
+  @Override
+  public Map<String, Long> getBroadcastFanOut() {
+    return summarize(broadcastFanOut, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public Map<String, Long> getProcessingLatency() {
+    return summarize(processingLatency, TimeUnit.MICROSECONDS);
+  }
+
+  @Override
+  public Map<String, Long> getDeliveryLatency() {
+    return summarize(deliveryLatency, TimeUnit.MICROSECONDS);
+  }
+
+  @Override
+  public void reset() {
+    for (int i = 0; i < TYPE_NAMES.length; i++) {
+      framesIn[i].reset();
+      framesOut[i].reset();
+    }
+    bytesIn.reset();
+    bytesOut.reset();
+    decodeFailures.reset();
+    connectionsAccepted.reset();
+    connectionsRefused.reset();
+    acceptFailures.reset();
+    idleTimeouts.reset();
+    for (LongAdder counter : backpressure) {
+      counter.reset();
+    }
+    for (LongAdder counter : rateLimited) {
+      counter.reset();
+    }
+    broadcastFanOut.reset();
+    processingLatency.reset();
+    deliveryLatency.reset();
+  }
+
+  private static Map<String, Long> countsByType(LongAdder[] counters) {
+    Map<String, Long> counts = new LinkedHashMap<>();
+    for (int i = 0; i < counters.length; i++) {
+      if (TYPE_NAMES[i] != null) {
+        counts.put(TYPE_NAMES[i], counters[i].sum());
+      }
+    }
+    return counts;
+  }
+
+  /**
+   * Summarizes a histogram of nanosecond values in the given unit.
+   *
+   * @param histogram The histogram.
+   * @param unit      The unit of the summary; nanoseconds leave the values as recorded.
+   * @return The count, p50, p99, p999 and max.
+   */
+  private static Map<String, Long> summarize(LatencyHistogram histogram, TimeUnit unit) {
+    Map<String, Long> summary = new LinkedHashMap<>();
+    summary.put("count", histogram.count());
+    summary.put("p50", unit.convert(histogram.percentile(50), TimeUnit.NANOSECONDS));
+    summary.put("p99", unit.convert(histogram.percentile(99), TimeUnit.NANOSECONDS));
+    summary.put("p999", unit.convert(histogram.percentile(99.9), TimeUnit.NANOSECONDS));
+    summary.put("max", unit.convert(histogram.max(), TimeUnit.NANOSECONDS));
+    return summary;
+  }
+
+  @Override
+  public String toString() {
+    return "ServerMetrics{" +
+        "activeSessions=" + getActiveSessions() +
+        ", availablePermits=" + getAvailablePermits() +
+        ", framesIn=" + getFramesIn() +
+        ", framesOut=" + getFramesOut() +
+        ", bytesIn=" + getBytesIn() +
+        ", bytesOut=" + getBytesOut() +
+        ", decodeFailures=" + getDecodeFailures() +
+        '}';
+  }
+}
@@ -0,0 +1,130 @@
+import java.util.Map;
+
+/**
+ * The `ServerMetricsMXBean` interface is the management view of {@link ServerMetrics}, readable
+ * with any JMX client such as jconsole under the name {@value ServerMetrics#OBJECT_NAME}.
+ * Latency summaries are in microseconds and hold the keys count, p50, p99, p999 and max.
+ */
+public interface ServerMetricsMXBean {
+
+  /**
+   * Gets the number of users currently in the chat.
+   *
+   * @return The number of registered sessions.
+   */
+  int getActiveSessions();
+
+  /**
+   * Gets the number of connections the server can still accept.
+   *
+   * @return The available permits, or -1 if no server is being monitored.
+   */
+  int getAvailablePermits();
+
+  /**
+   * Gets the number of connections accepted.
+   *
+   * @return The number of accepted connections.
+   */
+  long getConnectionsAccepted();
+
+  /**
+   * Gets the number of connections refused because the ceiling was reached.
+   *
+   * @return The number of refused connections.
+   */
+  long getConnectionsRefused();
+
+  /**
+   * Gets the number of times accepting connections failed, for client connections and relay links.
+   *
+   * @return The number of accept failures.
+   */
+  long getAcceptFailures();
+
+  /**
+   * Gets the number of connections closed because their client sent nothing, not even the answer
+   * to a ping, for longer than the idle timeout.
+   *
+   * @return The number of idle connections closed.
+   */
+  long getIdleTimeouts();
+
+  /**
+   * Gets the number of frames received, by message type.
+   *
+   * @return The received frame counts.
+   */
+  Map<String, Long> getFramesIn();
+
+  /**
+   * Gets the number of frames sent, by message type. Plain server messages count as TEXT.
+   *
+   * @return The sent frame counts.
+   */
+  Map<String, Long> getFramesOut();
+
+  /**
+   * Gets the number of bytes received, including length headers.
+   *
+   * @return The received bytes.
+   */
+  long getBytesIn();
+
+  /**
+   * Gets the number of bytes sent, including length headers.
+   *
+   * @return The sent bytes.
+   */
+  long getBytesOut();
+
+  /**
+   * Gets the number of received frames that could not be decoded.
+   *
+   * @return The number of malformed frames.
+   */
+  long getDecodeFailures();
+
+  /**
+   * Gets how often each backpressure policy intervened: broadcasts evicted under drop-oldest,
+   * broadcasts refused under drop-new, and clients disconnected under disconnect.
+   *
+   * @return The interventions by policy.
+   */
+  Map<String, Long> getBackpressure();
+
+  /**
+   * Gets how many received frames exceeded their client's rate limit, by the policy applied to
+   * them: held back under delay, dropped under drop, and dropped with a notice under notify.
+   *
+   * @return The rate-limited frames by policy.
+   */
+  Map<String, Long> getRateLimited();
+
+  /**
+   * Gets the distribution of the number of recipients per broadcast.
+   *
+   * @return The fan-out summary, in recipients rather than microseconds.
+   */
+  Map<String, Long> getBroadcastFanOut();
+
+  /**
+   * Gets the distribution of the time taken to process a received frame.
+   *
+   * @return The processing latency summary.
+   */
+  Map<String, Long> getProcessingLatency();
+
+  /**
+   * Gets the distribution of the time from creating an outgoing frame until its writer hands it
+   * to the socket, which includes the time spent waiting in the recipient's queue.
+   *
+   * @return The delivery latency summary.
+   */
+  Map<String, Long> getDeliveryLatency();
+
+  /**
+   * Clears every counter and histogram.
+   */
+  void reset();
+}
@@ -0,0 +1,90 @@
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The `SessionRegistry` class indexes every connected {@link ChatSession} by username. Lookups
+ * take constant time regardless of how many users are connected, and iterating over the sessions
+ * is safe while other threads register and unregister, so routing never needs to lock the room.
+ */
+class SessionRegistry {
+
+  private final ConcurrentHashMap<String, ChatSession> sessions = new ConcurrentHashMap<>();
+
+  /**
+   * Registers a session under its username unless that username is already taken.
+   *
+   * @param session The session to be registered.
+   * @return {@code true} if the session was registered, {@code false} if the name is taken.
+   */
+  public boolean register(ChatSession session) {
+    String userName = session.getClientUserName();
+    return userName != null && sessions.putIfAbsent(userName, session) == null;
+  }
+
+  /**
+   * Unregisters a session, leaving the entry alone if its username belongs to another session.
+   *
+   * @param session The session to be unregistered.
+   * @return {@code true} if the session was registered and is now removed.
+   */
+  public boolean unregister(ChatSession session) {
+    String userName = session.getClientUserName();
+    return userName != null && sessions.remove(userName, session);
+  }
+
+  /**
+   * Hands a username over from one session to another, such as when a client resumes its session
+   * on a new connection.
+   *
+   * @param previous The session registered under the username.
+   * @param session  The session taking the username over, with the same username.
+   * @return {@code true} if the previous session was registered and is now replaced.
+   */
+  public boolean replace(ChatSession previous, ChatSession session) {
+    String userName = previous.getClientUserName();
+    return userName != null && sessions.replace(userName, previous, session);
+  }
+
+  /**
+   * Finds the session registered under a username.
+   *
+   * @param userName The username to look up.
+   * @return The session of the user, or {@code null} if no such user is connected.
+   */
+  public ChatSession lookup(String userName) {
+    return sessions.get(userName);
+  }
+
+  /**
+   * Returns a live view of the registered sessions. Iterating over it never throws while sessions
+   * join and leave; it reflects the registry at some point during the iteration.
+   *
+   * @return The registered sessions.
+   */
+  public Collection<ChatSession> sessions() {
+    return sessions.values();
+  }
+
+  /**
+   * Gets the number of registered sessions.
+   *
+   * @return The number of registered sessions.
+   */
+  public int size() {
+    return sessions.size();
+  }
+
+  /**
+   * Unregisters every session.
+   */
+  public void clear() {
+    sessions.clear();
+  }
+
+  @Override
+  public String toString() {
+    return "SessionRegistry{" +
+        "sessions=" + sessions.keySet() +
+        '}';
+  }
+}
@@ -0,0 +1,70 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The `TokenBucket` class limits how fast one client may send one kind of message. The bucket
+ * holds up to a burst of tokens and refills at a steady rate; every message takes a token, and a
+ * message finding the bucket empty has to wait for it to refill.
+ *
+ * <p>Rather than counting tokens, the bucket only remembers when it will be full again, so
+ * checking it is a few arithmetic operations on one field. A bucket belongs to one session and is
+ * only touched by the thread receiving that session's frames, so it takes no lock.
+ */
+final class TokenBucket {
+
+  private final long nanosPerToken;
+  private final long burstNanos;
+  private long fullAt = Long.MIN_VALUE;
+
+  /**
+   * Constructs a new, full `TokenBucket`.
+   *
+   * @param tokensPerSecond The rate the bucket refills at.
+   * @param burst           The number of tokens the bucket holds when full.
+   * @throws IllegalArgumentException If the rate or the burst is not positive.
+   */
+  public TokenBucket(double tokensPerSecond, int burst) {
+    if (!(tokensPerSecond > 0) || burst <= 0) {
+      throw new IllegalArgumentException("The rate and the burst of a token bucket must be positive");
+    }
+    this.nanosPerToken = Math.max(1, Math.round(TimeUnit.SECONDS.toNanos(1) / tokensPerSecond));
+    this.burstNanos = nanosPerToken * burst;
+  }
+
+  /**
+   * Computes how long the given number of tokens must wait for, without taking them. More tokens
+   * than the burst wait for a full bucket; taking them then leaves the bucket in debt, so whatever
+   * follows waits for every token of them to be refilled.
+   *
+   * @param tokens The number of tokens.
+   * @param now    The current time, from {@link System#nanoTime()}.
+   * @return 0 if the tokens are available now, otherwise the nanoseconds until they are.
+   */
+  public long delay(int tokens, long now) {
+    long wait = Math.max(fullAt, now) + Math.min(tokens * nanosPerToken, burstNanos) - now - burstNanos;
+    return Math.max(0, wait);
+  }
+
+  /**
+   * Takes the given number of tokens if they are available now. They are charged in full even
+   * beyond the burst, so a batch carrying many messages costs as much as sending them one by one.
+   *
+   * @param tokens The number of tokens.
+   * @param now    The current time, from {@link System#nanoTime()}.
+   * @return 0 if the tokens were taken, otherwise the nanoseconds until they are available.
+   */
+  public long acquire(int tokens, long now) {
+    long wait = delay(tokens, now);
+    if (wait == 0) {
+      fullAt = Math.max(fullAt, now) + tokens * nanosPerToken;
+    }
+    return wait;
+  }
+
+  @Override
+  public String toString() {
+    return "TokenBucket{" +
+        "nanosPerToken=" + nanosPerToken +
+        ", burst=" + burstNanos / nanosPerToken +
+        '}';
+  }
+}
@@ -0,0 +1,70 @@
+/**
+ * The `WheelTimeout` class is a task scheduled on a {@link HashedWheelTimer}. It sits in the list
+ * of the wheel slot its deadline falls in until the wheel reaches it, and can be cancelled from
+ * any thread without touching the wheel.
+ */
+final class WheelTimeout {
+
+  private final Runnable task;
+  private final long deadline;
+  private volatile boolean cancelled;
+
+  /**
+   * The next timeout in the same wheel slot; only touched by the thread turning the wheel.
+   */
+  WheelTimeout next;
+
+  /**
+   * Constructs a new `WheelTimeout`.
+   *
+   * @param task     The task run once the deadline is reached.
+   * @param deadline The tick at which the task is due.
+   */
+  public WheelTimeout(Runnable task, long deadline) {
+    this.task = task;
+    this.deadline = deadline;
+  }
+
+  /**
+   * Gets the task run once the deadline is reached.
+   *
+   * @return The task.
+   */
+  public Runnable getTask() {
+    return task;
+  }
+
+  /**
+   * Gets the tick at which the task is due.
+   *
+   * @return The deadline, in ticks of the timer.
+   */
+  public long getDeadline() {
+    return deadline;
+  }
+
+  /**
+   * Keeps the task from running. The timeout is dropped from the wheel the next time the wheel
+   * passes its slot, so cancelling costs one write.
+   */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  /**
+   * Checks whether the timeout was cancelled.
+   *
+   * @return {@code true} once {@link #cancel()} was called.
+   */
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  @Override
+  public String toString() {
+    return "WheelTimeout{" +
+        "deadline=" + deadline +
+        ", cancelled=" + cancelled +
+        '}';
+  }
+}
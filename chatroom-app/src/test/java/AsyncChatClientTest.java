@@ -0,0 +1,164 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class AsyncChatClientTest {
+
+  private static final long TIMEOUT_SECONDS = 5;
+
+  private EventLoopServer server;
+  private InetSocketAddress address;
+  private ExecutorService callbacks;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    ChatSession.sessionRegistry = new SessionRegistry();
+    ChatSession.roomRegistry = new RoomRegistry();
+    ChatSession.presenceRegistry = new PresenceRegistry();
+    ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
+    serverSocketChannel.bind(new InetSocketAddress("localhost", 0));
+    address = new InetSocketAddress("localhost", serverSocketChannel.socket().getLocalPort());
+    server = new EventLoopServer(serverSocketChannel, 1);
+    new Thread(() -> server.startServer(address.getPort())).start();
+    callbacks = Executors.newSingleThreadExecutor();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    server.closeServerSocket();
+    callbacks.shutdownNow();
+    ChatSession.idleTimeoutNanos = TimeUnit.SECONDS.toNanos(ChatSession.DEFAULT_IDLE_TIMEOUT_SECONDS);
+  }
+
+  private AsyncChatClient connect(String userName) throws Exception {
+    return AsyncChatClient.connect(address, userName, callbacks).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testManyQueriesInFlightAreEachAnswered() throws Exception {
+    AsyncChatClient alice = connect("alice");
+    AsyncChatClient bob = connect("bob");
+
+    List<CompletableFuture<List<String>>> users = new ArrayList<>();
+    List<CompletableFuture<String>> joins = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      users.add(alice.connectedUsers());
+      joins.add(alice.joinRoom("room" + i));
+    }
+
+    for (int i = 0; i < 50; i++) {
+      List<String> names = users.get(i).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      assertEquals(2, names.size());
+      assertTrue(names.containsAll(List.of("alice", "bob")));
+      assertEquals("[Server] : You joined room 'room" + i + "'.", joins.get(i).get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+    assertEquals(50, alice.rooms().get(TIMEOUT_SECONDS, TimeUnit.SECONDS).size());
+    alice.close();
+    bob.close();
+  }
+
+  @Test
+  public void testMessagesReachListenersOnTheCallbackExecutor() throws Exception {
+    AsyncChatClient alice = connect("alice");
+    AsyncChatClient bob = connect("bob");
+    BlockingQueue<String> received = new LinkedBlockingQueue<>();
+    List<Thread> threads = new ArrayList<>();
+    Thread callbackThread = callbacks.submit(Thread::currentThread).get();
+    bob.addMessageListener(message -> {
+      threads.add(Thread.currentThread());
+      received.add(message);
+    });
+
+    alice.broadcast("hello").get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    alice.directMessage("bob", "psst").get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+    assertEquals("[alice] : hello", received.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertEquals("[alice] : psst", received.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertEquals(List.of(callbackThread, callbackThread), threads);
+    alice.close();
+    bob.close();
+  }
+
+  @Test
+  public void testPresenceSubscriptionFollowsJoinsAndLeaves() throws Exception {
+    AsyncChatClient alice = connect("alice");
+    connect("bob");
+    BlockingQueue<String> changes = new LinkedBlockingQueue<>();
+    alice.addPresenceListener((userName, joined) -> changes.add((joined ? "+" : "-") + userName));
+
+    Set<String> presence = alice.subscribePresence().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    assertEquals(Set.of("alice", "bob"), presence);
+
+    AsyncChatClient carol = connect("carol");
+    assertEquals("+carol", changes.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertEquals(Set.of("alice", "bob", "carol"), presence);
+
+    carol.disconnect().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    assertEquals("-carol", changes.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertEquals(Set.of("alice", "bob"), presence);
+    assertEquals(List.of("alice", "bob"), alice.connectedUsers().get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    alice.close();
+  }
+
+  @Test
+  public void testPagedUserListsAreJoinedBeforeTheFutureCompletes() throws Exception {
+    ChatSession.presenceRegistry = new PresenceRegistry(ChatSession::isConnected, 24);
+    AsyncChatClient alice = connect("alice");
+    connect("bob");
+    connect("carol");
+
+    assertEquals(List.of("alice", "bob", "carol"), alice.connectedUsers().get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertEquals(Set.of("alice", "bob", "carol"), alice.subscribePresence().get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertEquals(List.of("alice", "bob", "carol"), alice.connectedUsers().get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    alice.close();
+  }
+
+  @Test
+  public void testClientAnswersPingsAndOutlivesIdleTimeout() throws Exception {
+    ChatSession.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(400);
+    AsyncChatClient alice = connect("alice");
+
+    assertTrue(alice.ping().get(TIMEOUT_SECONDS, TimeUnit.SECONDS) >= 0);
+    Thread.sleep(1200);
+
+    assertEquals(List.of("alice"), alice.connectedUsers().get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    alice.close();
+  }
+
+  @Test
+  public void testTakenUsernameFailsConnect() throws Exception {
+    AsyncChatClient alice = connect("alice");
+
+    ExecutionException failure = assertThrows(ExecutionException.class, () -> connect("alice"));
+
+    assertEquals(ChatSession.USERNAME_TAKEN_MESSAGE, failure.getCause().getMessage());
+    alice.close();
+  }
+
+  @Test
+  public void testCloseFailsRequestsWaitingForReply() throws Exception {
+    AsyncChatClient alice = connect("alice");
+    alice.close();
+
+    assertThrows(ExecutionException.class, () -> alice.connectedUsers().get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertThrows(ExecutionException.class, () -> alice.broadcast("gone").get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertTrue(alice.isClosed());
+  }
+}
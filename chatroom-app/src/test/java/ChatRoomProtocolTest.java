@@ -1,4 +1,14 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -79,4 +89,386 @@ class ChatRoomProtocolTest {
     assertNotNull(decodedBytes);
 
   }
+
+  @Test
+  void encodeParametersUsesUtf8ByteLength() {
+    ChatRoomProtocol protocol = new ChatRoomProtocol();
+    byte[] encodedMessage = protocol.encodeConnectMessage("jos\u00e9");
+
+    ByteBuffer buffer = ByteBuffer.wrap(encodedMessage);
+    assertEquals(ChatRoomProtocol.CONNECT_MESSAGE, buffer.getInt(0));
+    assertEquals(5, buffer.getInt(5));
+    assertEquals(15, encodedMessage.length);
+  }
+
+  @Test
+  void writeAndReadFrame() throws IOException {
+    byte[] frame = {0, 0, 0, '\n', '\r', 'h', 'i', '\n'};
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    ChatRoomProtocol.writeFrame(new DataOutputStream(byteArrayOutputStream), frame);
+    ChatRoomProtocol.writeFrame(new DataOutputStream(byteArrayOutputStream), frame);
+
+    DataInputStream dataInputStream = new DataInputStream(
+        new ByteArrayInputStream(byteArrayOutputStream.toByteArray()));
+    assertArrayEquals(frame, ChatRoomProtocol.readFrame(dataInputStream));
+    assertArrayEquals(frame, ChatRoomProtocol.readFrame(dataInputStream));
+  }
+
+  @Test
+  void wrapFrame() {
+    byte[] frame = "Hi all!".getBytes(StandardCharsets.UTF_8);
+    ByteBuffer buffer = ChatRoomProtocol.wrapFrame(frame);
+
+    assertEquals(ChatRoomProtocol.FRAME_HEADER_LENGTH + frame.length, buffer.remaining());
+    assertEquals(frame.length, buffer.getInt());
+  }
+
+  @Test
+  void readFrameRejectsInvalidLength() {
+    DataInputStream dataInputStream = new DataInputStream(
+        new ByteArrayInputStream(new byte[] {(byte) 0xFF, 0, 0, 0}));
+
+    assertThrows(IOException.class, () -> ChatRoomProtocol.readFrame(dataInputStream));
+  }
+
+  @Test
+  void encodeIntoBufferMatchesByteArray() {
+    ChatRoomProtocol protocol = new ChatRoomProtocol();
+    String message = "h\u00e9llo \u20ac \ud83d\ude00";
+    byte[] expected = protocol.encodeDirectMessage("yashvi", "riddhi", message);
+    ByteBuffer buffer = ByteBuffer.allocate(256);
+    buffer.put((byte) 7);
+
+    int written = protocol.encodeDirectMessage(buffer, "yashvi", "riddhi", message);
+
+    assertEquals(expected.length, written);
+    assertEquals(1 + written, buffer.position());
+    byte[] actual = new byte[written];
+    buffer.flip().position(1);
+    buffer.get(actual);
+    assertArrayEquals(expected, actual);
+  }
+
+  @Test
+  void encodeIntoBufferLeavesPositionOnOverflow() {
+    ChatRoomProtocol protocol = new ChatRoomProtocol();
+    ByteBuffer buffer = ByteBuffer.allocate(10);
+    ArrayList<ChatSession> users = new ArrayList<>();
+    users.add(TestSessions.session("yashvi"));
+
+    assertThrows(BufferOverflowException.class,
+        () -> protocol.encodeBroadcastMessage(buffer, "yashvi", "Hello, everyone!"));
+    assertEquals(0, buffer.position());
+    assertThrows(BufferOverflowException.class, () -> protocol.encodeQueryResponse(buffer, users));
+    assertEquals(0, buffer.position());
+  }
+
+  @Test
+  void encodeQueryResponseIntoBuffer() {
+    ChatRoomProtocol protocol = new ChatRoomProtocol();
+    ArrayList<ChatSession> users = new ArrayList<>();
+    users.add(TestSessions.session("yashvi"));
+    users.add(TestSessions.session("riddhi"));
+    ByteBuffer buffer = ByteBuffer.allocate(256);
+
+    int written = protocol.encodeQueryResponse(buffer, users);
+
+    assertArrayEquals(protocol.encodeQueryResponse(users), Arrays.copyOf(buffer.array(), written));
+  }
+
+  @Test
+  void frameHeaderCoversEncodedFrame() {
+    ChatRoomProtocol protocol = new ChatRoomProtocol();
+    ByteBuffer buffer = ByteBuffer.allocate(64);
+
+    int headerPosition = ChatRoomProtocol.reserveFrameHeader(buffer);
+    int written = protocol.encodeConnectMessage(buffer, "john");
+    ChatRoomProtocol.completeFrameHeader(buffer, headerPosition);
+
+    assertEquals(written, buffer.getInt(headerPosition));
+    assertEquals(ChatRoomProtocol.FRAME_HEADER_LENGTH + written, buffer.position());
+  }
+
+  @Test
+  void utf8LengthMatchesGetBytes() {
+    String text = "a\u00e9\u20ac\ud83d\ude00\ud800x\udc00";
+    ByteBuffer buffer = ByteBuffer.allocate(32);
+
+    ChatRoomProtocol.putUtf8(buffer, text);
+
+    byte[] expected = text.getBytes(StandardCharsets.UTF_8);
+    assertEquals(expected.length, ChatRoomProtocol.utf8Length(text));
+    assertArrayEquals(expected, Arrays.copyOf(buffer.array(), buffer.position()));
+  }
+
+  @Test
+  void encodeRoomMessageIntoBuffer() {
+    ChatRoomProtocol protocol = new ChatRoomProtocol();
+    ByteBuffer buffer = ByteBuffer.allocate(256);
+
+    int written = protocol.encodeRoomMessage(buffer, "yashvi", "java", "hello");
+
+    assertArrayEquals(protocol.encodeRoomMessage("yashvi", "java", "hello"), Arrays.copyOf(buffer.array(), written));
+    assertEquals(ChatRoomProtocol.ROOM_MESSAGE, buffer.getInt(0));
+  }
+
+  @Test
+  void encodeRoomListResponseListsEveryRoom() {
+    ChatRoomProtocol protocol = new ChatRoomProtocol();
+    ArrayList<String> rooms = new ArrayList<>();
+    rooms.add("java");
+    rooms.add("caf\u00e9");
+    FrameView frame = new FrameView();
+
+    assertTrue(frame.wrap(protocol.encodeRoomListResponse(rooms)));
+
+    assertEquals(ChatRoomProtocol.ROOM_LIST_RESPONSE, frame.messageType());
+    assertEquals(2, frame.fieldCount());
+    assertEquals("java", frame.field(0));
+    assertEquals("caf\u00e9", frame.field(1));
+  }
+
+  @Test
+  void encodeJoinRoomOverflowLeavesBufferUntouched() {
+    ChatRoomProtocol protocol = new ChatRoomProtocol();
+    ByteBuffer buffer = ByteBuffer.allocate(8);
+
+    assertThrows(BufferOverflowException.class, () -> protocol.encodeJoinRoom(buffer, "yashvi", "java"));
+    assertEquals(0, buffer.position());
+  }
+
+  @Test
+  void encodeReplayedMessageCopiesFrameBody() {
+    ChatRoomProtocol protocol = new ChatRoomProtocol();
+    EncodedFrame message = EncodedFrame.ofText("[yashvi] : h\u00e9llo");
+    ByteBuffer buffer = ByteBuffer.allocate(256);
+
+    int written = protocol.encodeReplayedMessage(buffer, 42, "yashvi", "", message);
+    FrameView frame = new FrameView();
+
+    assertEquals(ChatRoomProtocol.replayedMessageLength("yashvi", "", message), written);
+    assertTrue(frame.wrap(buffer, 0, written));
+    assertEquals(ChatRoomProtocol.REPLAYED_MESSAGE, frame.messageType());
+    assertEquals(42, frame.number());
+    assertEquals("yashvi", frame.field(0));
+    assertEquals(0, frame.fieldLength(1));
+    assertEquals("[yashvi] : h\u00e9llo", frame.field(2));
+  }
+
+  @Test
+  void encodeRelayDirectCarriesFrameForRecipient() {
+    ChatRoomProtocol protocol = new ChatRoomProtocol();
+    EncodedFrame message = EncodedFrame.ofText("[yashvi] : h\u00e9llo");
+    ByteBuffer buffer = ByteBuffer.allocate(256);
+
+    int written = protocol.encodeRelayDirect(buffer, "localhost:7001", "bob", message);
+    FrameView frame = new FrameView();
+
+    assertEquals(ChatRoomProtocol.relayDirectLength("localhost:7001", "bob", message), written);
+    assertTrue(frame.wrap(buffer, 0, written));
+    assertEquals(ChatRoomProtocol.RELAY_DIRECT, frame.messageType());
+    assertEquals("localhost:7001", frame.field(0));
+    assertEquals("bob", frame.field(1));
+    assertEquals(message.length(), EncodedFrame.ofField(frame, 2).length());
+    assertEquals("[yashvi] : h\u00e9llo", frame.field(2));
+  }
+
+  @Test
+  void encodeQueryResponseAppendsRemoteUsers() {
+    ChatRoomProtocol protocol = new ChatRoomProtocol();
+    ArrayList<ChatSession> users = new ArrayList<>();
+    users.add(TestSessions.session("alice"));
+    FrameView frame = new FrameView();
+
+    assertTrue(frame.wrap(protocol.encodeQueryResponse(users, Arrays.asList("bob", "carol"))));
+
+    assertEquals(ChatRoomProtocol.QUERY_USER_RESPONSE, frame.messageType());
+    assertEquals(3, frame.fieldCount());
+    assertEquals("alice", frame.field(0));
+    assertEquals("bob", frame.field(1));
+    assertEquals("carol", frame.field(2));
+  }
+
+  @Test
+  void encodePresenceSnapshotCarriesVersionAndUsers() {
+    ChatRoomProtocol protocol = new ChatRoomProtocol();
+    FrameView frame = new FrameView();
+
+    assertTrue(frame.wrap(protocol.encodePresenceSnapshot(7, Arrays.asList("alice", "b\u00f6b"))));
+
+    assertEquals(ChatRoomProtocol.PRESENCE_SNAPSHOT, frame.messageType());
+    assertEquals(7, frame.number());
+    assertEquals(2, frame.fieldCount());
+    assertEquals("alice", frame.field(0));
+    assertEquals("b\u00f6b", frame.field(1));
+    assertTrue(frame.wrap(protocol.encodePresenceSnapshot(0, List.of())));
+    assertEquals(0, frame.fieldCount());
+  }
+
+  @Test
+  void encodeUserPagesSplitsUsersThatDoNotFitInOneFrame() {
+    ChatRoomProtocol protocol = new ChatRoomProtocol();
+    List<String> userNames = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      userNames.add("user" + i);
+    }
+    FrameView frame = new FrameView();
+
+    List<byte[]> snapshot = protocol.encodePresenceSnapshotPages(9, userNames, 64);
+    List<byte[]> query = protocol.encodeQueryResponsePages(userNames, 64);
+
+    for (List<byte[]> pages : List.of(snapshot, query)) {
+      assertTrue(pages.size() > 1);
+      List<String> listed = new ArrayList<>();
+      for (int i = 0; i < pages.size(); i++) {
+        assertTrue(pages.get(i).length <= 64);
+        assertTrue(frame.wrap(pages.get(i)));
+        boolean last = i == pages.size() - 1;
+        if (pages == snapshot) {
+          assertEquals(last ? ChatRoomProtocol.PRESENCE_SNAPSHOT : ChatRoomProtocol.PRESENCE_SNAPSHOT_PART,
+              frame.messageType());
+          assertEquals(9, frame.number());
+        } else {
+          assertEquals(last ? ChatRoomProtocol.QUERY_USER_RESPONSE : ChatRoomProtocol.QUERY_USER_RESPONSE_PART,
+              frame.messageType());
+        }
+        for (int j = 0; j < frame.fieldCount(); j++) {
+          listed.add(frame.field(j));
+        }
+      }
+      assertEquals(userNames, listed);
+    }
+    List<byte[]> single = protocol.encodePresenceSnapshotPages(9, userNames, ChatRoomProtocol.MAX_FRAME_LENGTH);
+    assertEquals(1, single.size());
+    assertArrayEquals(protocol.encodePresenceSnapshot(9, userNames), single.get(0));
+    assertArrayEquals(protocol.encodeQueryResponse(List.of(), List.of()),
+        protocol.encodeQueryResponsePages(List.of(), 64).get(0));
+  }
+
+  @Test
+  void encodePresenceChangeCarriesVersionAndUser() {
+    ChatRoomProtocol protocol = new ChatRoomProtocol();
+    FrameView frame = new FrameView();
+
+    assertTrue(frame.wrap(protocol.encodePresenceChange(8, "alice", true)));
+    assertEquals(ChatRoomProtocol.PRESENCE_JOINED, frame.messageType());
+    assertEquals(8, frame.number());
+    assertEquals("alice", frame.field(0));
+
+    assertTrue(frame.wrap(protocol.encodePresenceChange(9, "alice", false)));
+    assertEquals(ChatRoomProtocol.PRESENCE_LEFT, frame.messageType());
+    assertEquals(9, frame.number());
+    assertEquals("alice", frame.field(0));
+  }
+
+  @Test
+  void encodePingAndPongCarryTheirNumber() {
+    ChatRoomProtocol protocol = new ChatRoomProtocol();
+    FrameView frame = new FrameView();
+
+    assertTrue(frame.wrap(protocol.encodePing("", Long.MAX_VALUE)));
+    assertEquals(ChatRoomProtocol.PING, frame.messageType());
+    assertEquals(Long.MAX_VALUE, frame.number());
+    assertEquals("", frame.field(0));
+
+    assertTrue(frame.wrap(protocol.encodePong("alice", 12)));
+    assertEquals(ChatRoomProtocol.PONG, frame.messageType());
+    assertEquals(12, frame.number());
+    assertEquals("alice", frame.field(0));
+  }
+
+  @Test
+  void encodeFileFramesCarryTransferId() {
+    ChatRoomProtocol protocol = new ChatRoomProtocol();
+    FrameView frame = new FrameView();
+
+    assertTrue(frame.wrap(protocol.encodeFileOffer(7, "alice", "bob", "r\u00e9sum\u00e9.pdf", 123_456)));
+    assertEquals(ChatRoomProtocol.FILE_OFFER, frame.messageType());
+    assertEquals(7, frame.number());
+    assertEquals(List.of("alice", "bob", "r\u00e9sum\u00e9.pdf", "123456"),
+        List.of(frame.field(0), frame.field(1), frame.field(2), frame.field(3)));
+
+    assertTrue(frame.wrap(protocol.encodeFileAccept("bob", 7)));
+    assertEquals(ChatRoomProtocol.FILE_ACCEPT, frame.messageType());
+    assertEquals(7, frame.number());
+    assertEquals("bob", frame.field(0));
+
+    assertTrue(frame.wrap(protocol.encodeFileDecline("bob", 7)));
+    assertEquals(ChatRoomProtocol.FILE_DECLINE, frame.messageType());
+    assertEquals("bob", frame.field(0));
+  }
+
+  @Test
+  void fileChunkHeaderPrecedesRawData() throws IOException {
+    ChatRoomProtocol protocol = new ChatRoomProtocol();
+    byte[] data = {0, 1, 2, (byte) 0xff, 4};
+    ByteBuffer header = ByteBuffer.allocate(ChatRoomProtocol.FILE_CHUNK_HEADER_LENGTH);
+    ChatRoomProtocol.putFileChunkHeader(header, 9, 3);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    bytes.write(header.array());
+    bytes.write(data, 0, 3);
+    FrameView frame = new FrameView();
+
+    assertFalse(header.hasRemaining());
+    assertTrue(frame.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+    assertEquals(ChatRoomProtocol.FILE_CHUNK, frame.messageType());
+    assertEquals(9, frame.number());
+    assertEquals(3, frame.fieldLength(0));
+    assertArrayEquals(Arrays.copyOfRange(bytes.toByteArray(), ChatRoomProtocol.FRAME_HEADER_LENGTH, bytes.size()),
+        protocol.encodeFileChunk(9, data, 3));
+  }
+
+  @Test
+  void encodeBatchCarriesEachMessageAsField() {
+    ChatRoomProtocol protocol = new ChatRoomProtocol();
+    FrameView batch = new FrameView();
+    FrameView message = new FrameView();
+
+    assertTrue(batch.wrap(protocol.encodeBatch(Arrays.asList(
+        protocol.encodeBroadcastMessage("yashvi", "h\u00e9llo"),
+        protocol.encodeDirectMessage("yashvi", "bob", "hi")))));
+
+    assertEquals(ChatRoomProtocol.BATCH_MESSAGE, batch.messageType());
+    assertEquals(2, batch.fieldCount());
+    assertTrue(message.wrapField(batch, 0));
+    assertEquals(ChatRoomProtocol.BROADCAST_MESSAGE, message.messageType());
+    assertEquals("h\u00e9llo", message.field(1));
+    assertTrue(message.wrapField(batch, 1));
+    assertEquals(ChatRoomProtocol.DIRECT_MESSAGE, message.messageType());
+    assertEquals("bob", message.field(1));
+  }
+
+  @Test
+  void encodeCorrelatedRequestCarriesIdAndRequest() {
+    ChatRoomProtocol protocol = new ChatRoomProtocol();
+    FrameView correlated = new FrameView();
+    FrameView request = new FrameView();
+
+    assertTrue(correlated.wrap(protocol.encodeCorrelatedRequest(42, protocol.encodeQueryConnectedUsers("yashvi"))));
+
+    assertEquals(ChatRoomProtocol.CORRELATED_REQUEST, correlated.messageType());
+    assertEquals(42, correlated.number());
+    assertTrue(request.wrapField(correlated, 0));
+    assertEquals(ChatRoomProtocol.QUERY_CONNECTED_USERS, request.messageType());
+    assertEquals("yashvi", request.field(0));
+  }
+
+  @Test
+  void correlatedResponseCarriesBodyOfReply() throws IOException {
+    ChatRoomProtocol protocol = new ChatRoomProtocol();
+    EncodedFrame response = EncodedFrame.ofCorrelatedResponse(Long.MAX_VALUE,
+        new EncodedFrame(protocol.encodeRoomListResponse(List.of("lobby", "general"))));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    response.writeTo(bytes);
+    FrameView correlated = new FrameView();
+    FrameView reply = new FrameView();
+
+    assertTrue(correlated.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+
+    assertEquals(ChatRoomProtocol.CORRELATED_RESPONSE, correlated.messageType());
+    assertEquals(Long.MAX_VALUE, correlated.number());
+    assertTrue(reply.wrapField(correlated, 0));
+    assertEquals(ChatRoomProtocol.ROOM_LIST_RESPONSE, reply.messageType());
+    assertEquals(List.of("lobby", "general"), List.of(reply.field(0), reply.field(1)));
+  }
 }
@@ -0,0 +1,293 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ChatSessionTest {
+
+  private final ChatRoomProtocol protocol = new ChatRoomProtocol();
+  private final Map<String, List<List<String>>> deliveries = new ConcurrentHashMap<>();
+  private final List<String> disconnected = new ArrayList<>();
+
+  private ChatSession session(String userName) {
+    ChatSession session = TestSessions.session(userName, this::record,
+        closed -> disconnected.add(closed.getClientUserName()));
+    session.chatRoomProtocol = protocol;
+    session.semaphore = new Semaphore(1);
+    ChatSession.sessionRegistry.register(session);
+    return session;
+  }
+
+  private void record(ChatSession session, EncodedFrame frame) throws IOException {
+    FrameView reply = new FrameView();
+    List<String> texts = new ArrayList<>();
+    for (FrameView view : TestSessions.frames(frame)) {
+      if (view.messageType() == ChatRoomProtocol.CORRELATED_RESPONSE && reply.wrapField(view, 0)) {
+        texts.add("#" + view.number() + " " + reply.text());
+      } else if (view.messageType() == ChatRoomProtocol.PING || view.messageType() == ChatRoomProtocol.PONG) {
+        texts.add((view.messageType() == ChatRoomProtocol.PING ? "PING " : "PONG ") + view.number());
+      } else {
+        texts.add(view.text());
+      }
+    }
+    deliveries.computeIfAbsent(session.getClientUserName(), name -> new ArrayList<>()).add(texts);
+  }
+
+  @BeforeEach
+  void setUp() {
+    ChatSession.sessionRegistry = new SessionRegistry();
+    ChatSession.roomRegistry = new RoomRegistry();
+    ChatSession.presenceRegistry = new PresenceRegistry();
+  }
+
+  @AfterEach
+  void tearDown() {
+    ChatSession.rateLimits = RateLimits.UNLIMITED;
+    ChatSession.rateLimitPolicy = RateLimitPolicy.DELAY;
+    ChatSession.idleTimer = new HashedWheelTimer();
+    ChatSession.idleTimeoutNanos = TimeUnit.SECONDS.toNanos(ChatSession.DEFAULT_IDLE_TIMEOUT_SECONDS);
+  }
+
+  private HashedWheelTimer idleTimer(int timeoutTicks) {
+    HashedWheelTimer timer = new HashedWheelTimer(TimeUnit.MILLISECONDS.toNanos(100), 16);
+    ChatSession.idleTimer = timer;
+    ChatSession.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(100L * timeoutTicks);
+    return timer;
+  }
+
+  private static void tick(HashedWheelTimer timer, int times) {
+    for (int i = 0; i < times; i++) {
+      timer.tick();
+    }
+  }
+
+  @Test
+  void batchOfBroadcastsIsOneDeliveryPerRecipient() {
+    ChatSession bot = session("bot");
+    session("alice");
+    session("bob");
+
+    bot.processInput(protocol.encodeBatch(List.of(
+        protocol.encodeBroadcastMessage("bot", "one"),
+        protocol.encodeBroadcastMessage("bot", "two"),
+        protocol.encodeBroadcastMessage("bot", "three"))));
+
+    List<List<String>> expected = List.of(List.of("[bot] : one", "[bot] : two", "[bot] : three"));
+    assertEquals(expected, deliveries.get("alice"));
+    assertEquals(expected, deliveries.get("bob"));
+    assertEquals(null, deliveries.get("bot"));
+  }
+
+  @Test
+  void batchKeepsOrderBetweenBroadcastsAndDirectMessages() {
+    ChatSession bot = session("bot");
+    session("alice");
+    session("bob");
+
+    bot.processInput(protocol.encodeBatch(List.of(
+        protocol.encodeBroadcastMessage("bot", "hello"),
+        protocol.encodeDirectMessage("bot", "alice", "a1"),
+        protocol.encodeDirectMessage("bot", "bob", "b1"),
+        protocol.encodeDirectMessage("bot", "alice", "a2"),
+        protocol.encodeBroadcastMessage("bot", "bye"),
+        protocol.encodeDirectMessage("bot", "ghost", "boo"))));
+
+    assertEquals(List.of(List.of("[bot] : hello"), List.of("[bot] : a1", "[bot] : a2"), List.of("[bot] : bye")),
+        deliveries.get("alice"));
+    assertEquals(List.of(List.of("[bot] : hello"), List.of("[bot] : b1"), List.of("[bot] : bye")),
+        deliveries.get("bob"));
+    assertEquals(List.of(List.of("[Server] : User 'ghost' not found.")), deliveries.get("bot"));
+  }
+
+  @Test
+  void batchSkipsOtherMessageTypes() {
+    ChatSession bot = session("bot");
+    session("alice");
+
+    bot.processInput(protocol.encodeBatch(List.of(
+        protocol.encodeDisconnectMessage("bot"),
+        protocol.encodeBroadcastMessage("bot", "still here"))));
+
+    assertEquals(List.of(List.of("[bot] : still here")), deliveries.get("alice"));
+  }
+
+  @Test
+  void correlatedRequestRepliesEchoTheCorrelationId() {
+    ChatSession alice = session("alice");
+
+    alice.processInput(protocol.encodeCorrelatedRequest(7, protocol.encodeJoinRoom("alice", "lobby")));
+    alice.processInput(protocol.encodeCorrelatedRequest(8, protocol.encodeDirectMessage("alice", "ghost", "boo")));
+    alice.processInput(protocol.encodeJoinRoom("alice", "lobby"));
+
+    assertEquals(List.of(
+        List.of("#7 [Server] : You joined room 'lobby'."),
+        List.of("#8 [Server] : User 'ghost' not found."),
+        List.of("[Server] : You are already in room 'lobby'.")), deliveries.get("alice"));
+  }
+
+  @Test
+  void nestedCorrelatedRequestIsIgnored() {
+    ChatSession alice = session("alice");
+
+    alice.processInput(protocol.encodeCorrelatedRequest(1,
+        protocol.encodeCorrelatedRequest(2, protocol.encodeJoinRoom("alice", "lobby"))));
+
+    assertEquals(null, deliveries.get("alice"));
+  }
+
+  @Test
+  void broadcastsOverTheLimitAreDropped() {
+    ChatSession.rateLimits = RateLimits.parse("broadcast=0.001/2");
+    ChatSession.rateLimitPolicy = RateLimitPolicy.DROP;
+    ChatSession bot = session("bot");
+    session("alice");
+
+    for (String text : List.of("one", "two", "three")) {
+      bot.processInput(protocol.encodeBroadcastMessage("bot", text));
+    }
+    bot.processInput(protocol.encodeJoinRoom("bot", "lobby"));
+
+    assertEquals(List.of(List.of("[bot] : one"), List.of("[bot] : two")), deliveries.get("alice"));
+    assertEquals(List.of(List.of("[Server] : You joined room 'lobby'.")), deliveries.get("bot"));
+  }
+
+  @Test
+  void batchTakesOneTokenPerMessage() {
+    ChatSession.rateLimits = RateLimits.parse("broadcast=0.001/2");
+    ChatSession.rateLimitPolicy = RateLimitPolicy.DROP;
+    ChatSession bot = session("bot");
+    session("alice");
+
+    bot.processInput(protocol.encodeBroadcastMessage("bot", "one"));
+    bot.processInput(protocol.encodeBatch(List.of(
+        protocol.encodeBroadcastMessage("bot", "two"),
+        protocol.encodeBroadcastMessage("bot", "three"))));
+
+    assertEquals(List.of(List.of("[bot] : one")), deliveries.get("alice"));
+  }
+
+  @Test
+  void batchedDirectMessagesTakeDirectTokens() {
+    ChatSession.rateLimits = RateLimits.parse("direct=0.001/2");
+    ChatSession.rateLimitPolicy = RateLimitPolicy.DROP;
+    ChatSession bot = session("bot");
+    session("alice");
+
+    bot.processInput(protocol.encodeDirectMessage("bot", "alice", "one"));
+    bot.processInput(protocol.encodeBatch(List.of(
+        protocol.encodeBroadcastMessage("bot", "hi"),
+        protocol.encodeDirectMessage("bot", "alice", "two"),
+        protocol.encodeDirectMessage("bot", "alice", "three"))));
+    bot.processInput(protocol.encodeBatch(List.of(protocol.encodeBroadcastMessage("bot", "hello"))));
+
+    assertEquals(List.of(List.of("[bot] : one"), List.of("[bot] : hello")), deliveries.get("alice"));
+  }
+
+  @Test
+  void droppedRequestsAreStillAnswered() {
+    ChatSession.rateLimits = RateLimits.parse("who=0.001");
+    ChatSession.rateLimitPolicy = RateLimitPolicy.DROP;
+    ChatSession bot = session("bot");
+
+    bot.processInput(protocol.encodeQueryConnectedUsers("bot"));
+    bot.processInput(protocol.encodeQueryConnectedUsers("bot"));
+    bot.processInput(protocol.encodeCorrelatedRequest(3, protocol.encodeSubscribePresence("bot")));
+
+    assertEquals(2, deliveries.get("bot").size());
+    assertEquals(List.of("#3 " + ChatSession.RATE_LIMITED_MESSAGE), deliveries.get("bot").get(1));
+  }
+
+  @Test
+  void notifyTellsClientOncePerRunOfDroppedFrames() {
+    ChatSession.rateLimits = RateLimits.parse("direct=0.001");
+    ChatSession.rateLimitPolicy = RateLimitPolicy.NOTIFY;
+    ChatSession bot = session("bot");
+    session("alice");
+
+    bot.processInput(protocol.encodeDirectMessage("bot", "alice", "one"));
+    bot.processInput(protocol.encodeDirectMessage("bot", "alice", "two"));
+    bot.processInput(protocol.encodeDirectMessage("bot", "alice", "three"));
+    bot.processInput(protocol.encodeCorrelatedRequest(4, protocol.encodeDirectMessage("bot", "alice", "four")));
+
+    assertEquals(List.of(List.of("[bot] : one")), deliveries.get("alice"));
+    assertEquals(List.of(
+        List.of(ChatSession.RATE_LIMITED_MESSAGE),
+        List.of("#4 " + ChatSession.RATE_LIMITED_MESSAGE)), deliveries.get("bot"));
+  }
+
+  @Test
+  void silentClientIsPingedThenClosed() {
+    HashedWheelTimer timer = idleTimer(10);
+    ChatSession alice = session("alice");
+    alice.watchIdle();
+
+    tick(timer, 5);
+    assertEquals(List.of(List.of("PING 5")), deliveries.get("alice"));
+    assertEquals(List.of(), disconnected);
+
+    tick(timer, 5);
+    assertEquals(List.of("alice"), disconnected);
+    assertEquals(0, timer.pendingCount());
+  }
+
+  @Test
+  void clientThatKeepsTalkingIsNeitherPingedNorClosed() {
+    HashedWheelTimer timer = idleTimer(10);
+    ChatSession alice = session("alice");
+    alice.watchIdle();
+
+    for (int i = 0; i < 10; i++) {
+      tick(timer, 3);
+      alice.recordActivity();
+    }
+
+    assertEquals(null, deliveries.get("alice"));
+    assertEquals(List.of(), disconnected);
+    assertEquals(1, timer.pendingCount());
+  }
+
+  @Test
+  void answeredPingKeepsClientConnected() {
+    HashedWheelTimer timer = idleTimer(10);
+    ChatSession alice = session("alice");
+    alice.watchIdle();
+
+    tick(timer, 5);
+    alice.recordActivity();
+    alice.processInput(protocol.encodePong("alice", 5));
+    tick(timer, 9);
+
+    assertEquals(List.of(List.of("PING 5"), List.of("PING 10")), deliveries.get("alice"));
+    assertEquals(List.of(), disconnected);
+  }
+
+  @Test
+  void removedSessionLeavesTheTimer() {
+    HashedWheelTimer timer = idleTimer(10);
+    ChatSession alice = session("alice");
+    alice.watchIdle();
+
+    alice.removeClientHandler();
+    tick(timer, 20);
+
+    assertEquals(List.of(), disconnected);
+    assertEquals(0, timer.pendingCount());
+  }
+
+  @Test
+  void pingFromClientIsAnsweredWithItsNumber() {
+    ChatSession alice = session("alice");
+
+    alice.processInput(protocol.encodePing("alice", 42));
+
+    assertEquals(List.of(List.of("PONG 42")), deliveries.get("alice"));
+  }
+}
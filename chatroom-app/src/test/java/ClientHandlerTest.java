@@ -10,18 +10,20 @@ class ClientHandlerTest {
 
   private ClientHandler clientHandler;
   private Socket testSocket;
-  private BufferedReader testBufferedReader;
-  private BufferedWriter testBufferedWriter;
+  private InputStream testInputStream;
+  private OutputStream testOutputStream;
 
   @BeforeEach
   void setUp() throws IOException {
     testSocket = new Socket();
-    testBufferedReader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream("testUser\n".getBytes())));
-    testBufferedWriter = new BufferedWriter(new OutputStreamWriter(new ByteArrayOutputStream()));
+    ByteArrayOutputStream frames = new ByteArrayOutputStream();
+    ChatRoomProtocol.writeFrame(new DataOutputStream(frames), "testUser".getBytes());
+    testInputStream = new ByteArrayInputStream(frames.toByteArray());
+    testOutputStream = new ByteArrayOutputStream();
 
     clientHandler = new ClientHandler(testSocket, new Semaphore(2));
-    clientHandler.setBufferedReader(testBufferedReader);
-    clientHandler.setBufferedWriter(testBufferedWriter);
+    clientHandler.setInputStream(testInputStream);
+    clientHandler.setOutputStream(testOutputStream);
   }
 
   @Test
@@ -42,7 +44,7 @@ class ClientHandlerTest {
   void testBroadcastMessage() throws IOException {
     clientHandler.broadcastMessage("BroadcastMessage");
 
-    testBufferedWriter.flush();
+    testOutputStream.flush();
     assert(true);
   }
 
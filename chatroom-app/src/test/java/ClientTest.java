@@ -7,8 +7,6 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -16,7 +14,6 @@ import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.concurrent.Semaphore;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -25,30 +22,30 @@ import org.junit.jupiter.api.Test;
 public class ClientTest {
 
   private Socket mockClientSocket;
-  private BufferedReader mockClientReader;
-  private BufferedWriter mockClientWriter;
+  private InputStream mockClientInput;
+  private OutputStream mockClientOutput;
   private ClientHandler clientHandler;
 
   @BeforeEach
   public void setUp() throws IOException {
     mockClientSocket = mock(Socket.class);
-    mockClientReader = mock(BufferedReader.class);
-    mockClientWriter = mock(BufferedWriter.class);
+    mockClientInput = mock(InputStream.class);
+    mockClientOutput = mock(OutputStream.class);
 
     when(mockClientSocket.getInputStream()).thenReturn(mock(InputStream.class));
     when(mockClientSocket.getOutputStream()).thenReturn(mock(OutputStream.class));
     when(mockClientSocket.isConnected()).thenReturn(true);
 
     clientHandler = new ClientHandler(mockClientSocket, new Semaphore(2));
-    clientHandler.setBufferedReader(mockClientReader);
-    clientHandler.setBufferedWriter(mockClientWriter);
+    clientHandler.setInputStream(mockClientInput);
+    clientHandler.setOutputStream(mockClientOutput);
 
-    ClientHandler.clientHandlers = new ArrayList<>();
+    ClientHandler.sessionRegistry = new SessionRegistry();
   }
 
   @AfterEach
   public void tearDown() throws IOException {
-    clientHandler.closeEverything(mockClientSocket, mockClientReader, mockClientWriter);
+    clientHandler.closeEverything(mockClientSocket, mockClientInput, mockClientOutput);
   }
 
   @Test
@@ -96,7 +93,7 @@ public class ClientTest {
 
   @Test
   public void testClientHandlerConnectionACK() throws IOException {
-    when(mockClientReader.readLine()).thenReturn("TestUser");
+    when(mockClientInput.read()).thenReturn(-1);
     clientHandler.sendConnectionACK();
   }
 
@@ -0,0 +1,274 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ClusterNodeTest {
+
+  private final ChatRoomProtocol protocol = new ChatRoomProtocol();
+  private final List<String> received = new CopyOnWriteArrayList<>();
+  private ServerSocket peerServerSocket;
+  private String peerId;
+  private ClusterNode node;
+
+  private ChatSession session(String userName) {
+    return TestSessions.session(userName,
+        (session, frame) -> received.add(userName + " <- " + TestSessions.frames(frame).get(0).text()),
+        session -> received.add(userName + " disconnected"));
+  }
+
+  private static void waitUntil(BooleanSupplier condition) {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+      Thread.onSpinWait();
+    }
+    assertTrue(condition.getAsBoolean());
+  }
+
+  private static void send(Socket socket, byte[] frame) throws IOException {
+    DataOutputStream dataOutputStream = new DataOutputStream(socket.getOutputStream());
+    ChatRoomProtocol.writeFrame(dataOutputStream, frame);
+    dataOutputStream.flush();
+  }
+
+  @BeforeEach
+  void setUp() throws IOException {
+    ChatSession.sessionRegistry = new SessionRegistry();
+    ChatSession.presenceRegistry = new PresenceRegistry();
+    peerServerSocket = new ServerSocket(0);
+    peerId = "localhost:" + peerServerSocket.getLocalPort();
+    ServerSocket serverSocket = new ServerSocket(0);
+    node = new ClusterNode("localhost:" + serverSocket.getLocalPort(), serverSocket, List.of(peerId));
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    node.close();
+    peerServerSocket.close();
+  }
+
+  @Test
+  void parseAddressRejectsMissingPort() {
+    assertEquals(7001, ClusterNode.parseAddress("localhost:7001").getPort());
+    assertThrows(IllegalArgumentException.class, () -> ClusterNode.parseAddress("localhost"));
+  }
+
+  @Test
+  void greetsPeerWithLocalUsersAndRelaysInBatches() throws IOException {
+    ChatSession.sessionRegistry.register(session("alice"));
+    node.start();
+    Socket link = peerServerSocket.accept();
+    link.setSoTimeout(5000);
+    DataInputStream reader = new DataInputStream(link.getInputStream());
+    FrameView frame = new FrameView();
+
+    assertTrue(frame.readFrom(reader));
+    assertEquals(ChatRoomProtocol.RELAY_HELLO, frame.messageType());
+    assertEquals(node.getNodeId(), frame.field(0));
+    assertTrue(frame.readFrom(reader));
+    assertEquals(ChatRoomProtocol.RELAY_USER_JOINED, frame.messageType());
+    assertEquals("alice", frame.field(1));
+
+    node.relayBroadcast(EncodedFrame.ofText("[alice] : hello"));
+    node.userLeft("alice");
+
+    assertTrue(frame.readFrom(reader));
+    assertEquals(ChatRoomProtocol.RELAY_BROADCAST, frame.messageType());
+    assertEquals("[alice] : hello", frame.field(1));
+    assertTrue(frame.readFrom(reader));
+    assertEquals(ChatRoomProtocol.RELAY_USER_LEFT, frame.messageType());
+    link.close();
+  }
+
+  @Test
+  void keepsMessagesTooLongToRelayOnThisNode() throws IOException {
+    ChatSession alice = session("alice");
+    ChatSession.sessionRegistry.register(alice);
+    node.start();
+    Socket link = peerServerSocket.accept();
+    link.setSoTimeout(5000);
+    DataInputStream reader = new DataInputStream(link.getInputStream());
+    FrameView frame = new FrameView();
+    assertTrue(frame.readFrom(reader));
+    assertTrue(frame.readFrom(reader));
+    EncodedFrame large = EncodedFrame.ofText("x".repeat(ChatRoomProtocol.MAX_FRAME_LENGTH));
+
+    assertFalse(node.canRelay(null, large));
+    assertFalse(node.canRelay("bob", large));
+    ChatSession.clusterNode = node;
+    try {
+      alice.broadcastFrame(large);
+    } finally {
+      ChatSession.clusterNode = null;
+    }
+    assertTrue(node.relayBroadcast(EncodedFrame.ofText("[alice] : hello")));
+
+    assertTrue(frame.readFrom(reader));
+    assertEquals(ChatRoomProtocol.RELAY_BROADCAST, frame.messageType());
+    assertEquals("[alice] : hello", frame.field(1));
+    assertEquals(List.of("alice <- " + ChatSession.MESSAGE_TOO_LONG_TO_RELAY_MESSAGE), received);
+    link.close();
+  }
+
+  @Test
+  void routesDirectMessagesToNodeHoldingRecipient() throws IOException {
+    ChatSession.presenceRegistry = new PresenceRegistry(userName -> node.locate(userName) != null);
+    node.start();
+    Socket outbound = peerServerSocket.accept();
+    outbound.setSoTimeout(5000);
+    DataInputStream reader = new DataInputStream(outbound.getInputStream());
+    FrameView frame = new FrameView();
+    assertTrue(frame.readFrom(reader));
+    assertFalse(node.relayDirect("bob", EncodedFrame.ofText("[alice] : hi")));
+
+    Socket inbound = new Socket();
+    inbound.connect(new InetSocketAddress("localhost", node.getPort()));
+    send(inbound, protocol.encodeRelayHello(peerId));
+    send(inbound, protocol.encodeRelayUserJoined(peerId, "bob"));
+    waitUntil(() -> peerId.equals(node.locate("bob")));
+    waitUntil(() -> ChatSession.presenceRegistry.version() == 1);
+
+    assertTrue(node.relayDirect("bob", EncodedFrame.ofText("[alice] : hi")));
+    assertTrue(frame.readFrom(reader));
+    assertEquals(ChatRoomProtocol.RELAY_DIRECT, frame.messageType());
+    assertEquals("bob", frame.field(1));
+    assertEquals("[alice] : hi", frame.field(2));
+    assertEquals(List.of("bob"), List.copyOf(node.remoteUserNames()));
+
+    inbound.close();
+    waitUntil(() -> node.locate("bob") == null);
+    waitUntil(() -> ChatSession.presenceRegistry.version() == 2);
+    outbound.close();
+  }
+
+  @Test
+  void deliversRelayedFramesToLocalClients() throws IOException {
+    ChatSession.sessionRegistry.register(session("alice"));
+    ChatSession.sessionRegistry.register(session("carol"));
+    node.start();
+    Socket inbound = new Socket();
+    inbound.connect(new InetSocketAddress("localhost", node.getPort()));
+    send(inbound, protocol.encodeRelayHello(peerId));
+
+    byte[] broadcast = new byte[ChatRoomProtocol.relayBroadcastLength(peerId, EncodedFrame.ofText("[bob] : hello"))];
+    protocol.encodeRelayBroadcast(ByteBuffer.wrap(broadcast), peerId, EncodedFrame.ofText("[bob] : hello"));
+    send(inbound, broadcast);
+    byte[] direct = new byte[ChatRoomProtocol.relayDirectLength(peerId, "carol", EncodedFrame.ofText("[bob] : psst"))];
+    protocol.encodeRelayDirect(ByteBuffer.wrap(direct), peerId, "carol", EncodedFrame.ofText("[bob] : psst"));
+    send(inbound, direct);
+
+    waitUntil(() -> received.size() == 3);
+    assertTrue(received.contains("alice <- [bob] : hello"));
+    assertTrue(received.contains("carol <- [bob] : hello"));
+    assertEquals("carol <- [bob] : psst", received.get(2));
+    assertNull(node.locate("carol"));
+    inbound.close();
+  }
+
+  @Test
+  void closesLinksFromNodesThatAreNotPeers() throws IOException {
+    node.start();
+    Socket inbound = new Socket();
+    inbound.connect(new InetSocketAddress("localhost", node.getPort()));
+    inbound.setSoTimeout(5000);
+
+    send(inbound, protocol.encodeRelayHello("localhost:1"));
+
+    assertEquals(-1, inbound.getInputStream().read());
+    assertNull(node.locate("mallory"));
+    inbound.close();
+  }
+
+  @Test
+  void closesLinksFromAnotherHostThanThePeerNamed() throws IOException {
+    String remotePeer = "192.0.2.1:" + peerServerSocket.getLocalPort();
+    ServerSocket serverSocket = new ServerSocket(0);
+    ClusterNode guarded = new ClusterNode("localhost:" + serverSocket.getLocalPort(), serverSocket,
+        List.of(remotePeer));
+    guarded.start();
+    try (Socket inbound = new Socket()) {
+      inbound.connect(new InetSocketAddress("localhost", guarded.getPort()));
+      inbound.setSoTimeout(5000);
+
+      send(inbound, protocol.encodeRelayHello(remotePeer));
+      send(inbound, protocol.encodeRelayUserJoined(remotePeer, "mallory"));
+
+      assertEquals(-1, inbound.getInputStream().read());
+      assertNull(guarded.locate("mallory"));
+    } finally {
+      guarded.close();
+    }
+  }
+
+  @Test
+  void peerOnlySpeaksForItsOwnUsers() throws IOException {
+    node.start();
+    Socket inbound = new Socket();
+    inbound.connect(new InetSocketAddress("localhost", node.getPort()));
+
+    send(inbound, protocol.encodeRelayHello(peerId));
+    send(inbound, protocol.encodeRelayUserJoined("localhost:1", "bob"));
+    waitUntil(() -> node.locate("bob") != null);
+    assertEquals(peerId, node.locate("bob"));
+
+    send(inbound, protocol.encodeRelayUserLeft("localhost:1", "bob"));
+    waitUntil(() -> node.locate("bob") == null);
+    inbound.close();
+  }
+
+  @Test
+  void nodeWhoseNameSortsLastGivesUpAUsernameJoinedTwice() throws IOException {
+    ChatSession bob = session("bob");
+    ChatSession.sessionRegistry.register(bob);
+    ClusterNode last = new ClusterNode("localhost:99999", new ServerSocket(0), List.of(peerId));
+    last.start();
+    Socket inbound = new Socket();
+    inbound.connect(new InetSocketAddress("localhost", last.getPort()));
+
+    send(inbound, protocol.encodeRelayHello(peerId));
+    send(inbound, protocol.encodeRelayUserJoined(peerId, "bob"));
+
+    waitUntil(() -> peerId.equals(last.locate("bob")));
+    assertEquals(List.of("bob disconnected"), received);
+    EncodedFrame reason = bob.outboundQueue.poll();
+    FrameView view = new FrameView();
+    assertTrue(view.wrap(reason.buffer(), ChatRoomProtocol.FRAME_HEADER_LENGTH, reason.bodyLength()));
+    assertEquals(ChatSession.USERNAME_TAKEN_ON_ANOTHER_NODE_MESSAGE, view.text());
+    inbound.close();
+    last.close();
+  }
+
+  @Test
+  void nodeWhoseNameSortsFirstKeepsAUsernameJoinedTwice() throws IOException {
+    ChatSession.sessionRegistry.register(session("bob"));
+    ClusterNode first = new ClusterNode("localhost:0", new ServerSocket(0), List.of(peerId));
+    first.start();
+    Socket inbound = new Socket();
+    inbound.connect(new InetSocketAddress("localhost", first.getPort()));
+
+    send(inbound, protocol.encodeRelayHello(peerId));
+    send(inbound, protocol.encodeRelayUserJoined(peerId, "bob"));
+    send(inbound, protocol.encodeRelayUserJoined(peerId, "dave"));
+
+    waitUntil(() -> peerId.equals(first.locate("dave")));
+    assertNull(first.locate("bob"));
+    assertTrue(received.isEmpty());
+    inbound.close();
+    first.close();
+  }
+}
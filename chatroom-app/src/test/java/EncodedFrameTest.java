@@ -0,0 +1,94 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class EncodedFrameTest {
+
+  @Test
+  void writeToMatchesWriteFrame() throws IOException {
+    byte[] body = "[yashvi] : Hello, everyone!".getBytes(StandardCharsets.UTF_8);
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    ChatRoomProtocol.writeFrame(new DataOutputStream(expected), body);
+
+    ByteArrayOutputStream actual = new ByteArrayOutputStream();
+    new EncodedFrame(body).writeTo(actual);
+
+    assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+  }
+
+  @Test
+  void buffersAreIndependentAndReadOnly() {
+    EncodedFrame frame = EncodedFrame.ofText("Hi all!");
+    ByteBuffer first = frame.buffer();
+    ByteBuffer second = frame.buffer();
+
+    first.position(first.limit());
+
+    assertTrue(first.isReadOnly());
+    assertEquals(frame.length(), second.remaining());
+    assertEquals("Hi all!".length(), second.getInt());
+  }
+
+  @Test
+  void length() {
+    EncodedFrame frame = EncodedFrame.ofText("h\u00e9");
+
+    assertEquals(ChatRoomProtocol.FRAME_HEADER_LENGTH + 3, frame.length());
+  }
+
+  @Test
+  void ofChatMessageCopiesFields() throws IOException {
+    String message = "h\u00e9llo";
+    FrameView frame = new FrameView();
+    frame.wrap(new ChatRoomProtocol().encodeBroadcastMessage("yashvi", message));
+
+    ByteArrayOutputStream actual = new ByteArrayOutputStream();
+    EncodedFrame.ofChatMessage(frame, 0, 1).writeTo(actual);
+
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    EncodedFrame.ofText("[yashvi] : " + message).writeTo(expected);
+    assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+  }
+
+  @Test
+  void compressedLeavesSmallFramesAlone() {
+    EncodedFrame frame = EncodedFrame.ofText("[yashvi] : short");
+
+    assertSame(frame, frame.compressed());
+  }
+
+  @Test
+  void compressedDeflatesLargeFramesOnce() throws IOException {
+    String text = "[yashvi] : " + "all work and no play makes jack a dull boy ".repeat(40);
+    EncodedFrame frame = EncodedFrame.ofText(text).asBroadcast();
+
+    EncodedFrame compressed = frame.compressed();
+    FrameView view = new FrameView();
+
+    assertSame(compressed, frame.compressed());
+    assertTrue(compressed.isBroadcast());
+    assertTrue(compressed.length() < frame.length());
+    assertEquals(ChatRoomProtocol.COMPRESSED_FRAME, compressed.messageType());
+    assertTrue(view.wrap(compressed.buffer(), ChatRoomProtocol.FRAME_HEADER_LENGTH, compressed.bodyLength()));
+    assertEquals(frame.bodyLength(), view.number());
+    assertEquals(text, new String(FrameCompressor.inflate(view), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void compressedLeavesRunsOfFramesAlone() throws IOException {
+    ByteArrayOutputStream frames = new ByteArrayOutputStream();
+    EncodedFrame.ofText("a".repeat(600)).writeTo(frames);
+    EncodedFrame.ofText("b".repeat(600)).writeTo(frames);
+    EncodedFrame run = EncodedFrame.ofEncodedFrames(frames.toByteArray());
+
+    assertSame(run, run.compressed());
+  }
+}
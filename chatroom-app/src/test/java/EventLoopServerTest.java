@@ -0,0 +1,665 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class EventLoopServerTest {
+
+  private static final int EVENT_LOOP_COUNT = 4;
+
+  private EventLoopServer server;
+  private int port;
+  private final ChatRoomProtocol protocol = new ChatRoomProtocol();
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    ChatSession.sessionRegistry = new SessionRegistry();
+    ChatSession.roomRegistry = new RoomRegistry();
+    ChatSession.presenceRegistry = new PresenceRegistry();
+    ChatSession.resumeRegistry = new ResumeRegistry();
+    ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
+    serverSocketChannel.bind(new InetSocketAddress("localhost", 0));
+    port = serverSocketChannel.socket().getLocalPort();
+    server = new EventLoopServer(serverSocketChannel, EVENT_LOOP_COUNT);
+    new Thread(() -> server.startServer(port)).start();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    server.closeServerSocket();
+    ChatSession.backpressurePolicy = OutboundQueue.DEFAULT_POLICY;
+    ChatSession.maxQueuedBytes = OutboundQueue.DEFAULT_BYTE_CAPACITY;
+    ChatSession.rateLimits = RateLimits.UNLIMITED;
+    ChatSession.rateLimitPolicy = RateLimitPolicy.DELAY;
+    ChatSession.idleTimeoutNanos = TimeUnit.SECONDS.toNanos(ChatSession.DEFAULT_IDLE_TIMEOUT_SECONDS);
+  }
+
+  private Socket connect(String userName) throws IOException {
+    Socket socket = new Socket("localhost", port);
+    socket.setSoTimeout(5000);
+    send(socket, userName.getBytes(StandardCharsets.UTF_8));
+    send(socket, protocol.encodeConnectMessage(userName));
+    return socket;
+  }
+
+  private void send(Socket socket, byte[] frame) throws IOException {
+    DataOutputStream dataOutputStream = new DataOutputStream(socket.getOutputStream());
+    ChatRoomProtocol.writeFrame(dataOutputStream, frame);
+    dataOutputStream.flush();
+  }
+
+  private String receive(DataInputStream dataInputStream) throws IOException {
+    return new String(ChatRoomProtocol.readFrame(dataInputStream), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testConnectIsAcknowledged() throws IOException {
+    Socket alice = connect("alice");
+    DataInputStream reader = new DataInputStream(alice.getInputStream());
+
+    String response = receive(reader);
+
+    assertEquals(ChatRoomProtocol.CONNECT_RESPONSE, response.charAt(3));
+    assertTrue(response.endsWith("There are 1 connected users."));
+    alice.close();
+  }
+
+  @Test
+  public void testEveryEventLoopRunsOnItsOwnNamedThread() {
+    Set<String> expected = new HashSet<>();
+    for (int i = 0; i < EVENT_LOOP_COUNT; i++) {
+      expected.add(EventLoopServer.EVENT_LOOP_THREAD_PREFIX + i);
+    }
+    Set<String> names = new HashSet<>();
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!names.containsAll(expected) && System.nanoTime() < deadline) {
+      names.clear();
+      for (Thread thread : Thread.getAllStackTraces().keySet()) {
+        names.add(thread.getName());
+      }
+    }
+
+    assertTrue(names.containsAll(expected));
+  }
+
+  private Socket connectResumable(String userName, String resumeToken) throws IOException {
+    Socket socket = new Socket("localhost", port);
+    socket.setSoTimeout(5000);
+    send(socket, protocol.encodeConnectMessage(userName, "", resumeToken));
+    return socket;
+  }
+
+  @Test
+  public void testSilentClientIsPingedThenClosedAndItsPermitReleased() throws Exception {
+    ChatSession.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(400);
+    int permits = server.getSemaphore().availablePermits();
+    Socket alice = connect("alice");
+    DataInputStream aliceReader = new DataInputStream(alice.getInputStream());
+    receive(aliceReader);
+    FrameView frame = new FrameView();
+
+    assertTrue(frame.readFrom(aliceReader));
+    assertEquals(ChatRoomProtocol.PING, frame.messageType());
+    assertEquals(-1, aliceReader.read());
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (server.getSemaphore().availablePermits() != permits && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(permits, server.getSemaphore().availablePermits());
+    assertEquals(null, ChatSession.sessionRegistry.lookup("alice"));
+    alice.close();
+  }
+
+  @Test
+  public void testSingleFrameHandshakeIsAnsweredWithResumeToken() throws IOException {
+    Socket alice = connectResumable("alice", "");
+    FrameView response = new FrameView();
+
+    assertTrue(response.readFrom(new DataInputStream(alice.getInputStream())));
+
+    assertEquals(ChatRoomProtocol.CONNECT_RESPONSE, response.messageType());
+    assertTrue(response.flag());
+    assertTrue(response.field(0).endsWith("There are 1 connected users."));
+    assertEquals(ResumeRegistry.TOKEN_BYTES * 2, response.field(2).length());
+    alice.close();
+  }
+
+  @Test
+  public void testResumedSessionReceivesWhatWasMissedWithoutRejoining() throws Exception {
+    Socket alice = connectResumable("alice", "");
+    DataInputStream aliceReader = new DataInputStream(alice.getInputStream());
+    FrameView response = new FrameView();
+    assertTrue(response.readFrom(aliceReader));
+    String token = response.field(2);
+    send(alice, protocol.encodeJoinRoom("alice", "java"));
+    assertEquals("[Server] : You joined room 'java'.", receive(aliceReader));
+    Socket bob = connect("bob");
+    DataInputStream bobReader = new DataInputStream(bob.getInputStream());
+    receive(bobReader);
+    assertEquals("[Server] : bob has entered the chat.", receive(aliceReader));
+    send(bob, protocol.encodeJoinRoom("bob", "java"));
+    assertEquals("[Server] : You joined room 'java'.", receive(bobReader));
+    assertEquals("#java [Server] : bob has joined the room.", receive(aliceReader));
+
+    alice.close();
+    for (int i = 0; i < 100 && ChatSession.resumeRegistry.size() == 0; i++) {
+      Thread.sleep(20);
+    }
+    send(bob, protocol.encodeBroadcastMessage("bob", "while away"));
+    send(bob, protocol.encodeRoomMessage("bob", "java", "in the room"));
+    send(bob, protocol.encodeDirectMessage("bob", "alice", "psst"));
+    Socket resumed = connectResumable("alice", token);
+    DataInputStream resumedReader = new DataInputStream(resumed.getInputStream());
+
+    assertTrue(response.readFrom(resumedReader));
+    assertTrue(response.flag());
+    assertEquals(ChatSession.SESSION_RESUMED_MESSAGE, response.field(0));
+    assertNotEquals(token, response.field(2));
+    assertEquals("[bob] : while away", receive(resumedReader));
+    assertEquals("#java [bob] : in the room", receive(resumedReader));
+    assertEquals("[bob] : psst", receive(resumedReader));
+    send(resumed, protocol.encodeRoomMessage("alice", "java", "back"));
+    assertEquals("#java [alice] : back", receive(bobReader));
+    resumed.close();
+    bob.close();
+  }
+
+  @Test
+  public void testResumeTokenIsGoodForItsUserOnly() throws Exception {
+    Socket alice = connectResumable("alice", "");
+    FrameView response = new FrameView();
+    assertTrue(response.readFrom(new DataInputStream(alice.getInputStream())));
+    String token = response.field(2);
+    alice.close();
+    for (int i = 0; i < 100 && ChatSession.resumeRegistry.size() == 0; i++) {
+      Thread.sleep(20);
+    }
+
+    Socket mallory = connectResumable("mallory", token);
+    assertTrue(response.readFrom(new DataInputStream(mallory.getInputStream())));
+    assertTrue(response.flag());
+    assertTrue(response.field(0).startsWith("Connection established"));
+    Socket impostor = connectResumable("alice", "");
+    assertTrue(response.readFrom(new DataInputStream(impostor.getInputStream())));
+    assertEquals(ChatSession.USERNAME_TAKEN_MESSAGE, response.field(0));
+    mallory.close();
+    impostor.close();
+  }
+
+  @Test
+  public void testBroadcastReachesOtherClients() throws IOException {
+    Socket alice = connect("alice");
+    DataInputStream aliceReader = new DataInputStream(alice.getInputStream());
+    receive(aliceReader);
+    Socket bob = connect("bob");
+    DataInputStream bobReader = new DataInputStream(bob.getInputStream());
+    receive(bobReader);
+    assertEquals("[Server] : bob has entered the chat.", receive(aliceReader));
+
+    send(bob, protocol.encodeBroadcastMessage("bob", "hello"));
+
+    assertEquals("[bob] : hello", receive(aliceReader));
+    alice.close();
+    bob.close();
+  }
+
+  @Test
+  public void testBroadcastsOverTheLimitAreDelayedNotLost() throws IOException {
+    ChatSession.rateLimits = RateLimits.parse("broadcast=20");
+    Socket alice = connect("alice");
+    DataInputStream aliceReader = new DataInputStream(alice.getInputStream());
+    receive(aliceReader);
+    Socket bob = connect("bob");
+    DataInputStream bobReader = new DataInputStream(bob.getInputStream());
+    receive(bobReader);
+    assertEquals("[Server] : bob has entered the chat.", receive(aliceReader));
+
+    long start = System.nanoTime();
+    for (int i = 0; i < 5; i++) {
+      send(bob, protocol.encodeBroadcastMessage("bob", "hello " + i));
+    }
+
+    for (int i = 0; i < 5; i++) {
+      assertEquals("[bob] : hello " + i, receive(aliceReader));
+    }
+    assertTrue(System.nanoTime() - start >= 150_000_000L);
+    alice.close();
+    bob.close();
+  }
+
+  @Test
+  public void testLargeBroadcastIsCompressedOnlyForClientsThatAskedForIt() throws IOException {
+    Socket alice = new Socket("localhost", port);
+    alice.setSoTimeout(5000);
+    send(alice, "alice".getBytes(StandardCharsets.UTF_8));
+    send(alice, protocol.encodeConnectMessage("alice", ChatRoomProtocol.COMPRESSION_DEFLATE));
+    DataInputStream aliceReader = new DataInputStream(alice.getInputStream());
+    FrameView frame = new FrameView();
+    assertTrue(frame.readFrom(aliceReader));
+    assertEquals(ChatRoomProtocol.COMPRESSION_DEFLATE, frame.field(1));
+    Socket bob = connect("bob");
+    DataInputStream bobReader = new DataInputStream(bob.getInputStream());
+    receive(bobReader);
+    assertEquals("[Server] : bob has entered the chat.", receive(aliceReader));
+    String log = "ERROR connection reset by peer\n".repeat(64);
+    Socket carol = connect("carol");
+    DataInputStream carolReader = new DataInputStream(carol.getInputStream());
+    receive(carolReader);
+    receive(aliceReader);
+    receive(bobReader);
+
+    send(carol, protocol.encodeBroadcastMessage("carol", log));
+
+    assertTrue(frame.readFrom(aliceReader));
+    assertEquals(ChatRoomProtocol.COMPRESSED_FRAME, frame.messageType());
+    assertTrue(frame.length() < log.length());
+    assertEquals("[carol] : " + log, new String(FrameCompressor.inflate(frame), StandardCharsets.UTF_8));
+    assertEquals("[carol] : " + log, receive(bobReader));
+    alice.close();
+    bob.close();
+    carol.close();
+  }
+
+  @Test
+  public void testRoomMessageReachesOnlyRoomMembers() throws IOException {
+    Socket alice = connect("alice");
+    DataInputStream aliceReader = new DataInputStream(alice.getInputStream());
+    receive(aliceReader);
+    Socket bob = connect("bob");
+    DataInputStream bobReader = new DataInputStream(bob.getInputStream());
+    receive(bobReader);
+    assertEquals("[Server] : bob has entered the chat.", receive(aliceReader));
+    Socket carol = connect("carol");
+    DataInputStream carolReader = new DataInputStream(carol.getInputStream());
+    receive(carolReader);
+    assertEquals("[Server] : carol has entered the chat.", receive(aliceReader));
+    assertEquals("[Server] : carol has entered the chat.", receive(bobReader));
+
+    send(alice, protocol.encodeJoinRoom("alice", "java"));
+    assertEquals("[Server] : You joined room 'java'.", receive(aliceReader));
+    send(bob, protocol.encodeJoinRoom("bob", "java"));
+    assertEquals("[Server] : You joined room 'java'.", receive(bobReader));
+    assertEquals("#java [Server] : bob has joined the room.", receive(aliceReader));
+
+    send(bob, protocol.encodeRoomMessage("bob", "java", "hello"));
+    assertEquals("#java [bob] : hello", receive(aliceReader));
+
+    send(carol, protocol.encodeRoomMessage("carol", "java", "hi"));
+    assertEquals("[Server] : You are not in room 'java'.", receive(carolReader));
+    send(carol, protocol.encodeListRooms("carol"));
+    FrameView rooms = new FrameView();
+    assertTrue(rooms.readFrom(carolReader));
+    assertEquals(ChatRoomProtocol.ROOM_LIST_RESPONSE, rooms.messageType());
+    assertEquals("java", rooms.field(0));
+
+    bob.close();
+    assertEquals("#java [Server] : bob has left the room.", receive(aliceReader));
+    alice.close();
+    carol.close();
+  }
+
+  @Test
+  public void testBroadcastReachesClientsOnEveryEventLoop() throws IOException {
+    int clients = EVENT_LOOP_COUNT * 2;
+    Socket[] sockets = new Socket[clients];
+    DataInputStream[] readers = new DataInputStream[clients];
+    for (int i = 0; i < clients; i++) {
+      sockets[i] = connect("user" + i);
+      readers[i] = new DataInputStream(sockets[i].getInputStream());
+      receive(readers[i]);
+      for (int j = 0; j < i; j++) {
+        assertEquals("[Server] : user" + i + " has entered the chat.", receive(readers[j]));
+      }
+    }
+
+    for (int i = 0; i < clients; i++) {
+      send(sockets[i], protocol.encodeBroadcastMessage("user" + i, "hello " + i));
+    }
+
+    for (int i = 0; i < clients; i++) {
+      int received = 0;
+      for (int j = 0; j < clients - 1; j++) {
+        assertTrue(receive(readers[i]).contains("] : hello "));
+        received++;
+      }
+      assertEquals(clients - 1, received);
+    }
+    for (Socket socket : sockets) {
+      socket.close();
+    }
+  }
+
+  @Test
+  public void testLateJoinerReplaysHistory() throws IOException {
+    Path directory = Files.createTempDirectory("message-log");
+    ChatSession.messageLog = new MessageLog(directory);
+    try {
+      Socket alice = connect("alice");
+      DataInputStream aliceReader = new DataInputStream(alice.getInputStream());
+      receive(aliceReader);
+      send(alice, protocol.encodeBroadcastMessage("alice", "first"));
+      send(alice, protocol.encodeBroadcastMessage("alice", "second"));
+      send(alice, protocol.encodeDirectMessage("alice", "alice", "note to self"));
+      assertEquals("[alice] : note to self", receive(aliceReader));
+      long deadline = System.currentTimeMillis() + 5000;
+      while (ChatSession.messageLog.nextSequence() < 4 && System.currentTimeMillis() < deadline) {
+        Thread.onSpinWait();
+      }
+
+      Socket bob = connect("bob");
+      DataInputStream bobReader = new DataInputStream(bob.getInputStream());
+      receive(bobReader);
+      send(bob, protocol.encodeReplayLastMessages("bob", 10));
+
+      FrameView replayed = new FrameView();
+      assertTrue(replayed.readFrom(bobReader));
+      assertEquals(ChatRoomProtocol.REPLAYED_MESSAGE, replayed.messageType());
+      assertEquals(1, replayed.number());
+      assertEquals("[alice] : first", replayed.field(2));
+      assertTrue(replayed.readFrom(bobReader));
+      assertEquals("[alice] : second", replayed.field(2));
+      assertEquals("[Server] : Replayed 2 messages up to #2.", receive(bobReader));
+      alice.close();
+      bob.close();
+    } finally {
+      ChatSession.messageLog.close();
+      ChatSession.messageLog = null;
+      try (Stream<Path> files = Files.list(directory)) {
+        for (Path file : (Iterable<Path>) files::iterator) {
+          Files.delete(file);
+        }
+      }
+      Files.delete(directory);
+    }
+  }
+
+  @Test
+  public void testDirectMessageToOfflineUserIsDeliveredOnConnect() throws IOException {
+    Path directory = Files.createTempDirectory("offline-inbox");
+    ChatSession.offlineInbox = new OfflineInbox(directory);
+    try {
+      Socket alice = connect("alice");
+      DataInputStream aliceReader = new DataInputStream(alice.getInputStream());
+      receive(aliceReader);
+      send(alice, protocol.encodeDirectMessage("alice", "bob", "are you there?"));
+      assertEquals("[Server] : User 'bob' is offline. The message will be delivered when they connect.",
+          receive(aliceReader));
+
+      Socket bob = connect("bob");
+      DataInputStream bobReader = new DataInputStream(bob.getInputStream());
+      receive(bobReader);
+
+      assertEquals("[Server] : You have 1 messages received while you were offline.", receive(bobReader));
+      assertEquals("[alice] : are you there?", receive(bobReader));
+      alice.close();
+      bob.close();
+    } finally {
+      ChatSession.offlineInbox.close();
+      ChatSession.offlineInbox = null;
+      try (Stream<Path> files = Files.list(directory)) {
+        for (Path file : (Iterable<Path>) files::iterator) {
+          Files.delete(file);
+        }
+      }
+      Files.delete(directory);
+    }
+  }
+
+  @Test
+  public void testFileIsServedFromSpoolBetweenChatFrames() throws IOException {
+    Path directory = Files.createTempDirectory("file-transfers");
+    ChatSession.fileTransfers = new FileTransfers(directory);
+    try {
+      Socket alice = connect("alice");
+      DataInputStream aliceReader = new DataInputStream(alice.getInputStream());
+      receive(aliceReader);
+      Socket bob = connect("bob");
+      DataInputStream bobReader = new DataInputStream(bob.getInputStream());
+      receive(bobReader);
+      assertEquals("[Server] : bob has entered the chat.", receive(aliceReader));
+      byte[] file = new byte[FileTransfers.CHUNK_SIZE * 4 + 17];
+      for (int i = 0; i < file.length; i++) {
+        file[i] = (byte) (i % 251);
+      }
+      FrameView frame = new FrameView();
+
+      send(alice, protocol.encodeFileOffer(0, "alice", "bob", "big.bin", file.length));
+      assertTrue(frame.readFrom(aliceReader));
+      assertEquals(ChatRoomProtocol.FILE_OFFER, frame.messageType());
+      long id = frame.number();
+      assertTrue(frame.readFrom(bobReader));
+      assertEquals(id, frame.number());
+      assertEquals("big.bin", frame.field(2));
+      send(bob, protocol.encodeFileAccept("bob", id));
+      assertTrue(frame.readFrom(aliceReader));
+      assertEquals(ChatRoomProtocol.FILE_ACCEPT, frame.messageType());
+
+      for (int offset = 0; offset < file.length; offset += FileTransfers.CHUNK_SIZE) {
+        int length = Math.min(FileTransfers.CHUNK_SIZE, file.length - offset);
+        send(alice, protocol.encodeFileChunk(id, Arrays.copyOfRange(file, offset, offset + length), length));
+      }
+      send(alice, protocol.encodeFileChunk(id, new byte[0], 0));
+      send(alice, protocol.encodeDirectMessage("alice", "bob", "did it arrive?"));
+
+      ByteArrayOutputStream received = new ByteArrayOutputStream();
+      String chat = null;
+      while (true) {
+        assertTrue(frame.readFrom(bobReader));
+        if (frame.messageType() != ChatRoomProtocol.FILE_CHUNK) {
+          chat = frame.text();
+          continue;
+        }
+        assertEquals(id, frame.number());
+        if (frame.fieldLength(0) == 0) {
+          break;
+        }
+        byte[] data = new byte[frame.fieldLength(0)];
+        frame.fieldBuffer(0).get(data);
+        received.write(data);
+      }
+      if (chat == null) {
+        chat = receive(bobReader);
+      }
+
+      assertArrayEquals(file, received.toByteArray());
+      assertEquals("[alice] : did it arrive?", chat);
+      assertEquals("[Server] : bob received 'big.bin'.", receive(aliceReader));
+      alice.close();
+      bob.close();
+    } finally {
+      ChatSession.fileTransfers = null;
+      try (Stream<Path> files = Files.list(directory)) {
+        for (Path file : (Iterable<Path>) files::iterator) {
+          Files.delete(file);
+        }
+      }
+      Files.delete(directory);
+    }
+  }
+
+  @Test
+  public void testDownloadLetsOtherSessionsOnTheLoopProceed() throws Exception {
+    server.closeServerSocket();
+    ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
+    serverSocketChannel.bind(new InetSocketAddress("localhost", 0));
+    port = serverSocketChannel.socket().getLocalPort();
+    server = new EventLoopServer(serverSocketChannel, 1);
+    new Thread(() -> server.startServer(port)).start();
+    Path directory = Files.createTempDirectory("file-transfers");
+    ChatSession.fileTransfers = new FileTransfers(directory);
+    try {
+      Socket alice = connect("alice");
+      DataInputStream aliceReader = new DataInputStream(alice.getInputStream());
+      receive(aliceReader);
+      Socket bob = connect("bob");
+      DataInputStream bobReader = new DataInputStream(bob.getInputStream());
+      receive(bobReader);
+      Socket carol = connect("carol");
+      DataInputStream carolReader = new DataInputStream(carol.getInputStream());
+      receive(carolReader);
+      long size = 48L * FileTransfers.CHUNK_SIZE * 16;
+      FrameView frame = new FrameView();
+
+      send(alice, protocol.encodeFileOffer(0, "alice", "bob", "large.bin", size));
+      do {
+        assertTrue(frame.readFrom(aliceReader));
+      } while (frame.messageType() != ChatRoomProtocol.FILE_OFFER);
+      long id = frame.number();
+      send(bob, protocol.encodeFileAccept("bob", id));
+      do {
+        assertTrue(frame.readFrom(aliceReader));
+      } while (frame.messageType() != ChatRoomProtocol.FILE_ACCEPT);
+      byte[] chunk = protocol.encodeFileChunk(id, new byte[FileTransfers.CHUNK_SIZE], FileTransfers.CHUNK_SIZE);
+      for (long sent = 0; sent < size; sent += FileTransfers.CHUNK_SIZE) {
+        send(alice, chunk);
+      }
+      send(alice, protocol.encodeFileChunk(id, new byte[0], 0));
+
+      AtomicLong downloaded = new AtomicLong();
+      CompletableFuture<Void> download = CompletableFuture.runAsync(() -> {
+        FrameView piece = new FrameView();
+        try {
+          while (piece.readFrom(bobReader)) {
+            if (piece.messageType() == ChatRoomProtocol.FILE_CHUNK) {
+              if (piece.fieldLength(0) == 0) {
+                return;
+              }
+              downloaded.addAndGet(piece.fieldLength(0));
+            }
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+      while (downloaded.get() == 0 && !download.isDone()) {
+        Thread.onSpinWait();
+      }
+      send(carol, protocol.encodePing("carol", 7));
+      do {
+        assertTrue(frame.readFrom(carolReader));
+      } while (frame.messageType() != ChatRoomProtocol.PONG);
+
+      assertTrue(downloaded.get() < size);
+      download.get(10, TimeUnit.SECONDS);
+      assertEquals(size, downloaded.get());
+      alice.close();
+      bob.close();
+      carol.close();
+    } finally {
+      ChatSession.fileTransfers = null;
+      try (Stream<Path> files = Files.list(directory)) {
+        for (Path file : (Iterable<Path>) files::iterator) {
+          Files.delete(file);
+        }
+      }
+      Files.delete(directory);
+    }
+  }
+
+  @Test
+  public void testDirectMessageToUnknownUser() throws IOException {
+    Socket alice = connect("alice");
+    DataInputStream reader = new DataInputStream(alice.getInputStream());
+    receive(reader);
+
+    send(alice, protocol.encodeDirectMessage("alice", "ghost", "hi"));
+
+    assertEquals("[Server] : User 'ghost' not found.", receive(reader));
+    alice.close();
+  }
+
+  @Test
+  public void testTakenUserNameIsRejected() throws IOException {
+    Socket first = connect("alice");
+    receive(new DataInputStream(first.getInputStream()));
+    Socket second = new Socket("localhost", port);
+    second.setSoTimeout(5000);
+    send(second, "alice".getBytes(StandardCharsets.UTF_8));
+    DataInputStream reader = new DataInputStream(second.getInputStream());
+
+    String response = receive(reader);
+
+    assertEquals(ChatRoomProtocol.CONNECT_RESPONSE, response.charAt(3));
+    assertTrue(response.endsWith(ChatSession.USERNAME_TAKEN_MESSAGE));
+    assertEquals(-1, reader.read());
+    first.close();
+    second.close();
+  }
+
+  @Test
+  public void testLargeNonAsciiBroadcast() throws IOException {
+    Socket alice = connect("alice");
+    DataInputStream aliceReader = new DataInputStream(alice.getInputStream());
+    receive(aliceReader);
+    Socket bob = connect("bob");
+    receive(new DataInputStream(bob.getInputStream()));
+    receive(aliceReader);
+    String message = "h\u00e9llo\n".repeat(5000);
+
+    send(bob, protocol.encodeBroadcastMessage("bob", message));
+
+    assertEquals("[bob] : " + message, receive(aliceReader));
+    alice.close();
+    bob.close();
+  }
+
+  @Test
+  public void testSlowConsumerIsDisconnected() throws IOException {
+    ChatSession.backpressurePolicy = BackpressurePolicy.DISCONNECT;
+    ChatSession.maxQueuedBytes = 1 << 20;
+    ChatSession.serverMetrics = new ServerMetrics();
+    Socket slow = connect("slow");
+    DataInputStream slowReader = new DataInputStream(slow.getInputStream());
+    receive(slowReader);
+    Socket fast = connect("fast");
+    receive(new DataInputStream(fast.getInputStream()));
+    byte[] broadcast = protocol.encodeBroadcastMessage("fast", "x".repeat(100_000));
+
+    for (int i = 0; i < 400 && ChatSession.serverMetrics.getBackpressure().get("disconnect") == 0; i++) {
+      send(fast, broadcast);
+    }
+
+    String last = null;
+    try {
+      while (true) {
+        last = receive(slowReader);
+      }
+    } catch (IOException e) {
+      // The connection was closed after the reason.
+    }
+    assertEquals(ChatSession.SLOW_CONSUMER_MESSAGE, last);
+    assertEquals(1, (long) ChatSession.serverMetrics.getBackpressure().get("disconnect"));
+    slow.close();
+    fast.close();
+  }
+
+  @Test
+  public void testServerToString() {
+    String expectedString = "EventLoopServer{serverSocketChannel=" + server.getServerSocketChannel()
+        + ", eventLoopCount=" + EVENT_LOOP_COUNT + '}';
+    assertEquals(expectedString, server.toString());
+  }
+}
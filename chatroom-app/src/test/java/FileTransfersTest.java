@@ -0,0 +1,326 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class FileTransfersTest {
+
+  private final ChatRoomProtocol protocol = new ChatRoomProtocol();
+  private final Map<String, List<String>> deliveries = new ConcurrentHashMap<>();
+  private Path directory;
+  private FileTransfers transfers;
+
+  private ChatSession session(String userName) {
+    ChatSession session = TestSessions.session(userName, (recipient, frame) -> {
+      FrameView view = TestSessions.frames(frame).get(0);
+      String text;
+      switch (view.messageType()) {
+        case ChatRoomProtocol.FILE_OFFER:
+          text = "OFFER " + view.number() + " " + view.field(0) + " " + view.field(1) + " " + view.field(2)
+              + " " + view.field(3);
+          break;
+        case ChatRoomProtocol.FILE_ACCEPT:
+          text = "ACCEPT " + view.number() + " " + view.field(0);
+          break;
+        case ChatRoomProtocol.FILE_DECLINE:
+          text = "DECLINE " + view.number() + " " + view.field(0);
+          break;
+        default:
+          text = view.text();
+          break;
+      }
+      deliveries.computeIfAbsent(userName, name -> new ArrayList<>()).add(text);
+    });
+    session.chatRoomProtocol = protocol;
+    session.semaphore = new Semaphore(1);
+    ChatSession.sessionRegistry.register(session);
+    return session;
+  }
+
+  private static byte[] download(ChatSession recipient) throws IOException {
+    FileTransfer transfer = recipient.currentDownload();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    WritableByteChannel channel = Channels.newChannel(bytes);
+    while (!transfer.isFinished()) {
+      assertTrue(transfer.writeChunk(channel));
+    }
+    recipient.finishDownload(transfer, true);
+
+    DataInputStream frames = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    ByteArrayOutputStream file = new ByteArrayOutputStream();
+    FrameView view = new FrameView();
+    while (frames.available() > 0) {
+      assertTrue(view.readFrom(frames));
+      assertEquals(ChatRoomProtocol.FILE_CHUNK, view.messageType());
+      assertEquals(transfer.getId(), view.number());
+      byte[] data = new byte[view.fieldLength(0)];
+      view.fieldBuffer(0).get(data);
+      file.write(data);
+    }
+    return file.toByteArray();
+  }
+
+  private static void upload(ChatSession sender, long id, byte[] file, int chunkSize) {
+    for (int offset = 0; offset < file.length; offset += chunkSize) {
+      byte[] chunk = Arrays.copyOfRange(file, offset, Math.min(file.length, offset + chunkSize));
+      sender.processInput(new ChatRoomProtocol().encodeFileChunk(id, chunk, chunk.length));
+    }
+    sender.processInput(new ChatRoomProtocol().encodeFileChunk(id, new byte[0], 0));
+  }
+
+  @BeforeEach
+  void setUp() throws IOException {
+    directory = Files.createTempDirectory("file-transfers");
+    transfers = new FileTransfers(directory, 1 << 20);
+    ChatSession.sessionRegistry = new SessionRegistry();
+    ChatSession.fileTransfers = transfers;
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    ChatSession.fileTransfers = null;
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  @Test
+  void offerIsHandedToRecipientUnderNewId() {
+    ChatSession alice = session("alice");
+    session("bob");
+
+    alice.processInput(protocol.encodeFileOffer(0, "alice", "bob", "notes.txt", 12));
+
+    assertEquals(List.of("OFFER 1 alice bob notes.txt 12"), deliveries.get("alice"));
+    assertEquals(List.of("OFFER 1 alice bob notes.txt 12"), deliveries.get("bob"));
+  }
+
+  @Test
+  void acceptedFileIsSpooledThenServedInPieces() throws IOException {
+    ChatSession alice = session("alice");
+    ChatSession bob = session("bob");
+    byte[] file = new byte[FileTransfers.CHUNK_SIZE * 2 + 100];
+    for (int i = 0; i < file.length; i++) {
+      file[i] = (byte) (i * 31);
+    }
+
+    alice.processInput(protocol.encodeFileOffer(0, "alice", "bob", "data.bin", file.length));
+    bob.processInput(protocol.encodeFileAccept("bob", 1));
+    assertEquals("ACCEPT 1 bob", deliveries.get("alice").get(1));
+    assertNull(bob.currentDownload());
+
+    upload(alice, 1, file, 10_000);
+    assertTrue(Files.exists(directory.resolve("1" + FileTransfers.SPOOL_SUFFIX)));
+
+    assertArrayEquals(file, download(bob));
+    assertEquals("[Server] : bob received 'data.bin'.", deliveries.get("alice").get(2));
+    assertFalse(Files.exists(directory.resolve("1" + FileTransfers.SPOOL_SUFFIX)));
+    assertEquals(0, transfers.size());
+  }
+
+  @Test
+  void emptyFileIsServedAsASinglePiece() throws IOException {
+    ChatSession alice = session("alice");
+    ChatSession bob = session("bob");
+
+    alice.processInput(protocol.encodeFileOffer(0, "alice", "bob", "empty", 0));
+    bob.processInput(protocol.encodeFileAccept("bob", 1));
+    upload(alice, 1, new byte[0], 1);
+
+    assertArrayEquals(new byte[0], download(bob));
+  }
+
+  @Test
+  void piecesHandedToTheSpoolWriterAreWrittenOffTheCallersThread() throws IOException, InterruptedException {
+    ChatSession alice = session("alice");
+    ChatSession bob = session("bob");
+    byte[] file = {1, 2, 3, 4, 5};
+    alice.processInput(protocol.encodeFileOffer(0, "alice", "bob", "data.bin", file.length));
+    bob.processInput(protocol.encodeFileAccept("bob", 1));
+    List<String> writers = new ArrayList<>();
+    CountDownLatch handled = new CountDownLatch(2);
+    FrameView chunk = new FrameView();
+
+    chunk.wrap(protocol.encodeFileChunk(1, file, file.length));
+    transfers.receive(alice, chunk, () -> {
+      writers.add(Thread.currentThread().getName());
+      handled.countDown();
+    });
+    chunk.wrap(protocol.encodeFileChunk(1, new byte[0], 0));
+    transfers.receive(alice, chunk, handled::countDown);
+
+    assertTrue(handled.await(5, TimeUnit.SECONDS));
+    assertEquals(List.of("file-transfer-spool"), writers);
+    assertArrayEquals(file, download(bob));
+  }
+
+  @Test
+  void declinedOfferTellsSender() {
+    ChatSession alice = session("alice");
+    ChatSession bob = session("bob");
+
+    alice.processInput(protocol.encodeFileOffer(0, "alice", "bob", "notes.txt", 12));
+    bob.processInput(protocol.encodeFileDecline("bob", 1));
+    bob.processInput(protocol.encodeFileAccept("bob", 1));
+
+    assertEquals("DECLINE 1 bob", deliveries.get("alice").get(1));
+    assertEquals("[Server] : There is no file offer 1.", deliveries.get("bob").get(1));
+    assertEquals(0, transfers.size());
+  }
+
+  @Test
+  void onlyTheRecipientMayAccept() {
+    ChatSession alice = session("alice");
+    ChatSession carol = session("carol");
+    session("bob");
+
+    alice.processInput(protocol.encodeFileOffer(0, "alice", "bob", "notes.txt", 12));
+    carol.processInput(protocol.encodeFileAccept("carol", 1));
+
+    assertEquals(List.of("[Server] : There is no file offer 1."), deliveries.get("carol"));
+    assertEquals(1, deliveries.get("alice").size());
+  }
+
+  @Test
+  void uploadBeyondTheAnnouncedSizeIsCancelled() {
+    ChatSession alice = session("alice");
+    ChatSession bob = session("bob");
+
+    alice.processInput(protocol.encodeFileOffer(0, "alice", "bob", "notes.txt", 4));
+    bob.processInput(protocol.encodeFileAccept("bob", 1));
+    upload(alice, 1, new byte[5], 5);
+
+    assertEquals("DECLINE 1 alice", deliveries.get("bob").get(1));
+    assertNull(bob.currentDownload());
+    assertEquals(0, transfers.size());
+  }
+
+  @Test
+  void offersAreCheckedBeforeTheyAreHandedOn() {
+    ChatSession alice = session("alice");
+    session("bob");
+
+    alice.processInput(protocol.encodeFileOffer(0, "alice", "bob", "huge.iso", 2 << 20));
+    alice.processInput(protocol.encodeFileOffer(0, "alice", "ghost", "notes.txt", 12));
+    alice.processInput(protocol.encodeFileOffer(0, "alice", "alice", "notes.txt", 12));
+
+    assertEquals(List.of(
+        "[Server] : 'huge.iso' is too large; files are limited to 1048576 bytes.",
+        "[Server] : User 'ghost' not found.",
+        "[Server] : You cannot send a file to yourself."), deliveries.get("alice"));
+    assertNull(deliveries.get("bob"));
+    assertEquals(0, transfers.size());
+  }
+
+  @Test
+  void offersBeyondTheSendersPendingTransfersAreRefused() throws IOException {
+    transfers = new FileTransfers(directory, 1 << 20, 2, 1 << 20);
+    ChatSession.fileTransfers = transfers;
+    ChatSession alice = session("alice");
+    ChatSession bob = session("bob");
+
+    alice.processInput(protocol.encodeFileOffer(0, "alice", "bob", "a.txt", 1));
+    alice.processInput(protocol.encodeFileOffer(0, "alice", "bob", "b.txt", 1));
+    alice.processInput(protocol.encodeFileOffer(0, "alice", "bob", "c.txt", 1));
+    bob.processInput(protocol.encodeFileDecline("bob", 1));
+    alice.processInput(protocol.encodeFileOffer(0, "alice", "bob", "c.txt", 1));
+
+    assertEquals("[Server] : You already have 2 file transfers pending.", deliveries.get("alice").get(2));
+    assertEquals("OFFER 3 alice bob c.txt 1", deliveries.get("alice").get(4));
+    assertEquals(2, transfers.size());
+  }
+
+  @Test
+  void offersBeyondTheSpoolQuotaAreRefused() throws IOException {
+    transfers = new FileTransfers(directory, 1 << 20, 4, 30);
+    ChatSession.fileTransfers = transfers;
+    ChatSession alice = session("alice");
+    ChatSession carol = session("carol");
+    ChatSession bob = session("bob");
+
+    alice.processInput(protocol.encodeFileOffer(0, "alice", "bob", "a.bin", 20));
+    carol.processInput(protocol.encodeFileOffer(0, "carol", "bob", "c.bin", 20));
+    bob.processInput(protocol.encodeFileDecline("bob", 1));
+    carol.processInput(protocol.encodeFileOffer(0, "carol", "bob", "c.bin", 20));
+
+    assertEquals(List.of("[Server] : There is no room for 'c.bin' on the server right now.",
+        "OFFER 2 carol bob c.bin 20"), deliveries.get("carol"));
+    assertEquals(20, transfers.spoolBytes());
+  }
+
+  @Test
+  void leavingCancelsTransfersNotYetServed() {
+    ChatSession alice = session("alice");
+    ChatSession bob = session("bob");
+
+    alice.processInput(protocol.encodeFileOffer(0, "alice", "bob", "a.txt", 3));
+    bob.processInput(protocol.encodeFileAccept("bob", 1));
+    alice.processInput(protocol.encodeFileChunk(1, new byte[] {1, 2}, 2));
+    alice.removeClientHandler();
+
+    assertEquals("DECLINE 1 alice", deliveries.get("bob").get(1));
+    assertEquals(0, transfers.size());
+    assertFalse(Files.exists(directory.resolve("1" + FileTransfers.SPOOL_SUFFIX)));
+  }
+
+  @Test
+  void recipientLeavingDuringDownloadTellsSender() {
+    ChatSession alice = session("alice");
+    ChatSession bob = session("bob");
+
+    alice.processInput(protocol.encodeFileOffer(0, "alice", "bob", "a.txt", 3));
+    bob.processInput(protocol.encodeFileAccept("bob", 1));
+    upload(alice, 1, new byte[] {1, 2, 3}, 3);
+    bob.removeClientHandler();
+
+    assertNull(bob.currentDownload());
+    assertEquals("[Server] : bob did not receive 'a.txt'.", deliveries.get("alice").get(2));
+    assertEquals(0, transfers.size());
+  }
+
+  @Test
+  void offerIsRefusedWhenTransfersAreUnavailable() {
+    ChatSession.fileTransfers = null;
+    ChatSession alice = session("alice");
+    session("bob");
+
+    alice.processInput(protocol.encodeFileOffer(0, "alice", "bob", "notes.txt", 12));
+
+    assertEquals(List.of(ChatSession.FILE_TRANSFER_UNAVAILABLE_MESSAGE), deliveries.get("alice"));
+    assertNull(deliveries.get("bob"));
+  }
+
+  @Test
+  void leftoverSpoolFilesAreDeletedOnStart() throws IOException {
+    Files.write(directory.resolve("7" + FileTransfers.SPOOL_SUFFIX), new byte[] {1});
+
+    new FileTransfers(directory);
+
+    assertFalse(Files.exists(directory.resolve("7" + FileTransfers.SPOOL_SUFFIX)));
+  }
+}
@@ -0,0 +1,198 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+class FrameViewTest {
+
+  private final ChatRoomProtocol protocol = new ChatRoomProtocol();
+
+  @Test
+  void directMessageFields() {
+    FrameView frame = new FrameView();
+
+    assertTrue(frame.wrap(protocol.encodeDirectMessage("yashvi", "riddhi", "h\u00e9llo")));
+
+    assertEquals(ChatRoomProtocol.DIRECT_MESSAGE, frame.messageType());
+    assertEquals(3, frame.fieldCount());
+    assertEquals("yashvi", frame.field(0));
+    assertEquals("riddhi", frame.field(1));
+    assertEquals("h\u00e9llo", frame.field(2));
+    assertEquals(6, frame.fieldLength(2));
+    assertSame(frame.field(2), frame.field(2));
+  }
+
+  @Test
+  void roomFrameFields() {
+    FrameView frame = new FrameView();
+
+    assertTrue(frame.wrap(protocol.encodeJoinRoom("yashvi", "java")));
+    assertEquals(ChatRoomProtocol.JOIN_ROOM, frame.messageType());
+    assertEquals(2, frame.fieldCount());
+    assertEquals("java", frame.field(1));
+
+    assertTrue(frame.wrap(protocol.encodeListRooms("yashvi")));
+    assertEquals(1, frame.fieldCount());
+
+    assertTrue(frame.wrap(protocol.encodeRoomMessage("yashvi", "java", "hello")));
+    assertEquals(ChatRoomProtocol.ROOM_MESSAGE, frame.messageType());
+    assertEquals(3, frame.fieldCount());
+    assertEquals("java", frame.field(1));
+    assertEquals("hello", frame.field(2));
+  }
+
+  @Test
+  void replayRequestNumber() {
+    FrameView frame = new FrameView();
+
+    assertTrue(frame.wrap(protocol.encodeReplaySince("yashvi", 1234567890123L)));
+
+    assertEquals(ChatRoomProtocol.REPLAY_SINCE, frame.messageType());
+    assertEquals(1234567890123L, frame.number());
+    assertEquals("yashvi", frame.field(0));
+    assertTrue(frame.fieldEquals(0, "yashvi".getBytes(StandardCharsets.UTF_8)));
+    assertFalse(frame.fieldEquals(0, "riddhi".getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  void connectResponseFlag() {
+    FrameView frame = new FrameView();
+
+    assertTrue(frame.wrap(protocol.encodeConnectResponse(false, "Username is already taken.")));
+
+    assertFalse(frame.flag());
+    assertEquals("Username is already taken.", frame.field(0));
+    assertTrue(frame.wrap(protocol.encodeConnectResponse(true, "ok")));
+    assertTrue(frame.flag());
+  }
+
+  @Test
+  void queryResponseListsEveryUser() {
+    ArrayList<ChatSession> users = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      users.add(TestSessions.session("user" + i));
+    }
+    FrameView frame = new FrameView();
+
+    assertTrue(frame.wrap(protocol.encodeQueryResponse(users)));
+
+    assertEquals(10, frame.fieldCount());
+    assertEquals("user9", frame.field(9));
+  }
+
+  @Test
+  void wrapRegionOfBuffer() {
+    byte[] encoded = protocol.encodeBroadcastMessage("yashvi", "Hello, everyone!");
+    ByteBuffer buffer = ByteBuffer.allocate(encoded.length + 8);
+    buffer.position(5);
+    buffer.put(encoded);
+    buffer.position(0);
+    FrameView frame = new FrameView();
+
+    assertTrue(frame.wrap(buffer, 5, encoded.length));
+
+    assertEquals("Hello, everyone!", frame.field(1));
+    assertEquals(0, buffer.position());
+  }
+
+  @Test
+  void truncatedFrameIsRejected() {
+    byte[] encoded = protocol.encodeBroadcastMessage("yashvi", "Hello, everyone!");
+    FrameView frame = new FrameView();
+
+    assertFalse(frame.wrap(Arrays.copyOf(encoded, encoded.length - 1)));
+  }
+
+  @Test
+  void textFrame() {
+    FrameView frame = new FrameView();
+
+    assertTrue(frame.wrap(ChatSession.MAX_CLIENTS_REACHED.getBytes()));
+
+    assertTrue(frame.textEquals(ChatSession.MAX_CLIENTS_REACHED));
+    assertEquals(0, frame.fieldCount());
+  }
+
+  @Test
+  void readFromReusesReceiveBuffer() throws IOException {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    DataOutputStream dataOutputStream = new DataOutputStream(stream);
+    ChatRoomProtocol.writeFrame(dataOutputStream, protocol.encodeBroadcastMessage("yashvi", "first"));
+    ChatRoomProtocol.writeFrame(dataOutputStream, protocol.encodeConnectMessage("riddhi"));
+    DataInputStream dataInputStream = new DataInputStream(new ByteArrayInputStream(stream.toByteArray()));
+    FrameView frame = new FrameView();
+
+    assertTrue(frame.readFrom(dataInputStream));
+    assertEquals("first", frame.field(1));
+    assertTrue(frame.readFrom(dataInputStream));
+    assertEquals(ChatRoomProtocol.CONNECT_MESSAGE, frame.messageType());
+    assertEquals("riddhi", frame.field(0));
+  }
+
+  @Test
+  void connectMessageCarriesOptionalCompression() {
+    ChatRoomProtocol protocol = new ChatRoomProtocol();
+    FrameView frame = new FrameView();
+
+    assertTrue(frame.wrap(protocol.encodeConnectMessage("yashvi")));
+    assertEquals(1, frame.fieldCount());
+    assertTrue(frame.wrap(protocol.encodeConnectMessage("yashvi", ChatRoomProtocol.COMPRESSION_DEFLATE)));
+    assertEquals(2, frame.fieldCount());
+    assertEquals(ChatRoomProtocol.COMPRESSION_DEFLATE, frame.field(1));
+  }
+
+  @Test
+  void connectResponseCarriesOptionalCompression() {
+    ChatRoomProtocol protocol = new ChatRoomProtocol();
+    FrameView frame = new FrameView();
+
+    assertTrue(frame.wrap(protocol.encodeConnectResponse(true, "Welcome", ChatRoomProtocol.COMPRESSION_DEFLATE)));
+
+    assertTrue(frame.flag());
+    assertEquals("Welcome", frame.field(0));
+    assertEquals(ChatRoomProtocol.COMPRESSION_DEFLATE, frame.field(1));
+  }
+
+  @Test
+  void connectFramesCarryOptionalResumeToken() {
+    ChatRoomProtocol protocol = new ChatRoomProtocol();
+    FrameView frame = new FrameView();
+
+    assertTrue(frame.wrap(protocol.encodeConnectMessage("yashvi", "", "cafe")));
+    assertEquals(3, frame.fieldCount());
+    assertEquals("", frame.field(1));
+    assertEquals("cafe", frame.field(2));
+    assertTrue(frame.wrap(protocol.encodeConnectResponse(true, "Welcome", "", "f00d")));
+    assertTrue(frame.flag());
+    assertEquals(3, frame.fieldCount());
+    assertEquals("f00d", frame.field(2));
+  }
+
+  @Test
+  void fieldBufferSharesTheFrameWithoutCopying() {
+    byte[] data = {10, 20, 30};
+    byte[] chunk = protocol.encodeFileChunk(5, data, data.length);
+    FrameView frame = new FrameView();
+
+    assertTrue(frame.wrap(chunk));
+    ByteBuffer field = frame.fieldBuffer(0);
+    chunk[chunk.length - 1] = 99;
+
+    assertTrue(field.isReadOnly());
+    assertEquals(3, field.remaining());
+    assertEquals(10, field.get());
+    assertEquals(20, field.get());
+    assertEquals(99, field.get());
+  }
+}
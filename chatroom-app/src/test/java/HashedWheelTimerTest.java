@@ -0,0 +1,110 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class HashedWheelTimerTest {
+
+  private final HashedWheelTimer timer = new HashedWheelTimer(TimeUnit.MILLISECONDS.toNanos(10), 8);
+  private final List<String> runs = new ArrayList<>();
+
+  private void tick(int times) {
+    for (int i = 0; i < times; i++) {
+      timer.tick();
+    }
+  }
+
+  @Test
+  void taskRunsOnceItsDelayHasPassed() {
+    timer.schedule(() -> runs.add("a"), 3);
+
+    tick(2);
+    assertEquals(List.of(), runs);
+
+    tick(1);
+    assertEquals(List.of("a"), runs);
+    assertEquals(0, timer.pendingCount());
+  }
+
+  @Test
+  void delayLongerThanOneTurnWaitsForItsRound() {
+    timer.schedule(() -> runs.add("late"), 20);
+    timer.schedule(() -> runs.add("early"), 4);
+
+    tick(19);
+    assertEquals(List.of("early"), runs);
+
+    tick(1);
+    assertEquals(List.of("early", "late"), runs);
+  }
+
+  @Test
+  void cancelledTaskNeverRunsAndLeavesTheWheel() {
+    WheelTimeout timeout = timer.schedule(() -> runs.add("a"), 2);
+    timer.schedule(() -> runs.add("b"), 2);
+    timeout.cancel();
+
+    tick(2);
+
+    assertEquals(List.of("b"), runs);
+    assertEquals(0, timer.pendingCount());
+  }
+
+  @Test
+  void taskCanRescheduleItself() {
+    timer.schedule(new Runnable() {
+      @Override
+      public void run() {
+        runs.add("at " + timer.currentTick());
+        if (runs.size() < 3) {
+          timer.schedule(this, 5);
+        }
+      }
+    }, 5);
+
+    tick(20);
+
+    assertEquals(List.of("at 5", "at 10", "at 15"), runs);
+  }
+
+  @Test
+  void failingTaskDoesNotStopTheWheel() {
+    timer.schedule(() -> {
+      throw new IllegalStateException("boom");
+    }, 1);
+    timer.schedule(() -> runs.add("a"), 1);
+
+    tick(1);
+
+    assertEquals(List.of("a"), runs);
+  }
+
+  @Test
+  void durationsRoundUpToWholeTicks() {
+    assertEquals(1, timer.toTicks(1));
+    assertEquals(1, timer.toTicks(TimeUnit.MILLISECONDS.toNanos(10)));
+    assertEquals(3, timer.toTicks(TimeUnit.MILLISECONDS.toNanos(21)));
+  }
+
+  @Test
+  void startedTimerTurnsOnItsOwn() throws InterruptedException {
+    CountDownLatch ran = new CountDownLatch(1);
+    timer.schedule(ran::countDown, 2);
+
+    timer.start("test-timer");
+    timer.start("test-timer");
+
+    assertTrue(ran.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void tickAndWheelSizeMustBePositive() {
+    assertThrows(IllegalArgumentException.class, () -> new HashedWheelTimer(0, 8));
+    assertThrows(IllegalArgumentException.class, () -> new HashedWheelTimer(1, 0));
+  }
+}
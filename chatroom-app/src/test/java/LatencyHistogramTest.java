@@ -0,0 +1,42 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+
+  @Test
+  void bucketsCoverEveryValue() {
+    for (long value : new long[] {0, 1, 127, 128, 129, 1_000, 123_456_789, Long.MAX_VALUE}) {
+      int index = LatencyHistogram.bucketIndex(value);
+      assertTrue(LatencyHistogram.highestValueOf(index) >= value);
+      assertTrue(index == 0 || LatencyHistogram.highestValueOf(index - 1) < value);
+    }
+  }
+
+  @Test
+  void percentilesStayWithinPrecision() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 10_000; i++) {
+      histogram.record(i * 1_000L);
+    }
+
+    assertEquals(10_000, histogram.count());
+    assertEquals(10_000_000L, histogram.max());
+    assertEquals(5_000_000L, histogram.percentile(50), 5_000_000L / 64);
+    assertEquals(9_900_000L, histogram.percentile(99), 9_900_000L / 64);
+    assertEquals(9_990_000L, histogram.percentile(99.9), 9_990_000L / 64);
+    assertEquals(10_000_000L, histogram.percentile(100));
+  }
+
+  @Test
+  void resetAndNegativeValues() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5);
+
+    assertEquals(0, histogram.percentile(50));
+    histogram.reset();
+    assertEquals(0, histogram.count());
+    assertEquals("count=0 p50=0us p99=0us p999=0us max=0us", histogram.summary());
+  }
+}
@@ -0,0 +1,51 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import org.junit.jupiter.api.Test;
+
+class LoadGeneratorTest {
+
+  @Test
+  void parseMix() {
+    assertArrayEquals(new int[] {5, 85, 5, 5}, LoadGenerator.parseMix(LoadGenerator.DEFAULT_MIX));
+    assertArrayEquals(new int[] {0, 1, 0, 0}, LoadGenerator.parseMix("direct=1"));
+    assertThrows(IllegalArgumentException.class, () -> LoadGenerator.parseMix("shout=1"));
+    assertThrows(IllegalArgumentException.class, () -> LoadGenerator.parseMix("who=0"));
+  }
+
+  @Test
+  void pickKindFollowsWeights() {
+    LoadGenerator generator = new LoadGenerator("localhost", 0, 1, 1, 1, "broadcast=1,who=2,insult=1");
+
+    assertEquals(0, generator.pickKind(0));
+    assertEquals(2, generator.pickKind(1));
+    assertEquals(2, generator.pickKind(2));
+    assertEquals(3, generator.pickKind(3));
+  }
+
+  @Test
+  void runAgainstServer() throws IOException {
+    ChatSession.sessionRegistry = new SessionRegistry();
+    ChatSession.presenceRegistry = new PresenceRegistry();
+    ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
+    serverSocketChannel.bind(new InetSocketAddress("localhost", 0));
+    int port = serverSocketChannel.socket().getLocalPort();
+    EventLoopServer server = new EventLoopServer(serverSocketChannel, EventLoopServer.DEFAULT_EVENT_LOOP_COUNT, 20);
+    new Thread(() -> server.startServer(port)).start();
+    LoadGenerator generator = new LoadGenerator("localhost", port, 10, 200, 1,
+        "broadcast=1,direct=1,who=1");
+
+    generator.run();
+    server.closeServerSocket();
+
+    assertEquals(10, generator.getConnectedSessions());
+    assertTrue(generator.getSentCount() > 100);
+    assertTrue(generator.getDeliveryLatency().count() > 0);
+    assertTrue(generator.getQueryLatency().count() > 0);
+  }
+}
@@ -0,0 +1,171 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class MessageLogTest {
+
+  private Path directory;
+  private MessageLog log;
+
+  private static ChatSession session(String userName, List<String> received) {
+    return TestSessions.session(userName, (recipient, frame) -> {
+      for (FrameView view : TestSessions.frames(frame)) {
+        received.add(view.messageType() == ChatRoomProtocol.REPLAYED_MESSAGE
+            ? view.number() + " " + view.field(2) : view.text());
+      }
+    });
+  }
+
+  private static void waitForSequence(MessageLog log, long nextSequence) {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (log.nextSequence() < nextSequence && System.currentTimeMillis() < deadline) {
+      Thread.onSpinWait();
+    }
+    assertEquals(nextSequence, log.nextSequence());
+  }
+
+  @BeforeEach
+  void setUp() throws IOException {
+    directory = Files.createTempDirectory("message-log");
+    log = new MessageLog(directory, 4096, MessageLog.DEFAULT_MAX_SEGMENTS);
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    log.close();
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  @Test
+  void replaysBroadcastsInOrder() {
+    for (int i = 0; i < 3; i++) {
+      log.append("alice", null, EncodedFrame.ofText("[alice] : hello " + i));
+    }
+    waitForSequence(log, 4);
+    List<String> received = new ArrayList<>();
+
+    log.replay(session("bob", received), 2, log.nextSequence());
+
+    assertEquals(List.of("2 [alice] : hello 1", "3 [alice] : hello 2",
+        "[Server] : Replayed 2 messages up to #3."), received);
+  }
+
+  @Test
+  void directMessagesOnlyReplayToSenderAndRecipient() {
+    log.append("alice", "bob", EncodedFrame.ofText("[alice] : psst"));
+    log.append("alice", null, EncodedFrame.ofText("[alice] : hi all"));
+    waitForSequence(log, 3);
+    List<String> bob = new ArrayList<>();
+    List<String> carol = new ArrayList<>();
+
+    log.replay(session("bob", bob), 1, log.nextSequence());
+    log.replay(session("carol", carol), 1, log.nextSequence());
+
+    assertEquals(List.of("1 [alice] : psst", "2 [alice] : hi all", "[Server] : Replayed 2 messages up to #2."), bob);
+    assertEquals(List.of("2 [alice] : hi all", "[Server] : Replayed 1 messages up to #2."), carol);
+  }
+
+  @Test
+  void findsSequenceAcrossSegments() {
+    int messages = 300;
+    for (int i = 1; i <= messages; i++) {
+      log.append("alice", null, EncodedFrame.ofText("[alice] : message number " + i));
+    }
+    waitForSequence(log, messages + 1);
+    List<String> received = new ArrayList<>();
+
+    log.replay(session("bob", received), 250, log.nextSequence());
+
+    assertEquals(52, received.size());
+    assertEquals("250 [alice] : message number 250", received.get(0));
+    assertEquals("300 [alice] : message number 300", received.get(50));
+  }
+
+  @Test
+  void recoversRecordsAfterReopening() throws IOException {
+    log.append("alice", null, EncodedFrame.ofText("[alice] : before restart"));
+    waitForSequence(log, 2);
+    log.close();
+
+    log = new MessageLog(directory, 4096, MessageLog.DEFAULT_MAX_SEGMENTS);
+    log.append("alice", null, EncodedFrame.ofText("[alice] : after restart"));
+    waitForSequence(log, 3);
+    List<String> received = new ArrayList<>();
+    log.replay(session("bob", received), 1, log.nextSequence());
+
+    assertEquals("1 [alice] : before restart", received.get(0));
+    assertEquals("2 [alice] : after restart", received.get(1));
+  }
+
+  @Test
+  void dropsOldestSegmentsBeyondRetention() throws IOException {
+    log.close();
+    log = new MessageLog(directory, 1024, 2);
+    for (int i = 0; i < 100; i++) {
+      log.append("alice", null, EncodedFrame.ofText("[alice] : filler message " + i));
+    }
+    waitForSequence(log, 101);
+
+    try (Stream<Path> files = Files.list(directory)) {
+      assertEquals(2, files.count());
+    }
+    assertTrue(log.firstSequence() > 1);
+  }
+
+  @Test
+  void messagesAtTheFrameLimitAreReplayedOnlyIfTheyStillFit() {
+    EncodedFrame tooLong = EncodedFrame.ofText("x".repeat(ChatRoomProtocol.MAX_FRAME_LENGTH));
+    int overhead = ChatRoomProtocol.replayedMessageLength("alice", "", EncodedFrame.ofText(""));
+    String fitting = "y".repeat(ChatRoomProtocol.MAX_FRAME_LENGTH - overhead);
+    log.append("alice", null, tooLong);
+    log.append("alice", null, EncodedFrame.ofText(fitting));
+    waitForSequence(log, 2);
+    List<String> received = new ArrayList<>();
+
+    log.replay(session("bob", received), 1, log.nextSequence());
+
+    assertEquals(List.of("1 " + fitting, "[Server] : Replayed 1 messages up to #1."), received);
+  }
+
+  @Test
+  void nothingToReplay() {
+    List<String> received = new ArrayList<>();
+
+    log.replay(session("bob", received), 1, log.nextSequence());
+
+    assertEquals(List.of("[Server] : No messages to replay."), received);
+  }
+
+  @Test
+  void replayWaitsForTheClientAndRunsOncePerSession() {
+    List<String> received = new CopyOnWriteArrayList<>();
+    ChatSession bob = session("bob", received);
+    bob.outboundQueue.offer(new EncodedFrame(new byte[(int) MessageLog.REPLAY_HIGH_WATER_BYTES + 1]));
+
+    log.replaySince(bob, 1);
+    log.replaySince(bob, 1);
+    assertEquals(List.of(MessageLog.REPLAY_RUNNING_MESSAGE), received);
+
+    bob.outboundQueue.poll();
+    long deadline = System.currentTimeMillis() + 5000;
+    while (received.size() < 2 && System.currentTimeMillis() < deadline) {
+      Thread.onSpinWait();
+    }
+    assertEquals(List.of(MessageLog.REPLAY_RUNNING_MESSAGE, "[Server] : No messages to replay."), received);
+  }
+}
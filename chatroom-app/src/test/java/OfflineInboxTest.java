@@ -0,0 +1,159 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class OfflineInboxTest {
+
+  private Path directory;
+
+  private static List<String> texts(EncodedFrame burst) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    burst.writeTo(bytes);
+    DataInputStream frames = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    FrameView view = new FrameView();
+    List<String> texts = new ArrayList<>();
+    while (frames.available() > 0) {
+      view.readFrom(frames);
+      texts.add(view.text());
+    }
+    return texts;
+  }
+
+  @BeforeEach
+  void setUp() throws IOException {
+    directory = Files.createTempDirectory("offline-inbox");
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  @Test
+  void takeReturnsStoredMessagesAfterNotice() throws IOException {
+    OfflineInbox inbox = new OfflineInbox(directory);
+    assertTrue(inbox.store("alice", "bob", EncodedFrame.ofText("[alice] : hi")));
+    assertTrue(inbox.store("alice", "bob", EncodedFrame.ofText("[carol] : hello")));
+
+    assertEquals(List.of("[Server] : You have 2 messages received while you were offline.",
+        "[alice] : hi", "[carol] : hello"), texts(inbox.take("bob")));
+    assertNull(inbox.take("bob"));
+    inbox.close();
+  }
+
+  @Test
+  void takeWithoutMessagesReturnsNull() throws IOException {
+    OfflineInbox inbox = new OfflineInbox(directory);
+
+    assertNull(inbox.take("nobody"));
+    inbox.close();
+  }
+
+  @Test
+  void messagesSurviveRestart() throws IOException {
+    OfflineInbox inbox = new OfflineInbox(directory);
+    assertTrue(inbox.store("alice", "b\u00f6b", EncodedFrame.ofText("[alice] : hi")));
+    inbox.close();
+
+    OfflineInbox reopened = new OfflineInbox(directory);
+
+    assertEquals(List.of("[Server] : You have 1 messages received while you were offline.",
+        "[alice] : hi"), texts(reopened.take("b\u00f6b")));
+    reopened.close();
+  }
+
+  @Test
+  void expiredMessagesAreDropped() throws IOException {
+    OfflineInbox inbox = new OfflineInbox(directory, 10, OfflineInbox.DEFAULT_MAX_BYTES, 10, 0);
+    assertTrue(inbox.store("alice", "bob", EncodedFrame.ofText("[alice] : hi")));
+
+    assertNull(inbox.take("bob"));
+    inbox.close();
+  }
+
+  @Test
+  void fullInboxRefusesMessages() throws IOException {
+    OfflineInbox inbox = new OfflineInbox(directory, 2, OfflineInbox.DEFAULT_MAX_BYTES, 10,
+        OfflineInbox.DEFAULT_TIME_TO_LIVE_MILLIS);
+    assertTrue(inbox.store("alice", "bob", EncodedFrame.ofText("one")));
+    assertTrue(inbox.store("alice", "bob", EncodedFrame.ofText("two")));
+
+    assertFalse(inbox.store("alice", "bob", EncodedFrame.ofText("three")));
+    assertEquals(3, texts(inbox.take("bob")).size());
+    assertTrue(inbox.store("alice", "bob", EncodedFrame.ofText("four")));
+    inbox.close();
+  }
+
+  @Test
+  void byteLimitRefusesMessages() throws IOException {
+    OfflineInbox inbox = new OfflineInbox(directory, 10, 32, 10, OfflineInbox.DEFAULT_TIME_TO_LIVE_MILLIS);
+
+    assertFalse(inbox.store("alice", "bob", EncodedFrame.ofText("a message longer than the inbox holds")));
+    assertTrue(inbox.store("alice", "bob", EncodedFrame.ofText("short")));
+    inbox.close();
+  }
+
+  @Test
+  void inboxLimitRefusesNewRecipients() throws IOException {
+    OfflineInbox inbox = new OfflineInbox(directory, 10, OfflineInbox.DEFAULT_MAX_BYTES, 1,
+        OfflineInbox.DEFAULT_TIME_TO_LIVE_MILLIS);
+    assertTrue(inbox.store("alice", "bob", EncodedFrame.ofText("hi")));
+
+    assertFalse(inbox.store("alice", "carol", EncodedFrame.ofText("hi")));
+    assertTrue(inbox.store("alice", "bob", EncodedFrame.ofText("again")));
+    inbox.take("bob");
+    assertTrue(inbox.store("alice", "carol", EncodedFrame.ofText("hi")));
+    inbox.close();
+  }
+
+  @Test
+  void sweepDeletesInboxesWithNothingLeftToDeliver() throws IOException {
+    OfflineInbox inbox = new OfflineInbox(directory, 10, OfflineInbox.DEFAULT_MAX_BYTES, 1, 0);
+    assertTrue(inbox.store("alice", "bob", EncodedFrame.ofText("[alice] : hi")));
+    assertFalse(inbox.store("alice", "carol", EncodedFrame.ofText("[alice] : hi")));
+
+    inbox.sweep();
+
+    try (Stream<Path> files = Files.list(directory)) {
+      assertEquals(0, files.count());
+    }
+    assertTrue(inbox.store("alice", "carol", EncodedFrame.ofText("[alice] : hi")));
+    inbox.close();
+  }
+
+  @Test
+  void senderMayOnlyOpenSoManyInboxes() throws IOException {
+    OfflineInbox inbox = new OfflineInbox(directory, 10, OfflineInbox.DEFAULT_MAX_BYTES, 10, 2,
+        OfflineInbox.DEFAULT_TIME_TO_LIVE_MILLIS, OfflineInbox.DEFAULT_SWEEP_INTERVAL_MILLIS);
+    assertTrue(inbox.store("alice", "bob", EncodedFrame.ofText("one")));
+    assertTrue(inbox.store("alice", "carol", EncodedFrame.ofText("two")));
+
+    assertFalse(inbox.mayOpen("alice", "dave"));
+    assertFalse(inbox.store("alice", "dave", EncodedFrame.ofText("three")));
+    assertTrue(inbox.store("alice", "bob", EncodedFrame.ofText("four")));
+    assertTrue(inbox.store("mallory", "dave", EncodedFrame.ofText("five")));
+    assertTrue(inbox.store("alice", "dave", EncodedFrame.ofText("six")));
+    inbox.take("bob");
+    assertTrue(inbox.store("alice", "erin", EncodedFrame.ofText("seven")));
+    inbox.close();
+  }
+}
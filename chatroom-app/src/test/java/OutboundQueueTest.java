@@ -0,0 +1,156 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class OutboundQueueTest {
+
+  @Test
+  void pollReturnsFramesInOrder() {
+    OutboundQueue queue = new OutboundQueue();
+    EncodedFrame first = EncodedFrame.ofText("first");
+    EncodedFrame second = EncodedFrame.ofText("second");
+    queue.offer(first);
+    queue.offer(second);
+
+    assertSame(first, queue.poll());
+    assertSame(second, queue.poll());
+    assertNull(queue.poll());
+  }
+
+  @Test
+  void dropNewBroadcastsKeepsDirectMessages() {
+    OutboundQueue queue = new OutboundQueue(2);
+
+    assertTrue(queue.offer(broadcast("1")));
+    assertTrue(queue.offer(broadcast("2")));
+    assertFalse(queue.offer(broadcast("3")));
+    assertEquals(2, queue.size());
+    assertTrue(queue.offer(EncodedFrame.ofText("direct")));
+    assertEquals(3, queue.size());
+
+    queue.poll();
+    queue.poll();
+    assertTrue(queue.offer(broadcast("3")));
+  }
+
+  @Test
+  void directMessagesKeptBeyondTheLimitOverflowAtTheHardLimit() {
+    OutboundQueue queue = new OutboundQueue(2);
+    for (int i = 0; i < 2 * OutboundQueue.HARD_LIMIT_MULTIPLIER; i++) {
+      assertEquals(OutboundQueue.QUEUED, queue.enqueue(EncodedFrame.ofText("direct")));
+    }
+
+    assertEquals(OutboundQueue.OVERFLOWED, queue.enqueue(EncodedFrame.ofText("direct")));
+    assertEquals(OutboundQueue.DROPPED, queue.enqueue(EncodedFrame.ofText("direct")));
+    assertTrue(queue.isEmpty());
+  }
+
+  @Test
+  void dropOldestBroadcastsEvictsBroadcastsOnly() {
+    OutboundQueue queue = new OutboundQueue(2, Long.MAX_VALUE, BackpressurePolicy.DROP_OLDEST_BROADCASTS);
+    EncodedFrame direct = EncodedFrame.ofText("direct");
+    EncodedFrame newest = broadcast("newest");
+    queue.offer(direct);
+    queue.offer(broadcast("oldest"));
+
+    assertTrue(queue.offer(newest));
+    assertSame(direct, queue.poll());
+    assertSame(newest, queue.poll());
+
+    queue.offer(direct);
+    queue.offer(direct);
+    assertFalse(queue.offer(broadcast("dropped")));
+  }
+
+  @Test
+  void byteLimitApplies() {
+    EncodedFrame frame = broadcast("0123456789");
+    OutboundQueue queue = new OutboundQueue(100, frame.length() * 2L, OutboundQueue.DEFAULT_POLICY);
+
+    assertTrue(queue.offer(frame));
+    assertTrue(queue.offer(frame));
+    assertFalse(queue.offer(frame));
+    assertEquals(frame.length() * 2L, queue.bytes());
+    queue.clear();
+    assertEquals(0, queue.bytes());
+  }
+
+  @Test
+  void frameLargerThanByteLimitFitsEmptyQueue() {
+    OutboundQueue queue = new OutboundQueue(100, 1, OutboundQueue.DEFAULT_POLICY);
+
+    assertTrue(queue.offer(broadcast("large")));
+    assertFalse(queue.offer(broadcast("large")));
+  }
+
+  @Test
+  void disconnectOverflowsOnce() {
+    OutboundQueue queue = new OutboundQueue(1, Long.MAX_VALUE, BackpressurePolicy.DISCONNECT);
+    queue.offer(EncodedFrame.ofText("1"));
+
+    assertEquals(OutboundQueue.OVERFLOWED, queue.enqueue(EncodedFrame.ofText("2")));
+    assertTrue(queue.isEmpty());
+    assertEquals(OutboundQueue.DROPPED, queue.enqueue(EncodedFrame.ofText("3")));
+
+    EncodedFrame reason = EncodedFrame.ofText(ChatSession.SLOW_CONSUMER_MESSAGE);
+    queue.replaceAllWith(reason);
+    assertSame(reason, queue.poll());
+  }
+
+  private static EncodedFrame broadcast(String message) {
+    return EncodedFrame.ofText(message).asBroadcast();
+  }
+
+  @Test
+  void onlyOneCallerHoldsTheDrainClaim() {
+    OutboundQueue queue = new OutboundQueue();
+
+    assertTrue(queue.claimDrain());
+    assertFalse(queue.claimDrain());
+    assertFalse(queue.finishDrain());
+    assertTrue(queue.claimDrain());
+  }
+
+  @Test
+  void finishDrainKeepsClaimWhenFramesArrived() {
+    OutboundQueue queue = new OutboundQueue();
+    queue.claimDrain();
+    queue.offer(EncodedFrame.ofText("1"));
+
+    assertTrue(queue.finishDrain());
+    assertFalse(queue.claimDrain());
+  }
+
+  @Test
+  void clearDropsEveryFrame() {
+    OutboundQueue queue = new OutboundQueue();
+    queue.offer(EncodedFrame.ofText("1"));
+    queue.offer(EncodedFrame.ofText("2"));
+
+    queue.clear();
+
+    assertTrue(queue.isEmpty());
+    assertEquals(0, queue.size());
+  }
+
+  @Test
+  void awaitDrainedWakesWhenTheWriterTakesFrames() throws Exception {
+    OutboundQueue queue = new OutboundQueue();
+    queue.offer(EncodedFrame.ofText("1"));
+    queue.offer(EncodedFrame.ofText("2"));
+    long oneFrame = EncodedFrame.ofText("2").length();
+
+    CompletableFuture<Boolean> drained = CompletableFuture.supplyAsync(
+        () -> queue.awaitDrained(oneFrame, 5, TimeUnit.SECONDS));
+    queue.poll();
+
+    assertTrue(drained.get(5, TimeUnit.SECONDS));
+    assertFalse(queue.awaitDrained(0, 1, TimeUnit.MILLISECONDS));
+  }
+}
@@ -0,0 +1,161 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.jupiter.api.Test;
+
+class PresenceRegistryTest {
+
+  private final Set<String> connected = ConcurrentHashMap.newKeySet();
+  private final PresenceRegistry registry = new PresenceRegistry(connected::contains);
+  private final Map<String, List<String>> deliveries = new ConcurrentHashMap<>();
+
+  private ChatSession subscriber(String userName) {
+    return TestSessions.session(userName, (session, frame) -> {
+      for (FrameView view : TestSessions.frames(frame)) {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < view.fieldCount(); i++) {
+          names.add(view.field(i));
+        }
+        deliveries.computeIfAbsent(userName, name -> new ArrayList<>())
+            .add(view.messageType() + " v" + view.number() + " " + names);
+      }
+    });
+  }
+
+  private void connectUser(String userName) {
+    connected.add(userName);
+    registry.refresh(userName);
+  }
+
+  private void disconnectUser(String userName) {
+    connected.remove(userName);
+    registry.refresh(userName);
+  }
+
+  @Test
+  void onlyChangesRaiseTheVersion() {
+    connectUser("alice");
+    registry.refresh("alice");
+    registry.refresh("bob");
+
+    assertEquals(1, registry.version());
+
+    disconnectUser("alice");
+    disconnectUser("alice");
+
+    assertEquals(2, registry.version());
+  }
+
+  @Test
+  void subscriberGetsSnapshotThenEveryLaterChange() {
+    connectUser("alice");
+    connectUser("bob");
+    registry.subscribe(subscriber("carol"));
+    disconnectUser("alice");
+    connectUser("dave");
+
+    assertEquals(List.of(
+        ChatRoomProtocol.PRESENCE_SNAPSHOT + " v2 [alice, bob]",
+        ChatRoomProtocol.PRESENCE_LEFT + " v3 [alice]",
+        ChatRoomProtocol.PRESENCE_JOINED + " v4 [dave]"), deliveries.get("carol"));
+  }
+
+  @Test
+  void unsubscribedSessionGetsNoChanges() {
+    ChatSession carol = subscriber("carol");
+    registry.subscribe(carol);
+
+    assertTrue(registry.unsubscribe(carol));
+    connectUser("alice");
+
+    assertEquals(List.of(ChatRoomProtocol.PRESENCE_SNAPSHOT + " v0 []"), deliveries.get("carol"));
+    assertEquals(0, registry.subscriberCount());
+  }
+
+  @Test
+  void encodedFramesAreSharedUntilPresenceChanges() {
+    connectUser("alice");
+    List<EncodedFrame> snapshot = registry.snapshot();
+    List<EncodedFrame> userList = registry.userList();
+
+    registry.refresh("alice");
+
+    assertSame(snapshot, registry.snapshot());
+    assertSame(userList, registry.userList());
+
+    connectUser("bob");
+
+    assertNotSame(snapshot, registry.snapshot());
+    FrameView view = new FrameView();
+    EncodedFrame users = registry.userList().get(0);
+    assertEquals(1, registry.userList().size());
+    assertTrue(view.wrap(users.buffer(), ChatRoomProtocol.FRAME_HEADER_LENGTH, users.bodyLength()));
+    assertEquals(ChatRoomProtocol.QUERY_USER_RESPONSE, view.messageType());
+    assertEquals(List.of("alice", "bob"), List.of(view.field(0), view.field(1)));
+  }
+
+  @Test
+  void usersThatDoNotFitInOneFrameAreSentInPages() {
+    PresenceRegistry paged = new PresenceRegistry(connected::contains, 32);
+    for (String userName : List.of("alice", "bob", "carol", "dave")) {
+      connected.add(userName);
+      paged.refresh(userName);
+    }
+
+    paged.subscribe(subscriber("eve"));
+
+    List<String> pages = deliveries.get("eve");
+    assertTrue(pages.size() > 1);
+    for (int i = 0; i < pages.size() - 1; i++) {
+      assertTrue(pages.get(i).startsWith(ChatRoomProtocol.PRESENCE_SNAPSHOT_PART + " v4 "));
+    }
+    assertTrue(pages.get(pages.size() - 1).startsWith(ChatRoomProtocol.PRESENCE_SNAPSHOT + " v4 "));
+    List<String> listed = new ArrayList<>();
+    for (String page : pages) {
+      listed.addAll(List.of(page.substring(page.indexOf('[') + 1, page.length() - 1).split(", ")));
+    }
+    assertEquals(List.of("alice", "bob", "carol", "dave"), listed);
+    for (EncodedFrame page : paged.userList()) {
+      assertTrue(page.bodyLength() <= 32);
+    }
+  }
+
+  @Test
+  void changeReportedWhileDeliveringIsDeliveredAfterward() {
+    ChatSession eve = TestSessions.session("eve", (session, frame) -> {
+      if (TestSessions.frames(frame).get(0).messageType() == ChatRoomProtocol.PRESENCE_JOINED) {
+        disconnectUser("eve");
+      }
+    });
+    connectUser("eve");
+    registry.subscribe(eve);
+    registry.subscribe(subscriber("carol"));
+    deliveries.clear();
+
+    connectUser("alice");
+
+    assertEquals(List.of(
+        ChatRoomProtocol.PRESENCE_JOINED + " v2 [alice]",
+        ChatRoomProtocol.PRESENCE_LEFT + " v3 [eve]"), deliveries.get("carol"));
+  }
+
+  @Test
+  void transferHandsSubscriptionOver() {
+    ChatSession parked = subscriber("alice");
+    ChatSession resumed = subscriber("alice2");
+    registry.subscribe(parked);
+
+    registry.transfer(parked, resumed);
+    connectUser("bob");
+
+    assertEquals(1, deliveries.get("alice").size());
+    assertEquals(List.of(ChatRoomProtocol.PRESENCE_JOINED + " v1 [bob]"), deliveries.get("alice2"));
+  }
+}
@@ -0,0 +1,66 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+class RateLimitsTest {
+
+  @Test
+  void parseKeepsListedKindsOnly() {
+    RateLimits limits = RateLimits.parse("broadcast=5/20, insult=0.5");
+
+    TokenBucket[] buckets = limits.newBuckets();
+    assertNotNull(buckets[RateLimits.kindOf(ChatRoomProtocol.BROADCAST_MESSAGE)]);
+    assertNotNull(buckets[RateLimits.kindOf(ChatRoomProtocol.SEND_INSULT)]);
+    assertNull(buckets[RateLimits.kindOf(ChatRoomProtocol.DIRECT_MESSAGE)]);
+    assertEquals("RateLimits{broadcast=5.0/20,insult=0.5/1}", limits.toString());
+  }
+
+  @Test
+  void emptyLimitsLimitNothing() {
+    for (TokenBucket bucket : RateLimits.parse("").newBuckets()) {
+      assertNull(bucket);
+    }
+  }
+
+  @Test
+  void batchIsLimitedAsBroadcastAndJoinIsNeverLimited() {
+    assertEquals(RateLimits.kindOf(ChatRoomProtocol.BROADCAST_MESSAGE),
+        RateLimits.kindOf(ChatRoomProtocol.BATCH_MESSAGE));
+    assertEquals(-1, RateLimits.kindOf(ChatRoomProtocol.JOIN_ROOM));
+  }
+
+  @Test
+  void batchedMessagesKeepTheirOwnKind() {
+    assertEquals(RateLimits.kindOf(ChatRoomProtocol.DIRECT_MESSAGE),
+        RateLimits.kindInBatch(ChatRoomProtocol.DIRECT_MESSAGE));
+    assertEquals(RateLimits.kindOf(ChatRoomProtocol.BROADCAST_MESSAGE),
+        RateLimits.kindInBatch(ChatRoomProtocol.JOIN_ROOM));
+  }
+
+  @Test
+  void presenceSubscriptionsAreLimitedAsUserQueries() {
+    assertEquals(RateLimits.kindOf(ChatRoomProtocol.QUERY_CONNECTED_USERS),
+        RateLimits.kindOf(ChatRoomProtocol.SUBSCRIBE_PRESENCE));
+  }
+
+  @Test
+  void bothHistoryRequestsAreLimitedAsReplays() {
+    TokenBucket[] buckets = RateLimits.parse("replay=0.1/2").newBuckets();
+
+    assertNotNull(buckets[RateLimits.kindOf(ChatRoomProtocol.REPLAY_LAST_MESSAGES)]);
+    assertEquals(RateLimits.kindOf(ChatRoomProtocol.REPLAY_LAST_MESSAGES),
+        RateLimits.kindOf(ChatRoomProtocol.REPLAY_SINCE));
+  }
+
+  @Test
+  void malformedLimitsAreRejected() {
+    assertThrows(IllegalArgumentException.class, () -> RateLimits.parse("shout=1"));
+    assertThrows(IllegalArgumentException.class, () -> RateLimits.parse("broadcast"));
+    assertThrows(IllegalArgumentException.class, () -> RateLimits.parse("broadcast=0"));
+    assertThrows(IllegalArgumentException.class, () -> RateLimits.parse("broadcast=1/0"));
+    assertThrows(IllegalArgumentException.class, () -> RateLimits.parse("broadcast=one"));
+  }
+}
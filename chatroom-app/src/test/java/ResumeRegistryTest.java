@@ -0,0 +1,73 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.Semaphore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ResumeRegistryTest {
+
+  private static ChatSession session(String userName) {
+    ChatSession session = TestSessions.session(userName);
+    session.semaphore = new Semaphore(0);
+    return session;
+  }
+
+  @BeforeEach
+  void setUp() {
+    ChatSession.sessionRegistry = new SessionRegistry();
+    ChatSession.roomRegistry = new RoomRegistry();
+  }
+
+  @Test
+  void tokensAreRandom() {
+    String token = ResumeRegistry.newToken();
+
+    assertEquals(ResumeRegistry.TOKEN_BYTES * 2, token.length());
+    assertNotEquals(token, ResumeRegistry.newToken());
+  }
+
+  @Test
+  void claimHandsSessionOutOnceAndOnlyToItsUser() {
+    ResumeRegistry registry = new ResumeRegistry();
+    ChatSession alice = session("alice");
+    registry.park("token", alice);
+
+    assertNull(registry.claim("token", "mallory"));
+    assertNull(registry.claim("other", "alice"));
+    assertSame(alice, registry.claim("token", "alice"));
+    assertNull(registry.claim("token", "alice"));
+    assertEquals(0, registry.size());
+  }
+
+  @Test
+  void unclaimedSessionLeavesWhenWindowEnds() throws InterruptedException {
+    ResumeRegistry registry = new ResumeRegistry(50);
+    ChatSession alice = session("alice");
+    ChatSession.sessionRegistry.register(alice);
+    registry.park("token", alice);
+
+    for (int i = 0; i < 100 && !alice.isRemoved(); i++) {
+      Thread.sleep(20);
+    }
+
+    assertTrue(alice.isRemoved());
+    assertNull(ChatSession.sessionRegistry.lookup("alice"));
+    assertNull(registry.claim("token", "alice"));
+  }
+
+  @Test
+  void discardedSessionCannotBeClaimed() {
+    ResumeRegistry registry = new ResumeRegistry();
+    ChatSession alice = session("alice");
+    registry.park("token", alice);
+
+    assertTrue(registry.discard("token", alice));
+    assertFalse(registry.discard("token", alice));
+    assertNull(registry.claim("token", "alice"));
+  }
+}
@@ -0,0 +1,60 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class RoomRegistryTest {
+
+  private RoomRegistry registry;
+
+  @BeforeEach
+  void setUp() {
+    registry = new RoomRegistry();
+  }
+
+  @Test
+  void joinCreatesRoom() {
+    ChatSession alice = TestSessions.session("alice");
+
+    assertTrue(registry.join("java", alice));
+    assertFalse(registry.join("java", alice));
+    assertTrue(registry.isMember("java", alice));
+    assertEquals(1, registry.members("java").size());
+    assertTrue(registry.rooms().contains("java"));
+  }
+
+  @Test
+  void membersOnlyHoldTheRoomsSessions() {
+    ChatSession alice = TestSessions.session("alice");
+    ChatSession bob = TestSessions.session("bob");
+    registry.join("java", alice);
+    registry.join("rust", bob);
+
+    assertTrue(registry.members("java").contains(alice));
+    assertFalse(registry.members("java").contains(bob));
+    assertTrue(registry.members("ghost").isEmpty());
+  }
+
+  @Test
+  void lastMemberLeavingRemovesRoom() {
+    ChatSession alice = TestSessions.session("alice");
+    ChatSession bob = TestSessions.session("bob");
+    registry.join("java", alice);
+    registry.join("java", bob);
+
+    assertTrue(registry.leave("java", alice));
+    assertEquals(1, registry.size());
+    assertTrue(registry.leave("java", bob));
+    assertEquals(0, registry.size());
+    assertFalse(registry.leave("java", bob));
+  }
+
+  @Test
+  void testToString() {
+    registry.join("java", TestSessions.session("alice"));
+
+    assertEquals("RoomRegistry{rooms=[java]}", registry.toString());
+  }
+}
@@ -0,0 +1,97 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Semaphore;
+import javax.management.ObjectName;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ServerMetricsTest {
+
+  private final ChatRoomProtocol protocol = new ChatRoomProtocol();
+  private ServerMetrics metrics;
+
+  @BeforeEach
+  void setUp() {
+    metrics = new ServerMetrics();
+    ChatSession.serverMetrics = metrics;
+    ChatSession.sessionRegistry = new SessionRegistry();
+  }
+
+  private ChatSession session(String userName) {
+    ChatSession session = TestSessions.session(userName,
+        (recipient, frame) -> ChatSession.serverMetrics.recordFrameOut(frame));
+    session.chatRoomProtocol = protocol;
+    ChatSession.sessionRegistry.register(session);
+    return session;
+  }
+
+  @Test
+  void countsFramesByMessageType() {
+    ChatSession yashvi = session("yashvi");
+    session("riddhi");
+    session("john");
+
+    byte[] broadcast = protocol.encodeBroadcastMessage("yashvi", "Hello, everyone!");
+    yashvi.processInput(broadcast);
+    yashvi.processInput(protocol.encodeQueryConnectedUsers("yashvi"));
+
+    assertEquals(1, (long) metrics.getFramesIn().get("BROADCAST_MESSAGE"));
+    assertEquals(1, (long) metrics.getFramesIn().get("QUERY_CONNECTED_USERS"));
+    assertEquals(2, (long) metrics.getFramesOut().get(ServerMetrics.TEXT_FRAME));
+    assertEquals(1, (long) metrics.getFramesOut().get("QUERY_USER_RESPONSE"));
+    assertTrue(metrics.getBytesIn() > broadcast.length);
+    assertTrue(metrics.getBytesOut() > 0);
+    assertEquals(2, (long) metrics.getProcessingLatency().get("count"));
+    assertEquals(3, (long) metrics.getDeliveryLatency().get("count"));
+    assertEquals(2, (long) metrics.getBroadcastFanOut().get("max"));
+    assertEquals(3, metrics.getActiveSessions());
+  }
+
+  @Test
+  void countsDecodeFailures() {
+    ChatSession yashvi = session("yashvi");
+    byte[] broadcast = protocol.encodeBroadcastMessage("yashvi", "Hello, everyone!");
+
+    yashvi.processInput(java.util.Arrays.copyOf(broadcast, broadcast.length - 1));
+
+    assertEquals(1, metrics.getDecodeFailures());
+    assertEquals(0, (long) metrics.getFramesIn().get("BROADCAST_MESSAGE"));
+  }
+
+  @Test
+  void countsRateLimitedFramesByPolicy() {
+    ChatSession.rateLimits = RateLimits.parse("who=0.001");
+    ChatSession.rateLimitPolicy = RateLimitPolicy.DROP;
+    try {
+      ChatSession yashvi = session("yashvi");
+
+      yashvi.processInput(protocol.encodeQueryConnectedUsers("yashvi"));
+      yashvi.processInput(protocol.encodeQueryConnectedUsers("yashvi"));
+      yashvi.processInput(protocol.encodeQueryConnectedUsers("yashvi"));
+
+      assertEquals(2, (long) metrics.getRateLimited().get("drop"));
+      assertEquals(0, (long) metrics.getRateLimited().get("delay"));
+      assertEquals(3, (long) metrics.getFramesIn().get("QUERY_CONNECTED_USERS"));
+    } finally {
+      ChatSession.rateLimits = RateLimits.UNLIMITED;
+      ChatSession.rateLimitPolicy = RateLimitPolicy.DELAY;
+    }
+  }
+
+  @Test
+  void publishedOverJmx() throws Exception {
+    metrics.monitor(new Semaphore(5));
+    metrics.recordConnectionRefused();
+    metrics.recordAcceptFailure();
+
+    ObjectName objectName = new ObjectName(ServerMetrics.OBJECT_NAME);
+    assertEquals(5, ManagementFactory.getPlatformMBeanServer().getAttribute(objectName, "AvailablePermits"));
+    assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(objectName, "ConnectionsRefused"));
+    assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(objectName, "AcceptFailures"));
+    metrics.reset();
+    assertEquals(0L, metrics.getConnectionsRefused());
+    assertEquals(0L, metrics.getAcceptFailures());
+  }
+}
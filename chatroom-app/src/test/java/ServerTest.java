@@ -6,10 +6,13 @@ import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -106,6 +109,39 @@ public class ServerTest {
 
   }
 
+  @Test
+  public void testAcceptLoopContinuesAfterCeilingReached() throws IOException {
+    ServerSocket ceilingServerSocket = new ServerSocket(0);
+    int ceilingPort = ceilingServerSocket.getLocalPort();
+    Server ceilingServer = new Server(ceilingServerSocket, 1, true);
+    new Thread(() -> ceilingServer.startServer(ceilingPort)).start();
+
+    Socket first = new Socket("localhost", ceilingPort);
+    first.setSoTimeout(5000);
+    DataOutputStream firstOutput = new DataOutputStream(first.getOutputStream());
+    ChatRoomProtocol.writeFrame(firstOutput, new ChatRoomProtocol().encodeConnectMessage("first"));
+    firstOutput.flush();
+    FrameView response = new FrameView();
+    assertTrue(response.wrap(ChatRoomProtocol.readFrame(new DataInputStream(first.getInputStream()))));
+    assertEquals(ChatRoomProtocol.CONNECT_RESPONSE, response.messageType());
+    for (int i = 0; i < 2; i++) {
+      Socket refused = new Socket("localhost", ceilingPort);
+      refused.setSoTimeout(5000);
+      DataInputStream reader = new DataInputStream(refused.getInputStream());
+      assertEquals(Server.CONNECTION_REFUSED_MESSAGE,
+          new String(ChatRoomProtocol.readFrame(reader), StandardCharsets.UTF_8));
+      refused.close();
+    }
+
+    first.close();
+    ceilingServer.closeServerSocket();
+  }
+
+  @Test
+  public void testDefaultMaxClients() {
+    assertEquals(Server.MAX_CLIENTS, server.getMaxClients());
+  }
+
   @Test
   public void testCloseServerSocket() {
     server.closeServerSocket();
@@ -0,0 +1,84 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class SessionRegistryTest {
+
+  private SessionRegistry registry;
+
+  @BeforeEach
+  void setUp() {
+    registry = new SessionRegistry();
+  }
+
+  @Test
+  void registerAndLookup() {
+    ChatSession alice = TestSessions.session("alice");
+
+    assertTrue(registry.register(alice));
+    assertSame(alice, registry.lookup("alice"));
+    assertNull(registry.lookup("bob"));
+    assertEquals(1, registry.size());
+  }
+
+  @Test
+  void registerRejectsTakenUserName() {
+    ChatSession first = TestSessions.session("alice");
+    ChatSession second = TestSessions.session("alice");
+
+    assertTrue(registry.register(first));
+    assertFalse(registry.register(second));
+    assertSame(first, registry.lookup("alice"));
+  }
+
+  @Test
+  void unregisterLeavesOtherSessionWithSameName() {
+    ChatSession first = TestSessions.session("alice");
+    ChatSession second = TestSessions.session("alice");
+    registry.register(first);
+
+    assertFalse(registry.unregister(second));
+    assertSame(first, registry.lookup("alice"));
+    assertTrue(registry.unregister(first));
+    assertNull(registry.lookup("alice"));
+  }
+
+  @Test
+  void iterationToleratesConcurrentChanges() {
+    for (int i = 0; i < 100; i++) {
+      registry.register(TestSessions.session("user" + i));
+    }
+
+    int seen = 0;
+    for (ChatSession session : registry.sessions()) {
+      registry.unregister(session);
+      registry.register(TestSessions.session("late" + seen));
+      seen++;
+    }
+
+    assertTrue(seen >= 100);
+  }
+
+  @Test
+  void registerRejectsMissingUserName() {
+    assertFalse(registry.register(TestSessions.session(null)));
+    assertEquals(0, registry.size());
+  }
+
+  @Test
+  void replaceHandsUserNameOver() {
+    ChatSession parked = TestSessions.session("alice");
+    ChatSession resumed = TestSessions.session("alice");
+    registry.register(parked);
+
+    assertTrue(registry.replace(parked, resumed));
+    assertSame(resumed, registry.lookup("alice"));
+    assertFalse(registry.replace(parked, TestSessions.session("alice")));
+    assertSame(resumed, registry.lookup("alice"));
+  }
+}
@@ -0,0 +1,101 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * The `TestSessions` class builds sessions with no connection behind them, for tests that only
+ * need a {@link ChatSession} to register, route through or deliver to.
+ */
+final class TestSessions {
+
+  /**
+   * Records a frame delivered to a session.
+   */
+  interface Recorder {
+
+    /**
+     * Records a frame delivered to a session.
+     *
+     * @param session The session the frame was delivered to.
+     * @param frame   The frame, which may be a run of several frames.
+     * @throws IOException If the frame cannot be read.
+     */
+    void delivered(ChatSession session, EncodedFrame frame) throws IOException;
+  }
+
+  private TestSessions() {
+  }
+
+  /**
+   * Creates a session that ignores what is delivered to it and being disconnected.
+   *
+   * @param userName The username of the session.
+   * @return The session.
+   */
+  static ChatSession session(String userName) {
+    return session(userName, (session, frame) -> {
+    });
+  }
+
+  /**
+   * Creates a session that hands every frame delivered to it to a recorder and ignores being
+   * disconnected.
+   *
+   * @param userName   The username of the session.
+   * @param deliveries The recorder of delivered frames.
+   * @return The session.
+   */
+  static ChatSession session(String userName, Recorder deliveries) {
+    return session(userName, deliveries, session -> {
+    });
+  }
+
+  /**
+   * Creates a session that hands every frame delivered to it to a recorder, and itself to a
+   * consumer whenever it is disconnected, including when it is closed for being idle.
+   *
+   * @param userName    The username of the session.
+   * @param deliveries  The recorder of delivered frames.
+   * @param disconnects The consumer of disconnects.
+   * @return The session.
+   */
+  static ChatSession session(String userName, Recorder deliveries, Consumer<ChatSession> disconnects) {
+    ChatSession session = new ChatSession() {
+      @Override
+      protected void deliver(EncodedFrame frame) throws IOException {
+        deliveries.delivered(this, frame);
+      }
+
+      @Override
+      protected void disconnect() {
+        disconnects.accept(this);
+      }
+    };
+    session.clientUserName = userName;
+    return session;
+  }
+
+  /**
+   * Splits a delivered frame, which may be a run of several frames, into a view of each.
+   *
+   * @param frame The delivered frame.
+   * @return A view of every frame in the run, in order.
+   * @throws IOException If the frame cannot be read.
+   */
+  static List<FrameView> frames(EncodedFrame frame) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    frame.writeTo(bytes);
+    DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    List<FrameView> frames = new ArrayList<>();
+    while (input.available() > 0) {
+      FrameView view = new FrameView();
+      view.readFrom(input);
+      frames.add(view);
+    }
+    return frames;
+  }
+}
@@ -0,0 +1,75 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class TokenBucketTest {
+
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  @Test
+  void fullBucketLetsBurstThrough() {
+    TokenBucket bucket = new TokenBucket(2, 3);
+
+    assertEquals(0, bucket.acquire(1, 0));
+    assertEquals(0, bucket.acquire(1, 0));
+    assertEquals(0, bucket.acquire(1, 0));
+    assertEquals(SECOND / 2, bucket.acquire(1, 0));
+  }
+
+  @Test
+  void bucketRefillsAtItsRate() {
+    TokenBucket bucket = new TokenBucket(2, 1);
+
+    assertEquals(0, bucket.acquire(1, 0));
+    assertEquals(SECOND / 4, bucket.acquire(1, SECOND / 4));
+    assertEquals(0, bucket.acquire(1, SECOND / 2));
+  }
+
+  @Test
+  void bucketDoesNotFillPastItsBurst() {
+    TokenBucket bucket = new TokenBucket(10, 2);
+
+    assertEquals(0, bucket.acquire(2, 100 * SECOND));
+    assertEquals(SECOND / 10, bucket.acquire(1, 100 * SECOND));
+  }
+
+  @Test
+  void delayDoesNotTakeTokens() {
+    TokenBucket bucket = new TokenBucket(1, 1);
+
+    assertEquals(0, bucket.delay(1, 0));
+    assertEquals(0, bucket.delay(1, 0));
+    assertEquals(0, bucket.acquire(1, 0));
+    assertEquals(SECOND, bucket.delay(1, 0));
+  }
+
+  @Test
+  void moreTokensThanTheBurstWaitForAFullBucket() {
+    TokenBucket bucket = new TokenBucket(1, 2);
+
+    assertEquals(0, bucket.acquire(5, 0));
+    assertEquals(5 * SECOND, bucket.delay(5, 0));
+    assertEquals(5 * SECOND, bucket.acquire(5, 0));
+    assertEquals(0, bucket.acquire(5, 5 * SECOND));
+  }
+
+  @Test
+  void oversizedBatchIsPaidForInProportionToItsSize() {
+    TokenBucket small = new TokenBucket(10, 5);
+    TokenBucket large = new TokenBucket(10, 5);
+
+    assertEquals(0, small.acquire(100, 0));
+    assertEquals(0, large.acquire(1000, 0));
+
+    assertEquals(96 * SECOND / 10, small.delay(1, 0));
+    assertEquals(996 * SECOND / 10, large.delay(1, 0));
+  }
+
+  @Test
+  void rateAndBurstMustBePositive() {
+    assertThrows(IllegalArgumentException.class, () -> new TokenBucket(0, 1));
+    assertThrows(IllegalArgumentException.class, () -> new TokenBucket(1, 0));
+  }
+}